@@ -2,8 +2,10 @@ package es.uvigo.mei.facturaaas;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class FACTURAaaSApplication {
     public static void main(String[] args) {
         SpringApplication.run(FACTURAaaSApplication.class, args);
@@ -1,6 +1,7 @@
 package es.uvigo.mei.facturaaas.config;
 
 import es.uvigo.mei.facturaaas.security.JwtAuthenticationFilter;
+import jakarta.servlet.DispatcherType;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -12,6 +13,7 @@ import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
@@ -19,6 +21,7 @@ import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 import java.util.Arrays;
+import java.util.Map;
 
 @Configuration
 @EnableWebSecurity
@@ -31,6 +34,9 @@ public class SecurityConfig {
     @Value("${cors.allowed-origins:http://localhost:3000,http://localhost:5173}")
     private String allowedOrigins;
     
+    @Value("${seguridad.bcrypt.coste:10}")
+    private int bcryptCoste;
+    
     @Bean
     public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
         http
@@ -39,7 +45,12 @@ public class SecurityConfig {
             .sessionManagement(session -> 
                 session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
             .authorizeHttpRequests(auth -> auth
-                .requestMatchers("/", "/actuator/**", "/health", "/api/auth/**", "/h2-console/**").permitAll()
+                // Las descargas en streaming terminan en un dispatch ASYNC ya autorizado
+                .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
+                .requestMatchers("/", "/actuator/health/**", "/actuator/info", "/health", "/api/auth/**",
+                    "/h2-console/**").permitAll()
+                // Métricas y el resto de endpoints de Actuator, solo para administradores
+                .requestMatchers("/actuator/**").hasRole("ADMINISTRADOR")
                 .anyRequest().authenticated()
             )
             .headers(headers -> headers.frameOptions(frame -> frame.sameOrigin()))
@@ -48,9 +59,18 @@ public class SecurityConfig {
         return http.build();
     }
     
+    /**
+     * Codificador con prefijo de algoritmo ({bcrypt}...). Los hash antiguos sin prefijo
+     * se siguen validando con BCrypt y, al igual que los de coste inferior a
+     * seguridad.bcrypt.coste, se recodifican en el siguiente login correcto
+     * (CustomUserDetailsService implementa UserDetailsPasswordService).
+     */
     @Bean
     public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+        BCryptPasswordEncoder bcrypt = new BCryptPasswordEncoder(bcryptCoste);
+        DelegatingPasswordEncoder encoder = new DelegatingPasswordEncoder("bcrypt", Map.of("bcrypt", bcrypt));
+        encoder.setDefaultPasswordEncoderForMatches(bcrypt);
+        return encoder;
     }
     
     @Bean
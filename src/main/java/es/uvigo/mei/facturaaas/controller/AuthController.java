@@ -3,7 +3,9 @@ package es.uvigo.mei.facturaaas.controller;
 import es.uvigo.mei.facturaaas.dto.AuthResponseDTO;
 import es.uvigo.mei.facturaaas.dto.LoginDTO;
 import es.uvigo.mei.facturaaas.dto.UsuarioDTO;
+import es.uvigo.mei.facturaaas.security.EjecutorLogin;
 import es.uvigo.mei.facturaaas.security.JwtTokenProvider;
+import es.uvigo.mei.facturaaas.security.UsuarioUserDetails;
 import es.uvigo.mei.facturaaas.service.UsuarioService;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,6 +14,7 @@ import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/auth")
@@ -26,19 +29,28 @@ public class AuthController {
     @Autowired
     private UsuarioService usuarioService;
     
+    @Autowired
+    private EjecutorLogin ejecutorLogin;
+    
+    /**
+     * El login se ejecuta en EjecutorLogin: el hilo de Tomcat queda libre
+     * mientras se comprueba la contraseña.
+     */
     @PostMapping("/login")
-    public ResponseEntity<AuthResponseDTO> login(@Valid @RequestBody LoginDTO loginDTO) {
-        Authentication authentication = authenticationManager.authenticate(
-            new UsernamePasswordAuthenticationToken(
-                loginDTO.getLogin(),
-                loginDTO.getPassword()
-            )
-        );
-        
-        String token = jwtTokenProvider.generateToken(authentication);
-        UsuarioDTO usuario = usuarioService.obtenerPorLogin(loginDTO.getLogin());
-        usuarioService.actualizarFechaAcceso(loginDTO.getLogin());
-        
-        return ResponseEntity.ok(new AuthResponseDTO(token, usuario));
+    public CompletableFuture<ResponseEntity<AuthResponseDTO>> login(@Valid @RequestBody LoginDTO loginDTO) {
+        return ejecutorLogin.ejecutar(() -> {
+            Authentication authentication = authenticationManager.authenticate(
+                new UsernamePasswordAuthenticationToken(
+                    loginDTO.getLogin(),
+                    loginDTO.getPassword()
+                )
+            );
+            
+            String token = jwtTokenProvider.generateToken(authentication);
+            UsuarioUserDetails userDetails = (UsuarioUserDetails) authentication.getPrincipal();
+            UsuarioDTO usuario = usuarioService.registrarAcceso(userDetails.getUsuario());
+            
+            return ResponseEntity.ok(new AuthResponseDTO(token, usuario));
+        });
     }
 }
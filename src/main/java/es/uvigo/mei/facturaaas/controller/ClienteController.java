@@ -1,6 +1,7 @@
 package es.uvigo.mei.facturaaas.controller;
 
 import es.uvigo.mei.facturaaas.dto.ClienteDTO;
+import es.uvigo.mei.facturaaas.dto.PaginaDTO;
 import es.uvigo.mei.facturaaas.service.ClienteService;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -31,6 +32,16 @@ public class ClienteController {
         return ResponseEntity.badRequest().build();
     }
     
+    @GetMapping("/buscar")
+    @PreAuthorize("@resourceSecurity.canAccess(#usuarioId)")
+    public ResponseEntity<PaginaDTO<ClienteDTO>> buscar(
+            @RequestParam Long usuarioId,
+            @RequestParam String texto,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int limite) {
+        return ResponseEntity.ok(clienteService.buscar(usuarioId, texto, cursor, limite));
+    }
+    
     @GetMapping("/{id}")
     @PreAuthorize("@resourceSecurity.canAccessCliente(#id)")
     public ResponseEntity<ClienteDTO> obtenerPorId(@PathVariable Long id) {
@@ -0,0 +1,30 @@
+package es.uvigo.mei.facturaaas.controller;
+
+import es.uvigo.mei.facturaaas.service.DifusorEventos;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import java.io.IOException;
+
+@RestController
+@RequestMapping("/api/eventos")
+@PreAuthorize("hasRole('USUARIO')")
+public class EventoController {
+    
+    @Autowired
+    private DifusorEventos difusorEventos;
+    
+    /**
+     * Flujo Server-Sent Events con los cambios de facturas y pagos del usuario
+     * (ver DifusorEventos).
+     */
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @PreAuthorize("@resourceSecurity.canAccess(#usuarioId)")
+    public void suscribir(@RequestParam Long usuarioId, HttpServletRequest request,
+                          HttpServletResponse response) throws IOException {
+        difusorEventos.suscribir(usuarioId, request, response);
+    }
+}
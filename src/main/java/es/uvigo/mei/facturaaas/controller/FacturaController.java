@@ -1,13 +1,35 @@
 package es.uvigo.mei.facturaaas.controller;
 
 import es.uvigo.mei.facturaaas.dto.FacturaDTO;
+import es.uvigo.mei.facturaaas.dto.FacturaResumenDTO;
+import es.uvigo.mei.facturaaas.dto.FiltroFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.PaginaDTO;
+import es.uvigo.mei.facturaaas.dto.ResultadoLoteDTO;
+import es.uvigo.mei.facturaaas.dto.ResumenIVADTO;
+import es.uvigo.mei.facturaaas.dto.VerificacionCadenaDTO;
+import es.uvigo.mei.facturaaas.model.DatosFacturacion;
+import es.uvigo.mei.facturaaas.service.CadenaFacturaService;
+import es.uvigo.mei.facturaaas.service.ExportacionFacturaService;
 import es.uvigo.mei.facturaaas.service.FacturaService;
+import es.uvigo.mei.facturaaas.service.FacturaeService;
+import es.uvigo.mei.facturaaas.service.PdfFacturaService;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 
 @RestController
@@ -15,9 +37,28 @@ import java.util.List;
 @PreAuthorize("hasRole('USUARIO')")
 public class FacturaController {
     
+    // Atributos con los que Tomcat envía un fichero con sendfile, sin pasarlo por la JVM
+    private static final String SENDFILE_SOPORTADO = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FICHERO = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_INICIO = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_FIN = "org.apache.tomcat.sendfile.end";
+    private static final MediaType APPLICATION_ZIP = MediaType.parseMediaType("application/zip");
+    
     @Autowired
     private FacturaService facturaService;
     
+    @Autowired
+    private ExportacionFacturaService exportacionFacturaService;
+    
+    @Autowired
+    private PdfFacturaService pdfFacturaService;
+    
+    @Autowired
+    private FacturaeService facturaeService;
+    
+    @Autowired
+    private CadenaFacturaService cadenaFacturaService;
+    
     @GetMapping
     @PreAuthorize("@resourceSecurity.canAccess(#usuarioId)")
     public ResponseEntity<List<FacturaDTO>> listar(
@@ -31,6 +72,166 @@ public class FacturaController {
         return ResponseEntity.badRequest().build();
     }
     
+    @GetMapping("/pagina")
+    @PreAuthorize("@resourceSecurity.canAccess(#usuarioId)")
+    public ResponseEntity<PaginaDTO<FacturaDTO>> listarPagina(
+            @RequestParam Long usuarioId,
+            FiltroFacturaDTO filtro,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "50") int limite) {
+        return ResponseEntity.ok(facturaService.obtenerPagina(usuarioId, filtro, cursor, limite));
+    }
+    
+    @GetMapping("/resumen")
+    @PreAuthorize("@resourceSecurity.canAccess(#usuarioId)")
+    public ResponseEntity<List<FacturaResumenDTO>> listarResumen(
+            @RequestParam(required = false) Long usuarioId,
+            @RequestParam(required = false) Long clienteId) {
+        if (usuarioId != null && clienteId != null) {
+            return ResponseEntity.ok(facturaService.obtenerResumenPorUsuarioYCliente(usuarioId, clienteId));
+        } else if (usuarioId != null) {
+            return ResponseEntity.ok(facturaService.obtenerResumenPorUsuario(usuarioId));
+        }
+        return ResponseEntity.badRequest().build();
+    }
+    
+    @GetMapping("/resumen-iva")
+    @PreAuthorize("@resourceSecurity.canAccess(#usuarioId)")
+    public ResponseEntity<List<ResumenIVADTO>> resumenIVA(
+            @RequestParam Long usuarioId,
+            @RequestParam Integer ejercicio) {
+        return ResponseEntity.ok(facturaService.obtenerResumenIVA(usuarioId, ejercicio));
+    }
+    
+    @GetMapping("/exportar")
+    @PreAuthorize("@resourceSecurity.canAccess(#usuarioId)")
+    public ResponseEntity<StreamingResponseBody> exportar(
+            @RequestParam Long usuarioId,
+            @RequestParam(required = false) Integer ejercicio,
+            @RequestParam(defaultValue = "CSV") ExportacionFacturaService.Formato formato) {
+        boolean csv = formato == ExportacionFacturaService.Formato.CSV;
+        String nombre = "facturas" + (ejercicio != null ? "-" + ejercicio : "") + (csv ? ".csv" : ".ndjson");
+        StreamingResponseBody cuerpo = salida ->
+            exportacionFacturaService.exportar(usuarioId, ejercicio, formato, salida);
+        return ResponseEntity.ok()
+            .contentType(csv ? new MediaType("text", "csv", StandardCharsets.UTF_8)
+                             : MediaType.APPLICATION_NDJSON)
+            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + nombre + "\"")
+            .body(cuerpo);
+    }
+    
+    /**
+     * Todas las facturas del ejercicio en PDF, en un ZIP que se genera según se descarga.
+     */
+    @GetMapping("/pdf")
+    @PreAuthorize("@resourceSecurity.canAccess(#usuarioId)")
+    public ResponseEntity<StreamingResponseBody> exportarPdf(
+            @RequestParam Long usuarioId,
+            @RequestParam Integer ejercicio) {
+        DatosFacturacion emisor = pdfFacturaService.datosEmisor(usuarioId);
+        StreamingResponseBody cuerpo = salida ->
+            pdfFacturaService.exportarZip(usuarioId, ejercicio, emisor, salida);
+        return ResponseEntity.ok()
+            .contentType(APPLICATION_ZIP)
+            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"facturas-" + ejercicio + "-pdf.zip\"")
+            .body(cuerpo);
+    }
+    
+    /**
+     * PDF de la factura. La clave de la caché sirve de ETag, así que una factura que
+     * no ha cambiado se responde con 304 sin maquetarla. Si el PDF no está listo en
+     * {@code factura.pdf.espera-ms} se responde 202 con Retry-After y la maquetación
+     * sigue en el pool; el PDF ya generado lo envía Tomcat directamente desde el disco
+     * (sendfile) cuando el conector lo admite.
+     */
+    @GetMapping("/{id}/pdf")
+    @PreAuthorize("@resourceSecurity.canAccessFactura(#id)")
+    public ResponseEntity<Resource> obtenerPdf(
+            @PathVariable Long id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String etagCliente,
+            HttpServletRequest request) {
+        PdfFacturaService.Documento documento = pdfFacturaService.preparar(id);
+        String etag = "\"" + documento.clave() + "\"";
+        if (etag.equals(etagCliente)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        Path ruta = pdfFacturaService.esperar(pdfFacturaService.obtener(documento));
+        if (ruta == null) {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).header(HttpHeaders.RETRY_AFTER, "1").build();
+        }
+        ResponseEntity.BodyBuilder respuesta = ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_PDF)
+            .eTag(etag)
+            .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + documento.nombre() + "\"");
+        return enviarFichero(respuesta, ruta, request);
+    }
+    
+    /**
+     * Todas las facturas del ejercicio en Facturae, en un ZIP que se genera según se
+     * descarga. Sin {@code firmar}, se firman si hay certificado configurado.
+     */
+    @GetMapping("/facturae")
+    @PreAuthorize("@resourceSecurity.canAccess(#usuarioId)")
+    public ResponseEntity<StreamingResponseBody> exportarFacturae(
+            @RequestParam Long usuarioId,
+            @RequestParam Integer ejercicio,
+            @RequestParam(required = false) Boolean firmar) {
+        boolean firmado = facturaeService.comprobarFirma(firmar);
+        DatosFacturacion emisor = facturaeService.datosEmisor(usuarioId);
+        StreamingResponseBody cuerpo = salida ->
+            facturaeService.exportarLote(usuarioId, ejercicio, emisor, firmado, salida);
+        return ResponseEntity.ok()
+            .contentType(APPLICATION_ZIP)
+            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"facturas-" + ejercicio + "-facturae.zip\"")
+            .body(cuerpo);
+    }
+    
+    /**
+     * Factura en Facturae 3.2.2, firmada con XAdES-EPES (.xsig) o sin firmar (.xml).
+     */
+    @GetMapping("/{id}/facturae")
+    @PreAuthorize("@resourceSecurity.canAccessFactura(#id)")
+    public ResponseEntity<StreamingResponseBody> obtenerFacturae(
+            @PathVariable Long id,
+            @RequestParam(required = false) Boolean firmar) {
+        FacturaeService.Documento documento = facturaeService.preparar(id, firmar);
+        StreamingResponseBody cuerpo = salida -> facturaeService.escribir(documento, salida);
+        return ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_XML)
+            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + documento.nombre() + "\"")
+            .body(cuerpo);
+    }
+    
+    private ResponseEntity<Resource> enviarFichero(ResponseEntity.BodyBuilder respuesta, Path ruta,
+                                                   HttpServletRequest request) {
+        try {
+            long tamano = Files.size(ruta);
+            respuesta.contentLength(tamano);
+            if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SOPORTADO))) {
+                request.setAttribute(SENDFILE_FICHERO, ruta.toString());
+                request.setAttribute(SENDFILE_INICIO, 0L);
+                request.setAttribute(SENDFILE_FIN, tamano);
+                return respuesta.build();
+            }
+            return respuesta.body(new FileSystemResource(ruta));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /**
+     * Verifica la cadena de huellas de las facturas del usuario; con {@code desde} y
+     * {@code huella} de una verificación anterior, solo los registros posteriores.
+     */
+    @GetMapping("/cadena/verificacion")
+    @PreAuthorize("@resourceSecurity.canAccess(#usuarioId)")
+    public ResponseEntity<VerificacionCadenaDTO> verificarCadena(
+            @RequestParam Long usuarioId,
+            @RequestParam(required = false) Long desde,
+            @RequestParam(required = false) String huella) {
+        return ResponseEntity.ok(cadenaFacturaService.verificar(usuarioId, desde, huella));
+    }
+    
     @GetMapping("/{id}")
     @PreAuthorize("@resourceSecurity.canAccessFactura(#id)")
     public ResponseEntity<FacturaDTO> obtenerPorId(@PathVariable Long id) {
@@ -44,6 +245,14 @@ public class FacturaController {
         return ResponseEntity.status(HttpStatus.CREATED).body(nueva);
     }
     
+    @PostMapping("/lote")
+    @PreAuthorize("@resourceSecurity.canAccess(#usuarioId)")
+    public ResponseEntity<List<ResultadoLoteDTO>> crearLote(
+            @RequestParam Long usuarioId,
+            @RequestBody List<FacturaDTO> dtos) {
+        return ResponseEntity.ok(facturaService.crearLote(usuarioId, dtos));
+    }
+    
     @PutMapping("/{id}")
     @PreAuthorize("@resourceSecurity.canAccessFactura(#id)")
     public ResponseEntity<FacturaDTO> actualizar(
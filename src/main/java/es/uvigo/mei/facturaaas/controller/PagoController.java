@@ -1,12 +1,20 @@
 package es.uvigo.mei.facturaaas.controller;
 
+import es.uvigo.mei.facturaaas.dto.ConciliacionPagoDTO;
+import es.uvigo.mei.facturaaas.dto.FiltroPagoDTO;
 import es.uvigo.mei.facturaaas.dto.PagoDTO;
+import es.uvigo.mei.facturaaas.dto.PaginaDTO;
+import es.uvigo.mei.facturaaas.dto.ResultadoConciliacionDTO;
+import es.uvigo.mei.facturaaas.dto.ResultadoImportacionExtractoDTO;
 import es.uvigo.mei.facturaaas.model.Pago;
+import es.uvigo.mei.facturaaas.service.ConciliacionExtractoService;
 import es.uvigo.mei.facturaaas.service.PagoService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 @RestController
@@ -17,6 +25,9 @@ public class PagoController {
     @Autowired
     private PagoService pagoService;
     
+    @Autowired
+    private ConciliacionExtractoService conciliacionExtractoService;
+    
     @GetMapping
     @PreAuthorize("@resourceSecurity.canAccess(#usuarioId)")
     public ResponseEntity<List<PagoDTO>> listar(
@@ -30,6 +41,16 @@ public class PagoController {
         return ResponseEntity.badRequest().build();
     }
     
+    @GetMapping("/pagina")
+    @PreAuthorize("@resourceSecurity.canAccess(#usuarioId)")
+    public ResponseEntity<PaginaDTO<PagoDTO>> listarPagina(
+            @RequestParam Long usuarioId,
+            FiltroPagoDTO filtro,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "50") int limite) {
+        return ResponseEntity.ok(pagoService.obtenerPagina(usuarioId, filtro, cursor, limite));
+    }
+    
     @GetMapping("/{id}")
     @PreAuthorize("@resourceSecurity.canAccessPago(#id)")
     public ResponseEntity<PagoDTO> obtenerPorId(@PathVariable Long id) {
@@ -43,4 +64,24 @@ public class PagoController {
             @RequestParam Pago.EstadoPago estado) {
         return ResponseEntity.ok(pagoService.actualizarEstado(id, estado));
     }
+    
+    @PostMapping("/conciliar")
+    @PreAuthorize("@resourceSecurity.canAccess(#usuarioId)")
+    public ResponseEntity<List<ResultadoConciliacionDTO>> conciliar(
+            @RequestParam Long usuarioId,
+            @RequestBody List<ConciliacionPagoDTO> movimientos) {
+        return ResponseEntity.ok(pagoService.conciliar(usuarioId, movimientos));
+    }
+    
+    /**
+     * El fichero se envía como cuerpo de la petición y se lee en streaming.
+     */
+    @PostMapping("/extracto")
+    @PreAuthorize("@resourceSecurity.canAccess(#usuarioId)")
+    public ResponseEntity<ResultadoImportacionExtractoDTO> importarExtracto(
+            @RequestParam Long usuarioId,
+            @RequestParam ConciliacionExtractoService.Formato formato,
+            InputStream fichero) throws IOException {
+        return ResponseEntity.ok(conciliacionExtractoService.importar(usuarioId, formato, fichero));
+    }
 }
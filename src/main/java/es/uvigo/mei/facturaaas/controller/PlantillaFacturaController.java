@@ -0,0 +1,68 @@
+package es.uvigo.mei.facturaaas.controller;
+
+import es.uvigo.mei.facturaaas.dto.PlantillaFacturaDTO;
+import es.uvigo.mei.facturaaas.service.GeneracionPlantillasService;
+import es.uvigo.mei.facturaaas.service.PlantillaFacturaService;
+import jakarta.validation.Valid;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import java.time.LocalDate;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/plantillas")
+public class PlantillaFacturaController {
+    
+    @Autowired
+    private PlantillaFacturaService plantillaFacturaService;
+    
+    @Autowired
+    private GeneracionPlantillasService generacionPlantillasService;
+    
+    @GetMapping
+    @PreAuthorize("hasRole('USUARIO') and @resourceSecurity.canAccess(#usuarioId)")
+    public ResponseEntity<List<PlantillaFacturaDTO>> listar(@RequestParam Long usuarioId) {
+        return ResponseEntity.ok(plantillaFacturaService.obtenerPorUsuario(usuarioId));
+    }
+    
+    @GetMapping("/{id}")
+    @PreAuthorize("hasRole('USUARIO') and @resourceSecurity.canAccessPlantilla(#id)")
+    public ResponseEntity<PlantillaFacturaDTO> obtenerPorId(@PathVariable Long id) {
+        return ResponseEntity.ok(plantillaFacturaService.obtenerPorId(id));
+    }
+    
+    @PostMapping
+    @PreAuthorize("hasRole('USUARIO') and @resourceSecurity.canAccess(#dto.usuarioId)")
+    public ResponseEntity<PlantillaFacturaDTO> crear(@Valid @RequestBody PlantillaFacturaDTO dto) {
+        PlantillaFacturaDTO nueva = plantillaFacturaService.crear(dto);
+        return ResponseEntity.status(HttpStatus.CREATED).body(nueva);
+    }
+    
+    @PutMapping("/{id}")
+    @PreAuthorize("hasRole('USUARIO') and @resourceSecurity.canAccessPlantilla(#id)")
+    public ResponseEntity<PlantillaFacturaDTO> actualizar(
+            @PathVariable Long id,
+            @Valid @RequestBody PlantillaFacturaDTO dto) {
+        return ResponseEntity.ok(plantillaFacturaService.actualizar(id, dto));
+    }
+    
+    @DeleteMapping("/{id}")
+    @PreAuthorize("hasRole('USUARIO') and @resourceSecurity.canAccessPlantilla(#id)")
+    public ResponseEntity<Void> eliminar(@PathVariable Long id) {
+        plantillaFacturaService.eliminar(id);
+        return ResponseEntity.noContent().build();
+    }
+    
+    @PostMapping("/generar")
+    @PreAuthorize("hasRole('ADMINISTRADOR')")
+    public ResponseEntity<GeneracionPlantillasService.Resultado> generar() {
+        GeneracionPlantillasService.Resultado resultado = generacionPlantillasService.ejecutar(LocalDate.now());
+        if (resultado == null) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+        return ResponseEntity.ok(resultado);
+    }
+}
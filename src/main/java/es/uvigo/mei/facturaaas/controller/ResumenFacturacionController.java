@@ -0,0 +1,32 @@
+package es.uvigo.mei.facturaaas.controller;
+
+import es.uvigo.mei.facturaaas.dto.ResumenFacturacionDTO;
+import es.uvigo.mei.facturaaas.service.ResumenFacturacionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/resumen-facturacion")
+public class ResumenFacturacionController {
+    
+    @Autowired
+    private ResumenFacturacionService resumenFacturacionService;
+    
+    @GetMapping
+    @PreAuthorize("hasRole('USUARIO') and @resourceSecurity.canAccess(#usuarioId)")
+    public ResponseEntity<List<ResumenFacturacionDTO>> obtener(
+            @RequestParam Long usuarioId,
+            @RequestParam(required = false) Integer ejercicio) {
+        return ResponseEntity.ok(resumenFacturacionService.obtenerCuadroMando(usuarioId, ejercicio));
+    }
+    
+    @PostMapping("/reconstruir")
+    @PreAuthorize("hasRole('ADMINISTRADOR')")
+    public ResponseEntity<Void> reconstruir() {
+        resumenFacturacionService.reconstruir();
+        return ResponseEntity.noContent().build();
+    }
+}
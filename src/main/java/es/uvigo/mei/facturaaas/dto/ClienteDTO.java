@@ -41,4 +41,13 @@ public class ClienteDTO {
     
     @Size(max = 50)
     private String cuentaBancaria;
+    
+    @Size(max = 10)
+    private String dir3OficinaContable;
+    
+    @Size(max = 10)
+    private String dir3OrganoGestor;
+    
+    @Size(max = 10)
+    private String dir3UnidadTramitadora;
 }
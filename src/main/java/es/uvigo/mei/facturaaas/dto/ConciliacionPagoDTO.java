@@ -0,0 +1,22 @@
+package es.uvigo.mei.facturaaas.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Movimiento de cobro a conciliar. El pago se identifica por {@code pagoId}
+ * o, si no se indica, por {@code numeroFactura} y {@code numeroPago}.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ConciliacionPagoDTO {
+    private Long pagoId;
+    private String numeroFactura;
+    private Integer numeroPago;
+    private LocalDate fechaPago;
+    private BigDecimal importe;
+}
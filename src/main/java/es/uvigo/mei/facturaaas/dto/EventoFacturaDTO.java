@@ -0,0 +1,32 @@
+package es.uvigo.mei.facturaaas.dto;
+
+import es.uvigo.mei.facturaaas.model.EventoFactura;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.model.Pago;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Evento publicado a los destinos (ver DestinoEventos). {@code id} identifica el
+ * evento: la entrega es al menos una vez, así que un destino puede recibirlo repetido.
+ * {@code importe} es el total de la factura en los eventos de factura y el del pago en
+ * los de pago; {@code pagoId} y {@code estadoPago} solo vienen en estos últimos.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EventoFacturaDTO {
+    private Long id;
+    private EventoFactura.TipoEvento tipo;
+    private Long usuarioId;
+    private Long facturaId;
+    private String numeroFactura;
+    private Factura.EstadoFactura estadoFactura;
+    private Long pagoId;
+    private Pago.EstadoPago estadoPago;
+    private BigDecimal importe;
+    private LocalDateTime fechaCreacion;
+}
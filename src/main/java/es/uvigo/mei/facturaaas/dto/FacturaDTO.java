@@ -42,9 +42,20 @@ public class FacturaDTO {
     @Size(max = 500)
     private String comentarios;
     
+    /** Si ya existe una factura del usuario con esta clave, se devuelve esa en lugar de crear otra. */
+    @Size(max = 100)
+    private String claveIdempotencia;
+    
+    /** Versión leída; si se envía al actualizar, se rechaza el cambio si la factura ha cambiado. */
+    private Long version;
+    
     private BigDecimal importeTotal;
     private BigDecimal ivaTotal;
     private BigDecimal sumaTotal;
     
+    /** Posición y huella en la cadena de registros del usuario; solo respuesta. */
+    private Long secuenciaRegistro;
+    private String huella;
+    
     private List<LineaFacturaDTO> lineas = new ArrayList<>();
 }
@@ -0,0 +1,33 @@
+package es.uvigo.mei.facturaaas.dto;
+
+import es.uvigo.mei.facturaaas.model.Factura;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Cabecera de factura sin líneas, para listados.
+ * Se construye directamente en la consulta JPQL (ver FacturaRepository).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FacturaResumenDTO {
+    private Long id;
+    private String numeroFactura;
+    private Integer ejercicio;
+    private Long usuarioId;
+    private Long clienteId;
+    private String clienteNombre;
+    private String clienteNif;
+    private LocalDate fechaEmision;
+    private Long formaPagoId;
+    private String formaPagoDescripcion;
+    private Factura.EstadoFactura estado;
+    private String comentarios;
+    private BigDecimal importeTotal;
+    private BigDecimal ivaTotal;
+    private BigDecimal sumaTotal;
+}
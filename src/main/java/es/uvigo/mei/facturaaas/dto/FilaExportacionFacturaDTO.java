@@ -0,0 +1,44 @@
+package es.uvigo.mei.facturaaas.dto;
+
+import es.uvigo.mei.facturaaas.model.Factura;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Fila de la exportación de facturas: cabecera de la factura junto con una de
+ * sus líneas (campos de línea a null si la factura no tiene líneas).
+ * Se proyecta directamente en la consulta, sin cargar entidades.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FilaExportacionFacturaDTO {
+    private Long facturaId;
+    private String numeroFactura;
+    private Integer ejercicio;
+    private Long usuarioId;
+    private LocalDate fechaEmision;
+    private Factura.EstadoFactura estado;
+    private Long clienteId;
+    private String clienteNombre;
+    private String clienteNif;
+    private Long formaPagoId;
+    private String formaPagoDescripcion;
+    private String comentarios;
+    private BigDecimal importeTotal;
+    private BigDecimal ivaTotal;
+    private BigDecimal sumaTotal;
+    private Long lineaId;
+    private Integer numeroLinea;
+    private String concepto;
+    private BigDecimal cantidad;
+    private BigDecimal precioUnitario;
+    private BigDecimal porcentajeDescuento;
+    private Long tipoIVAId;
+    private String tipoIVADescripcion;
+    private BigDecimal tipoIVAPorcentaje;
+    private BigDecimal importeLinea;
+}
@@ -0,0 +1,31 @@
+package es.uvigo.mei.facturaaas.dto;
+
+import es.uvigo.mei.facturaaas.model.Factura;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Filtros opcionales del listado paginado de facturas.
+ * Fechas sobre fechaEmision e importes sobre sumaTotal.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FiltroFacturaDTO {
+    private Factura.EstadoFactura estado;
+    private Integer ejercicio;
+    private Long clienteId;
+    
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate fechaDesde;
+    
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate fechaHasta;
+    
+    private BigDecimal importeMinimo;
+    private BigDecimal importeMaximo;
+}
@@ -0,0 +1,23 @@
+package es.uvigo.mei.facturaaas.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Cobro de un extracto que no se ha podido asociar a un pago pendiente.
+ * {@code posicion} es la línea (Norma 43) o el número de apunte (CAMT.053).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MovimientoNoConciliadoDTO {
+    private long posicion;
+    private LocalDate fechaValor;
+    private BigDecimal importe;
+    private String concepto;
+    private String referencia;
+    private String motivo;
+}
@@ -0,0 +1,19 @@
+package es.uvigo.mei.facturaaas.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Página de un listado con paginación por cursor (keyset).
+ * {@code siguienteCursor} es null cuando no hay más elementos.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PaginaDTO<T> {
+    private List<T> elementos = new ArrayList<>();
+    private String siguienteCursor;
+}
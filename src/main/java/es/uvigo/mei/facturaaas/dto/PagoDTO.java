@@ -32,4 +32,6 @@ public class PagoDTO {
     private Pago.EstadoPago estado;
     
     private LocalDate fechaPago;
+    
+    private LocalDate fechaReclamacion;
 }
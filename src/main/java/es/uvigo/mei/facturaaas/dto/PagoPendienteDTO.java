@@ -0,0 +1,22 @@
+package es.uvigo.mei.facturaaas.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Pago pendiente con los datos del cliente con los que se reconoce en un extracto bancario.
+ * Se construye directamente en la consulta JPQL (ver PagoRepository).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PagoPendienteDTO {
+    private Long pagoId;
+    private BigDecimal importe;
+    private LocalDate fechaVencimiento;
+    private String clienteNif;
+    private String clienteCuentaBancaria;
+}
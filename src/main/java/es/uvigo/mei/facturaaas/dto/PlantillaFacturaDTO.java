@@ -0,0 +1,55 @@
+package es.uvigo.mei.facturaaas.dto;
+
+import es.uvigo.mei.facturaaas.model.PlantillaFactura;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PlantillaFacturaDTO {
+    private Long id;
+    private Long usuarioId;
+    
+    @NotNull(message = "El cliente es obligatorio")
+    private Long clienteId;
+    
+    private String clienteNombre;
+    
+    @NotNull(message = "La forma de pago es obligatoria")
+    private Long formaPagoId;
+    
+    @Size(max = 500)
+    private String comentarios;
+    
+    @NotNull(message = "La periodicidad es obligatoria")
+    private PlantillaFactura.Periodicidad periodicidad;
+    
+    @NotNull(message = "La fecha de inicio es obligatoria")
+    private LocalDate fechaInicio;
+    
+    private LocalDate fechaFin;
+    
+    /** Solo respuesta: fecha de emisión de la siguiente factura. */
+    private LocalDate proximaFecha;
+    
+    /** Solo respuesta. */
+    private Integer facturasGeneradas;
+    
+    private Boolean activa;
+    
+    /** Solo respuesta: motivo por el que la generación desactivó la plantilla. */
+    private String ultimoError;
+    
+    @Valid
+    @NotEmpty(message = "La plantilla debe tener al menos una línea")
+    private List<LineaFacturaDTO> lineas = new ArrayList<>();
+}
@@ -0,0 +1,27 @@
+package es.uvigo.mei.facturaaas.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Datos de una factura que entran en su huella, proyectados directamente en la
+ * consulta para verificar la cadena sin cargar entidades.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RegistroCadenaDTO {
+    private Long facturaId;
+    private Long secuencia;
+    private String numeroFactura;
+    private LocalDate fechaEmision;
+    private BigDecimal ivaTotal;
+    private BigDecimal sumaTotal;
+    private LocalDateTime fechaHoraRegistro;
+    private String huellaAnterior;
+    private String huella;
+}
@@ -0,0 +1,27 @@
+package es.uvigo.mei.facturaaas.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Resultado de un movimiento dentro de una conciliación de pagos.
+ * {@code indice} es la posición del movimiento en la petición y
+ * {@code facturaPagada} indica si la factura quedó con todos sus pagos cobrados.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResultadoConciliacionDTO {
+    private int indice;
+    private boolean correcto;
+    private Long pagoId;
+    private Long facturaId;
+    private String numeroFactura;
+    private boolean facturaPagada;
+    private String error;
+    
+    public ResultadoConciliacionDTO(int indice) {
+        this.indice = indice;
+    }
+}
@@ -0,0 +1,22 @@
+package es.uvigo.mei.facturaaas.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Informe de la importación de un extracto bancario: apuntes leídos, cobros
+ * conciliados, facturas que han quedado pagadas y cobros sin conciliar, de los que
+ * se detallan los primeros extracto.no-conciliados-maximo.
+ */
+@Data
+@NoArgsConstructor
+public class ResultadoImportacionExtractoDTO {
+    private long movimientos;
+    private long abonos;
+    private long conciliados;
+    private long facturasPagadas;
+    private long sinConciliar;
+    private List<MovimientoNoConciliadoDTO> noConciliados = new ArrayList<>();
+}
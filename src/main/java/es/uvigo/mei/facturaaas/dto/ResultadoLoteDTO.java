@@ -0,0 +1,24 @@
+package es.uvigo.mei.facturaaas.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Resultado de una factura dentro de una creación por lotes.
+ * {@code indice} es la posición de la factura en la petición.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResultadoLoteDTO {
+    private int indice;
+    private boolean correcto;
+    private Long facturaId;
+    private String numeroFactura;
+    private String error;
+    
+    public ResultadoLoteDTO(int indice) {
+        this.indice = indice;
+    }
+}
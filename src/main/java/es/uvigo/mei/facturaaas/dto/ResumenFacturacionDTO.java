@@ -0,0 +1,27 @@
+package es.uvigo.mei.facturaaas.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+
+/**
+ * Fila del cuadro de mando: totales de un usuario por ejercicio, mes y cliente.
+ * Los totales por mes o por cliente se obtienen sumando filas.
+ * Se construye directamente en la consulta JPQL (ver ResumenFacturacionRepository).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResumenFacturacionDTO {
+    private Integer ejercicio;
+    private Integer mes;
+    private Long clienteId;
+    private String clienteNombre;
+    private Long numeroFacturas;
+    private BigDecimal importeTotal;
+    private BigDecimal ivaTotal;
+    private BigDecimal sumaTotal;
+    private BigDecimal importePendiente;
+    private BigDecimal importeVencido;
+}
@@ -0,0 +1,22 @@
+package es.uvigo.mei.facturaaas.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+
+/**
+ * IVA repercutido de un trimestre y porcentaje (estilo modelo 303).
+ * Se construye directamente en la consulta JPQL (ver DesgloseIVAFacturaRepository).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResumenIVADTO {
+    private Integer ejercicio;
+    private Integer trimestre;
+    private BigDecimal porcentaje;
+    private Long numeroFacturas;
+    private BigDecimal base;
+    private BigDecimal cuota;
+}
@@ -0,0 +1,30 @@
+package es.uvigo.mei.facturaaas.dto;
+
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.model.Pago;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Datos de un pago y su factura necesarios para conciliarlo, sin cargar las entidades.
+ * Se construye directamente en la consulta JPQL (ver PagoRepository).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SituacionPagoDTO {
+    private Long pagoId;
+    private Integer numeroPago;
+    private BigDecimal importe;
+    private Pago.EstadoPago estado;
+    private LocalDate fechaVencimiento;
+    private Long facturaId;
+    private String numeroFactura;
+    private Factura.EstadoFactura estadoFactura;
+    private Integer ejercicio;
+    private LocalDate fechaEmision;
+    private Long clienteId;
+}
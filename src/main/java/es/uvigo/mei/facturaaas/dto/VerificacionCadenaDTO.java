@@ -0,0 +1,25 @@
+package es.uvigo.mei.facturaaas.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Resultado de verificar la cadena de huellas de un usuario. {@code ultimaSecuencia}
+ * y {@code ultimaHuella} son el último registro correcto: pasados como {@code desde}
+ * y {@code huella} en la siguiente verificación, solo se comprueban los nuevos.
+ * Si la cadena no es correcta, {@code facturaId}, {@code numeroFactura} y
+ * {@code error} describen el primer registro que falla.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class VerificacionCadenaDTO {
+    private boolean correcta;
+    private long registrosVerificados;
+    private Long ultimaSecuencia;
+    private String ultimaHuella;
+    private Long facturaId;
+    private String numeroFactura;
+    private String error;
+}
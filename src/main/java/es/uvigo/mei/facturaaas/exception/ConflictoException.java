@@ -0,0 +1,11 @@
+package es.uvigo.mei.facturaaas.exception;
+
+/**
+ * Operación incompatible con el estado actual del recurso; se responde con 409.
+ */
+public class ConflictoException extends RuntimeException {
+    
+    public ConflictoException(String message) {
+        super(message);
+    }
+}
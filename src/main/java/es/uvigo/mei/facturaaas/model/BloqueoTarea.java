@@ -0,0 +1,30 @@
+package es.uvigo.mei.facturaaas.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.time.LocalDateTime;
+
+/**
+ * Arrendamiento de una tarea programada: el nodo {@code propietario} la tiene
+ * reservada hasta {@code bloqueadoHasta}. Se gestiona con SQL desde BloqueoTareas;
+ * la entidad solo define la tabla.
+ */
+@Entity
+@Table(name = "bloqueo_tarea")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BloqueoTarea {
+    
+    @Id
+    @Column(length = 100)
+    private String nombre;
+    
+    @Column(nullable = false, length = 200)
+    private String propietario;
+    
+    @Column(name = "bloqueado_hasta", nullable = false)
+    private LocalDateTime bloqueadoHasta;
+}
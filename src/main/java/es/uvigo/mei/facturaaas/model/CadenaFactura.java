@@ -0,0 +1,34 @@
+package es.uvigo.mei.facturaaas.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Último eslabón de la cadena de huellas de las facturas de un usuario.
+ * La fila se bloquea (SELECT ... FOR UPDATE) al encadenar una factura, de modo
+ * que solo compiten entre sí las facturas del mismo emisor.
+ */
+@Entity
+@Table(name = "cadena_factura",
+       uniqueConstraints = @UniqueConstraint(name = "uk_cadena_factura", columnNames = "usuario_id"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CadenaFactura {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "usuario_id", nullable = false)
+    private Usuario usuario;
+    
+    @Column(nullable = false)
+    private Long ultimaSecuencia = 0L;
+    
+    @Column(length = 64)
+    private String ultimaHuella;
+}
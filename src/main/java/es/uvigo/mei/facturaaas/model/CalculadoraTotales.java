@@ -0,0 +1,80 @@
+package es.uvigo.mei.facturaaas.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Cálculo de importes de factura con reglas de redondeo explícitas:
+ * <ul>
+ *   <li>Importe de línea: precio × cantidad menos el descuento, redondeado una
+ *       sola vez a céntimos (HALF_UP).</li>
+ *   <li>Base por tipo de IVA: suma de los importes de línea de ese porcentaje.</li>
+ *   <li>Cuota por tipo de IVA: base × porcentaje / 100, redondeada a céntimos
+ *       (HALF_UP) sobre la base agregada, no línea a línea.</li>
+ *   <li>Totales: suma de bases, suma de cuotas y su suma.</li>
+ * </ul>
+ * Las líneas se recorren una sola vez; las divisiones entre 100 se hacen
+ * desplazando la coma (exactas), sin crear divisores.
+ */
+public final class CalculadoraTotales {
+    
+    public static final int ESCALA = 2;
+    public static final RoundingMode REDONDEO = RoundingMode.HALF_UP;
+    
+    private static final BigDecimal CIEN = BigDecimal.valueOf(100);
+    private static final BigDecimal CERO = BigDecimal.ZERO.setScale(ESCALA);
+    
+    private CalculadoraTotales() {
+    }
+    
+    public static BigDecimal importeLinea(BigDecimal precioUnitario, BigDecimal cantidad,
+                                          BigDecimal porcentajeDescuento) {
+        BigDecimal subtotal = precioUnitario.multiply(cantidad);
+        if (porcentajeDescuento != null && porcentajeDescuento.signum() != 0) {
+            subtotal = subtotal.multiply(CIEN.subtract(porcentajeDescuento)).movePointLeft(2);
+        }
+        return subtotal.setScale(ESCALA, REDONDEO);
+    }
+    
+    public static BigDecimal cuota(BigDecimal base, BigDecimal porcentaje) {
+        return base.multiply(porcentaje).movePointLeft(2).setScale(ESCALA, REDONDEO);
+    }
+    
+    /**
+     * Totales y desglose por porcentaje de IVA (ordenado de menor a mayor).
+     * Usa el importe ya calculado de cada línea.
+     */
+    public static Totales calcular(List<LineaFactura> lineas) {
+        // Clave por valor numérico: 21 y 21.00 son el mismo tipo
+        Map<BigDecimal, BigDecimal> bases = new TreeMap<>();
+        for (LineaFactura linea : lineas) {
+            bases.merge(linea.getTipoIVA().getPorcentaje(), linea.getImporteTotal(), BigDecimal::add);
+        }
+        
+        BigDecimal importeTotal = CERO;
+        BigDecimal ivaTotal = CERO;
+        List<ImporteIVA> desglose = new ArrayList<>(bases.size());
+        for (Map.Entry<BigDecimal, BigDecimal> base : bases.entrySet()) {
+            BigDecimal importeBase = base.getValue().setScale(ESCALA, REDONDEO);
+            BigDecimal cuota = cuota(importeBase, base.getKey());
+            desglose.add(new ImporteIVA(base.getKey(), importeBase, cuota));
+            importeTotal = importeTotal.add(importeBase);
+            ivaTotal = ivaTotal.add(cuota);
+        }
+        return new Totales(importeTotal, ivaTotal, importeTotal.add(ivaTotal), desglose);
+    }
+    
+    public record Totales(BigDecimal importeTotal, BigDecimal ivaTotal, BigDecimal sumaTotal,
+                          List<ImporteIVA> desglose) {
+    }
+    
+    /**
+     * Base imponible y cuota de un porcentaje de IVA.
+     */
+    public record ImporteIVA(BigDecimal porcentaje, BigDecimal base, BigDecimal cuota) {
+    }
+}
@@ -46,4 +46,15 @@ public class Cliente {
     
     @Column(length = 50)
     private String cuentaBancaria;
+    
+    // Códigos DIR3 de un cliente que es una administración pública (Facturae, FACe)
+    
+    @Column(length = 10)
+    private String dir3OficinaContable;
+    
+    @Column(length = 10)
+    private String dir3OrganoGestor;
+    
+    @Column(length = 10)
+    private String dir3UnidadTramitadora;
 }
@@ -0,0 +1,35 @@
+package es.uvigo.mei.facturaaas.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Contador de numeración de facturas por usuario y ejercicio.
+ * Cada fila se bloquea (SELECT ... FOR UPDATE) al reservar números,
+ * de modo que solo compiten entre sí las facturas del mismo emisor y año.
+ */
+@Entity
+@Table(name = "contador_factura",
+       uniqueConstraints = @UniqueConstraint(name = "uk_contador_factura",
+                                             columnNames = {"usuario_id", "ejercicio"}))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ContadorFactura {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "usuario_id", nullable = false)
+    private Usuario usuario;
+    
+    @Column(nullable = false)
+    private Integer ejercicio;
+    
+    @Column(nullable = false)
+    private Long ultimoNumero = 0L;
+}
@@ -0,0 +1,38 @@
+package es.uvigo.mei.facturaaas.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+
+/**
+ * Base imponible y cuota de una factura para un porcentaje de IVA.
+ * Lo mantiene Factura.calcularTotales; los informes de IVA agrupan estas filas
+ * en lugar de recorrer las líneas.
+ */
+@Entity
+@Table(name = "factura_desglose_iva")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DesgloseIVAFactura {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "factura_desglose_iva_seq")
+    @SequenceGenerator(name = "factura_desglose_iva_seq", sequenceName = "factura_desglose_iva_seq", allocationSize = 50)
+    private Long id;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "factura_id", nullable = false)
+    private Factura factura;
+    
+    @Column(nullable = false, precision = 5, scale = 2)
+    private BigDecimal porcentaje;
+    
+    @Column(nullable = false, precision = 12, scale = 2)
+    private BigDecimal base;
+    
+    @Column(nullable = false, precision = 12, scale = 2)
+    private BigDecimal cuota;
+}
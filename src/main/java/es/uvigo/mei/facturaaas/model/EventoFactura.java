@@ -0,0 +1,72 @@
+package es.uvigo.mei.facturaaas.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Evento de una factura o de uno de sus pagos (bandeja de salida). Se inserta en la
+ * misma transacción que el cambio que lo origina; cuando todos los destinos lo han
+ * recibido se le asigna el número de lote de publicación (ver
+ * PublicadorEventosService) y se conserva un tiempo para que cada nodo lo envíe a sus
+ * suscripciones SSE (ver DifusorEventos). El id, creciente, da el orden de publicación.
+ * <p>
+ * Sin claves ajenas: la fila se inserta con JDBC y puede preceder a la de la factura
+ * dentro de la misma transacción.
+ */
+@Entity
+@Table(name = "evento_factura")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EventoFactura {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 30)
+    private TipoEvento tipo;
+    
+    @Column(name = "usuario_id", nullable = false)
+    private Long usuarioId;
+    
+    @Column(name = "factura_id", nullable = false)
+    private Long facturaId;
+    
+    @Column(length = 50)
+    private String numeroFactura;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(length = 20)
+    private Factura.EstadoFactura estadoFactura;
+    
+    @Column(name = "pago_id")
+    private Long pagoId;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(length = 20)
+    private Pago.EstadoPago estadoPago;
+    
+    @Column(precision = 10, scale = 2)
+    private BigDecimal importe;
+    
+    @Column(nullable = false)
+    private LocalDateTime fechaCreacion;
+    
+    /** Lote de publicación, creciente; null mientras está pendiente. */
+    private Long publicacion;
+    
+    private LocalDateTime fechaPublicacion;
+    
+    public enum TipoEvento {
+        FACTURA_CREADA,
+        FACTURA_ACTUALIZADA,
+        PAGO_COBRADO,
+        PAGO_ACTUALIZADO
+    }
+}
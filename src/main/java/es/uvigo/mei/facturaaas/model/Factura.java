@@ -6,38 +6,52 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 @Entity
-@Table(name = "factura")
+@Table(name = "factura",
+       uniqueConstraints = {
+           @UniqueConstraint(name = "uk_factura_usuario_numero", columnNames = {"usuario_id", "numero_factura"}),
+           @UniqueConstraint(name = "uk_factura_clave_idempotencia",
+                             columnNames = {"usuario_id", "clave_idempotencia"}),
+           @UniqueConstraint(name = "uk_factura_secuencia_registro",
+                             columnNames = {"usuario_id", "secuencia_registro"})
+       })
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 public class Factura {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "factura_seq")
+    @SequenceGenerator(name = "factura_seq", sequenceName = "factura_seq", allocationSize = 50)
     private Long id;
     
-    @Column(nullable = false, unique = true, length = 50)
+    @Version
+    private Long version;
+    
+    @Column(nullable = false, length = 50)
     private String numeroFactura;
     
     @Column(nullable = false)
     private Integer ejercicio;
     
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "usuario_id", nullable = false)
     private Usuario usuario;
     
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "cliente_id", nullable = false)
     private Cliente cliente;
     
     @Column(nullable = false)
     private LocalDate fechaEmision;
     
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "forma_pago_id", nullable = false)
     private FormaPago formaPago;
     
@@ -48,6 +62,10 @@ public class Factura {
     @Column(length = 500)
     private String comentarios;
     
+    /** Clave opcional del cliente del API (o de la plantilla que la genera) para no crearla dos veces. */
+    @Column(length = 100)
+    private String claveIdempotencia;
+    
     @Column(precision = 10, scale = 2)
     private BigDecimal importeTotal;
     
@@ -57,12 +75,31 @@ public class Factura {
     @Column(precision = 10, scale = 2)
     private BigDecimal sumaTotal;
     
+    // Registro de facturación encadenado (ver CadenaFacturaService), fijado al emitir la factura
+    
+    /** Posición en la cadena de huellas del usuario: 1, 2, 3... */
+    private Long secuenciaRegistro;
+    
+    /** Huella de la factura anterior del usuario; vacía en la primera. */
+    @Column(length = 64)
+    private String huellaAnterior;
+    
+    /** SHA-256 de los datos de la factura y la huella anterior, en hexadecimal. */
+    @Column(length = 64)
+    private String huella;
+    
+    /** Momento (UTC, en segundos) en que se generó el registro. */
+    private LocalDateTime fechaHoraRegistro;
+    
     @OneToMany(mappedBy = "factura", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<LineaFactura> lineas = new ArrayList<>();
     
     @OneToMany(mappedBy = "factura", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<Pago> pagos = new ArrayList<>();
     
+    @OneToMany(mappedBy = "factura", cascade = CascadeType.ALL, orphanRemoval = true)
+    private List<DesgloseIVAFactura> desgloseIVA = new ArrayList<>();
+    
     public enum EstadoFactura {
         EMITIDA,
         ANULADA,
@@ -71,19 +108,41 @@ public class Factura {
         ABONADA
     }
     
-    public void calcularTotales() {
-        importeTotal = lineas.stream()
-            .map(LineaFactura::getImporteTotal)
-            .reduce(BigDecimal.ZERO, BigDecimal::add);
-        
-        ivaTotal = lineas.stream()
-            .map(linea -> {
-                BigDecimal base = linea.getImporteTotal();
-                BigDecimal porcentajeIva = linea.getTipoIVA().getPorcentaje();
-                return base.multiply(porcentajeIva).divide(new BigDecimal("100"));
-            })
-            .reduce(BigDecimal.ZERO, BigDecimal::add);
+    /**
+     * Recalcula los totales a partir de las líneas (ver CalculadoraTotales)
+     * y sincroniza el desglose por tipo de IVA.
+     */
+    public CalculadoraTotales.Totales calcularTotales() {
+        CalculadoraTotales.Totales totales = CalculadoraTotales.calcular(lineas);
+        importeTotal = totales.importeTotal();
+        ivaTotal = totales.ivaTotal();
+        sumaTotal = totales.sumaTotal();
+        actualizarDesgloseIVA(totales.desglose());
+        return totales;
+    }
+    
+    /**
+     * Reutiliza las filas de desglose de los porcentajes que siguen presentes,
+     * para no borrar e insertar de nuevo las que no cambian.
+     */
+    private void actualizarDesgloseIVA(List<CalculadoraTotales.ImporteIVA> importes) {
+        Map<BigDecimal, DesgloseIVAFactura> existentes = new TreeMap<>();
+        for (DesgloseIVAFactura desglose : desgloseIVA) {
+            existentes.put(desglose.getPorcentaje(), desglose);
+        }
+        desgloseIVA.removeIf(desglose -> importes.stream()
+            .noneMatch(importe -> importe.porcentaje().compareTo(desglose.getPorcentaje()) == 0));
         
-        sumaTotal = importeTotal.add(ivaTotal);
+        for (CalculadoraTotales.ImporteIVA importe : importes) {
+            DesgloseIVAFactura desglose = existentes.get(importe.porcentaje());
+            if (desglose == null) {
+                desglose = new DesgloseIVAFactura();
+                desglose.setFactura(this);
+                desglose.setPorcentaje(importe.porcentaje());
+                desgloseIVA.add(desglose);
+            }
+            desglose.setBase(importe.base());
+            desglose.setCuota(importe.cuota());
+        }
     }
 }
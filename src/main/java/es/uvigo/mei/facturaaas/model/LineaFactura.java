@@ -14,10 +14,11 @@ import java.math.BigDecimal;
 public class LineaFactura {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "linea_factura_seq")
+    @SequenceGenerator(name = "linea_factura_seq", sequenceName = "linea_factura_seq", allocationSize = 50)
     private Long id;
     
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "factura_id", nullable = false)
     private Factura factura;
     
@@ -36,7 +37,7 @@ public class LineaFactura {
     @Column(precision = 5, scale = 2)
     private BigDecimal porcentajeDescuento = BigDecimal.ZERO;
     
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "tipo_iva_id", nullable = false)
     private TipoIVA tipoIVA;
     
@@ -44,8 +45,6 @@ public class LineaFactura {
     private BigDecimal importeTotal;
     
     public void calcularImporteTotal() {
-        BigDecimal subtotal = precioUnitario.multiply(cantidad);
-        BigDecimal descuento = subtotal.multiply(porcentajeDescuento).divide(new BigDecimal("100"));
-        importeTotal = subtotal.subtract(descuento);
+        importeTotal = CalculadoraTotales.importeLinea(precioUnitario, cantidad, porcentajeDescuento);
     }
 }
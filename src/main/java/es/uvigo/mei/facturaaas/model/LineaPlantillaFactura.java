@@ -0,0 +1,42 @@
+package es.uvigo.mei.facturaaas.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+
+@Entity
+@Table(name = "linea_plantilla_factura")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LineaPlantillaFactura {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "plantilla_id", nullable = false)
+    private PlantillaFactura plantilla;
+    
+    @Column(nullable = false)
+    private Integer numeroLinea;
+    
+    @Column(nullable = false, length = 300)
+    private String concepto;
+    
+    @Column(nullable = false, precision = 10, scale = 2)
+    private BigDecimal cantidad = BigDecimal.ONE;
+    
+    @Column(nullable = false, precision = 10, scale = 2)
+    private BigDecimal precioUnitario;
+    
+    @Column(precision = 5, scale = 2)
+    private BigDecimal porcentajeDescuento = BigDecimal.ZERO;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "tipo_iva_id", nullable = false)
+    private TipoIVA tipoIVA;
+}
@@ -15,13 +15,21 @@ import java.time.LocalDate;
 public class Pago {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "pago_seq")
+    @SequenceGenerator(name = "pago_seq", sequenceName = "pago_seq", allocationSize = 50)
     private Long id;
     
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "factura_id", nullable = false)
     private Factura factura;
     
+    /**
+     * Usuario de la factura, repetido en el pago para que los listados por usuario
+     * recorran el índice (usuario_id, fecha_vencimiento, id) sin pasar por factura.
+     */
+    @Column(name = "usuario_id", nullable = false)
+    private Long usuarioId;
+    
     @Column(nullable = false)
     private Integer numeroPago;
     
@@ -37,6 +45,11 @@ public class Pago {
     
     private LocalDate fechaPago;
     
+    /**
+     * Fecha en que el barrido de vencidos detectó el pago impagado (ver BarridoVencidosService).
+     */
+    private LocalDate fechaReclamacion;
+    
     public enum EstadoPago {
         PENDIENTE,
         PAGADO,
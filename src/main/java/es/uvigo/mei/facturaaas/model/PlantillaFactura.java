@@ -0,0 +1,101 @@
+package es.uvigo.mei.facturaaas.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plantilla de factura recurrente: cliente, forma de pago y líneas que se facturan
+ * cada periodo a partir de fechaInicio. proximaFecha es la fecha de emisión de la
+ * siguiente factura y se calcula siempre desde fechaInicio (no desde la anterior)
+ * para que los días 29-31 no se desplacen de un mes a otro.
+ */
+@Entity
+@Table(name = "plantilla_factura")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PlantillaFactura {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "usuario_id", nullable = false)
+    private Usuario usuario;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "cliente_id", nullable = false)
+    private Cliente cliente;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "forma_pago_id", nullable = false)
+    private FormaPago formaPago;
+    
+    @Column(length = 500)
+    private String comentarios;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Periodicidad periodicidad;
+    
+    @Column(nullable = false)
+    private LocalDate fechaInicio;
+    
+    private LocalDate fechaFin;
+    
+    @Column(nullable = false)
+    private LocalDate proximaFecha;
+    
+    @Column(nullable = false)
+    private Integer facturasGeneradas = 0;
+    
+    @Column(nullable = false)
+    private Boolean activa = true;
+    
+    /** Motivo por el que se desactivó al generar; se borra al reactivarla. */
+    @Column(length = 500)
+    private String ultimoError;
+    
+    @OneToMany(mappedBy = "plantilla", cascade = CascadeType.ALL, orphanRemoval = true)
+    @OrderBy("numeroLinea")
+    private List<LineaPlantillaFactura> lineas = new ArrayList<>();
+    
+    public enum Periodicidad {
+        MENSUAL(1), BIMESTRAL(2), TRIMESTRAL(3), SEMESTRAL(6), ANUAL(12);
+        
+        private final int meses;
+        
+        Periodicidad(int meses) {
+            this.meses = meses;
+        }
+        
+        public int getMeses() {
+            return meses;
+        }
+    }
+    
+    /**
+     * Recalcula proximaFecha tras facturasGeneradas periodos y desactiva la plantilla
+     * si pasa de fechaFin.
+     */
+    public void calcularProximaFecha() {
+        proximaFecha = fechaInicio.plusMonths((long) periodicidad.getMeses() * facturasGeneradas);
+        if (fechaFin != null && proximaFecha.isAfter(fechaFin)) {
+            activa = false;
+        }
+    }
+    
+    /**
+     * Registra la factura del periodo actual y pasa al siguiente.
+     */
+    public void avanzar() {
+        facturasGeneradas++;
+        calcularProximaFecha();
+    }
+}
@@ -0,0 +1,51 @@
+package es.uvigo.mei.facturaaas.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+
+/**
+ * Totales facturados por usuario, ejercicio, mes de emisión y cliente.
+ * Se mantiene de forma incremental (ver ResumenFacturacionService); las facturas
+ * anuladas no cuentan. Usa identificadores planos, sin claves ajenas: la fila la
+ * crea o suma un upsert por SQL.
+ */
+@Entity
+@Table(name = "resumen_facturacion",
+       uniqueConstraints = @UniqueConstraint(name = "uk_resumen_facturacion",
+                                             columnNames = {"usuario_id", "ejercicio", "mes", "cliente_id"}))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResumenFacturacion {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "usuario_id", nullable = false)
+    private Long usuarioId;
+    
+    @Column(nullable = false)
+    private Integer ejercicio;
+    
+    @Column(nullable = false)
+    private Integer mes;
+    
+    @Column(name = "cliente_id", nullable = false)
+    private Long clienteId;
+    
+    @Column(nullable = false)
+    private Long numeroFacturas = 0L;
+    
+    @Column(nullable = false, precision = 14, scale = 2)
+    private BigDecimal importeTotal = BigDecimal.ZERO;
+    
+    @Column(nullable = false, precision = 14, scale = 2)
+    private BigDecimal ivaTotal = BigDecimal.ZERO;
+    
+    @Column(nullable = false, precision = 14, scale = 2)
+    private BigDecimal sumaTotal = BigDecimal.ZERO;
+}
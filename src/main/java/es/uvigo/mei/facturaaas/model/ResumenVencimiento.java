@@ -0,0 +1,45 @@
+package es.uvigo.mei.facturaaas.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Importe pendiente de cobro por fecha de vencimiento, agrupado con la misma clave
+ * que ResumenFacturacion. Separar la fecha permite calcular lo vencido a día de
+ * hoy sin recorrer los pagos.
+ */
+@Entity
+@Table(name = "resumen_vencimiento",
+       uniqueConstraints = @UniqueConstraint(name = "uk_resumen_vencimiento",
+                                             columnNames = {"usuario_id", "ejercicio", "mes", "cliente_id", "fecha_vencimiento"}))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResumenVencimiento {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "usuario_id", nullable = false)
+    private Long usuarioId;
+    
+    @Column(nullable = false)
+    private Integer ejercicio;
+    
+    @Column(nullable = false)
+    private Integer mes;
+    
+    @Column(name = "cliente_id", nullable = false)
+    private Long clienteId;
+    
+    @Column(nullable = false)
+    private LocalDate fechaVencimiento;
+    
+    @Column(nullable = false, precision = 14, scale = 2)
+    private BigDecimal importePendiente = BigDecimal.ZERO;
+}
@@ -0,0 +1,20 @@
+package es.uvigo.mei.facturaaas.repository;
+
+import es.uvigo.mei.facturaaas.model.CadenaFactura;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import java.util.Optional;
+
+@Repository
+public interface CadenaFacturaRepository extends JpaRepository<CadenaFactura, Long> {
+    
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT c FROM CadenaFactura c WHERE c.usuario.id = :usuarioId")
+    Optional<CadenaFactura> bloquearPorUsuarioId(@Param("usuarioId") Long usuarioId);
+    
+    Optional<CadenaFactura> findByUsuarioId(Long usuarioId);
+}
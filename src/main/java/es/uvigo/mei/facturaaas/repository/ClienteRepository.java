@@ -11,9 +11,7 @@ import java.util.List;
 public interface ClienteRepository extends JpaRepository<Cliente, Long> {
     List<Cliente> findByUsuarioId(Long usuarioId);
     
-    @Query("SELECT c FROM Cliente c WHERE c.usuario.id = :usuarioId " +
-           "AND (LOWER(c.nombre) LIKE LOWER(CONCAT('%', :patron, '%')) " +
-           "OR LOWER(c.localidad) LIKE LOWER(CONCAT('%', :patron, '%')))")
-    List<Cliente> buscarPorUsuarioYPatron(@Param("usuarioId") Long usuarioId, 
-                                           @Param("patron") String patron);
+    /** Comprobación de propiedad por la clave ajena usuario_id, sin unir con usuario. */
+    @Query("SELECT COUNT(c) > 0 FROM Cliente c WHERE c.id = :id AND c.usuario.id = :usuarioId")
+    boolean existsByIdAndUsuarioId(@Param("id") Long id, @Param("usuarioId") Long usuarioId);
 }
@@ -0,0 +1,19 @@
+package es.uvigo.mei.facturaaas.repository;
+
+import es.uvigo.mei.facturaaas.model.ContadorFactura;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import java.util.Optional;
+
+@Repository
+public interface ContadorFacturaRepository extends JpaRepository<ContadorFactura, Long> {
+    
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT c FROM ContadorFactura c WHERE c.usuario.id = :usuarioId AND c.ejercicio = :ejercicio")
+    Optional<ContadorFactura> bloquearPorUsuarioIdYEjercicio(@Param("usuarioId") Long usuarioId,
+                                                             @Param("ejercicio") Integer ejercicio);
+}
@@ -0,0 +1,26 @@
+package es.uvigo.mei.facturaaas.repository;
+
+import es.uvigo.mei.facturaaas.dto.ResumenIVADTO;
+import es.uvigo.mei.facturaaas.model.DesgloseIVAFactura;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import java.util.List;
+
+@Repository
+public interface DesgloseIVAFacturaRepository extends JpaRepository<DesgloseIVAFactura, Long> {
+    
+    /**
+     * Bases y cuotas por trimestre de emisión y porcentaje, sin facturas anuladas.
+     */
+    @Query("SELECT new es.uvigo.mei.facturaaas.dto.ResumenIVADTO(" +
+           "f.ejercicio, EXTRACT(QUARTER FROM f.fechaEmision), d.porcentaje, COUNT(DISTINCT f.id), SUM(d.base), SUM(d.cuota)) " +
+           "FROM DesgloseIVAFactura d JOIN d.factura f " +
+           "WHERE f.usuario.id = :usuarioId AND f.ejercicio = :ejercicio " +
+           "AND f.estado <> es.uvigo.mei.facturaaas.model.Factura.EstadoFactura.ANULADA " +
+           "GROUP BY f.ejercicio, EXTRACT(QUARTER FROM f.fechaEmision), d.porcentaje " +
+           "ORDER BY EXTRACT(QUARTER FROM f.fechaEmision), d.porcentaje")
+    List<ResumenIVADTO> findResumenTrimestral(@Param("usuarioId") Long usuarioId,
+                                              @Param("ejercicio") Integer ejercicio);
+}
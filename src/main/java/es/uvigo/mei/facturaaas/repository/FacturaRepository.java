@@ -1,15 +1,124 @@
 package es.uvigo.mei.facturaaas.repository;
 
+import es.uvigo.mei.facturaaas.dto.FacturaResumenDTO;
+import es.uvigo.mei.facturaaas.dto.FilaExportacionFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.RegistroCadenaDTO;
 import es.uvigo.mei.facturaaas.model.Factura;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
-public interface FacturaRepository extends JpaRepository<Factura, Long> {
+public interface FacturaRepository extends JpaRepository<Factura, Long>, JpaSpecificationExecutor<Factura> {
     List<Factura> findByUsuarioId(Long usuarioId);
     List<Factura> findByUsuarioIdAndClienteId(Long usuarioId, Long clienteId);
-    Optional<Factura> findByNumeroFactura(String numeroFactura);
-    boolean existsByNumeroFactura(String numeroFactura);
+    Optional<Factura> findByUsuarioIdAndClaveIdempotencia(Long usuarioId, String claveIdempotencia);
+    List<Factura> findByUsuarioIdAndClaveIdempotenciaIn(Long usuarioId, Collection<String> clavesIdempotencia);
+    
+    @Query("SELECT f.numeroFactura FROM Factura f WHERE f.usuario.id = :usuarioId AND f.ejercicio = :ejercicio")
+    List<String> findNumerosByUsuarioIdAndEjercicio(@Param("usuarioId") Long usuarioId,
+                                                    @Param("ejercicio") Integer ejercicio);
+    
+    // Consultas con grafo de carga: factura, cliente, forma de pago y líneas con su IVA en una sola consulta
+    
+    @EntityGraph(attributePaths = {"cliente", "formaPago", "lineas", "lineas.tipoIVA"})
+    @Query("SELECT f FROM Factura f WHERE f.id = :id")
+    Optional<Factura> findConLineasById(@Param("id") Long id);
+    
+    @EntityGraph(attributePaths = {"cliente", "formaPago", "lineas", "lineas.tipoIVA"})
+    @Query("SELECT f FROM Factura f WHERE f.usuario.id = :usuarioId ORDER BY f.id")
+    List<Factura> findConLineasByUsuarioId(@Param("usuarioId") Long usuarioId);
+    
+    @EntityGraph(attributePaths = {"cliente", "formaPago", "lineas", "lineas.tipoIVA"})
+    @Query("SELECT f FROM Factura f WHERE f.usuario.id = :usuarioId AND f.cliente.id = :clienteId ORDER BY f.id")
+    List<Factura> findConLineasByUsuarioIdAndClienteId(@Param("usuarioId") Long usuarioId,
+                                                       @Param("clienteId") Long clienteId);
+    
+    @EntityGraph(attributePaths = {"cliente", "formaPago", "lineas", "lineas.tipoIVA"})
+    @Query("SELECT f FROM Factura f WHERE f.id IN :ids ORDER BY f.id")
+    List<Factura> findConLineasByIdIn(@Param("ids") Collection<Long> ids);
+    
+    @Query("SELECT f.id FROM Factura f WHERE f.usuario.id = :usuarioId AND f.ejercicio = :ejercicio ORDER BY f.id")
+    List<Long> findIdsByUsuarioIdAndEjercicio(@Param("usuarioId") Long usuarioId,
+                                              @Param("ejercicio") Integer ejercicio);
+    
+    // Listados de cabeceras (sin líneas) proyectados directamente a DTO
+    
+    @Query("SELECT new es.uvigo.mei.facturaaas.dto.FacturaResumenDTO(" +
+           "f.id, f.numeroFactura, f.ejercicio, f.usuario.id, c.id, c.nombre, c.nif, f.fechaEmision, " +
+           "fp.id, fp.descripcion, f.estado, f.comentarios, f.importeTotal, f.ivaTotal, f.sumaTotal) " +
+           "FROM Factura f JOIN f.cliente c JOIN f.formaPago fp " +
+           "WHERE f.usuario.id = :usuarioId ORDER BY f.id")
+    List<FacturaResumenDTO> findResumenByUsuarioId(@Param("usuarioId") Long usuarioId);
+    
+    @Query("SELECT new es.uvigo.mei.facturaaas.dto.FacturaResumenDTO(" +
+           "f.id, f.numeroFactura, f.ejercicio, f.usuario.id, c.id, c.nombre, c.nif, f.fechaEmision, " +
+           "fp.id, fp.descripcion, f.estado, f.comentarios, f.importeTotal, f.ivaTotal, f.sumaTotal) " +
+           "FROM Factura f JOIN f.cliente c JOIN f.formaPago fp " +
+           "WHERE f.usuario.id = :usuarioId AND c.id = :clienteId ORDER BY f.id")
+    List<FacturaResumenDTO> findResumenByUsuarioIdAndClienteId(@Param("usuarioId") Long usuarioId,
+                                                               @Param("clienteId") Long clienteId);
+    
+    /**
+     * Facturas y sus líneas en orden (factura, línea) para exportación en streaming.
+     * El tamaño de fetch hace que el driver lea por bloques en lugar de cargar todo el resultado.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT new es.uvigo.mei.facturaaas.dto.FilaExportacionFacturaDTO(" +
+           "f.id, f.numeroFactura, f.ejercicio, f.usuario.id, f.fechaEmision, f.estado, " +
+           "c.id, c.nombre, c.nif, fp.id, fp.descripcion, f.comentarios, " +
+           "f.importeTotal, f.ivaTotal, f.sumaTotal, " +
+           "l.id, l.numeroLinea, l.concepto, l.cantidad, l.precioUnitario, l.porcentajeDescuento, " +
+           "t.id, t.descripcion, t.porcentaje, l.importeTotal) " +
+           "FROM Factura f JOIN f.cliente c JOIN f.formaPago fp " +
+           "LEFT JOIN f.lineas l LEFT JOIN l.tipoIVA t " +
+           "WHERE f.usuario.id = :usuarioId AND (:ejercicio IS NULL OR f.ejercicio = :ejercicio) " +
+           "ORDER BY f.id, l.numeroLinea")
+    Stream<FilaExportacionFacturaDTO> streamExportacion(@Param("usuarioId") Long usuarioId,
+                                                        @Param("ejercicio") Integer ejercicio);
+    
+    /**
+     * Registros de la cadena de huellas del usuario posteriores a {@code desde}, en orden,
+     * para verificarla en streaming.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("SELECT new es.uvigo.mei.facturaaas.dto.RegistroCadenaDTO(" +
+           "f.id, f.secuenciaRegistro, f.numeroFactura, f.fechaEmision, f.ivaTotal, f.sumaTotal, " +
+           "f.fechaHoraRegistro, f.huellaAnterior, f.huella) " +
+           "FROM Factura f WHERE f.usuario.id = :usuarioId AND f.secuenciaRegistro > :desde " +
+           "ORDER BY f.secuenciaRegistro")
+    Stream<RegistroCadenaDTO> streamCadena(@Param("usuarioId") Long usuarioId, @Param("desde") Long desde);
+    
+    @Query("SELECT f FROM Factura f WHERE f.usuario.id = :usuarioId AND f.secuenciaRegistro = " +
+           "(SELECT MAX(g.secuenciaRegistro) FROM Factura g WHERE g.usuario.id = :usuarioId)")
+    Optional<Factura> findUltimaEncadenada(@Param("usuarioId") Long usuarioId);
+    
+    // Paso a PAGADA de las facturas sin pagos pendientes (conciliación de cobros)
+    
+    @Query("SELECT f.id FROM Factura f WHERE f.id IN :ids " +
+           "AND f.estado IN (es.uvigo.mei.facturaaas.model.Factura.EstadoFactura.EMITIDA, " +
+           "es.uvigo.mei.facturaaas.model.Factura.EstadoFactura.RECLAMADA) " +
+           "AND NOT EXISTS (SELECT p.id FROM Pago p WHERE p.factura = f " +
+           "AND p.estado = es.uvigo.mei.facturaaas.model.Pago.EstadoPago.PENDIENTE)")
+    List<Long> findIdsCobradas(@Param("ids") Collection<Long> ids);
+    
+    @Modifying
+    @Query("UPDATE Factura f SET f.estado = es.uvigo.mei.facturaaas.model.Factura.EstadoFactura.PAGADA, " +
+           "f.version = f.version + 1 WHERE f.id IN :ids")
+    int marcarPagadas(@Param("ids") Collection<Long> ids);
+    
+    /** Comprobación de propiedad por la clave ajena usuario_id, sin unir con usuario. */
+    @Query("SELECT COUNT(f) > 0 FROM Factura f WHERE f.id = :id AND f.usuario.id = :usuarioId")
+    boolean existsByIdAndUsuarioId(@Param("id") Long id, @Param("usuarioId") Long usuarioId);
 }
@@ -0,0 +1,61 @@
+package es.uvigo.mei.facturaaas.repository;
+
+import es.uvigo.mei.facturaaas.dto.FiltroFacturaDTO;
+import es.uvigo.mei.facturaaas.model.Factura;
+import jakarta.persistence.criteria.Predicate;
+import org.springframework.data.jpa.domain.Specification;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Criterios del listado paginado de facturas. Solo se añaden los filtros
+ * informados, para que la consulta pueda usar los índices compuestos
+ * (usuario_id, ..., fecha_emision, id) de schema-postgresql.sql.
+ */
+public final class FacturaSpecifications {
+    
+    private FacturaSpecifications() {
+    }
+    
+    /**
+     * Facturas del usuario que cumplen el filtro y van después del cursor
+     * (fechaEmision, id) en orden descendente.
+     */
+    public static Specification<Factura> listado(Long usuarioId, FiltroFacturaDTO filtro,
+                                                 LocalDate fechaCursor, Long idCursor) {
+        return (root, query, cb) -> {
+            List<Predicate> predicados = new ArrayList<>();
+            predicados.add(cb.equal(root.get("usuario").get("id"), usuarioId));
+            
+            if (filtro.getEstado() != null) {
+                predicados.add(cb.equal(root.get("estado"), filtro.getEstado()));
+            }
+            if (filtro.getEjercicio() != null) {
+                predicados.add(cb.equal(root.get("ejercicio"), filtro.getEjercicio()));
+            }
+            if (filtro.getClienteId() != null) {
+                predicados.add(cb.equal(root.get("cliente").get("id"), filtro.getClienteId()));
+            }
+            if (filtro.getFechaDesde() != null) {
+                predicados.add(cb.greaterThanOrEqualTo(root.get("fechaEmision"), filtro.getFechaDesde()));
+            }
+            if (filtro.getFechaHasta() != null) {
+                predicados.add(cb.lessThanOrEqualTo(root.get("fechaEmision"), filtro.getFechaHasta()));
+            }
+            if (filtro.getImporteMinimo() != null) {
+                predicados.add(cb.greaterThanOrEqualTo(root.get("sumaTotal"), filtro.getImporteMinimo()));
+            }
+            if (filtro.getImporteMaximo() != null) {
+                predicados.add(cb.lessThanOrEqualTo(root.get("sumaTotal"), filtro.getImporteMaximo()));
+            }
+            if (fechaCursor != null) {
+                predicados.add(cb.or(
+                    cb.lessThan(root.get("fechaEmision"), fechaCursor),
+                    cb.and(cb.equal(root.get("fechaEmision"), fechaCursor),
+                           cb.lessThan(root.get("id"), idCursor))));
+            }
+            return cb.and(predicados.toArray(new Predicate[0]));
+        };
+    }
+}
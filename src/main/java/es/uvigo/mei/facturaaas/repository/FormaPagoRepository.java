@@ -2,6 +2,8 @@ package es.uvigo.mei.facturaaas.repository;
 
 import es.uvigo.mei.facturaaas.model.FormaPago;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import java.util.List;
 
@@ -10,4 +12,8 @@ public interface FormaPagoRepository extends JpaRepository<FormaPago, Long> {
     List<FormaPago> findByActivaTrue();
     List<FormaPago> findByUsuarioIdAndActivaTrue(Long usuarioId);
     List<FormaPago> findByUsuarioId(Long usuarioId);
+    
+    /** Comprobación de propiedad por la clave ajena usuario_id, sin unir con usuario. */
+    @Query("SELECT COUNT(f) > 0 FROM FormaPago f WHERE f.id = :id AND f.usuario.id = :usuarioId")
+    boolean existsByIdAndUsuarioId(@Param("id") Long id, @Param("usuarioId") Long usuarioId);
 }
@@ -1,21 +1,68 @@
 package es.uvigo.mei.facturaaas.repository;
 
+import es.uvigo.mei.facturaaas.dto.PagoPendienteDTO;
+import es.uvigo.mei.facturaaas.dto.SituacionPagoDTO;
 import es.uvigo.mei.facturaaas.model.Pago;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
-public interface PagoRepository extends JpaRepository<Pago, Long> {
+public interface PagoRepository extends JpaRepository<Pago, Long>, JpaSpecificationExecutor<Pago> {
     List<Pago> findByFacturaId(Long facturaId);
     
+    @EntityGraph(attributePaths = {"factura", "factura.cliente"})
     @Query("SELECT p FROM Pago p WHERE p.factura.usuario.id = :usuarioId")
     List<Pago> findByUsuarioId(@Param("usuarioId") Long usuarioId);
     
+    @EntityGraph(attributePaths = {"factura", "factura.cliente"})
     @Query("SELECT p FROM Pago p WHERE p.factura.usuario.id = :usuarioId " +
            "AND p.factura.cliente.id = :clienteId")
     List<Pago> findByUsuarioIdAndClienteId(@Param("usuarioId") Long usuarioId, 
                                             @Param("clienteId") Long clienteId);
+    
+    @EntityGraph(attributePaths = {"factura", "factura.cliente"})
+    @Query("SELECT p FROM Pago p WHERE p.id = :id")
+    Optional<Pago> findConFacturaById(@Param("id") Long id);
+    
+    /**
+     * Pagos del usuario identificados por id o por número de factura, en una sola consulta.
+     * Los pagos de otros usuarios no aparecen, por lo que sirve también de comprobación de propiedad.
+     */
+    @Query("SELECT new es.uvigo.mei.facturaaas.dto.SituacionPagoDTO(" +
+           "p.id, p.numeroPago, p.importe, p.estado, p.fechaVencimiento, " +
+           "f.id, f.numeroFactura, f.estado, f.ejercicio, f.fechaEmision, f.cliente.id) " +
+           "FROM Pago p JOIN p.factura f " +
+           "WHERE f.usuario.id = :usuarioId AND (p.id IN :ids OR f.numeroFactura IN :numerosFactura)")
+    List<SituacionPagoDTO> findSituacion(@Param("usuarioId") Long usuarioId,
+                                         @Param("ids") Collection<Long> ids,
+                                         @Param("numerosFactura") Collection<String> numerosFactura);
+    
+    /**
+     * Pagos pendientes de facturas no anuladas del usuario, por fecha de vencimiento,
+     * para construir los índices de conciliación de un extracto.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT new es.uvigo.mei.facturaaas.dto.PagoPendienteDTO(" +
+           "p.id, p.importe, p.fechaVencimiento, c.nif, c.cuentaBancaria) " +
+           "FROM Pago p JOIN p.factura f JOIN f.cliente c " +
+           "WHERE f.usuario.id = :usuarioId " +
+           "AND p.estado = es.uvigo.mei.facturaaas.model.Pago.EstadoPago.PENDIENTE " +
+           "AND f.estado <> es.uvigo.mei.facturaaas.model.Factura.EstadoFactura.ANULADA " +
+           "ORDER BY p.fechaVencimiento, p.id")
+    Stream<PagoPendienteDTO> streamPendientes(@Param("usuarioId") Long usuarioId);
+    
+    /** Comprobación de propiedad por la columna usuario_id del pago, sin unir con factura. */
+    @Query("SELECT COUNT(p) > 0 FROM Pago p WHERE p.id = :id AND p.usuarioId = :usuarioId")
+    boolean existsByIdAndUsuarioId(@Param("id") Long id, @Param("usuarioId") Long usuarioId);
 }
@@ -0,0 +1,63 @@
+package es.uvigo.mei.facturaaas.repository;
+
+import es.uvigo.mei.facturaaas.dto.FiltroPagoDTO;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.model.Pago;
+import jakarta.persistence.criteria.Join;
+import jakarta.persistence.criteria.Predicate;
+import org.springframework.data.jpa.domain.Specification;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Criterios del listado paginado de pagos (cursor sobre fechaVencimiento, id).
+ * El usuario se filtra sobre la columna usuario_id del pago, que encabeza los índices
+ * (usuario_id, ..., fecha_vencimiento, id); solo se une con factura si se filtra
+ * por ejercicio o cliente.
+ */
+public final class PagoSpecifications {
+    
+    private PagoSpecifications() {
+    }
+    
+    public static Specification<Pago> listado(Long usuarioId, FiltroPagoDTO filtro,
+                                              LocalDate fechaCursor, Long idCursor) {
+        return (root, query, cb) -> {
+            List<Predicate> predicados = new ArrayList<>();
+            predicados.add(cb.equal(root.get("usuarioId"), usuarioId));
+            
+            if (filtro.getEstado() != null) {
+                predicados.add(cb.equal(root.get("estado"), filtro.getEstado()));
+            }
+            if (filtro.getEjercicio() != null || filtro.getClienteId() != null) {
+                Join<Pago, Factura> factura = root.join("factura");
+                if (filtro.getEjercicio() != null) {
+                    predicados.add(cb.equal(factura.get("ejercicio"), filtro.getEjercicio()));
+                }
+                if (filtro.getClienteId() != null) {
+                    predicados.add(cb.equal(factura.get("cliente").get("id"), filtro.getClienteId()));
+                }
+            }
+            if (filtro.getFechaDesde() != null) {
+                predicados.add(cb.greaterThanOrEqualTo(root.get("fechaVencimiento"), filtro.getFechaDesde()));
+            }
+            if (filtro.getFechaHasta() != null) {
+                predicados.add(cb.lessThanOrEqualTo(root.get("fechaVencimiento"), filtro.getFechaHasta()));
+            }
+            if (filtro.getImporteMinimo() != null) {
+                predicados.add(cb.greaterThanOrEqualTo(root.get("importe"), filtro.getImporteMinimo()));
+            }
+            if (filtro.getImporteMaximo() != null) {
+                predicados.add(cb.lessThanOrEqualTo(root.get("importe"), filtro.getImporteMaximo()));
+            }
+            if (fechaCursor != null) {
+                predicados.add(cb.or(
+                    cb.lessThan(root.get("fechaVencimiento"), fechaCursor),
+                    cb.and(cb.equal(root.get("fechaVencimiento"), fechaCursor),
+                           cb.lessThan(root.get("id"), idCursor))));
+            }
+            return cb.and(predicados.toArray(new Predicate[0]));
+        };
+    }
+}
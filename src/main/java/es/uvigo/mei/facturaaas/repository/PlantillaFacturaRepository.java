@@ -0,0 +1,41 @@
+package es.uvigo.mei.facturaaas.repository;
+
+import es.uvigo.mei.facturaaas.model.PlantillaFactura;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface PlantillaFacturaRepository extends JpaRepository<PlantillaFactura, Long> {
+    @EntityGraph(attributePaths = {"cliente", "lineas", "lineas.tipoIVA"})
+    @Query("SELECT p FROM PlantillaFactura p WHERE p.id = :id")
+    Optional<PlantillaFactura> findConLineasById(@Param("id") Long id);
+    
+    @EntityGraph(attributePaths = {"cliente", "lineas", "lineas.tipoIVA"})
+    @Query("SELECT p FROM PlantillaFactura p WHERE p.usuario.id = :usuarioId ORDER BY p.id")
+    List<PlantillaFactura> findConLineasByUsuarioId(@Param("usuarioId") Long usuarioId);
+    
+    // Generación: usuarios con plantillas pendientes y, por usuario, un bloque de ellas
+    // (las líneas se cargan en bloque con hibernate.default_batch_fetch_size)
+    
+    @Query("SELECT DISTINCT p.usuario.id FROM PlantillaFactura p " +
+           "WHERE p.activa = true AND p.proximaFecha <= :hoy ORDER BY p.usuario.id")
+    List<Long> findUsuariosConPendientes(@Param("hoy") LocalDate hoy);
+    
+    @Query("SELECT p FROM PlantillaFactura p " +
+           "WHERE p.usuario.id = :usuarioId AND p.activa = true AND p.proximaFecha <= :hoy " +
+           "ORDER BY p.proximaFecha, p.id")
+    List<PlantillaFactura> findPendientes(@Param("usuarioId") Long usuarioId,
+                                          @Param("hoy") LocalDate hoy,
+                                          Pageable pagina);
+    
+    /** Comprobación de propiedad por la clave ajena usuario_id, sin unir con usuario. */
+    @Query("SELECT COUNT(p) > 0 FROM PlantillaFactura p WHERE p.id = :id AND p.usuario.id = :usuarioId")
+    boolean existsByIdAndUsuarioId(@Param("id") Long id, @Param("usuarioId") Long usuarioId);
+}
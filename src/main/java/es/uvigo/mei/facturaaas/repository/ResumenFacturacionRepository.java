@@ -0,0 +1,33 @@
+package es.uvigo.mei.facturaaas.repository;
+
+import es.uvigo.mei.facturaaas.dto.ResumenFacturacionDTO;
+import es.uvigo.mei.facturaaas.model.ResumenFacturacion;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface ResumenFacturacionRepository extends JpaRepository<ResumenFacturacion, Long> {
+    
+    /**
+     * Cuadro de mando de un usuario: una fila por ejercicio, mes y cliente, con lo
+     * pendiente y lo vencido a {@code hoy} sumado desde ResumenVencimiento.
+     */
+    @Query("SELECT new es.uvigo.mei.facturaaas.dto.ResumenFacturacionDTO(" +
+           "r.ejercicio, r.mes, r.clienteId, c.nombre, r.numeroFacturas, r.importeTotal, r.ivaTotal, r.sumaTotal, " +
+           "COALESCE(SUM(v.importePendiente), CAST(0 AS BigDecimal)), " +
+           "COALESCE(SUM(CASE WHEN v.fechaVencimiento < :hoy THEN v.importePendiente END), CAST(0 AS BigDecimal))) " +
+           "FROM ResumenFacturacion r JOIN Cliente c ON c.id = r.clienteId " +
+           "LEFT JOIN ResumenVencimiento v ON v.usuarioId = r.usuarioId AND v.ejercicio = r.ejercicio " +
+           "AND v.mes = r.mes AND v.clienteId = r.clienteId " +
+           "WHERE r.usuarioId = :usuarioId AND (:ejercicio IS NULL OR r.ejercicio = :ejercicio) " +
+           "AND r.numeroFacturas > 0 " +
+           "GROUP BY r.ejercicio, r.mes, r.clienteId, c.nombre, r.numeroFacturas, r.importeTotal, r.ivaTotal, r.sumaTotal " +
+           "ORDER BY r.ejercicio, r.mes, c.nombre")
+    List<ResumenFacturacionDTO> findCuadroMando(@Param("usuarioId") Long usuarioId,
+                                                @Param("ejercicio") Integer ejercicio,
+                                                @Param("hoy") LocalDate hoy);
+}
@@ -0,0 +1,9 @@
+package es.uvigo.mei.facturaaas.repository;
+
+import es.uvigo.mei.facturaaas.model.ResumenVencimiento;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ResumenVencimientoRepository extends JpaRepository<ResumenVencimiento, Long> {
+}
@@ -2,6 +2,9 @@ package es.uvigo.mei.facturaaas.repository;
 
 import es.uvigo.mei.facturaaas.model.Usuario;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import java.util.Optional;
 
@@ -11,4 +14,8 @@ public interface UsuarioRepository extends JpaRepository<Usuario, Long> {
     Optional<Usuario> findByEmail(String email);
     boolean existsByLogin(String login);
     boolean existsByEmail(String email);
+    
+    @Modifying
+    @Query("UPDATE Usuario u SET u.password = :password WHERE u.id = :id")
+    int actualizarPassword(@Param("id") Long id, @Param("password") String password);
 }
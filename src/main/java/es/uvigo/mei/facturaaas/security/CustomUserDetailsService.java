@@ -2,11 +2,12 @@ package es.uvigo.mei.facturaaas.security;
 
 import es.uvigo.mei.facturaaas.model.Usuario;
 import es.uvigo.mei.facturaaas.repository.UsuarioRepository;
+import es.uvigo.mei.facturaaas.service.UsuarioService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
-import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
@@ -14,11 +15,14 @@ import java.util.Collections;
 import java.util.List;
 
 @Service
-public class CustomUserDetailsService implements UserDetailsService {
+public class CustomUserDetailsService implements UserDetailsService, UserDetailsPasswordService {
     
     @Autowired
     private UsuarioRepository usuarioRepository;
     
+    @Autowired
+    private UsuarioService usuarioService;
+    
     @Override
     public UserDetails loadUserByUsername(String login) throws UsernameNotFoundException {
         Usuario usuario = usuarioRepository.findByLogin(login)
@@ -32,6 +36,18 @@ public class CustomUserDetailsService implements UserDetailsService {
             new SimpleGrantedAuthority("ROLE_" + usuario.getRol().name())
         );
         
-        return new User(usuario.getLogin(), usuario.getPassword(), authorities);
+        return new UsuarioUserDetails(usuario, authorities);
+    }
+    
+    /**
+     * Llamado por Spring Security tras un login correcto cuyo hash necesita
+     * recodificarse (sin prefijo de algoritmo o con un coste BCrypt menor).
+     */
+    @Override
+    public UserDetails updatePassword(UserDetails user, String newPassword) {
+        Usuario usuario = ((UsuarioUserDetails) user).getUsuario();
+        usuarioService.actualizarHashPassword(usuario.getId(), newPassword);
+        usuario.setPassword(newPassword);
+        return new UsuarioUserDetails(usuario, user.getAuthorities());
     }
 }
@@ -0,0 +1,43 @@
+package es.uvigo.mei.facturaaas.security;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Pool acotado donde se ejecutan los logins (dominados por BCrypt), para que una
+ * ráfaga de inicios de sesión no ocupe los hilos de Tomcat que atienden el resto
+ * de la API. Con el pool y la cola llenos se rechaza la tarea
+ * (RejectedExecutionException, respondida como 503).
+ * <p>
+ * No se publica como bean de tipo Executor para no sustituir el ejecutor de
+ * tareas por defecto de Spring Boot.
+ */
+@Component
+public class EjecutorLogin {
+    
+    private final ThreadPoolExecutor executor;
+    
+    public EjecutorLogin(@Value("${seguridad.login.hilos:0}") int hilos,
+                         @Value("${seguridad.login.cola:200}") int cola) {
+        int tamano = hilos > 0 ? hilos : Runtime.getRuntime().availableProcessors();
+        this.executor = new ThreadPoolExecutor(tamano, tamano, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(cola), new CustomizableThreadFactory("login-"),
+            new ThreadPoolExecutor.AbortPolicy());
+    }
+    
+    public <T> CompletableFuture<T> ejecutar(Supplier<T> tarea) {
+        return CompletableFuture.supplyAsync(tarea, executor);
+    }
+    
+    @PreDestroy
+    public void cerrar() {
+        executor.shutdown();
+    }
+}
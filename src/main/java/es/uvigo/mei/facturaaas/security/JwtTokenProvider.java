@@ -1,25 +1,49 @@
 package es.uvigo.mei.facturaaas.security;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Component;
 import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Genera y valida los JWT. La clave HMAC y el parser se construyen una sola vez
+ * (ambos son inmutables y seguros entre hilos), y los tokens ya verificados se
+ * guardan, por su hash SHA-256, hasta que caducan.
+ */
 @Component
 public class JwtTokenProvider {
     
-    @Value("${jwt.secret}")
-    private String jwtSecret;
+    private final long jwtExpirationMs;
+    private final SecretKey signingKey;
+    private final JwtParser parser;
+    private final Cache<String, Claims> tokensVerificados;
     
-    @Value("${jwt.expiration}")
-    private long jwtExpirationMs;
-    
-    private SecretKey getSigningKey() {
-        return Keys.hmacShaKeyFor(jwtSecret.getBytes());
+    public JwtTokenProvider(@Value("${jwt.secret}") String jwtSecret,
+                            @Value("${jwt.expiration}") long jwtExpirationMs,
+                            @Value("${jwt.cache-tokens.tamano-maximo:10000}") long tamanoCache) {
+        this.jwtExpirationMs = jwtExpirationMs;
+        this.signingKey = Keys.hmacShaKeyFor(jwtSecret.getBytes());
+        this.parser = Jwts.parser()
+                .verifyWith(signingKey)
+                .build();
+        this.tokensVerificados = Caffeine.newBuilder()
+                .maximumSize(tamanoCache)
+                .expireAfter(new ExpiraConElToken())
+                .build();
     }
     
     public String generateToken(Authentication authentication) {
@@ -31,29 +55,61 @@ public class JwtTokenProvider {
                 .subject(username)
                 .issuedAt(now)
                 .expiration(expiryDate)
-                .signWith(getSigningKey())
+                .signWith(signingKey)
                 .compact();
     }
     
-    public String getUsernameFromToken(String token) {
-        Claims claims = Jwts.parser()
-                .verifyWith(getSigningKey())
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
-        
-        return claims.getSubject();
+    /**
+     * Verifica el token y devuelve sus claims, o vacío si no es válido o ha caducado.
+     */
+    public Optional<Claims> parseClaims(String token) {
+        String clave = hash(token);
+        Claims claims = tokensVerificados.getIfPresent(clave);
+        if (claims != null) {
+            // La caché expira con el token, pero puede quedar un resto de milisegundos
+            return claims.getExpiration().getTime() > System.currentTimeMillis()
+                ? Optional.of(claims) : Optional.empty();
+        }
+        try {
+            claims = parser.parseSignedClaims(token).getPayload();
+        } catch (Exception ex) {
+            return Optional.empty();
+        }
+        if (claims.getExpiration() != null) {
+            tokensVerificados.put(clave, claims);
+        }
+        return Optional.of(claims);
     }
     
-    public boolean validateToken(String token) {
+    private static String hash(String token) {
         try {
-            Jwts.parser()
-                    .verifyWith(getSigningKey())
-                    .build()
-                    .parseSignedClaims(token);
-            return true;
-        } catch (Exception ex) {
-            return false;
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    /**
+     * Cada entrada vive hasta la fecha de expiración de su token.
+     */
+    private static class ExpiraConElToken implements Expiry<String, Claims> {
+        
+        @Override
+        public long expireAfterCreate(String clave, Claims claims, long ahoraNanos) {
+            long restanteMs = claims.getExpiration().getTime() - System.currentTimeMillis();
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(restanteMs, 0));
+        }
+        
+        @Override
+        public long expireAfterUpdate(String clave, Claims claims, long ahoraNanos, long duracionActual) {
+            return expireAfterCreate(clave, claims, ahoraNanos);
+        }
+        
+        @Override
+        public long expireAfterRead(String clave, Claims claims, long ahoraNanos, long duracionActual) {
+            return duracionActual;
         }
     }
 }
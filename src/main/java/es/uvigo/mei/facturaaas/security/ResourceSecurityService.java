@@ -1,15 +1,17 @@
 package es.uvigo.mei.facturaaas.security;
 
-import es.uvigo.mei.facturaaas.model.*;
 import es.uvigo.mei.facturaaas.repository.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
+import java.util.Optional;
 
 /**
  * Servicio de seguridad para verificar que el usuario autenticado
  * tenga acceso solo a sus propios recursos.
+ * Cada comprobación de propiedad es una única consulta de existencia
+ * por id y por la columna usuario_id, sin cargar la entidad ni unir tablas.
  */
 @Component("resourceSecurity")
 public class ResourceSecurityService {
@@ -27,29 +29,32 @@ public class ResourceSecurityService {
     private PagoRepository pagoRepository;
     
     @Autowired
-    private UsuarioRepository usuarioRepository;
+    private PlantillaFacturaRepository plantillaFacturaRepository;
+    
+    @Autowired
+    private UsuarioAutenticadoCache usuarioAutenticadoCache;
     
     /**
-     * Obtiene el login del usuario actualmente autenticado
+     * Obtiene el usuario actualmente autenticado. El filtro JWT deja el
+     * UsuarioAutenticado como principal, por lo que no se consulta la base de datos.
      */
-    private String getAuthenticatedUserLogin() {
+    private Optional<UsuarioAutenticado> getAuthenticatedUser() {
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         if (authentication == null || !authentication.isAuthenticated()) {
-            return null;
+            return Optional.empty();
+        }
+        if (authentication.getPrincipal() instanceof UsuarioAutenticado usuario) {
+            return Optional.of(usuario);
         }
-        return authentication.getName();
+        return usuarioAutenticadoCache.obtener(authentication.getName());
     }
     
     /**
      * Obtiene el ID del usuario actualmente autenticado
      */
     private Long getAuthenticatedUserId() {
-        String login = getAuthenticatedUserLogin();
-        if (login == null) {
-            return null;
-        }
-        return usuarioRepository.findByLogin(login)
-            .map(Usuario::getId)
+        return getAuthenticatedUser()
+            .map(UsuarioAutenticado::id)
             .orElse(null);
     }
     
@@ -57,12 +62,8 @@ public class ResourceSecurityService {
      * Verifica si el usuario autenticado es ADMINISTRADOR
      */
     public boolean isAdmin() {
-        String login = getAuthenticatedUserLogin();
-        if (login == null) {
-            return false;
-        }
-        return usuarioRepository.findByLogin(login)
-            .map(u -> u.getRol() == Usuario.Rol.ADMINISTRADOR)
+        return getAuthenticatedUser()
+            .map(UsuarioAutenticado::isAdmin)
             .orElse(false);
     }
     
@@ -88,9 +89,7 @@ public class ResourceSecurityService {
         if (authenticatedUserId == null) {
             return false;
         }
-        return clienteRepository.findById(clienteId)
-            .map(cliente -> cliente.getUsuario().getId().equals(authenticatedUserId))
-            .orElse(false);
+        return clienteRepository.existsByIdAndUsuarioId(clienteId, authenticatedUserId);
     }
     
     /**
@@ -104,9 +103,7 @@ public class ResourceSecurityService {
         if (authenticatedUserId == null) {
             return false;
         }
-        return facturaRepository.findById(facturaId)
-            .map(factura -> factura.getUsuario().getId().equals(authenticatedUserId))
-            .orElse(false);
+        return facturaRepository.existsByIdAndUsuarioId(facturaId, authenticatedUserId);
     }
     
     /**
@@ -120,14 +117,12 @@ public class ResourceSecurityService {
         if (authenticatedUserId == null) {
             return false;
         }
-        return formaPagoRepository.findById(formaPagoId)
-            .map(formaPago -> formaPago.getUsuario().getId().equals(authenticatedUserId))
-            .orElse(false);
+        return formaPagoRepository.existsByIdAndUsuarioId(formaPagoId, authenticatedUserId);
     }
     
     /**
      * Verifica si el pago pertenece al usuario autenticado
-     * (a través de la factura a la que pertenece el pago)
+     * (por el usuario_id que el pago copia de su factura)
      */
     public boolean isPagoOwner(Long pagoId) {
         if (pagoId == null) {
@@ -137,9 +132,21 @@ public class ResourceSecurityService {
         if (authenticatedUserId == null) {
             return false;
         }
-        return pagoRepository.findById(pagoId)
-            .map(pago -> pago.getFactura().getUsuario().getId().equals(authenticatedUserId))
-            .orElse(false);
+        return pagoRepository.existsByIdAndUsuarioId(pagoId, authenticatedUserId);
+    }
+    
+    /**
+     * Verifica si la plantilla de factura recurrente pertenece al usuario autenticado
+     */
+    public boolean isPlantillaOwner(Long plantillaId) {
+        if (plantillaId == null) {
+            return false;
+        }
+        Long authenticatedUserId = getAuthenticatedUserId();
+        if (authenticatedUserId == null) {
+            return false;
+        }
+        return plantillaFacturaRepository.existsByIdAndUsuarioId(plantillaId, authenticatedUserId);
     }
     
     /**
@@ -177,4 +184,11 @@ public class ResourceSecurityService {
     public boolean canAccessPago(Long pagoId) {
         return isAdmin() || isPagoOwner(pagoId);
     }
+    
+    /**
+     * Verifica si el usuario autenticado puede acceder a la plantilla de factura
+     */
+    public boolean canAccessPlantilla(Long plantillaId) {
+        return isAdmin() || isPlantillaOwner(plantillaId);
+    }
 }
@@ -0,0 +1,21 @@
+package es.uvigo.mei.facturaaas.security;
+
+import es.uvigo.mei.facturaaas.model.Usuario;
+import org.springframework.security.core.AuthenticatedPrincipal;
+
+/**
+ * Datos mínimos del usuario autenticado que necesitan el filtro JWT y las
+ * comprobaciones de @PreAuthorize. Se guarda como principal de la autenticación.
+ */
+public record UsuarioAutenticado(Long id, String login, Usuario.Rol rol, boolean activo)
+        implements AuthenticatedPrincipal {
+    
+    @Override
+    public String getName() {
+        return login;
+    }
+    
+    public boolean isAdmin() {
+        return rol == Usuario.Rol.ADMINISTRADOR;
+    }
+}
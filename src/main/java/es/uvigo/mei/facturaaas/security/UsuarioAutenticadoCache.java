@@ -0,0 +1,60 @@
+package es.uvigo.mei.facturaaas.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import es.uvigo.mei.facturaaas.repository.UsuarioRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Caché acotada de {@link UsuarioAutenticado} por login, para que las peticiones
+ * autenticadas no consulten la tabla usuario. Las entradas caducan tras
+ * {@code seguridad.cache-usuarios.ttl-segundos}; UsuarioService las invalida
+ * al modificar o desactivar un usuario en este nodo, también tras el commit.
+ */
+@Component
+public class UsuarioAutenticadoCache {
+    
+    private final UsuarioRepository usuarioRepository;
+    private final Cache<String, Optional<UsuarioAutenticado>> cache;
+    
+    public UsuarioAutenticadoCache(UsuarioRepository usuarioRepository,
+                                   @Value("${seguridad.cache-usuarios.tamano-maximo:10000}") long tamanoMaximo,
+                                   @Value("${seguridad.cache-usuarios.ttl-segundos:60}") long ttlSegundos) {
+        this.usuarioRepository = usuarioRepository;
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(tamanoMaximo)
+            .expireAfterWrite(Duration.ofSeconds(ttlSegundos))
+            .build();
+    }
+    
+    /**
+     * Devuelve el usuario, o vacío si no existe. Los inexistentes también se
+     * cachean para no consultar la base de datos con tokens de usuarios borrados.
+     */
+    public Optional<UsuarioAutenticado> obtener(String login) {
+        return cache.get(login, clave -> usuarioRepository.findByLogin(clave)
+            .map(u -> new UsuarioAutenticado(u.getId(), u.getLogin(), u.getRol(), u.getActivo())));
+    }
+    
+    /**
+     * Invalida la entrada ya y, si hay una transacción en curso, otra vez tras el
+     * commit: una petición concurrente podría haber recargado la fila anterior (por
+     * ejemplo, el usuario aún activo) y mantenerla durante todo el TTL.
+     */
+    public void invalidar(String login) {
+        cache.invalidate(login);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cache.invalidate(login);
+                }
+            });
+        }
+    }
+}
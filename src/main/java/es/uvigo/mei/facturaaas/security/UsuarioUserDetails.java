@@ -0,0 +1,24 @@
+package es.uvigo.mei.facturaaas.security;
+
+import es.uvigo.mei.facturaaas.model.Usuario;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import java.util.Collection;
+
+/**
+ * UserDetails que conserva el Usuario cargado durante la autenticación,
+ * para construir la respuesta del login sin volver a consultarlo.
+ */
+public class UsuarioUserDetails extends User {
+    
+    private final transient Usuario usuario;
+    
+    public UsuarioUserDetails(Usuario usuario, Collection<? extends GrantedAuthority> authorities) {
+        super(usuario.getLogin(), usuario.getPassword(), authorities);
+        this.usuario = usuario;
+    }
+    
+    public Usuario getUsuario() {
+        return usuario;
+    }
+}
@@ -0,0 +1,114 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.dto.EventoFacturaDTO;
+import es.uvigo.mei.facturaaas.model.EventoFactura;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.model.Pago;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bandeja de salida de los eventos de facturas y pagos: los inserta en evento_factura
+ * dentro de la transacción que hace el cambio, de modo que se confirman (o se
+ * descartan) con él. PublicadorEventosService los publica después.
+ * <p>
+ * Para que los eventos de una misma factura tengan ids en el orden en que se
+ * confirman, antes de insertarlos se bloquean las filas de sus facturas, en orden de
+ * id (una factura recién creada no la ve ninguna otra transacción y no se bloquea).
+ * Los cambios pendientes del contexto de persistencia se vuelcan antes del bloqueo,
+ * para que las facturas se bloqueen siempre después que los pagos, igual que en la
+ * conciliación.
+ */
+@Component
+@Transactional(propagation = Propagation.MANDATORY)
+public class BandejaEventos {
+    
+    private static final int FACTURAS_POR_BLOQUEO = 500;
+    
+    private static final String SQL_INSERTAR =
+        "INSERT INTO evento_factura (tipo, usuario_id, factura_id, numero_factura, estado_factura, " +
+        "pago_id, estado_pago, importe, fecha_creacion) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @PersistenceContext
+    private EntityManager entityManager;
+    
+    public void registrarFacturas(EventoFactura.TipoEvento tipo, List<Factura> facturas) {
+        List<EventoFacturaDTO> eventos = new ArrayList<>(facturas.size());
+        for (Factura factura : facturas) {
+            eventos.add(evento(tipo, factura.getUsuario().getId(), factura.getId(), factura.getNumeroFactura(),
+                factura.getEstado(), null, null, factura.getSumaTotal()));
+        }
+        registrar(eventos);
+    }
+    
+    /**
+     * Registra el cambio de estado de un pago: PAGO_COBRADO si ha pasado a PAGADO.
+     */
+    public void registrarPago(Pago pago) {
+        Factura factura = pago.getFactura();
+        EventoFactura.TipoEvento tipo = pago.getEstado() == Pago.EstadoPago.PAGADO
+            ? EventoFactura.TipoEvento.PAGO_COBRADO
+            : EventoFactura.TipoEvento.PAGO_ACTUALIZADO;
+        registrar(List.of(evento(tipo, factura.getUsuario().getId(), factura.getId(), factura.getNumeroFactura(),
+            factura.getEstado(), pago.getId(), pago.getEstado(), pago.getImporte())));
+    }
+    
+    public void registrar(List<EventoFacturaDTO> eventos) {
+        if (eventos.isEmpty()) {
+            return;
+        }
+        List<Long> existentes = eventos.stream()
+            .filter(evento -> evento.getTipo() != EventoFactura.TipoEvento.FACTURA_CREADA)
+            .map(EventoFacturaDTO::getFacturaId)
+            .distinct()
+            .sorted()
+            .toList();
+        if (!existentes.isEmpty()) {
+            entityManager.flush();
+            bloquearFacturas(existentes);
+        }
+        
+        Timestamp ahora = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> filas = new ArrayList<>(eventos.size());
+        for (EventoFacturaDTO evento : eventos) {
+            filas.add(new Object[] { evento.getTipo().name(), evento.getUsuarioId(), evento.getFacturaId(),
+                evento.getNumeroFactura(), nombre(evento.getEstadoFactura()), evento.getPagoId(),
+                nombre(evento.getEstadoPago()), evento.getImporte(), ahora });
+        }
+        jdbcTemplate.batchUpdate(SQL_INSERTAR, filas);
+    }
+    
+    public static EventoFacturaDTO evento(EventoFactura.TipoEvento tipo, Long usuarioId, Long facturaId,
+                                          String numeroFactura, Factura.EstadoFactura estadoFactura,
+                                          Long pagoId, Pago.EstadoPago estadoPago, BigDecimal importe) {
+        return new EventoFacturaDTO(null, tipo, usuarioId, facturaId, numeroFactura, estadoFactura,
+            pagoId, estadoPago, importe, null);
+    }
+    
+    private void bloquearFacturas(List<Long> facturaIds) {
+        for (int inicio = 0; inicio < facturaIds.size(); inicio += FACTURAS_POR_BLOQUEO) {
+            List<Long> bloque = facturaIds.subList(inicio, Math.min(inicio + FACTURAS_POR_BLOQUEO, facturaIds.size()));
+            String marcadores = String.join(", ", Collections.nCopies(bloque.size(), "?"));
+            jdbcTemplate.queryForList("SELECT id FROM factura WHERE id IN (" + marcadores + ") ORDER BY id FOR UPDATE",
+                Long.class, bloque.toArray());
+        }
+    }
+    
+    private static String nombre(Enum<?> valor) {
+        return valor != null ? valor.name() : null;
+    }
+}
@@ -0,0 +1,134 @@
+package es.uvigo.mei.facturaaas.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Barrido periódico de pagos vencidos. Marca con fecha_reclamacion los pagos
+ * pendientes cuyo vencimiento ya pasó y pasa a RECLAMADA las facturas emitidas que
+ * tienen alguno. Son dos UPDATE sobre conjuntos (índice de pago por estado y fecha
+ * de vencimiento), sin cargar entidades; los pagos siguen PENDIENTE y se pueden
+ * cobrar o conciliar igual que antes.
+ * <p>
+ * Cada factura reclamada deja un evento FACTURA_ACTUALIZADA en la bandeja de salida,
+ * insertado con un INSERT ... SELECT con el mismo predicado que el UPDATE y en su
+ * misma transacción. Como en BandejaEventos, las facturas se bloquean antes (en orden
+ * de id y después de los pagos) para que sus eventos reciban ids en el orden en que
+ * se confirman. Si las sentencias no cuentan las mismas facturas (otra transacción
+ * cambió alguna entre ambas) el barrido se deshace y lo repite la siguiente ejecución.
+ * <p>
+ * Solo lo ejecuta el nodo que obtiene el arrendamiento (ver BloqueoTareas). Las filas
+ * tocadas y la duración se publican en Actuator como barrido.vencidos.*.
+ */
+@Service
+public class BarridoVencidosService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(BarridoVencidosService.class);
+    
+    static final String TAREA = "barrido-vencidos";
+    
+    private static final String SQL_MARCAR_PAGOS =
+        "UPDATE pago SET fecha_reclamacion = ? " +
+        "WHERE estado = 'PENDIENTE' AND fecha_vencimiento < ? AND fecha_reclamacion IS NULL " +
+        "AND factura_id IN (SELECT id FROM factura WHERE estado IN ('EMITIDA', 'RECLAMADA'))";
+    private static final String PREDICADO_RECLAMAR =
+        "WHERE estado = 'EMITIDA' AND id IN " +
+        "(SELECT factura_id FROM pago WHERE estado = 'PENDIENTE' AND fecha_vencimiento < ?)";
+    private static final String SQL_BLOQUEAR_FACTURAS =
+        "SELECT id FROM factura " + PREDICADO_RECLAMAR + " ORDER BY id FOR UPDATE";
+    private static final String SQL_EVENTOS_RECLAMADAS =
+        "INSERT INTO evento_factura (tipo, usuario_id, factura_id, numero_factura, estado_factura, " +
+        "importe, fecha_creacion) SELECT 'FACTURA_ACTUALIZADA', usuario_id, id, numero_factura, 'RECLAMADA', " +
+        "suma_total, ? FROM factura " + PREDICADO_RECLAMAR + " ORDER BY id";
+    private static final String SQL_RECLAMAR_FACTURAS =
+        "UPDATE factura SET estado = 'RECLAMADA', version = version + 1 " + PREDICADO_RECLAMAR;
+    
+    private final JdbcTemplate jdbcTemplate;
+    private final BloqueoTareas bloqueoTareas;
+    private final TransactionTemplate transaccion;
+    private final Duration duracionBloqueo;
+    
+    private final Counter pagosMarcados;
+    private final Counter facturasReclamadas;
+    private final Counter ejecucionesOmitidas;
+    private final Timer duracion;
+    
+    public BarridoVencidosService(JdbcTemplate jdbcTemplate,
+                                  BloqueoTareas bloqueoTareas,
+                                  PlatformTransactionManager transactionManager,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${pago.barrido-vencidos.bloqueo-minutos:10}") long bloqueoMinutos) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.bloqueoTareas = bloqueoTareas;
+        this.transaccion = new TransactionTemplate(transactionManager);
+        this.duracionBloqueo = Duration.ofMinutes(bloqueoMinutos);
+        
+        this.pagosMarcados = Counter.builder("barrido.vencidos.pagos")
+            .description("Pagos vencidos marcados como reclamados")
+            .register(meterRegistry);
+        this.facturasReclamadas = Counter.builder("barrido.vencidos.facturas")
+            .description("Facturas pasadas a RECLAMADA")
+            .register(meterRegistry);
+        this.ejecucionesOmitidas = Counter.builder("barrido.vencidos.omitidos")
+            .description("Ejecuciones omitidas porque otro nodo tenía el arrendamiento")
+            .register(meterRegistry);
+        this.duracion = Timer.builder("barrido.vencidos.duracion")
+            .description("Duración de cada barrido de vencidos")
+            .register(meterRegistry);
+    }
+    
+    @Scheduled(cron = "${pago.barrido-vencidos.cron:-}")
+    public void barrer() {
+        ejecutar(LocalDate.now());
+    }
+    
+    /**
+     * Barre los pagos con vencimiento anterior a {@code hoy}. Devuelve null si otro
+     * nodo tiene el arrendamiento.
+     */
+    public Resultado ejecutar(LocalDate hoy) {
+        if (!bloqueoTareas.adquirir(TAREA, duracionBloqueo)) {
+            ejecucionesOmitidas.increment();
+            logger.debug("Barrido de vencidos omitido: lo está ejecutando otro nodo");
+            return null;
+        }
+        try {
+            Resultado resultado = duracion.record(() -> transaccion.execute(estado -> {
+                Date fecha = Date.valueOf(hoy);
+                int pagos = jdbcTemplate.update(SQL_MARCAR_PAGOS, fecha, fecha);
+                int bloqueadas = jdbcTemplate.queryForList(SQL_BLOQUEAR_FACTURAS, Long.class, fecha).size();
+                int eventos = jdbcTemplate.update(SQL_EVENTOS_RECLAMADAS, Timestamp.valueOf(LocalDateTime.now()), fecha);
+                int facturas = jdbcTemplate.update(SQL_RECLAMAR_FACTURAS, fecha);
+                if (eventos != facturas || bloqueadas != facturas) {
+                    throw new IllegalStateException("Barrido de vencidos: " + bloqueadas + " facturas bloqueadas y "
+                        + eventos + " eventos para " + facturas + " facturas reclamadas; se repetirá en la siguiente ejecución");
+                }
+                return new Resultado(pagos, facturas);
+            }));
+            pagosMarcados.increment(resultado.pagos());
+            facturasReclamadas.increment(resultado.facturas());
+            logger.info("Barrido de vencidos: {} pagos marcados, {} facturas reclamadas",
+                resultado.pagos(), resultado.facturas());
+            return resultado;
+        } finally {
+            bloqueoTareas.liberar(TAREA);
+        }
+    }
+    
+    public record Resultado(int pagos, int facturas) {
+    }
+}
@@ -0,0 +1,82 @@
+package es.uvigo.mei.facturaaas.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Arrendamientos de tareas programadas en la tabla bloqueo_tarea, para que con
+ * varios nodos cada ejecución la haga solo uno. Adquirir es un UPDATE condicional
+ * (libre o caducado) confirmado en su propia transacción; si no actualiza ninguna
+ * fila, un INSERT ... WHERE NOT EXISTS crea la fila solo si aún no existe, de modo
+ * que perder el arrendamiento no provoca un error de clave duplicada en cada
+ * ejecución. Las horas se toman del reloj de la base de datos para no depender del
+ * de cada nodo.
+ */
+@Component
+public class BloqueoTareas {
+    
+    private static final String SQL_AHORA = "SELECT LOCALTIMESTAMP";
+    private static final String SQL_ADQUIRIR =
+        "UPDATE bloqueo_tarea SET propietario = ?, bloqueado_hasta = ? " +
+        "WHERE nombre = ? AND (bloqueado_hasta <= ? OR propietario = ?)";
+    private static final String SQL_CREAR =
+        "INSERT INTO bloqueo_tarea (nombre, propietario, bloqueado_hasta) " +
+        "SELECT CAST(? AS VARCHAR(100)), CAST(? AS VARCHAR(200)), CAST(? AS TIMESTAMP) " +
+        "WHERE NOT EXISTS (SELECT 1 FROM bloqueo_tarea WHERE nombre = ?)";
+    private static final String SQL_LIBERAR =
+        "UPDATE bloqueo_tarea SET bloqueado_hasta = ? WHERE nombre = ? AND propietario = ?";
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    private final TransactionTemplate nuevaTransaccion;
+    private final String propietario;
+    
+    public BloqueoTareas(PlatformTransactionManager transactionManager) {
+        this.nuevaTransaccion = new TransactionTemplate(transactionManager);
+        this.nuevaTransaccion.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.propietario = nombreNodo() + "/" + UUID.randomUUID();
+    }
+    
+    /**
+     * Reserva la tarea durante {@code duracion}. Devuelve false si otro nodo la tiene reservada.
+     */
+    public boolean adquirir(String nombre, Duration duracion) {
+        try {
+            return Boolean.TRUE.equals(nuevaTransaccion.execute(estado -> {
+                Timestamp ahora = jdbcTemplate.queryForObject(SQL_AHORA, Timestamp.class);
+                Timestamp hasta = Timestamp.valueOf(ahora.toLocalDateTime().plus(duracion));
+                return jdbcTemplate.update(SQL_ADQUIRIR, propietario, hasta, nombre, ahora, propietario) == 1
+                    || jdbcTemplate.update(SQL_CREAR, nombre, propietario, hasta, nombre) == 1;
+            }));
+        } catch (DataIntegrityViolationException ex) {
+            // Solo la primera vez: otro nodo ha creado la fila a la vez que este
+            return false;
+        }
+    }
+    
+    public void liberar(String nombre) {
+        nuevaTransaccion.executeWithoutResult(estado -> {
+            Timestamp ahora = jdbcTemplate.queryForObject(SQL_AHORA, Timestamp.class);
+            jdbcTemplate.update(SQL_LIBERAR, ahora, nombre, propietario);
+        });
+    }
+    
+    private static String nombreNodo() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException ex) {
+            return "desconocido";
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package es.uvigo.mei.facturaaas.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import es.uvigo.mei.facturaaas.model.Cliente;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Búsqueda de clientes por nombre, NIF, localidad y email, sin distinguir tildes ni
+ * mayúsculas, ordenada por relevancia.
+ * <p>
+ * Con {@code cliente.busqueda.motor=POSTGRESQL} se consulta la columna generada
+ * cliente.busqueda (texto sin tildes) y su tsvector, con índices GIN de trigramas y de
+ * texto completo (ver schema-postgresql.sql): cada término se busca como principio de
+ * palabra y, si todos tienen al menos tres caracteres, el texto completo también como
+ * subcadena; con menos, el LIKE '%x%' no tiene trigramas que buscar en el índice y
+ * recorrería la tabla, y en memoria un término corto tampoco casa en mitad de una
+ * palabra. Con MEMORIA (H2 en desarrollo) se usa
+ * un IndiceClientes por usuario, construido en la primera búsqueda y actualizado tras
+ * el commit de cada alta o modificación; el TTL acota lo que tarda en verse un
+ * cambio hecho desde otro nodo o directamente en la base de datos.
+ */
+@Component
+public class BuscadorClientes {
+    
+    private static final int LONGITUD_MINIMA_SUBCADENA = 3;
+    
+    private static final String SQL_BUSCAR =
+        "SELECT c.id FROM cliente c, to_tsquery('simple', ?) q " +
+        "WHERE c.usuario_id = ? AND (c.busqueda_tsv @@ q OR c.busqueda LIKE ?) " +
+        "ORDER BY ts_rank(c.busqueda_tsv, q) + word_similarity(?, c.busqueda) DESC, c.nombre, c.id " +
+        "LIMIT ? OFFSET ?";
+    private static final String SQL_BUSCAR_PALABRAS =
+        "SELECT c.id FROM cliente c, to_tsquery('simple', ?) q " +
+        "WHERE c.usuario_id = ? AND c.busqueda_tsv @@ q " +
+        "ORDER BY ts_rank(c.busqueda_tsv, q) + word_similarity(?, c.busqueda) DESC, c.nombre, c.id " +
+        "LIMIT ? OFFSET ?";
+    private static final String SQL_CLIENTES_USUARIO =
+        "SELECT id, nombre, nif, localidad, email FROM cliente WHERE usuario_id = ?";
+    
+    public enum Motor { POSTGRESQL, MEMORIA }
+    
+    private final JdbcTemplate jdbcTemplate;
+    private final Motor motor;
+    private final Cache<Long, IndiceClientes> indices;
+    
+    public BuscadorClientes(JdbcTemplate jdbcTemplate,
+                            MeterRegistry meterRegistry,
+                            @Value("${cliente.busqueda.motor:MEMORIA}") Motor motor,
+                            @Value("${cliente.busqueda.indices-maximos:100}") long indicesMaximos,
+                            @Value("${cliente.busqueda.ttl-segundos:600}") long ttlSegundos) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.motor = motor;
+        this.indices = Caffeine.newBuilder()
+            .maximumSize(indicesMaximos)
+            .expireAfterWrite(Duration.ofSeconds(ttlSegundos))
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, indices, "indices-clientes");
+    }
+    
+    /**
+     * Ids de los clientes del usuario que coinciden con {@code texto}, por relevancia.
+     */
+    public List<Long> buscar(Long usuarioId, String texto, int desde, int cantidad) {
+        String normalizado = IndiceClientes.normalizar(texto);
+        if (normalizado.isEmpty()) {
+            return List.of();
+        }
+        if (motor == Motor.POSTGRESQL) {
+            String[] terminos = normalizado.split(" ");
+            String consulta = String.join(":* & ", terminos) + ":*";
+            boolean subcadena = true;
+            for (String termino : terminos) {
+                subcadena &= termino.length() >= LONGITUD_MINIMA_SUBCADENA;
+            }
+            if (!subcadena) {
+                return jdbcTemplate.queryForList(SQL_BUSCAR_PALABRAS, Long.class,
+                    consulta, usuarioId, normalizado, cantidad, desde);
+            }
+            return jdbcTemplate.queryForList(SQL_BUSCAR, Long.class,
+                consulta, usuarioId, "%" + normalizado + "%", normalizado, cantidad, desde);
+        }
+        return indices.get(usuarioId, this::construir).buscar(normalizado, desde, cantidad);
+    }
+    
+    /**
+     * Lleva el alta o modificación del cliente al índice en memoria tras el commit.
+     */
+    public void registrar(Cliente cliente) {
+        if (motor != Motor.MEMORIA) {
+            return;
+        }
+        Long usuarioId = cliente.getUsuario().getId();
+        long id = cliente.getId();
+        String nombre = cliente.getNombre();
+        String nif = cliente.getNif();
+        String localidad = cliente.getLocalidad();
+        String email = cliente.getEmail();
+        Runnable indexar = () -> {
+            IndiceClientes indice = indices.getIfPresent(usuarioId);
+            if (indice == null) {
+                return;
+            }
+            indice.indexar(id, nombre, nif, localidad, email);
+            if (indice.necesitaReconstruir()) {
+                indices.invalidate(usuarioId);
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    indexar.run();
+                }
+            });
+        } else {
+            indexar.run();
+        }
+    }
+    
+    private IndiceClientes construir(Long usuarioId) {
+        IndiceClientes indice = new IndiceClientes();
+        jdbcTemplate.query(SQL_CLIENTES_USUARIO, fila -> {
+            indice.indexar(fila.getLong("id"), fila.getString("nombre"), fila.getString("nif"),
+                fila.getString("localidad"), fila.getString("email"));
+        }, usuarioId);
+        return indice;
+    }
+}
@@ -0,0 +1,211 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.dto.RegistroCadenaDTO;
+import es.uvigo.mei.facturaaas.dto.VerificacionCadenaDTO;
+import es.uvigo.mei.facturaaas.model.CadenaFactura;
+import es.uvigo.mei.facturaaas.model.CalculadoraTotales;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.repository.CadenaFacturaRepository;
+import es.uvigo.mei.facturaaas.repository.FacturaRepository;
+import es.uvigo.mei.facturaaas.repository.UsuarioRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Cadena de huellas de las facturas de cada usuario, al estilo de los registros de
+ * facturación de VeriFactu: al emitir una factura se le asigna la siguiente posición
+ * en la cadena de su emisor y una huella SHA-256 de sus datos fiscales (número, fecha,
+ * cuota y total) junto con la huella de la factura anterior. Modificar, borrar o
+ * intercalar una factura rompe la cadena a partir de ella.
+ * <p>
+ * El punto de serialización es la fila de {@link CadenaFactura} del usuario, bloqueada
+ * hasta el fin de la transacción que crea la factura: las facturas de un mismo emisor
+ * se encadenan de una en una (también entre nodos) y las de emisores distintos no se
+ * esperan entre sí.
+ */
+@Service
+@Transactional
+public class CadenaFacturaService {
+    
+    private static final DateTimeFormatter FORMATO_FECHA = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+    private static final HexFormat HEXADECIMAL = HexFormat.of().withUpperCase();
+    
+    @Autowired
+    private CadenaFacturaRepository cadenaFacturaRepository;
+    
+    @Autowired
+    private FacturaRepository facturaRepository;
+    
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+    
+    private final TransactionTemplate nuevaTransaccion;
+    
+    public CadenaFacturaService(PlatformTransactionManager transactionManager) {
+        this.nuevaTransaccion = new TransactionTemplate(transactionManager);
+        this.nuevaTransaccion.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+    
+    /**
+     * Encadena las facturas, en el orden de la lista, tras la última del usuario. Deben
+     * tener ya número y totales. La cadena del usuario queda bloqueada hasta el fin de
+     * la transacción actual.
+     */
+    public void encadenar(Long usuarioId, List<Factura> facturas) {
+        CadenaFactura cadena = cadenaFacturaRepository.bloquearPorUsuarioId(usuarioId)
+            .orElseGet(() -> {
+                crearCadena(usuarioId);
+                return cadenaFacturaRepository.bloquearPorUsuarioId(usuarioId)
+                    .orElseThrow(() -> new RuntimeException("Cadena de facturas no encontrada"));
+            });
+        
+        LocalDateTime registro = LocalDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.SECONDS);
+        MessageDigest resumen = sha256();
+        long secuencia = cadena.getUltimaSecuencia();
+        String anterior = cadena.getUltimaHuella();
+        for (Factura factura : facturas) {
+            factura.setSecuenciaRegistro(++secuencia);
+            factura.setHuellaAnterior(anterior != null ? anterior : "");
+            factura.setFechaHoraRegistro(registro);
+            anterior = huella(resumen, usuarioId, factura.getNumeroFactura(), factura.getFechaEmision(),
+                factura.getIvaTotal(), factura.getSumaTotal(), factura.getHuellaAnterior(), registro);
+            factura.setHuella(anterior);
+        }
+        cadena.setUltimaSecuencia(secuencia);
+        cadena.setUltimaHuella(anterior);
+    }
+    
+    /**
+     * Crea la cadena en su propia transacción, continuando la de las facturas ya
+     * encadenadas si las hay. Si otro nodo la crea a la vez, la restricción única lo
+     * detecta y se usa la suya.
+     */
+    private void crearCadena(Long usuarioId) {
+        try {
+            nuevaTransaccion.executeWithoutResult(estado -> {
+                CadenaFactura cadena = new CadenaFactura();
+                cadena.setUsuario(usuarioRepository.getReferenceById(usuarioId));
+                facturaRepository.findUltimaEncadenada(usuarioId).ifPresent(ultima -> {
+                    cadena.setUltimaSecuencia(ultima.getSecuenciaRegistro());
+                    cadena.setUltimaHuella(ultima.getHuella());
+                });
+                cadenaFacturaRepository.saveAndFlush(cadena);
+            });
+        } catch (DataIntegrityViolationException ex) {
+            // Cadena creada concurrentemente
+        }
+    }
+    
+    /**
+     * Recorre en streaming la cadena del usuario comprobando en cada registro su
+     * posición, el enlace con el anterior y que su huella corresponde a sus datos; la
+     * memoria no depende de la longitud de la cadena. Con {@code desde} y
+     * {@code huella} (el último registro de una verificación anterior correcta) solo se
+     * comprueban los registros posteriores. Se detiene en el primer error.
+     */
+    @Transactional(readOnly = true)
+    public VerificacionCadenaDTO verificar(Long usuarioId, Long desde, String huella) {
+        if (desde != null && desde > 0 && (huella == null || huella.isBlank())) {
+            throw new RuntimeException("Falta la huella del registro desde el que se verifica");
+        }
+        long esperada = desde != null ? desde : 0;
+        String anterior = esperada > 0 ? huella.strip().toUpperCase() : "";
+        // Cabeza leída antes que los registros: los que se encadenen entretanto quedan detrás de ella
+        CadenaFactura cabeza = cadenaFacturaRepository.findByUsuarioId(usuarioId).orElse(null);
+        
+        VerificacionCadenaDTO resultado = new VerificacionCadenaDTO();
+        resultado.setUltimaSecuencia(esperada);
+        resultado.setUltimaHuella(anterior);
+        MessageDigest resumen = sha256();
+        try (Stream<RegistroCadenaDTO> registros = facturaRepository.streamCadena(usuarioId, esperada)) {
+            Iterator<RegistroCadenaDTO> iterador = registros.iterator();
+            while (iterador.hasNext()) {
+                RegistroCadenaDTO registro = iterador.next();
+                String error = null;
+                if (registro.getSecuencia() != esperada + 1) {
+                    error = "Falta el registro " + (esperada + 1) + " de la cadena";
+                } else if (!anterior.equals(registro.getHuellaAnterior())) {
+                    error = "La huella anterior no coincide con la del registro " + esperada;
+                } else if (!huella(resumen, usuarioId, registro.getNumeroFactura(), registro.getFechaEmision(),
+                        registro.getIvaTotal(), registro.getSumaTotal(), registro.getHuellaAnterior(),
+                        registro.getFechaHoraRegistro()).equals(registro.getHuella())) {
+                    error = "La huella no corresponde a los datos de la factura";
+                }
+                if (error != null) {
+                    resultado.setFacturaId(registro.getFacturaId());
+                    resultado.setNumeroFactura(registro.getNumeroFactura());
+                    resultado.setError(error);
+                    return resultado;
+                }
+                esperada = registro.getSecuencia();
+                anterior = registro.getHuella();
+                resultado.setRegistrosVerificados(resultado.getRegistrosVerificados() + 1);
+                resultado.setUltimaSecuencia(esperada);
+                resultado.setUltimaHuella(anterior);
+                if (cabeza != null && esperada == cabeza.getUltimaSecuencia()
+                        && !Objects.equals(anterior, cabeza.getUltimaHuella())) {
+                    resultado.setError("La huella del registro " + esperada + " no coincide con la del último encadenado");
+                    return resultado;
+                }
+            }
+        }
+        if (cabeza != null && esperada < cabeza.getUltimaSecuencia()) {
+            resultado.setError("Faltan registros al final de la cadena: el último encadenado es el "
+                + cabeza.getUltimaSecuencia());
+            return resultado;
+        }
+        resultado.setCorrecta(true);
+        return resultado;
+    }
+    
+    /**
+     * Huella de un registro: SHA-256, en hexadecimal en mayúsculas, de sus campos en el
+     * formato de VeriFactu (con el usuario como identificador del emisor).
+     */
+    static String huella(MessageDigest resumen, Long usuarioId, String numeroFactura, LocalDate fechaEmision,
+                         BigDecimal ivaTotal, BigDecimal sumaTotal, String huellaAnterior,
+                         LocalDateTime fechaHoraRegistro) {
+        String texto = "IDEmisorFactura=" + usuarioId
+            + "&NumSerieFactura=" + numeroFactura
+            + "&FechaExpedicionFactura=" + fechaEmision.format(FORMATO_FECHA)
+            + "&TipoFactura=F1"
+            + "&CuotaTotal=" + importe(ivaTotal)
+            + "&ImporteTotal=" + importe(sumaTotal)
+            + "&Huella=" + (huellaAnterior != null ? huellaAnterior : "")
+            + "&FechaHoraHusoGenRegistro=" + fechaHoraRegistro.atOffset(ZoneOffset.UTC)
+                .format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+        return HEXADECIMAL.formatHex(resumen.digest(texto.getBytes(StandardCharsets.UTF_8)));
+    }
+    
+    private static String importe(BigDecimal importe) {
+        return importe.setScale(CalculadoraTotales.ESCALA, RoundingMode.HALF_UP).toPlainString();
+    }
+    
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package es.uvigo.mei.facturaaas.service;
 
 import es.uvigo.mei.facturaaas.dto.ClienteDTO;
+import es.uvigo.mei.facturaaas.dto.PaginaDTO;
 import es.uvigo.mei.facturaaas.model.Cliente;
 import es.uvigo.mei.facturaaas.model.Usuario;
 import es.uvigo.mei.facturaaas.repository.ClienteRepository;
@@ -9,26 +10,78 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
 @Transactional
 public class ClienteService {
     
+    static final int POSICION_MAXIMA_BUSQUEDA = 10_000;
+    
     @Autowired
     private ClienteRepository clienteRepository;
     
     @Autowired
     private UsuarioRepository usuarioRepository;
     
+    @Autowired
+    private BuscadorClientes buscadorClientes;
+    
     public List<ClienteDTO> obtenerPorUsuario(Long usuarioId) {
         return clienteRepository.findByUsuarioId(usuarioId).stream()
             .map(this::convertirADTO)
             .collect(Collectors.toList());
     }
     
+    /**
+     * Todos los clientes que coinciden con el patrón, por relevancia (ver BuscadorClientes).
+     */
     public List<ClienteDTO> buscarPorUsuarioYPatron(Long usuarioId, String patron) {
-        return clienteRepository.buscarPorUsuarioYPatron(usuarioId, patron).stream()
+        if (patron.isBlank()) {
+            return obtenerPorUsuario(usuarioId);
+        }
+        return cargarEnOrden(buscadorClientes.buscar(usuarioId, patron, 0, Integer.MAX_VALUE - 1));
+    }
+    
+    /**
+     * Búsqueda paginada por relevancia. El cursor es opaco para el cliente: la
+     * posición del siguiente resultado, como mucho POSICION_MAXIMA_BUSQUEDA (los
+     * resultados más allá no se paginan: el índice en memoria guarda todos los
+     * anteriores para ordenarlos).
+     */
+    public PaginaDTO<ClienteDTO> buscar(Long usuarioId, String texto, String cursor, int limite) {
+        int desde = 0;
+        if (cursor != null && !cursor.isBlank()) {
+            try {
+                desde = Integer.parseInt(cursor);
+            } catch (NumberFormatException ex) {
+                desde = -1;
+            }
+            if (desde < 0 || desde > POSICION_MAXIMA_BUSQUEDA) {
+                throw new IllegalArgumentException("Cursor no válido");
+            }
+        }
+        int tamano = CursorKeyset.limitar(limite);
+        List<Long> ids = buscadorClientes.buscar(usuarioId, texto, desde, tamano + 1);
+        String siguienteCursor = null;
+        if (ids.size() > tamano) {
+            ids = ids.subList(0, tamano);
+            if (desde + tamano <= POSICION_MAXIMA_BUSQUEDA) {
+                siguienteCursor = String.valueOf(desde + tamano);
+            }
+        }
+        return new PaginaDTO<>(cargarEnOrden(ids), siguienteCursor);
+    }
+    
+    private List<ClienteDTO> cargarEnOrden(List<Long> ids) {
+        Map<Long, Cliente> clientes = clienteRepository.findAllById(ids).stream()
+            .collect(Collectors.toMap(Cliente::getId, Function.identity()));
+        return ids.stream()
+            .map(clientes::get)
+            .filter(Objects::nonNull)
             .map(this::convertirADTO)
             .collect(Collectors.toList());
     }
@@ -54,8 +107,12 @@ public class ClienteService {
         cliente.setEmail(dto.getEmail());
         cliente.setTelefono(dto.getTelefono());
         cliente.setCuentaBancaria(dto.getCuentaBancaria());
+        cliente.setDir3OficinaContable(dto.getDir3OficinaContable());
+        cliente.setDir3OrganoGestor(dto.getDir3OrganoGestor());
+        cliente.setDir3UnidadTramitadora(dto.getDir3UnidadTramitadora());
         
         cliente = clienteRepository.save(cliente);
+        buscadorClientes.registrar(cliente);
         return convertirADTO(cliente);
     }
     
@@ -72,8 +129,12 @@ public class ClienteService {
         cliente.setEmail(dto.getEmail());
         cliente.setTelefono(dto.getTelefono());
         cliente.setCuentaBancaria(dto.getCuentaBancaria());
+        cliente.setDir3OficinaContable(dto.getDir3OficinaContable());
+        cliente.setDir3OrganoGestor(dto.getDir3OrganoGestor());
+        cliente.setDir3UnidadTramitadora(dto.getDir3UnidadTramitadora());
         
         cliente = clienteRepository.save(cliente);
+        buscadorClientes.registrar(cliente);
         return convertirADTO(cliente);
     }
     
@@ -90,6 +151,9 @@ public class ClienteService {
         dto.setEmail(cliente.getEmail());
         dto.setTelefono(cliente.getTelefono());
         dto.setCuentaBancaria(cliente.getCuentaBancaria());
+        dto.setDir3OficinaContable(cliente.getDir3OficinaContable());
+        dto.setDir3OrganoGestor(cliente.getDir3OrganoGestor());
+        dto.setDir3UnidadTramitadora(cliente.getDir3UnidadTramitadora());
         return dto;
     }
 }
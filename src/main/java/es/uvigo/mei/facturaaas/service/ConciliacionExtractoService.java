@@ -0,0 +1,350 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.dto.ConciliacionPagoDTO;
+import es.uvigo.mei.facturaaas.dto.MovimientoNoConciliadoDTO;
+import es.uvigo.mei.facturaaas.dto.PagoPendienteDTO;
+import es.uvigo.mei.facturaaas.dto.ResultadoConciliacionDTO;
+import es.uvigo.mei.facturaaas.dto.ResultadoImportacionExtractoDTO;
+import es.uvigo.mei.facturaaas.repository.PagoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Importa extractos bancarios (Norma 43 o CAMT.053) y concilia sus cobros con los
+ * pagos pendientes del usuario.
+ * <p>
+ * Antes de leer el fichero se cargan los pagos pendientes en dos índices hash: por
+ * importe y por importe + identificador del cliente (NIF o cuenta bancaria). Cada
+ * abono se busca primero por los identificadores que aparecen en el apunte y, si
+ * ninguno es de un cliente con pagos pendientes, solo por importe cuando el candidato
+ * dentro de la ventana de fechas es único. El fichero se lee en streaming y los cobros
+ * se confirman a través de {@link PagoService#conciliar} en bloques de
+ * extracto.cobros-por-transaccion, y del informe solo se guardan los primeros
+ * extracto.no-conciliados-maximo apuntes sin conciliar, así que la memoria depende de
+ * los pagos pendientes y no del tamaño del extracto.
+ * Si el fichero tiene un error de formato, los bloques ya confirmados se mantienen.
+ */
+@Service
+public class ConciliacionExtractoService {
+    
+    private static final Pattern SEPARADOR = Pattern.compile("[^A-Za-z0-9]+");
+    private static final int LONGITUD_MINIMA_IDENTIFICADOR = 8;
+    private static final int LONGITUD_CCC = 20;
+    private static final int LONGITUD_MAXIMA_IDENTIFICADOR = 34;
+    
+    @Autowired
+    private PagoRepository pagoRepository;
+    
+    @Autowired
+    private PagoService pagoService;
+    
+    @Value("${extracto.ventana-dias:45}")
+    private int ventanaDias;
+    
+    @Value("${extracto.cobros-por-transaccion:1000}")
+    private int cobrosPorTransaccion;
+    
+    @Value("${extracto.no-conciliados-maximo:1000}")
+    private int noConciliadosMaximo;
+    
+    private final TransactionTemplate lectura;
+    
+    public ConciliacionExtractoService(PlatformTransactionManager transactionManager) {
+        this.lectura = new TransactionTemplate(transactionManager);
+        this.lectura.setReadOnly(true);
+    }
+    
+    public enum Formato {
+        NORMA43,
+        CAMT053
+    }
+    
+    public ResultadoImportacionExtractoDTO importar(Long usuarioId, Formato formato, InputStream entrada)
+            throws IOException {
+        Importacion importacion = new Importacion(usuarioId, cargarIndices(usuarioId));
+        if (formato == Formato.NORMA43) {
+            LectorNorma43.leer(entrada, importacion::procesar);
+        } else {
+            LectorCamt053.leer(entrada, importacion::procesar);
+        }
+        importacion.confirmar();
+        return importacion.resultado;
+    }
+    
+    private Indices cargarIndices(Long usuarioId) {
+        Indices indices = new Indices();
+        lectura.executeWithoutResult(estado -> {
+            try (Stream<PagoPendienteDTO> pendientes = pagoRepository.streamPendientes(usuarioId)) {
+                pendientes.forEach(indices::agregar);
+            }
+        });
+        return indices;
+    }
+    
+    private static long centimos(BigDecimal importe) {
+        return importe.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValue();
+    }
+    
+    /**
+     * Claves con las que se indexa un NIF o una cuenta: el valor en mayúsculas y sin
+     * separadores y, para un IBAN, también el CCC (últimos 20 caracteres).
+     */
+    private static void agregarClaves(String valor, Set<String> claves) {
+        if (valor == null) {
+            return;
+        }
+        agregarClavesNormalizadas(SEPARADOR.matcher(valor).replaceAll("").toUpperCase(), claves);
+    }
+    
+    private static void agregarClavesNormalizadas(String normalizado, Set<String> claves) {
+        if (normalizado.length() < LONGITUD_MINIMA_IDENTIFICADOR) {
+            return;
+        }
+        claves.add(normalizado);
+        if (normalizado.length() > LONGITUD_CCC) {
+            claves.add(normalizado.substring(normalizado.length() - LONGITUD_CCC));
+        }
+    }
+    
+    private static class Candidato {
+        private final Long pagoId;
+        private final BigDecimal importe;
+        private final LocalDate fechaVencimiento;
+        private boolean conciliado;
+        
+        private Candidato(PagoPendienteDTO pago) {
+            this.pagoId = pago.getPagoId();
+            this.importe = pago.getImporte();
+            this.fechaVencimiento = pago.getFechaVencimiento();
+        }
+    }
+    
+    /**
+     * Listas de candidatos ordenadas por fecha de vencimiento (orden de la consulta) e
+     * identificadores de los clientes con pagos pendientes.
+     */
+    private static class Indices {
+        private final Map<Long, List<Candidato>> porImporte = new HashMap<>();
+        private final Map<String, List<Candidato>> porImporteEIdentificador = new HashMap<>();
+        private final Set<String> identificadores = new HashSet<>();
+        
+        private void agregar(PagoPendienteDTO pago) {
+            Candidato candidato = new Candidato(pago);
+            long centimos = centimos(pago.getImporte());
+            porImporte.computeIfAbsent(centimos, clave -> new ArrayList<>(1)).add(candidato);
+            Set<String> claves = new HashSet<>();
+            agregarClaves(pago.getClienteNif(), claves);
+            agregarClaves(pago.getClienteCuentaBancaria(), claves);
+            identificadores.addAll(claves);
+            for (String clave : claves) {
+                porImporteEIdentificador.computeIfAbsent(centimos + ":" + clave, c -> new ArrayList<>(1))
+                    .add(candidato);
+            }
+        }
+    }
+    
+    private class Importacion {
+        private final Long usuarioId;
+        private final Indices indices;
+        private final ResultadoImportacionExtractoDTO resultado = new ResultadoImportacionExtractoDTO();
+        private final Set<Long> facturasPagadas = new HashSet<>();
+        private final List<ConciliacionPagoDTO> lote = new ArrayList<>();
+        private final List<MovimientoBancario> movimientosLote = new ArrayList<>();
+        
+        private Importacion(Long usuarioId, Indices indices) {
+            this.usuarioId = usuarioId;
+            this.indices = indices;
+        }
+        
+        private void procesar(MovimientoBancario movimiento) {
+            resultado.setMovimientos(resultado.getMovimientos() + 1);
+            if (!movimiento.abono()) {
+                return;
+            }
+            resultado.setAbonos(resultado.getAbonos() + 1);
+            String motivo = emparejar(movimiento);
+            if (motivo != null) {
+                noConciliado(movimiento, motivo);
+            } else if (lote.size() >= cobrosPorTransaccion) {
+                confirmar();
+            }
+        }
+        
+        /**
+         * Encola el pago que corresponde al movimiento, o devuelve por qué no se ha encontrado.
+         */
+        private String emparejar(MovimientoBancario movimiento) {
+            LocalDate fecha = movimiento.fechaValor();
+            if (fecha == null) {
+                return "Apunte sin fecha";
+            }
+            long centimos = centimos(movimiento.importe());
+            boolean clienteIdentificado = false;
+            for (String identificador : identificadores(movimiento)) {
+                List<Candidato> candidatos = indices.porImporteEIdentificador.get(centimos + ":" + identificador);
+                Candidato candidato = candidatos != null ? masCercano(candidatos, fecha) : null;
+                if (candidato != null) {
+                    encolar(movimiento, candidato);
+                    return null;
+                }
+                clienteIdentificado |= indices.identificadores.contains(identificador);
+            }
+            // Si el apunte es de un cliente conocido, un pago de otro cliente por el mismo importe no es suyo
+            if (clienteIdentificado) {
+                return "El cliente identificado no tiene pagos pendientes por ese importe con vencimiento próximo";
+            }
+            
+            List<Candidato> candidatos = indices.porImporte.get(centimos);
+            if (candidatos == null) {
+                return "Ningún pago pendiente por ese importe";
+            }
+            Candidato unico = null;
+            for (int i = primeroEnVentana(candidatos, fecha); i < candidatos.size(); i++) {
+                Candidato candidato = candidatos.get(i);
+                if (fueraDeVentana(candidato, fecha)) {
+                    break;
+                }
+                if (!candidato.conciliado) {
+                    if (unico != null) {
+                        return "Varios pagos pendientes por ese importe y no se identifica al cliente";
+                    }
+                    unico = candidato;
+                }
+            }
+            if (unico == null) {
+                return "Ningún pago pendiente por ese importe con vencimiento próximo a la fecha valor";
+            }
+            encolar(movimiento, unico);
+            return null;
+        }
+        
+        private Set<String> identificadores(MovimientoBancario movimiento) {
+            Set<String> identificadores = new LinkedHashSet<>();
+            agregarClaves(movimiento.cuenta(), identificadores);
+            for (String texto : new String[] { movimiento.concepto(), movimiento.referencia() }) {
+                if (texto != null) {
+                    agregarClavesTexto(texto, identificadores);
+                }
+            }
+            return identificadores;
+        }
+        
+        /**
+         * En texto libre un NIF o un IBAN suele venir partido ("12345678-Z", "ES91 2100 ..."),
+         * así que se prueban también las concatenaciones de palabras consecutivas.
+         */
+        private void agregarClavesTexto(String texto, Set<String> claves) {
+            String[] palabras = SEPARADOR.split(texto.toUpperCase());
+            StringBuilder concatenacion = new StringBuilder(LONGITUD_MAXIMA_IDENTIFICADOR);
+            for (int i = 0; i < palabras.length; i++) {
+                concatenacion.setLength(0);
+                for (int j = i; j < palabras.length
+                        && concatenacion.length() + palabras[j].length() <= LONGITUD_MAXIMA_IDENTIFICADOR; j++) {
+                    concatenacion.append(palabras[j]);
+                    agregarClavesNormalizadas(concatenacion.toString(), claves);
+                }
+            }
+        }
+        
+        /**
+         * Pago sin conciliar con el vencimiento más próximo a la fecha valor, dentro de la ventana.
+         * Se prefieren los ya vencidos: un cobro suele llegar en o después del vencimiento.
+         */
+        private Candidato masCercano(List<Candidato> candidatos, LocalDate fecha) {
+            Candidato elegido = null;
+            long distanciaElegido = Long.MAX_VALUE;
+            for (int i = primeroEnVentana(candidatos, fecha); i < candidatos.size(); i++) {
+                Candidato candidato = candidatos.get(i);
+                if (fueraDeVentana(candidato, fecha)) {
+                    break;
+                }
+                long distancia = ChronoUnit.DAYS.between(candidato.fechaVencimiento, fecha);
+                if (distancia < 0) {
+                    distancia = ventanaDias - distancia;
+                }
+                if (!candidato.conciliado && distancia < distanciaElegido) {
+                    elegido = candidato;
+                    distanciaElegido = distancia;
+                }
+            }
+            return elegido;
+        }
+        
+        /**
+         * Primera posición con vencimiento dentro de la ventana (búsqueda binaria).
+         */
+        private int primeroEnVentana(List<Candidato> candidatos, LocalDate fecha) {
+            LocalDate desde = fecha.minusDays(ventanaDias);
+            int inferior = 0;
+            int superior = candidatos.size();
+            while (inferior < superior) {
+                int medio = (inferior + superior) >>> 1;
+                if (candidatos.get(medio).fechaVencimiento.isBefore(desde)) {
+                    inferior = medio + 1;
+                } else {
+                    superior = medio;
+                }
+            }
+            return inferior;
+        }
+        
+        private boolean fueraDeVentana(Candidato candidato, LocalDate fecha) {
+            return candidato.fechaVencimiento.isAfter(fecha.plusDays(ventanaDias));
+        }
+        
+        private void encolar(MovimientoBancario movimiento, Candidato candidato) {
+            candidato.conciliado = true;
+            lote.add(new ConciliacionPagoDTO(candidato.pagoId, null, null, movimiento.fechaValor(),
+                candidato.importe));
+            movimientosLote.add(movimiento);
+        }
+        
+        private void confirmar() {
+            if (lote.isEmpty()) {
+                return;
+            }
+            List<ResultadoConciliacionDTO> resultados = pagoService.conciliar(usuarioId, lote);
+            for (int i = 0; i < resultados.size(); i++) {
+                ResultadoConciliacionDTO conciliacion = resultados.get(i);
+                if (conciliacion.isCorrecto()) {
+                    resultado.setConciliados(resultado.getConciliados() + 1);
+                    if (conciliacion.isFacturaPagada()) {
+                        facturasPagadas.add(conciliacion.getFacturaId());
+                    }
+                } else {
+                    noConciliado(movimientosLote.get(i), conciliacion.getError());
+                }
+            }
+            resultado.setFacturasPagadas(facturasPagadas.size());
+            lote.clear();
+            movimientosLote.clear();
+        }
+        
+        private void noConciliado(MovimientoBancario movimiento, String motivo) {
+            resultado.setSinConciliar(resultado.getSinConciliar() + 1);
+            if (resultado.getNoConciliados().size() < noConciliadosMaximo) {
+                resultado.getNoConciliados().add(new MovimientoNoConciliadoDTO(movimiento.posicion(),
+                    movimiento.fechaValor(), movimiento.importe(), movimiento.concepto(),
+                    movimiento.referencia(), motivo));
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package es.uvigo.mei.facturaaas.service;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Cursor de paginación keyset: la fecha y el id del último elemento
+ * devuelto, codificados como "yyyy-MM-dd,id". Un cursor mal formado es un
+ * error del cliente (IllegalArgumentException, 400).
+ */
+record CursorKeyset(LocalDate fecha, Long id) {
+    
+    static final int LIMITE_MAXIMO = 500;
+    
+    static CursorKeyset decodificar(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        String[] partes = cursor.split(",");
+        try {
+            if (partes.length == 2) {
+                return new CursorKeyset(LocalDate.parse(partes[0]), Long.valueOf(partes[1]));
+            }
+        } catch (DateTimeParseException | NumberFormatException ex) {
+            // se informa abajo
+        }
+        throw new IllegalArgumentException("Cursor no válido");
+    }
+    
+    static String codificar(LocalDate fecha, Long id) {
+        return fecha + "," + id;
+    }
+    
+    static int limitar(int limite) {
+        return Math.max(1, Math.min(limite, LIMITE_MAXIMO));
+    }
+}
@@ -0,0 +1,162 @@
+package es.uvigo.mei.facturaaas.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import es.uvigo.mei.facturaaas.model.FormaPago;
+import es.uvigo.mei.facturaaas.model.TipoIVA;
+import es.uvigo.mei.facturaaas.repository.FormaPagoRepository;
+import es.uvigo.mei.facturaaas.repository.TipoIVARepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Caché de lectura de los datos de referencia (tipos de IVA y formas de pago),
+ * que se consultan en cada alta o modificación de factura y en cada formulario.
+ * <p>
+ * Las entidades devueltas se comparten entre peticiones y deben tratarse como de
+ * sólo lectura. TipoIVAService y FormaPagoService invalidan las entradas al
+ * modificarlas (de nuevo tras el commit, para no recargar datos sin confirmar);
+ * el TTL acota lo que otro nodo puede tardar en ver un cambio.
+ * Los aciertos y fallos se publican en Actuator como cache.gets{cache=...}.
+ */
+@Component
+public class DatosReferenciaCache {
+    
+    private static final String ACTIVOS = "activos";
+    
+    private final TipoIVARepository tipoIVARepository;
+    private final FormaPagoRepository formaPagoRepository;
+    
+    private final LoadingCache<Long, TipoIVA> tiposIVA;
+    private final Cache<String, List<TipoIVA>> tiposIVAActivos;
+    private final LoadingCache<Long, FormaPago> formasPago;
+    private final Cache<Long, List<FormaPago>> formasPagoActivas;
+    
+    public DatosReferenciaCache(TipoIVARepository tipoIVARepository,
+                                FormaPagoRepository formaPagoRepository,
+                                MeterRegistry meterRegistry,
+                                @Value("${datos-referencia.cache.tamano-maximo:10000}") long tamanoMaximo,
+                                @Value("${datos-referencia.cache.ttl-segundos:600}") long ttlSegundos) {
+        this.tipoIVARepository = tipoIVARepository;
+        this.formaPagoRepository = formaPagoRepository;
+        Duration ttl = Duration.ofSeconds(ttlSegundos);
+        
+        this.tiposIVA = nuevaCache(tamanoMaximo, ttl).build(new CacheLoader<Long, TipoIVA>() {
+            @Override
+            public TipoIVA load(Long id) {
+                return tipoIVARepository.findById(id).orElse(null);
+            }
+            
+            @Override
+            public Map<Long, TipoIVA> loadAll(Set<? extends Long> ids) {
+                return tipoIVARepository.findAllById(List.copyOf(ids)).stream()
+                    .collect(Collectors.toMap(TipoIVA::getId, Function.identity()));
+            }
+        });
+        this.tiposIVAActivos = nuevaCache(1, ttl).build();
+        this.formasPago = nuevaCache(tamanoMaximo, ttl).build(new CacheLoader<Long, FormaPago>() {
+            @Override
+            public FormaPago load(Long id) {
+                return formaPagoRepository.findById(id).orElse(null);
+            }
+            
+            @Override
+            public Map<Long, FormaPago> loadAll(Set<? extends Long> ids) {
+                return formaPagoRepository.findAllById(List.copyOf(ids)).stream()
+                    .collect(Collectors.toMap(FormaPago::getId, Function.identity()));
+            }
+        });
+        this.formasPagoActivas = nuevaCache(tamanoMaximo, ttl).build();
+        
+        CaffeineCacheMetrics.monitor(meterRegistry, tiposIVA, "tipos-iva");
+        CaffeineCacheMetrics.monitor(meterRegistry, tiposIVAActivos, "tipos-iva-activos");
+        CaffeineCacheMetrics.monitor(meterRegistry, formasPago, "formas-pago");
+        CaffeineCacheMetrics.monitor(meterRegistry, formasPagoActivas, "formas-pago-activas");
+    }
+    
+    private static Caffeine<Object, Object> nuevaCache(long tamanoMaximo, Duration ttl) {
+        return Caffeine.newBuilder()
+            .maximumSize(tamanoMaximo)
+            .expireAfterWrite(ttl)
+            .recordStats();
+    }
+    
+    public Optional<TipoIVA> obtenerTipoIVA(Long id) {
+        return Optional.ofNullable(tiposIVA.get(id));
+    }
+    
+    /**
+     * Tipos de IVA por id; los inexistentes no aparecen en el resultado.
+     */
+    public Map<Long, TipoIVA> obtenerTiposIVA(Collection<Long> ids) {
+        return tiposIVA.getAll(ids);
+    }
+    
+    public List<TipoIVA> obtenerTiposIVAActivos() {
+        return tiposIVAActivos.get(ACTIVOS, clave -> List.copyOf(tipoIVARepository.findByActivoTrue()));
+    }
+    
+    public Optional<FormaPago> obtenerFormaPago(Long id) {
+        return Optional.ofNullable(formasPago.get(id));
+    }
+    
+    /**
+     * Formas de pago por id; las inexistentes no aparecen en el resultado.
+     */
+    public Map<Long, FormaPago> obtenerFormasPago(Collection<Long> ids) {
+        return formasPago.getAll(ids);
+    }
+    
+    public List<FormaPago> obtenerFormasPagoActivas(Long usuarioId) {
+        return formasPagoActivas.get(usuarioId,
+            clave -> List.copyOf(formaPagoRepository.findByUsuarioIdAndActivaTrue(clave)));
+    }
+    
+    public void invalidarTipoIVA(Long id) {
+        invalidarAhoraYTrasCommit(() -> {
+            if (id != null) {
+                tiposIVA.invalidate(id);
+            }
+            tiposIVAActivos.invalidateAll();
+        });
+    }
+    
+    public void invalidarFormaPago(Long id, Long usuarioId) {
+        invalidarAhoraYTrasCommit(() -> {
+            if (id != null) {
+                formasPago.invalidate(id);
+            }
+            formasPagoActivas.invalidate(usuarioId);
+        });
+    }
+    
+    /**
+     * Ejecuta la invalidación ya y, si hay una transacción en curso, otra vez tras
+     * el commit: una lectura concurrente podría haber recargado el valor anterior.
+     */
+    private void invalidarAhoraYTrasCommit(Runnable invalidacion) {
+        invalidacion.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidacion.run();
+                }
+            });
+        }
+    }
+}
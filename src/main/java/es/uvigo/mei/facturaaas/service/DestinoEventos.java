@@ -0,0 +1,16 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.dto.EventoFacturaDTO;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Destino al que PublicadorEventosService entrega los eventos de la bandeja de salida.
+ * Cada bean que implementa esta interfaz recibe todos los lotes, en orden de id.
+ * Si un destino lanza una excepción, el lote se vuelve a entregar más tarde a todos
+ * ellos: deben tolerar eventos repetidos (por su id).
+ */
+public interface DestinoEventos {
+    
+    void publicar(List<EventoFacturaDTO> eventos) throws IOException;
+}
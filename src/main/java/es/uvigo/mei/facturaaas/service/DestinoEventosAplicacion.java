@@ -0,0 +1,28 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.dto.EventoFacturaDTO;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import java.util.List;
+
+/**
+ * Publica cada evento como evento de Spring, para los {@code @EventListener} de
+ * EventoFacturaDTO de la propia aplicación. Los oyentes se ejecutan en el hilo del
+ * publicador: si uno falla, el lote se reintenta, y si tarda, retrasa la publicación.
+ */
+@Component
+public class DestinoEventosAplicacion implements DestinoEventos {
+    
+    private final ApplicationEventPublisher publicador;
+    
+    public DestinoEventosAplicacion(ApplicationEventPublisher publicador) {
+        this.publicador = publicador;
+    }
+    
+    @Override
+    public void publicar(List<EventoFacturaDTO> eventos) {
+        for (EventoFacturaDTO evento : eventos) {
+            publicador.publishEvent(evento);
+        }
+    }
+}
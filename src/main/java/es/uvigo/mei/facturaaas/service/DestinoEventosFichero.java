@@ -0,0 +1,56 @@
+package es.uvigo.mei.facturaaas.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import es.uvigo.mei.facturaaas.dto.EventoFacturaDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Añade los eventos, un JSON por línea, al fichero del día
+ * (eventos-AAAA-MM-DD.ndjson) de {@code eventos.destino.fichero.directorio}. Cada
+ * lote se escribe de una vez y se sincroniza con el disco antes de darlo por
+ * entregado. Solo se activa si el directorio está configurado; con varios nodos cada
+ * uno escribe en el suyo los lotes que publica.
+ */
+@Component
+@ConditionalOnExpression("!'${eventos.destino.fichero.directorio:}'.isBlank()")
+public class DestinoEventosFichero implements DestinoEventos {
+    
+    private final ObjectMapper objectMapper;
+    private final Path directorio;
+    
+    public DestinoEventosFichero(ObjectMapper objectMapper,
+                                 @Value("${eventos.destino.fichero.directorio}") String directorio) throws IOException {
+        this.objectMapper = objectMapper;
+        this.directorio = Files.createDirectories(Paths.get(directorio));
+    }
+    
+    @Override
+    public void publicar(List<EventoFacturaDTO> eventos) throws IOException {
+        ByteArrayOutputStream lineas = new ByteArrayOutputStream(eventos.size() * 256);
+        for (EventoFacturaDTO evento : eventos) {
+            lineas.write(objectMapper.writeValueAsBytes(evento));
+            lineas.write('\n');
+        }
+        Path fichero = directorio.resolve("eventos-" + LocalDate.now() + ".ndjson");
+        try (FileChannel canal = FileChannel.open(fichero,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer contenido = ByteBuffer.wrap(lineas.toByteArray());
+            while (contenido.hasRemaining()) {
+                canal.write(contenido);
+            }
+            canal.force(false);
+        }
+    }
+}
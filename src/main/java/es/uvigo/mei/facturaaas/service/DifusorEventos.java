@@ -0,0 +1,411 @@
+package es.uvigo.mei.facturaaas.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import es.uvigo.mei.facturaaas.dto.EventoFacturaDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Suscripciones Server-Sent Events a los eventos de facturas y pagos de un usuario
+ * (ver GET /api/eventos). Cada nodo, tenga o no el arrendamiento de
+ * PublicadorEventosService, lee cada {@code eventos.sse.intervalo-ms} los eventos ya
+ * publicados en evento_factura, en orden de lote y de id desde el último leído, y los
+ * reparte entre sus propias suscripciones. Un nodo sin suscripciones no lee nada y,
+ * al tener la primera, empieza por los lotes nuevos.
+ * <p>
+ * El reparto no bloquea la lectura: cada suscripción tiene una cola acotada
+ * ({@code eventos.sse.cola}) que, llena, descarta el evento más antiguo, y un pool
+ * pequeño ({@code eventos.sse.hilos}) la vacía hacia la conexión cuando tiene algo
+ * que enviar. Las escrituras no bloquean (WriteListener de Servlet): cuando la
+ * conexión no admite más, el hilo pasa a otra suscripción y esta se reanuda al
+ * avisar el servidor. Una conexión sin actividad, o con un cliente que no lee, no
+ * ocupa ningún hilo: la mantiene abierta el conector NIO del servidor.
+ * <p>
+ * Cada {@code eventos.sse.latido-ms} se envía un comentario a las conexiones sin
+ * eventos pendientes, para que los proxies no las cierren y para detectar las
+ * caídas. Las suscripciones duran {@code eventos.sse.tiempo-maximo-ms}; el cliente
+ * vuelve a conectar al terminar. Métricas en Actuator como eventos.sse.*.
+ * <p>
+ * Las suscripciones que llevan más de {@code eventos.sse.tiempo-envio-ms} esperando a
+ * que la conexión admita más datos se descartan: dejan de recibir eventos y se
+ * completa su respuesta, sin esperar al límite de escritura del servidor
+ * ({@code server.tomcat.connection-timeout}).
+ */
+@Component
+public class DifusorEventos {
+    
+    private static final Logger logger = LoggerFactory.getLogger(DifusorEventos.class);
+    
+    /** Latido: un comentario vacío. */
+    private static final byte[] LATIDO = ":\n\n".getBytes(StandardCharsets.UTF_8);
+    
+    private static final int EVENTOS_POR_LECTURA = 500;
+    private static final String SQL_ULTIMA_PUBLICACION = "SELECT COALESCE(MAX(publicacion), 0) FROM evento_factura";
+    private static final String SQL_PUBLICADOS =
+        "SELECT publicacion, " + PublicadorEventosService.COLUMNAS + " FROM evento_factura " +
+        "WHERE publicacion > ? OR (publicacion = ? AND id > ?) ORDER BY publicacion, id LIMIT ?";
+    
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final ConcurrentHashMap<Long, Set<Suscripcion>> porUsuario = new ConcurrentHashMap<>();
+    private final AtomicInteger suscripciones = new AtomicInteger();
+    private final ThreadPoolExecutor envios;
+    private final int capacidadCola;
+    private final long tiempoMaximoMs;
+    private final long tiempoEnvioNanos;
+    /** Último evento leído (lote e id); lote negativo hasta la primera lectura. */
+    private long ultimaPublicacion = -1;
+    private long ultimoId;
+    
+    private final Counter enviados;
+    private final Counter descartados;
+    private final Counter lentas;
+    
+    public DifusorEventos(JdbcTemplate jdbcTemplate,
+                          ObjectMapper objectMapper,
+                          MeterRegistry meterRegistry,
+                          @Value("${eventos.sse.hilos:0}") int hilos,
+                          @Value("${eventos.sse.cola:256}") int capacidadCola,
+                          @Value("${eventos.sse.tiempo-maximo-ms:1800000}") long tiempoMaximoMs,
+                          @Value("${eventos.sse.tiempo-envio-ms:10000}") long tiempoEnvioMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        int tamano = hilos > 0 ? hilos : Runtime.getRuntime().availableProcessors();
+        // Como mucho una tarea pendiente por suscripción: la cola del pool no crece sin límite
+        this.envios = new ThreadPoolExecutor(tamano, tamano, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), new CustomizableThreadFactory("sse-"), new ThreadPoolExecutor.DiscardPolicy());
+        this.capacidadCola = capacidadCola;
+        this.tiempoMaximoMs = tiempoMaximoMs;
+        this.tiempoEnvioNanos = TimeUnit.MILLISECONDS.toNanos(tiempoEnvioMs);
+        
+        Gauge.builder("eventos.sse.suscripciones", suscripciones, AtomicInteger::get)
+            .description("Suscripciones SSE abiertas en el nodo")
+            .register(meterRegistry);
+        this.enviados = Counter.builder("eventos.sse.enviados")
+            .description("Eventos enviados a las suscripciones SSE")
+            .register(meterRegistry);
+        this.descartados = Counter.builder("eventos.sse.descartados")
+            .description("Eventos descartados por cola de suscripción llena (los más antiguos)")
+            .register(meterRegistry);
+        this.lentas = Counter.builder("eventos.sse.lentas")
+            .description("Suscripciones descartadas por no leer a tiempo")
+            .register(meterRegistry);
+    }
+    
+    /**
+     * Pasa la petición a modo asíncrono y la deja suscrita a los eventos del usuario
+     * hasta que el cliente cierre, caduque o se descarte por lenta.
+     */
+    public void suscribir(Long usuarioId, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.TEXT_EVENT_STREAM_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        AsyncContext contexto = request.startAsync(request, response);
+        contexto.setTimeout(tiempoMaximoMs);
+        Suscripcion suscripcion = new Suscripcion(usuarioId, contexto, response.getOutputStream());
+        contexto.addListener(suscripcion);
+        porUsuario.computeIfAbsent(usuarioId, id -> ConcurrentHashMap.newKeySet()).add(suscripcion);
+        suscripciones.incrementAndGet();
+        // Primer envío: confirma la conexión y envía las cabeceras de la respuesta. Lo
+        // programa el primer onWritePossible, que el servidor llama al registrar el listener
+        suscripcion.iniciar(LATIDO);
+    }
+    
+    /**
+     * Lee los eventos publicados desde el último leído y los reparte. Sin suscripciones
+     * solo olvida la posición: la primera suscripción empieza por los lotes nuevos.
+     */
+    @Scheduled(fixedDelayString = "${eventos.sse.intervalo-ms:500}")
+    public synchronized void leerPublicados() {
+        if (suscripciones.get() == 0) {
+            ultimaPublicacion = -1;
+            return;
+        }
+        try {
+            if (ultimaPublicacion < 0) {
+                ultimaPublicacion = jdbcTemplate.queryForObject(SQL_ULTIMA_PUBLICACION, Long.class);
+                ultimoId = Long.MAX_VALUE;
+                return;
+            }
+            int leidos;
+            do {
+                leidos = jdbcTemplate.query(SQL_PUBLICADOS, (ResultSet rs) -> {
+                    int n = 0;
+                    while (rs.next()) {
+                        difundir(PublicadorEventosService.FILA.mapRow(rs, n++));
+                        ultimaPublicacion = rs.getLong("publicacion");
+                        ultimoId = rs.getLong("id");
+                    }
+                    return n;
+                }, ultimaPublicacion, ultimaPublicacion, ultimoId, EVENTOS_POR_LECTURA);
+            } while (leidos == EVENTOS_POR_LECTURA);
+        } catch (DataAccessException ex) {
+            logger.warn("No se han podido leer los eventos publicados: {}", ex.toString());
+        }
+    }
+    
+    public void difundir(EventoFacturaDTO evento) {
+        Set<Suscripcion> destinatarios = porUsuario.get(evento.getUsuarioId());
+        if (destinatarios != null) {
+            byte[] mensaje;
+            try {
+                mensaje = mensaje(evento);
+            } catch (JsonProcessingException ex) {
+                logger.warn("No se ha podido serializar el evento {}: {}", evento.getId(), ex.toString());
+                return;
+            }
+            for (Suscripcion suscripcion : destinatarios) {
+                suscripcion.encolar(mensaje);
+            }
+        }
+    }
+    
+    /** Evento en formato Server-Sent Events, serializado una vez para todas las suscripciones. */
+    private byte[] mensaje(EventoFacturaDTO evento) throws JsonProcessingException {
+        return ("id:" + evento.getId() + "\n" +
+                "event:" + evento.getTipo().name() + "\n" +
+                "data:" + objectMapper.writeValueAsString(evento) + "\n\n").getBytes(StandardCharsets.UTF_8);
+    }
+    
+    @Scheduled(fixedDelayString = "${eventos.sse.latido-ms:30000}")
+    public void latir() {
+        for (Set<Suscripcion> destinatarios : porUsuario.values()) {
+            for (Suscripcion suscripcion : destinatarios) {
+                suscripcion.latir();
+            }
+        }
+    }
+    
+    /**
+     * Descarta las suscripciones que llevan más de {@code eventos.sse.tiempo-envio-ms}
+     * esperando a que su conexión admita más datos.
+     */
+    @Scheduled(fixedDelayString = "${eventos.sse.tiempo-envio-ms:10000}")
+    public void descartarLentas() {
+        long ahora = System.nanoTime();
+        for (Set<Suscripcion> destinatarios : porUsuario.values()) {
+            for (Suscripcion suscripcion : destinatarios) {
+                long desde = suscripcion.esperaDesde;
+                if (desde != 0 && ahora - desde > tiempoEnvioNanos && quitar(suscripcion)) {
+                    suscripcion.terminar();
+                    lentas.increment();
+                }
+            }
+        }
+    }
+    
+    private boolean quitar(Suscripcion suscripcion) {
+        if (suscripcion.cerrada.compareAndSet(false, true)) {
+            suscripciones.decrementAndGet();
+            porUsuario.computeIfPresent(suscripcion.usuarioId, (id, destinatarios) -> {
+                destinatarios.remove(suscripcion);
+                return destinatarios.isEmpty() ? null : destinatarios;
+            });
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Termina las suscripciones al parar la aplicación; si no, el apagado ordenado del
+     * servidor esperaría a que caducasen.
+     */
+    @EventListener(ContextClosedEvent.class)
+    public void cerrar() {
+        for (Set<Suscripcion> destinatarios : porUsuario.values()) {
+            for (Suscripcion suscripcion : destinatarios) {
+                if (quitar(suscripcion)) {
+                    suscripcion.terminar();
+                }
+            }
+        }
+    }
+    
+    @PreDestroy
+    public void detener() {
+        envios.shutdownNow();
+    }
+    
+    /**
+     * Conexión de un cliente con su cola de eventos pendientes. Solo un hilo del pool
+     * la vacía a la vez ({@code programada}), así que los eventos salen en orden; si la
+     * conexión no admite más datos, la deja programada hasta el siguiente
+     * onWritePossible.
+     */
+    private final class Suscripcion implements WriteListener, AsyncListener {
+        
+        private static final int ENVIOS_POR_TURNO = 64;
+        
+        private final Long usuarioId;
+        private final AsyncContext contexto;
+        private final ServletOutputStream salida;
+        private final ArrayDeque<byte[]> cola = new ArrayDeque<>();
+        private final AtomicBoolean programada = new AtomicBoolean();
+        private final AtomicBoolean cerrada = new AtomicBoolean();
+        /** Inicio (System.nanoTime) de la espera a que la conexión admita datos; 0 si no espera. */
+        private volatile long esperaDesde;
+        /** Datos escritos en el búfer de la respuesta y aún sin enviar (solo el hilo que vacía). */
+        private boolean sinVaciar;
+        
+        private Suscripcion(Long usuarioId, AsyncContext contexto, ServletOutputStream salida) {
+            this.usuarioId = usuarioId;
+            this.contexto = contexto;
+            this.salida = salida;
+        }
+        
+        /** Encola el primer envío y registra el listener, cuyo primer aviso lo envía. */
+        void iniciar(byte[] elemento) {
+            synchronized (cola) {
+                cola.addLast(elemento);
+            }
+            programada.set(true);
+            salida.setWriteListener(this);
+        }
+        
+        void encolar(byte[] elemento) {
+            synchronized (cola) {
+                if (cola.size() == capacidadCola) {
+                    cola.pollFirst();
+                    descartados.increment();
+                }
+                cola.addLast(elemento);
+            }
+            programar();
+        }
+        
+        void latir() {
+            synchronized (cola) {
+                if (!cola.isEmpty()) {
+                    return;
+                }
+                cola.addLast(LATIDO);
+            }
+            programar();
+        }
+        
+        private void programar() {
+            if (!cerrada.get() && programada.compareAndSet(false, true)) {
+                envios.execute(this::vaciar);
+            }
+        }
+        
+        /** Deja de enviar: lo pendiente se pierde y la respuesta se completa. */
+        void terminar() {
+            synchronized (cola) {
+                cola.clear();
+            }
+            try {
+                contexto.complete();
+            } catch (IllegalStateException ex) {
+                // Ya completada por el servidor
+            }
+        }
+        
+        /**
+         * Envía hasta ENVIOS_POR_TURNO elementos y, si quedan, cede el hilo a otras
+         * suscripciones volviendo a programarse. Si la conexión no admite más datos
+         * termina sin reprogramarse: la reanuda onWritePossible.
+         */
+        private void vaciar() {
+            try {
+                for (int i = 0; i < ENVIOS_POR_TURNO; i++) {
+                    if (cerrada.get()) {
+                        return;
+                    }
+                    esperaDesde = System.nanoTime();
+                    if (!salida.isReady()) {
+                        return;
+                    }
+                    esperaDesde = 0;
+                    if (sinVaciar) {
+                        sinVaciar = false;
+                        salida.flush();
+                        continue;
+                    }
+                    byte[] elemento;
+                    synchronized (cola) {
+                        elemento = cola.pollFirst();
+                        if (elemento == null) {
+                            programada.set(false);
+                            return;
+                        }
+                    }
+                    salida.write(elemento);
+                    sinVaciar = true;
+                    if (elemento != LATIDO) {
+                        enviados.increment();
+                    }
+                }
+                envios.execute(this::vaciar);
+            } catch (IOException | IllegalStateException ex) {
+                // Conexión cerrada por el cliente o suscripción ya terminada
+                fallar();
+            }
+        }
+        
+        private void fallar() {
+            quitar(this);
+            terminar();
+        }
+        
+        @Override
+        public void onWritePossible() {
+            envios.execute(this::vaciar);
+        }
+        
+        @Override
+        public void onError(Throwable error) {
+            fallar();
+        }
+        
+        @Override
+        public void onComplete(AsyncEvent evento) {
+            quitar(this);
+        }
+        
+        @Override
+        public void onTimeout(AsyncEvent evento) {
+            fallar();
+        }
+        
+        @Override
+        public void onError(AsyncEvent evento) {
+            fallar();
+        }
+        
+        @Override
+        public void onStartAsync(AsyncEvent evento) {
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package es.uvigo.mei.facturaaas.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import es.uvigo.mei.facturaaas.dto.FacturaDTO;
+import es.uvigo.mei.facturaaas.dto.FilaExportacionFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.LineaFacturaDTO;
+import es.uvigo.mei.facturaaas.repository.FacturaRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Exportación de facturas en streaming. Las filas se leen de la base de datos
+ * por bloques (proyección a DTO, sin entidades en el contexto de persistencia)
+ * y se escriben según llegan, así que la memoria no depende del volumen exportado.
+ */
+@Service
+@Transactional(readOnly = true)
+public class ExportacionFacturaService {
+    
+    private static final String SEPARADOR = ";";
+    
+    private static final String CABECERA_CSV = String.join(SEPARADOR,
+        "numero_factura", "ejercicio", "fecha_emision", "estado", "cliente_nombre", "cliente_nif",
+        "forma_pago", "importe_total", "iva_total", "suma_total", "numero_linea", "concepto",
+        "cantidad", "precio_unitario", "porcentaje_descuento", "tipo_iva", "porcentaje_iva",
+        "importe_linea");
+    
+    @Autowired
+    private FacturaRepository facturaRepository;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    public enum Formato {
+        CSV,
+        NDJSON
+    }
+    
+    public void exportar(Long usuarioId, Integer ejercicio, Formato formato, OutputStream salida)
+            throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(salida, StandardCharsets.UTF_8));
+        try (Stream<FilaExportacionFacturaDTO> filas = facturaRepository.streamExportacion(usuarioId, ejercicio)) {
+            if (formato == Formato.CSV) {
+                escribirCsv(filas.iterator(), writer);
+            } else {
+                escribirNdjson(filas.iterator(), writer);
+            }
+        }
+        writer.flush();
+    }
+    
+    /**
+     * Una fila por línea de factura, con los datos de cabecera repetidos.
+     */
+    private void escribirCsv(Iterator<FilaExportacionFacturaDTO> filas, Writer writer) throws IOException {
+        writer.write(CABECERA_CSV);
+        writer.write("\n");
+        writer.flush();
+        
+        while (filas.hasNext()) {
+            FilaExportacionFacturaDTO fila = filas.next();
+            writer.write(String.join(SEPARADOR,
+                csv(fila.getNumeroFactura()), csv(fila.getEjercicio()), csv(fila.getFechaEmision()),
+                csv(fila.getEstado()), csv(fila.getClienteNombre()), csv(fila.getClienteNif()),
+                csv(fila.getFormaPagoDescripcion()), csv(fila.getImporteTotal()), csv(fila.getIvaTotal()),
+                csv(fila.getSumaTotal()), csv(fila.getNumeroLinea()), csv(fila.getConcepto()),
+                csv(fila.getCantidad()), csv(fila.getPrecioUnitario()), csv(fila.getPorcentajeDescuento()),
+                csv(fila.getTipoIVADescripcion()), csv(fila.getTipoIVAPorcentaje()), csv(fila.getImporteLinea())));
+            writer.write("\n");
+        }
+    }
+    
+    /**
+     * Un FacturaDTO con sus líneas por cada línea de texto. Las filas llegan
+     * ordenadas por factura, por lo que solo se mantiene en memoria la factura en curso.
+     */
+    private void escribirNdjson(Iterator<FilaExportacionFacturaDTO> filas, Writer writer) throws IOException {
+        writer.flush();
+        FacturaDTO actual = null;
+        while (filas.hasNext()) {
+            FilaExportacionFacturaDTO fila = filas.next();
+            if (actual == null || !actual.getId().equals(fila.getFacturaId())) {
+                if (actual != null) {
+                    escribirJson(actual, writer);
+                }
+                actual = cabecera(fila);
+            }
+            if (fila.getLineaId() != null) {
+                actual.getLineas().add(linea(fila));
+            }
+        }
+        if (actual != null) {
+            escribirJson(actual, writer);
+        }
+    }
+    
+    private void escribirJson(FacturaDTO factura, Writer writer) throws IOException {
+        writer.write(objectMapper.writeValueAsString(factura));
+        writer.write("\n");
+    }
+    
+    private FacturaDTO cabecera(FilaExportacionFacturaDTO fila) {
+        FacturaDTO dto = new FacturaDTO();
+        dto.setId(fila.getFacturaId());
+        dto.setNumeroFactura(fila.getNumeroFactura());
+        dto.setEjercicio(fila.getEjercicio());
+        dto.setUsuarioId(fila.getUsuarioId());
+        dto.setClienteId(fila.getClienteId());
+        dto.setClienteNombre(fila.getClienteNombre());
+        dto.setClienteNif(fila.getClienteNif());
+        dto.setFechaEmision(fila.getFechaEmision());
+        dto.setFormaPagoId(fila.getFormaPagoId());
+        dto.setFormaPagoDescripcion(fila.getFormaPagoDescripcion());
+        dto.setEstado(fila.getEstado());
+        dto.setComentarios(fila.getComentarios());
+        dto.setImporteTotal(fila.getImporteTotal());
+        dto.setIvaTotal(fila.getIvaTotal());
+        dto.setSumaTotal(fila.getSumaTotal());
+        return dto;
+    }
+    
+    private LineaFacturaDTO linea(FilaExportacionFacturaDTO fila) {
+        LineaFacturaDTO dto = new LineaFacturaDTO();
+        dto.setId(fila.getLineaId());
+        dto.setFacturaId(fila.getFacturaId());
+        dto.setNumeroLinea(fila.getNumeroLinea());
+        dto.setConcepto(fila.getConcepto());
+        dto.setCantidad(fila.getCantidad());
+        dto.setPrecioUnitario(fila.getPrecioUnitario());
+        dto.setPorcentajeDescuento(fila.getPorcentajeDescuento());
+        dto.setTipoIVAId(fila.getTipoIVAId());
+        dto.setTipoIVADescripcion(fila.getTipoIVADescripcion());
+        dto.setTipoIVAPorcentaje(fila.getTipoIVAPorcentaje());
+        dto.setImporteTotal(fila.getImporteLinea());
+        return dto;
+    }
+    
+    private String csv(Object valor) {
+        if (valor == null) {
+            return "";
+        }
+        String texto = valor.toString();
+        if (texto.contains(SEPARADOR) || texto.contains("\"") || texto.contains("\n") || texto.contains("\r")) {
+            return "\"" + texto.replace("\"", "\"\"") + "\"";
+        }
+        return texto;
+    }
+}
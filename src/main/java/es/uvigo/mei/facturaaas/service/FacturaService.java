@@ -1,15 +1,44 @@
 package es.uvigo.mei.facturaaas.service;
 
 import es.uvigo.mei.facturaaas.dto.FacturaDTO;
+import es.uvigo.mei.facturaaas.dto.FacturaResumenDTO;
+import es.uvigo.mei.facturaaas.dto.FiltroFacturaDTO;
 import es.uvigo.mei.facturaaas.dto.LineaFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.PaginaDTO;
+import es.uvigo.mei.facturaaas.dto.ResultadoLoteDTO;
+import es.uvigo.mei.facturaaas.dto.ResumenIVADTO;
+import es.uvigo.mei.facturaaas.exception.ConflictoException;
 import es.uvigo.mei.facturaaas.model.*;
 import es.uvigo.mei.facturaaas.repository.*;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.PersistenceContext;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
@@ -19,6 +48,9 @@ public class FacturaService {
     @Autowired
     private FacturaRepository facturaRepository;
     
+    @Autowired
+    private DesgloseIVAFacturaRepository desgloseIVAFacturaRepository;
+    
     @Autowired
     private UsuarioRepository usuarioRepository;
     
@@ -26,84 +58,338 @@ public class FacturaService {
     private ClienteRepository clienteRepository;
     
     @Autowired
-    private FormaPagoRepository formaPagoRepository;
+    private DatosReferenciaCache datosReferenciaCache;
     
     @Autowired
-    private TipoIVARepository tipoIVARepository;
+    private PagoService pagoService;
     
     @Autowired
-    private PagoService pagoService;
+    private NumeracionFacturaService numeracionFacturaService;
+    
+    @Autowired
+    private ResumenFacturacionService resumenFacturacionService;
+    
+    @Autowired
+    private CadenaFacturaService cadenaFacturaService;
+    
+    @Autowired
+    private BandejaEventos bandejaEventos;
+    
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    
+    @Autowired
+    private Validator validator;
+    
+    @PersistenceContext
+    private EntityManager entityManager;
+    
+    /** Prefijo del error de las facturas de un bloque cuya transacción ha fallado entera. */
+    static final String ERROR_BLOQUE = "Error al guardar el bloque: ";
+    
+    @Value("${factura.lote.facturas-por-transaccion:500}")
+    private int facturasPorTransaccion;
     
     public List<FacturaDTO> obtenerPorUsuario(Long usuarioId) {
-        return facturaRepository.findByUsuarioId(usuarioId).stream()
+        return facturaRepository.findConLineasByUsuarioId(usuarioId).stream()
             .map(this::convertirADTO)
             .collect(Collectors.toList());
     }
     
     public List<FacturaDTO> obtenerPorUsuarioYCliente(Long usuarioId, Long clienteId) {
-        return facturaRepository.findByUsuarioIdAndClienteId(usuarioId, clienteId).stream()
+        return facturaRepository.findConLineasByUsuarioIdAndClienteId(usuarioId, clienteId).stream()
             .map(this::convertirADTO)
             .collect(Collectors.toList());
     }
     
+    public List<FacturaResumenDTO> obtenerResumenPorUsuario(Long usuarioId) {
+        return facturaRepository.findResumenByUsuarioId(usuarioId);
+    }
+    
+    public List<FacturaResumenDTO> obtenerResumenPorUsuarioYCliente(Long usuarioId, Long clienteId) {
+        return facturaRepository.findResumenByUsuarioIdAndClienteId(usuarioId, clienteId);
+    }
+    
+    /**
+     * IVA repercutido por trimestre y porcentaje, a partir del desglose guardado en cada factura.
+     */
+    public List<ResumenIVADTO> obtenerResumenIVA(Long usuarioId, Integer ejercicio) {
+        return desgloseIVAFacturaRepository.findResumenTrimestral(usuarioId, ejercicio);
+    }
+    
+    /**
+     * Listado paginado por cursor sobre (fechaEmision, id), de más reciente a más antigua.
+     * Las líneas de la página se cargan en bloque (hibernate.default_batch_fetch_size).
+     */
+    public PaginaDTO<FacturaDTO> obtenerPagina(Long usuarioId, FiltroFacturaDTO filtro,
+                                               String cursor, int limite) {
+        CursorKeyset desde = CursorKeyset.decodificar(cursor);
+        int tamano = CursorKeyset.limitar(limite);
+        Specification<Factura> criterio = FacturaSpecifications.listado(usuarioId, filtro,
+            desde != null ? desde.fecha() : null, desde != null ? desde.id() : null);
+        
+        List<Factura> facturas = facturaRepository.findBy(criterio, consulta -> consulta
+            .sortBy(Sort.by(Sort.Direction.DESC, "fechaEmision", "id"))
+            .project("cliente", "formaPago")
+            .limit(tamano + 1)
+            .all());
+        
+        String siguienteCursor = null;
+        if (facturas.size() > tamano) {
+            facturas = facturas.subList(0, tamano);
+            Factura ultima = facturas.get(tamano - 1);
+            siguienteCursor = CursorKeyset.codificar(ultima.getFechaEmision(), ultima.getId());
+        }
+        List<FacturaDTO> elementos = facturas.stream()
+            .map(this::convertirADTO)
+            .collect(Collectors.toList());
+        return new PaginaDTO<>(elementos, siguienteCursor);
+    }
+    
     public FacturaDTO obtenerPorId(Long id) {
-        Factura factura = facturaRepository.findById(id)
+        Factura factura = facturaRepository.findConLineasById(id)
             .orElseThrow(() -> new RuntimeException("Factura no encontrada"));
         return convertirADTO(factura);
     }
     
     public FacturaDTO crear(FacturaDTO dto) {
+        if (dto.getClaveIdempotencia() != null) {
+            Optional<Factura> existente = facturaRepository.findByUsuarioIdAndClaveIdempotencia(
+                dto.getUsuarioId(), dto.getClaveIdempotencia());
+            if (existente.isPresent()) {
+                return convertirADTO(existente.get());
+            }
+        }
         Usuario usuario = usuarioRepository.findById(dto.getUsuarioId())
             .orElseThrow(() -> new RuntimeException("Usuario no encontrado"));
         Cliente cliente = clienteRepository.findById(dto.getClienteId())
             .orElseThrow(() -> new RuntimeException("Cliente no encontrado"));
-        FormaPago formaPago = formaPagoRepository.findById(dto.getFormaPagoId())
+        FormaPago formaPago = datosReferenciaCache.obtenerFormaPago(dto.getFormaPagoId())
             .orElseThrow(() -> new RuntimeException("Forma de pago no encontrada"));
         
         // Generar número de factura
-        String numeroFactura = generarNumeroFactura(dto.getEjercicio());
+        String numeroFactura = numeracionFacturaService.siguienteNumero(usuario.getId(), dto.getEjercicio());
         
-        Factura factura = new Factura();
+        Factura factura = nuevaFactura(dto, usuario, cliente, formaPago);
         factura.setNumeroFactura(numeroFactura);
-        factura.setEjercicio(dto.getEjercicio());
-        factura.setUsuario(usuario);
-        factura.setCliente(cliente);
-        factura.setFechaEmision(dto.getFechaEmision());
-        factura.setFormaPago(formaPago);
-        factura.setEstado(Factura.EstadoFactura.EMITIDA);
-        factura.setComentarios(dto.getComentarios());
         
         // Agregar líneas
         if (dto.getLineas() != null) {
             for (LineaFacturaDTO lineaDTO : dto.getLineas()) {
-                TipoIVA tipoIVA = tipoIVARepository.findById(lineaDTO.getTipoIVAId())
+                TipoIVA tipoIVA = datosReferenciaCache.obtenerTipoIVA(lineaDTO.getTipoIVAId())
                     .orElseThrow(() -> new RuntimeException("Tipo de IVA no encontrado"));
-                
-                LineaFactura linea = new LineaFactura();
-                linea.setFactura(factura);
-                linea.setNumeroLinea(factura.getLineas().size() + 1);
-                linea.setConcepto(lineaDTO.getConcepto());
-                linea.setCantidad(lineaDTO.getCantidad());
-                linea.setPrecioUnitario(lineaDTO.getPrecioUnitario());
-                linea.setPorcentajeDescuento(lineaDTO.getPorcentajeDescuento() != null ? 
-                    lineaDTO.getPorcentajeDescuento() : BigDecimal.ZERO);
-                linea.setTipoIVA(tipoIVA);
-                linea.calcularImporteTotal();
-                
-                factura.getLineas().add(linea);
+                agregarLinea(factura, lineaDTO, tipoIVA);
             }
         }
         
         factura.calcularTotales();
+        cadenaFacturaService.encadenar(usuario.getId(), List.of(factura));
         factura = facturaRepository.save(factura);
+        resumenFacturacionService.registrarCambio(null, resumenFacturacionService.aportacion(factura));
+        bandejaEventos.registrarFacturas(EventoFactura.TipoEvento.FACTURA_CREADA, List.of(factura));
         return convertirADTO(factura);
     }
     
+    /**
+     * Crea un lote de facturas para un usuario. Las referencias (clientes, formas de
+     * pago y tipos de IVA) se resuelven con una consulta IN por bloque, y cada bloque
+     * se inserta en su propia transacción con inserciones JDBC agrupadas.
+     * Las facturas inválidas no detienen el lote: se informan en su resultado.
+     * Las que traen una clave de idempotencia ya usada por el usuario no se vuelven a
+     * crear: su resultado es correcto y apunta a la factura existente.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public List<ResultadoLoteDTO> crearLote(Long usuarioId, List<FacturaDTO> dtos) {
+        if (!usuarioRepository.existsById(usuarioId)) {
+            throw new RuntimeException("Usuario no encontrado");
+        }
+        
+        List<ResultadoLoteDTO> resultados = new ArrayList<>(dtos.size());
+        for (int i = 0; i < dtos.size(); i++) {
+            resultados.add(new ResultadoLoteDTO(i));
+        }
+        
+        TransactionTemplate transaccion = new TransactionTemplate(transactionManager);
+        for (int desde = 0; desde < dtos.size(); desde += facturasPorTransaccion) {
+            int hasta = Math.min(desde + facturasPorTransaccion, dtos.size());
+            List<FacturaDTO> bloque = dtos.subList(desde, hasta);
+            List<ResultadoLoteDTO> resultadosBloque = resultados.subList(desde, hasta);
+            try {
+                transaccion.executeWithoutResult(
+                    estado -> crearBloque(usuarioId, bloque, resultadosBloque));
+            } catch (RuntimeException ex) {
+                // El fallo puede llegar al volcar el bloque, antes de marcar sus facturas
+                // como correctas: fallan todas las que no tienen un error propio
+                for (ResultadoLoteDTO resultado : resultadosBloque) {
+                    if (resultado.getError() == null) {
+                        resultado.setCorrecto(false);
+                        resultado.setFacturaId(null);
+                        resultado.setNumeroFactura(null);
+                        resultado.setError(ERROR_BLOQUE + ex.getMessage());
+                    }
+                }
+            }
+        }
+        return resultados;
+    }
+    
+    private void crearBloque(Long usuarioId, List<FacturaDTO> dtos, List<ResultadoLoteDTO> resultados) {
+        Usuario usuario = usuarioRepository.getReferenceById(usuarioId);
+        
+        Set<Long> clienteIds = new HashSet<>();
+        Set<Long> formaPagoIds = new HashSet<>();
+        Set<Long> tipoIVAIds = new HashSet<>();
+        for (FacturaDTO dto : dtos) {
+            if (dto.getClienteId() != null) {
+                clienteIds.add(dto.getClienteId());
+            }
+            if (dto.getFormaPagoId() != null) {
+                formaPagoIds.add(dto.getFormaPagoId());
+            }
+            if (dto.getLineas() != null) {
+                for (LineaFacturaDTO lineaDTO : dto.getLineas()) {
+                    if (lineaDTO.getTipoIVAId() != null) {
+                        tipoIVAIds.add(lineaDTO.getTipoIVAId());
+                    }
+                }
+            }
+        }
+        Map<Long, Cliente> clientes = clienteRepository.findAllById(clienteIds).stream()
+            .collect(Collectors.toMap(Cliente::getId, Function.identity()));
+        Map<Long, FormaPago> formasPago = datosReferenciaCache.obtenerFormasPago(formaPagoIds);
+        Map<Long, TipoIVA> tiposIVA = datosReferenciaCache.obtenerTiposIVA(tipoIVAIds);
+        Map<String, Factura> existentes = facturasPorClave(usuarioId, dtos);
+        
+        List<Factura> facturas = new ArrayList<>();
+        List<ResultadoLoteDTO> creadas = new ArrayList<>();
+        Set<String> clavesBloque = new HashSet<>();
+        for (int i = 0; i < dtos.size(); i++) {
+            FacturaDTO dto = dtos.get(i);
+            ResultadoLoteDTO resultado = resultados.get(i);
+            Factura existente = existentes.get(dto.getClaveIdempotencia());
+            if (existente != null) {
+                resultado.setCorrecto(true);
+                resultado.setFacturaId(existente.getId());
+                resultado.setNumeroFactura(existente.getNumeroFactura());
+                continue;
+            }
+            String error = validarFacturaLote(usuarioId, dto, clientes, formasPago, tiposIVA);
+            if (error == null && dto.getClaveIdempotencia() != null && !clavesBloque.add(dto.getClaveIdempotencia())) {
+                error = "Clave de idempotencia repetida en el lote";
+            }
+            if (error != null) {
+                resultado.setError(error);
+                continue;
+            }
+            
+            Factura factura = nuevaFactura(dto, usuario,
+                clientes.get(dto.getClienteId()), formasPago.get(dto.getFormaPagoId()));
+            if (dto.getLineas() != null) {
+                for (LineaFacturaDTO lineaDTO : dto.getLineas()) {
+                    agregarLinea(factura, lineaDTO, tiposIVA.get(lineaDTO.getTipoIVAId()));
+                }
+            }
+            factura.calcularTotales();
+            facturas.add(factura);
+            creadas.add(resultado);
+        }
+        
+        // Un único bloqueo del contador por ejercicio para todo el bloque
+        Map<Integer, List<Factura>> porEjercicio = facturas.stream()
+            .collect(Collectors.groupingBy(Factura::getEjercicio));
+        porEjercicio.forEach((ejercicio, facturasEjercicio) -> {
+            List<String> numeros = numeracionFacturaService.siguientesNumeros(
+                usuarioId, ejercicio, facturasEjercicio.size());
+            for (int i = 0; i < facturasEjercicio.size(); i++) {
+                facturasEjercicio.get(i).setNumeroFactura(numeros.get(i));
+            }
+        });
+        
+        if (!facturas.isEmpty()) {
+            cadenaFacturaService.encadenar(usuarioId, facturas);
+        }
+        facturaRepository.saveAll(facturas);
+        resumenFacturacionService.registrarAltas(facturas);
+        entityManager.flush();
+        bandejaEventos.registrarFacturas(EventoFactura.TipoEvento.FACTURA_CREADA, facturas);
+        
+        for (int i = 0; i < facturas.size(); i++) {
+            ResultadoLoteDTO resultado = creadas.get(i);
+            resultado.setCorrecto(true);
+            resultado.setFacturaId(facturas.get(i).getId());
+            resultado.setNumeroFactura(facturas.get(i).getNumeroFactura());
+        }
+    }
+    
+    private Map<String, Factura> facturasPorClave(Long usuarioId, List<FacturaDTO> dtos) {
+        Set<String> claves = dtos.stream()
+            .map(FacturaDTO::getClaveIdempotencia)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toSet());
+        if (claves.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return facturaRepository.findByUsuarioIdAndClaveIdempotenciaIn(usuarioId, claves).stream()
+            .collect(Collectors.toMap(Factura::getClaveIdempotencia, Function.identity()));
+    }
+    
+    private String validarFacturaLote(Long usuarioId, FacturaDTO dto, Map<Long, Cliente> clientes,
+                                      Map<Long, FormaPago> formasPago, Map<Long, TipoIVA> tiposIVA) {
+        Set<ConstraintViolation<FacturaDTO>> violaciones = validator.validate(dto);
+        if (!violaciones.isEmpty()) {
+            ConstraintViolation<FacturaDTO> violacion = violaciones.iterator().next();
+            return violacion.getPropertyPath() + ": " + violacion.getMessage();
+        }
+        if (dto.getUsuarioId() != null && !dto.getUsuarioId().equals(usuarioId)) {
+            return "La factura pertenece a otro usuario";
+        }
+        Cliente cliente = clientes.get(dto.getClienteId());
+        if (cliente == null || !cliente.getUsuario().getId().equals(usuarioId)) {
+            return "Cliente no encontrado";
+        }
+        FormaPago formaPago = formasPago.get(dto.getFormaPagoId());
+        if (formaPago == null || !formaPago.getUsuario().getId().equals(usuarioId)) {
+            return "Forma de pago no encontrada";
+        }
+        if (dto.getLineas() != null) {
+            for (LineaFacturaDTO lineaDTO : dto.getLineas()) {
+                Set<ConstraintViolation<LineaFacturaDTO>> violacionesLinea = validator.validate(lineaDTO);
+                if (!violacionesLinea.isEmpty()) {
+                    ConstraintViolation<LineaFacturaDTO> violacion = violacionesLinea.iterator().next();
+                    return "lineas." + violacion.getPropertyPath() + ": " + violacion.getMessage();
+                }
+                if (!tiposIVA.containsKey(lineaDTO.getTipoIVAId())) {
+                    return "Tipo de IVA no encontrado";
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Actualiza la factura aplicando sólo las diferencias en sus líneas. El DTO debe
+     * traer la versión leída: si no coincide con la guardada, otro usuario la ha
+     * modificado desde entonces y se rechaza el cambio.
+     * <p>
+     * La fecha y los importes de una factura ya encadenada forman parte de su huella
+     * (ver CadenaFacturaService): cambiarlos rompería la cadena, así que se rechaza y
+     * la corrección se hace anulándola y emitiendo otra.
+     */
     public FacturaDTO actualizar(Long id, FacturaDTO dto) {
-        Factura factura = facturaRepository.findById(id)
+        if (dto.getVersion() == null) {
+            throw new RuntimeException("La versión de la factura es obligatoria");
+        }
+        Factura factura = facturaRepository.findConLineasById(id)
             .orElseThrow(() -> new RuntimeException("Factura no encontrada"));
+        if (!dto.getVersion().equals(factura.getVersion())) {
+            throw new ObjectOptimisticLockingFailureException(Factura.class, id);
+        }
+        ResumenFacturacionService.Aportacion anterior = resumenFacturacionService.aportacion(factura);
+        LocalDate fechaEncadenada = factura.getFechaEmision();
+        BigDecimal ivaEncadenado = factura.getIvaTotal();
+        BigDecimal sumaEncadenada = factura.getSumaTotal();
         
-        FormaPago formaPago = formaPagoRepository.findById(dto.getFormaPagoId())
+        FormaPago formaPago = datosReferenciaCache.obtenerFormaPago(dto.getFormaPagoId())
             .orElseThrow(() -> new RuntimeException("Forma de pago no encontrada"));
         
         factura.setFechaEmision(dto.getFechaEmision());
@@ -111,36 +397,81 @@ public class FacturaService {
         factura.setEstado(dto.getEstado());
         factura.setComentarios(dto.getComentarios());
         
-        // Actualizar líneas
-        factura.getLineas().clear();
-        if (dto.getLineas() != null) {
-            for (LineaFacturaDTO lineaDTO : dto.getLineas()) {
-                TipoIVA tipoIVA = tipoIVARepository.findById(lineaDTO.getTipoIVAId())
-                    .orElseThrow(() -> new RuntimeException("Tipo de IVA no encontrado"));
-                
-                LineaFactura linea = new LineaFactura();
+        boolean lineasCambiadas = actualizarLineas(factura, dto.getLineas() != null ? dto.getLineas() : List.of());
+        
+        factura.calcularTotales();
+        if (factura.getSecuenciaRegistro() != null
+                && (!fechaEncadenada.equals(factura.getFechaEmision())
+                    || ivaEncadenado.compareTo(factura.getIvaTotal()) != 0
+                    || sumaEncadenada.compareTo(factura.getSumaTotal()) != 0)) {
+            throw new ConflictoException("La factura está registrada en la cadena de huellas: su fecha y sus "
+                + "importes no se pueden modificar; anúlela y emita otra");
+        }
+        factura = facturaRepository.saveAndFlush(factura);
+        Long version = factura.getVersion();
+        if (lineasCambiadas && version.equals(dto.getVersion())) {
+            // Un cambio sólo en las líneas no modifica la fila de factura: se fuerza el
+            // incremento de versión, que se escribe (comprobando la leída) al confirmar
+            entityManager.lock(factura, LockModeType.OPTIMISTIC_FORCE_INCREMENT);
+            version++;
+        }
+        resumenFacturacionService.registrarCambio(anterior, resumenFacturacionService.aportacion(factura));
+        bandejaEventos.registrarFacturas(EventoFactura.TipoEvento.FACTURA_ACTUALIZADA, List.of(factura));
+        FacturaDTO resultado = convertirADTO(factura);
+        resultado.setVersion(version);
+        return resultado;
+    }
+    
+    /**
+     * Empareja las líneas recibidas con las existentes por id o, si no lo traen, por
+     * número de línea. Sólo se insertan las nuevas, se borran las que ya no vienen y
+     * se modifican las que cambian. Devuelve si ha cambiado alguna línea.
+     */
+    private boolean actualizarLineas(Factura factura, List<LineaFacturaDTO> lineasDTO) {
+        Map<Long, LineaFactura> porId = new HashMap<>();
+        Map<Integer, LineaFactura> porNumero = new HashMap<>();
+        for (LineaFactura linea : factura.getLineas()) {
+            porId.put(linea.getId(), linea);
+            porNumero.put(linea.getNumeroLinea(), linea);
+        }
+        
+        Set<LineaFactura> conservadas = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<LineaFactura> nuevas = new ArrayList<>();
+        boolean cambios = false;
+        int numeroLinea = 0;
+        for (LineaFacturaDTO lineaDTO : lineasDTO) {
+            numeroLinea++;
+            TipoIVA tipoIVA = datosReferenciaCache.obtenerTipoIVA(lineaDTO.getTipoIVAId())
+                .orElseThrow(() -> new RuntimeException("Tipo de IVA no encontrado"));
+            
+            LineaFactura linea;
+            if (lineaDTO.getId() != null) {
+                linea = porId.get(lineaDTO.getId());
+                if (linea == null) {
+                    throw new RuntimeException("Línea de factura no encontrada");
+                }
+            } else {
+                linea = lineaDTO.getNumeroLinea() != null ? porNumero.get(lineaDTO.getNumeroLinea()) : null;
+            }
+            if (linea == null || !conservadas.add(linea)) {
+                linea = new LineaFactura();
                 linea.setFactura(factura);
-                linea.setNumeroLinea(factura.getLineas().size() + 1);
-                linea.setConcepto(lineaDTO.getConcepto());
-                linea.setCantidad(lineaDTO.getCantidad());
-                linea.setPrecioUnitario(lineaDTO.getPrecioUnitario());
-                linea.setPorcentajeDescuento(lineaDTO.getPorcentajeDescuento() != null ? 
-                    lineaDTO.getPorcentajeDescuento() : BigDecimal.ZERO);
-                linea.setTipoIVA(tipoIVA);
-                linea.calcularImporteTotal();
-                
-                factura.getLineas().add(linea);
+                nuevas.add(linea);
+                cambios = true;
             }
+            cambios |= copiarLinea(linea, lineaDTO, tipoIVA, numeroLinea);
         }
         
-        factura.calcularTotales();
-        factura = facturaRepository.save(factura);
-        return convertirADTO(factura);
+        cambios |= factura.getLineas().removeIf(linea -> !conservadas.contains(linea));
+        factura.getLineas().addAll(nuevas);
+        factura.getLineas().sort(Comparator.comparing(LineaFactura::getNumeroLinea));
+        return cambios;
     }
     
     public void generarPagos(Long facturaId) {
         Factura factura = facturaRepository.findById(facturaId)
             .orElseThrow(() -> new RuntimeException("Factura no encontrada"));
+        ResumenFacturacionService.Aportacion anterior = resumenFacturacionService.aportacion(factura);
         
         // Eliminar pagos existentes
         factura.getPagos().clear();
@@ -148,11 +479,58 @@ public class FacturaService {
         // Generar nuevos pagos
         pagoService.generarPagosParaFactura(factura);
         facturaRepository.save(factura);
+        resumenFacturacionService.registrarCambio(anterior, resumenFacturacionService.aportacion(factura));
+        bandejaEventos.registrarFacturas(EventoFactura.TipoEvento.FACTURA_ACTUALIZADA, List.of(factura));
+    }
+    
+    private Factura nuevaFactura(FacturaDTO dto, Usuario usuario, Cliente cliente, FormaPago formaPago) {
+        Factura factura = new Factura();
+        factura.setEjercicio(dto.getEjercicio());
+        factura.setUsuario(usuario);
+        factura.setCliente(cliente);
+        factura.setFechaEmision(dto.getFechaEmision());
+        factura.setFormaPago(formaPago);
+        factura.setEstado(Factura.EstadoFactura.EMITIDA);
+        factura.setComentarios(dto.getComentarios());
+        factura.setClaveIdempotencia(dto.getClaveIdempotencia());
+        return factura;
+    }
+    
+    private void agregarLinea(Factura factura, LineaFacturaDTO lineaDTO, TipoIVA tipoIVA) {
+        LineaFactura linea = new LineaFactura();
+        linea.setFactura(factura);
+        copiarLinea(linea, lineaDTO, tipoIVA, factura.getLineas().size() + 1);
+        factura.getLineas().add(linea);
+    }
+    
+    /**
+     * Copia los datos del DTO en la línea sólo si difieren (los importes se comparan
+     * por valor), para que Hibernate no genere UPDATE de líneas sin cambios.
+     */
+    private boolean copiarLinea(LineaFactura linea, LineaFacturaDTO lineaDTO, TipoIVA tipoIVA, int numeroLinea) {
+        BigDecimal porcentajeDescuento = lineaDTO.getPorcentajeDescuento() != null ?
+            lineaDTO.getPorcentajeDescuento() : BigDecimal.ZERO;
+        boolean igual = Objects.equals(linea.getNumeroLinea(), numeroLinea)
+            && Objects.equals(linea.getConcepto(), lineaDTO.getConcepto())
+            && mismoValor(linea.getCantidad(), lineaDTO.getCantidad())
+            && mismoValor(linea.getPrecioUnitario(), lineaDTO.getPrecioUnitario())
+            && mismoValor(linea.getPorcentajeDescuento(), porcentajeDescuento)
+            && linea.getTipoIVA() != null && linea.getTipoIVA().getId().equals(tipoIVA.getId());
+        if (igual) {
+            return false;
+        }
+        linea.setNumeroLinea(numeroLinea);
+        linea.setConcepto(lineaDTO.getConcepto());
+        linea.setCantidad(lineaDTO.getCantidad());
+        linea.setPrecioUnitario(lineaDTO.getPrecioUnitario());
+        linea.setPorcentajeDescuento(porcentajeDescuento);
+        linea.setTipoIVA(tipoIVA);
+        linea.calcularImporteTotal();
+        return true;
     }
     
-    private String generarNumeroFactura(Integer ejercicio) {
-        long contador = facturaRepository.count() + 1;
-        return String.format("%d/%04d", ejercicio, contador);
+    private static boolean mismoValor(BigDecimal a, BigDecimal b) {
+        return a == null ? b == null : b != null && a.compareTo(b) == 0;
     }
     
     private FacturaDTO convertirADTO(Factura factura) {
@@ -169,9 +547,13 @@ public class FacturaService {
         dto.setFormaPagoDescripcion(factura.getFormaPago().getDescripcion());
         dto.setEstado(factura.getEstado());
         dto.setComentarios(factura.getComentarios());
+        dto.setClaveIdempotencia(factura.getClaveIdempotencia());
+        dto.setVersion(factura.getVersion());
         dto.setImporteTotal(factura.getImporteTotal());
         dto.setIvaTotal(factura.getIvaTotal());
         dto.setSumaTotal(factura.getSumaTotal());
+        dto.setSecuenciaRegistro(factura.getSecuenciaRegistro());
+        dto.setHuella(factura.getHuella());
         
         if (factura.getLineas() != null) {
             dto.setLineas(factura.getLineas().stream()
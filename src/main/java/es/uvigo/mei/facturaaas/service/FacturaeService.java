@@ -0,0 +1,177 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.model.DatosFacturacion;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.repository.DatosFacturacionRepository;
+import es.uvigo.mei.facturaaas.repository.FacturaRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.hibernate.Hibernate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Facturas electrónicas en formato Facturae 3.2.2 (ver GeneradorFacturae), firmadas con
+ * XAdES-EPES si hay certificado configurado.
+ * <p>
+ * El certificado se lee una vez al arrancar de un almacén PKCS#12
+ * ({@code facturae.firma.almacen}, {@code facturae.firma.clave} y, opcionalmente,
+ * {@code facturae.firma.alias}); sin él solo se generan documentos sin firmar. Es el
+ * de la plataforma, así que también hay que indicar su titular
+ * ({@code facturae.firma.titular.*}), que figura como tercero en las facturas de los
+ * demás emisores. Cada
+ * documento se escribe directamente en la salida y la exportación de un ejercicio
+ * carga las facturas por bloques, así que la memoria no depende del tamaño del lote.
+ * Métrica en Actuator como facturae.generacion.
+ */
+@Service
+public class FacturaeService {
+    
+    private static final int FACTURAS_POR_CONSULTA = 100;
+    
+    private final FacturaRepository facturaRepository;
+    private final DatosFacturacionRepository datosFacturacionRepository;
+    private final TransactionTemplate lectura;
+    private final FirmaFacturae firma;
+    private final Timer generacion;
+    
+    public FacturaeService(FacturaRepository facturaRepository,
+                           DatosFacturacionRepository datosFacturacionRepository,
+                           PlatformTransactionManager transactionManager,
+                           MeterRegistry meterRegistry,
+                           @Value("${facturae.firma.almacen:}") String almacen,
+                           @Value("${facturae.firma.clave:}") String clave,
+                           @Value("${facturae.firma.alias:}") String alias,
+                           @Value("${facturae.firma.titular.nif:}") String titularNif,
+                           @Value("${facturae.firma.titular.nombre:}") String titularNombre,
+                           @Value("${facturae.firma.titular.domicilio:}") String titularDomicilio,
+                           @Value("${facturae.firma.titular.codigo-postal:}") String titularCodigoPostal,
+                           @Value("${facturae.firma.titular.localidad:}") String titularLocalidad,
+                           @Value("${facturae.firma.titular.provincia:}") String titularProvincia) {
+        this.facturaRepository = facturaRepository;
+        this.datosFacturacionRepository = datosFacturacionRepository;
+        this.lectura = new TransactionTemplate(transactionManager);
+        this.lectura.setReadOnly(true);
+        DatosFacturacion titular = new DatosFacturacion();
+        titular.setNif(titularNif);
+        titular.setNombreComercial(titularNombre);
+        titular.setDomicilio(titularDomicilio);
+        titular.setCodigoPostal(titularCodigoPostal);
+        titular.setLocalidad(titularLocalidad);
+        titular.setProvincia(titularProvincia);
+        this.firma = almacen.isBlank() ? null
+            : FirmaFacturae.cargar(Paths.get(almacen), clave.toCharArray(), alias, titular);
+        this.generacion = Timer.builder("facturae.generacion")
+            .description("Duración de la generación (y firma) de cada Facturae")
+            .register(meterRegistry);
+    }
+    
+    /**
+     * Factura y datos del emisor listos para escribir, y si el documento se firma.
+     */
+    public record Documento(Factura factura, DatosFacturacion emisor, boolean firmado, String nombre) {
+    }
+    
+    /**
+     * Carga y comprueba la factura antes de empezar a escribir la respuesta.
+     * {@code firmar} null firma si hay certificado configurado.
+     */
+    public Documento preparar(Long facturaId, Boolean firmar) {
+        boolean firmado = comprobarFirma(firmar);
+        return lectura.execute(estado -> {
+            Factura factura = facturaRepository.findConLineasById(facturaId)
+                .orElseThrow(() -> new RuntimeException("Factura no encontrada"));
+            DatosFacturacion emisor = datosEmisor(factura.getUsuario().getId());
+            Hibernate.initialize(factura.getDesgloseIVA());
+            return new Documento(factura, emisor, firmado, nombre(factura, firmado));
+        });
+    }
+    
+    public void escribir(Documento documento, OutputStream salida) throws IOException {
+        generar(documento.factura(), documento.emisor(), documento.firmado(), salida);
+    }
+    
+    /**
+     * Datos de facturación del emisor; Facturae exige al menos su NIF.
+     */
+    public DatosFacturacion datosEmisor(Long usuarioId) {
+        DatosFacturacion emisor = datosFacturacionRepository.findByUsuarioId(usuarioId)
+            .orElseThrow(() -> new RuntimeException("Faltan los datos de facturación del emisor"));
+        if (emisor.getNif() == null || emisor.getNif().isBlank()) {
+            throw new RuntimeException("Los datos de facturación del emisor no tienen NIF");
+        }
+        return emisor;
+    }
+    
+    /**
+     * Comprueba que se puede firmar si se pide; devuelve si el documento se firma.
+     */
+    public boolean comprobarFirma(Boolean firmar) {
+        if (Boolean.TRUE.equals(firmar) && firma == null) {
+            throw new RuntimeException("No hay certificado de firma configurado para Facturae");
+        }
+        return firmar != null ? firmar : firma != null;
+    }
+    
+    /**
+     * Escribe en {@code salida} un ZIP con el Facturae de cada factura del ejercicio
+     * (.xsig si van firmados, .xml si no).
+     */
+    public void exportarLote(Long usuarioId, Integer ejercicio, DatosFacturacion emisor, boolean firmar,
+                             OutputStream salida) throws IOException {
+        List<Long> ids = lectura.execute(estado -> facturaRepository.findIdsByUsuarioIdAndEjercicio(usuarioId, ejercicio));
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(salida, 64 * 1024));
+        Set<String> nombres = new HashSet<>();
+        for (int inicio = 0; inicio < ids.size(); inicio += FACTURAS_POR_CONSULTA) {
+            List<Long> bloque = ids.subList(inicio, Math.min(inicio + FACTURAS_POR_CONSULTA, ids.size()));
+            List<Factura> facturas = lectura.execute(estado -> {
+                List<Factura> cargadas = facturaRepository.findConLineasByIdIn(bloque);
+                // Un solo SELECT para el bloque (hibernate.default_batch_fetch_size)
+                cargadas.forEach(factura -> Hibernate.initialize(factura.getDesgloseIVA()));
+                return cargadas;
+            });
+            for (Factura factura : facturas) {
+                String nombre = nombre(factura, firmar);
+                if (!nombres.add(nombre)) {
+                    nombre = nombre.replaceFirst("\\.(xsig|xml)$", "-" + factura.getId() + ".$1");
+                }
+                zip.putNextEntry(new ZipEntry(nombre));
+                generar(factura, emisor, firmar, zip);
+                zip.closeEntry();
+            }
+        }
+        zip.finish();
+        zip.flush();
+    }
+    
+    private void generar(Factura factura, DatosFacturacion emisor, boolean firmar, OutputStream salida)
+            throws IOException {
+        try {
+            generacion.record(() -> {
+                try {
+                    GeneradorFacturae.escribir(factura, emisor, firmar ? firma : null, salida);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+    
+    private static String nombre(Factura factura, boolean firmado) {
+        return "factura-" + factura.getNumeroFactura().replaceAll("[^A-Za-z0-9._-]", "-") + (firmado ? ".xsig" : ".xml");
+    }
+}
@@ -0,0 +1,114 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.model.DatosFacturacion;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Collections;
+
+/**
+ * Clave privada y certificado con que se firman los Facturae (XAdES-EPES, RSA-SHA256),
+ * leídos una sola vez de un almacén PKCS#12, y datos de su titular. El certificado y su
+ * huella se codifican al cargar, de modo que cada firma solo cuesta la operación RSA.
+ * <p>
+ * Es inmutable y se comparte entre hilos: cada firma crea su propio Signature.
+ */
+final class FirmaFacturae {
+    
+    private final PrivateKey clavePrivada;
+    private final String certificado;
+    private final String huellaCertificado;
+    private final String emisorCertificado;
+    private final String serieCertificado;
+    private final DatosFacturacion titular;
+    
+    private FirmaFacturae(PrivateKey clavePrivada, X509Certificate certificado, DatosFacturacion titular)
+            throws GeneralSecurityException {
+        this.clavePrivada = clavePrivada;
+        this.titular = titular;
+        byte[] codificado = certificado.getEncoded();
+        this.certificado = Base64.getEncoder().encodeToString(codificado);
+        this.huellaCertificado = Base64.getEncoder().encodeToString(
+            MessageDigest.getInstance("SHA-256").digest(codificado));
+        this.emisorCertificado = certificado.getIssuerX500Principal().getName();
+        this.serieCertificado = certificado.getSerialNumber().toString();
+    }
+    
+    /**
+     * Carga la clave de {@code alias} (o la primera del almacén si es null o vacío).
+     * {@code titular} es quien figura en el certificado; al menos su NIF es obligatorio.
+     */
+    static FirmaFacturae cargar(Path almacen, char[] clave, String alias, DatosFacturacion titular) {
+        if (titular.getNif() == null || titular.getNif().isBlank()) {
+            throw new RuntimeException("Falta el NIF del titular del certificado de firma (facturae.firma.titular.nif)");
+        }
+        try (InputStream entrada = Files.newInputStream(almacen)) {
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            keyStore.load(entrada, clave);
+            if (alias == null || alias.isBlank()) {
+                alias = Collections.list(keyStore.aliases()).stream()
+                    .filter(nombre -> esClave(keyStore, nombre))
+                    .findFirst()
+                    .orElseThrow(() -> new RuntimeException("El almacén de firma no contiene ninguna clave privada"));
+            }
+            if (!(keyStore.getKey(alias, clave) instanceof PrivateKey clavePrivada)) {
+                throw new RuntimeException("No hay clave privada con el alias " + alias + " en el almacén de firma");
+            }
+            if (!"RSA".equals(clavePrivada.getAlgorithm())) {
+                throw new RuntimeException("La firma Facturae requiere una clave RSA");
+            }
+            return new FirmaFacturae(clavePrivada, (X509Certificate) keyStore.getCertificate(alias), titular);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new RuntimeException("No se pudo cargar el almacén de firma " + almacen + ": " + e.getMessage(), e);
+        }
+    }
+    
+    private static boolean esClave(KeyStore keyStore, String alias) {
+        try {
+            return keyStore.isKeyEntry(alias);
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+    
+    byte[] firmar(byte[] datos) {
+        try {
+            Signature firma = Signature.getInstance("SHA256withRSA");
+            firma.initSign(clavePrivada);
+            firma.update(datos);
+            return firma.sign();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /** Certificado en DER y Base64, para ds:X509Certificate. */
+    String certificado() {
+        return certificado;
+    }
+    
+    /** SHA-256 del certificado en Base64, para xades:CertDigest. */
+    String huellaCertificado() {
+        return huellaCertificado;
+    }
+    
+    String emisorCertificado() {
+        return emisorCertificado;
+    }
+    
+    String serieCertificado() {
+        return serieCertificado;
+    }
+    
+    DatosFacturacion titular() {
+        return titular;
+    }
+}
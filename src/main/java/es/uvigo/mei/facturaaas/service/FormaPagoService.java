@@ -21,6 +21,9 @@ public class FormaPagoService {
     @Autowired
     private UsuarioRepository usuarioRepository;
     
+    @Autowired
+    private DatosReferenciaCache datosReferenciaCache;
+    
     public List<FormaPagoDTO> obtenerPorUsuario(Long usuarioId) {
         return formaPagoRepository.findByUsuarioId(usuarioId).stream()
             .map(this::convertirADTO)
@@ -28,13 +31,13 @@ public class FormaPagoService {
     }
     
     public List<FormaPagoDTO> obtenerActivasPorUsuario(Long usuarioId) {
-        return formaPagoRepository.findByUsuarioIdAndActivaTrue(usuarioId).stream()
+        return datosReferenciaCache.obtenerFormasPagoActivas(usuarioId).stream()
             .map(this::convertirADTO)
             .collect(Collectors.toList());
     }
     
     public FormaPagoDTO obtenerPorId(Long id) {
-        FormaPago formaPago = formaPagoRepository.findById(id)
+        FormaPago formaPago = datosReferenciaCache.obtenerFormaPago(id)
             .orElseThrow(() -> new RuntimeException("Forma de pago no encontrada"));
         return convertirADTO(formaPago);
     }
@@ -51,6 +54,7 @@ public class FormaPagoService {
         formaPago.setActiva(true);
         
         formaPago = formaPagoRepository.save(formaPago);
+        datosReferenciaCache.invalidarFormaPago(formaPago.getId(), formaPago.getUsuario().getId());
         return convertirADTO(formaPago);
     }
     
@@ -64,6 +68,7 @@ public class FormaPagoService {
         formaPago.setActiva(dto.getActiva());
         
         formaPago = formaPagoRepository.save(formaPago);
+        datosReferenciaCache.invalidarFormaPago(formaPago.getId(), formaPago.getUsuario().getId());
         return convertirADTO(formaPago);
     }
     
@@ -72,6 +77,7 @@ public class FormaPagoService {
             .orElseThrow(() -> new RuntimeException("Forma de pago no encontrada"));
         formaPago.setActiva(false);
         formaPagoRepository.save(formaPago);
+        datosReferenciaCache.invalidarFormaPago(id, formaPago.getUsuario().getId());
     }
     
     private FormaPagoDTO convertirADTO(FormaPago formaPago) {
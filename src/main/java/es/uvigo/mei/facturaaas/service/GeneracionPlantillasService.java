@@ -0,0 +1,255 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.dto.FacturaDTO;
+import es.uvigo.mei.facturaaas.dto.LineaFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.ResultadoLoteDTO;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.model.LineaPlantillaFactura;
+import es.uvigo.mei.facturaaas.model.PlantillaFactura;
+import es.uvigo.mei.facturaaas.repository.PlantillaFacturaRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Emisión de las facturas de las plantillas recurrentes que han llegado a su fecha.
+ * <p>
+ * Se reparte por rondas: en cada una, cada usuario con plantillas pendientes recibe
+ * un bloque de como mucho {@code plantilla.generacion.plantillas-por-bloque}, de modo
+ * que un usuario con decenas de miles de plantillas no retrasa a los demás. Cada
+ * bloque se crea con FacturaService.crearLote (referencias en bloque, numeración con
+ * un único bloqueo por ejercicio e inserciones JDBC agrupadas) y después se avanzan
+ * sus plantillas en otra transacción.
+ * <p>
+ * Cada factura lleva la clave de idempotencia "plantilla:{id}:{fecha}". Si una
+ * ejecución se interrumpe entre crear el bloque y avanzar las plantillas, la siguiente
+ * encuentra las facturas ya creadas por su clave y solo avanza las plantillas, sin
+ * duplicados. Una plantilla cuya factura no se puede crear (cliente o forma de pago
+ * borrados, etc.) se desactiva guardando el motivo en ultimoError; si lo que falla es
+ * la transacción del bloque entero, el usuario se aplaza a la siguiente ejecución.
+ * <p>
+ * Solo lo ejecuta el nodo que obtiene el arrendamiento (ver BloqueoTareas), que se
+ * renueva tras cada ronda. Métricas en Actuator como plantillas.generacion.*.
+ */
+@Service
+public class GeneracionPlantillasService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(GeneracionPlantillasService.class);
+    
+    static final String TAREA = "generacion-plantillas";
+    
+    private final PlantillaFacturaRepository plantillaFacturaRepository;
+    private final FacturaService facturaService;
+    private final BloqueoTareas bloqueoTareas;
+    private final TransactionTemplate transaccion;
+    private final TransactionTemplate lectura;
+    private final Duration duracionBloqueo;
+    private final int plantillasPorBloque;
+    
+    private final Counter facturasGeneradas;
+    private final Counter plantillasDesactivadas;
+    private final Counter ejecucionesOmitidas;
+    private final Timer duracion;
+    
+    public GeneracionPlantillasService(PlantillaFacturaRepository plantillaFacturaRepository,
+                                       FacturaService facturaService,
+                                       BloqueoTareas bloqueoTareas,
+                                       PlatformTransactionManager transactionManager,
+                                       MeterRegistry meterRegistry,
+                                       @Value("${plantilla.generacion.bloqueo-minutos:30}") long bloqueoMinutos,
+                                       @Value("${plantilla.generacion.plantillas-por-bloque:500}") int plantillasPorBloque) {
+        this.plantillaFacturaRepository = plantillaFacturaRepository;
+        this.facturaService = facturaService;
+        this.bloqueoTareas = bloqueoTareas;
+        this.transaccion = new TransactionTemplate(transactionManager);
+        this.lectura = new TransactionTemplate(transactionManager);
+        this.lectura.setReadOnly(true);
+        this.duracionBloqueo = Duration.ofMinutes(bloqueoMinutos);
+        this.plantillasPorBloque = plantillasPorBloque;
+        
+        this.facturasGeneradas = Counter.builder("plantillas.generacion.facturas")
+            .description("Facturas emitidas desde plantillas recurrentes")
+            .register(meterRegistry);
+        this.plantillasDesactivadas = Counter.builder("plantillas.generacion.errores")
+            .description("Plantillas desactivadas por no poder generar su factura")
+            .register(meterRegistry);
+        this.ejecucionesOmitidas = Counter.builder("plantillas.generacion.omitidos")
+            .description("Ejecuciones omitidas porque otro nodo tenía el arrendamiento")
+            .register(meterRegistry);
+        this.duracion = Timer.builder("plantillas.generacion.duracion")
+            .description("Duración de cada generación de facturas recurrentes")
+            .register(meterRegistry);
+    }
+    
+    @Scheduled(cron = "${plantilla.generacion.cron:-}")
+    public void generarPendientes() {
+        ejecutar(LocalDate.now());
+    }
+    
+    /**
+     * Genera todas las facturas con fecha de emisión hasta {@code hoy}, incluidos los
+     * periodos atrasados. Devuelve null si otro nodo tiene el arrendamiento.
+     */
+    public Resultado ejecutar(LocalDate hoy) {
+        if (!bloqueoTareas.adquirir(TAREA, duracionBloqueo)) {
+            ejecucionesOmitidas.increment();
+            logger.debug("Generación de plantillas omitida: la está ejecutando otro nodo");
+            return null;
+        }
+        try {
+            Resultado resultado = duracion.record(() -> generar(hoy));
+            logger.info("Generación de plantillas: {} facturas emitidas, {} plantillas desactivadas",
+                resultado.facturas(), resultado.errores());
+            return resultado;
+        } finally {
+            bloqueoTareas.liberar(TAREA);
+        }
+    }
+    
+    private Resultado generar(LocalDate hoy) {
+        int facturas = 0;
+        int errores = 0;
+        Set<Long> aplazados = new HashSet<>();
+        List<Long> usuarios = usuariosConPendientes(hoy, aplazados);
+        while (!usuarios.isEmpty()) {
+            for (Long usuarioId : usuarios) {
+                Bloque bloque = generarBloque(usuarioId, hoy);
+                facturas += bloque.facturas();
+                errores += bloque.errores();
+                if (bloque.fallido()) {
+                    aplazados.add(usuarioId);
+                }
+            }
+            // Renovar el arrendamiento; si ha caducado y lo tiene otro nodo, que siga él
+            if (!bloqueoTareas.adquirir(TAREA, duracionBloqueo)) {
+                logger.warn("Generación de plantillas interrumpida: el arrendamiento ha pasado a otro nodo");
+                break;
+            }
+            usuarios = usuariosConPendientes(hoy, aplazados);
+        }
+        return new Resultado(facturas, errores);
+    }
+    
+    private List<Long> usuariosConPendientes(LocalDate hoy, Set<Long> aplazados) {
+        List<Long> usuarios = new ArrayList<>(plantillaFacturaRepository.findUsuariosConPendientes(hoy));
+        usuarios.removeAll(aplazados);
+        return usuarios;
+    }
+    
+    private Bloque generarBloque(Long usuarioId, LocalDate hoy) {
+        List<Pendiente> pendientes = lectura.execute(estado ->
+            plantillaFacturaRepository.findPendientes(usuarioId, hoy, PageRequest.of(0, plantillasPorBloque))
+                .stream()
+                .map(plantilla -> new Pendiente(plantilla.getId(), plantilla.getProximaFecha(), factura(plantilla)))
+                .collect(Collectors.toList()));
+        if (pendientes.isEmpty()) {
+            return new Bloque(0, 0, false);
+        }
+        
+        List<ResultadoLoteDTO> resultados = facturaService.crearLote(usuarioId,
+            pendientes.stream().map(Pendiente::factura).collect(Collectors.toList()));
+        if (resultados.stream().anyMatch(GeneracionPlantillasService::bloqueFallido)) {
+            logger.warn("Generación de plantillas del usuario {} aplazada: {}", usuarioId,
+                resultados.stream().filter(GeneracionPlantillasService::bloqueFallido)
+                    .findFirst().map(ResultadoLoteDTO::getError).orElse(null));
+            return new Bloque(0, 0, true);
+        }
+        
+        return transaccion.execute(estado -> {
+            Map<Long, PlantillaFactura> plantillas = plantillaFacturaRepository.findAllById(
+                    pendientes.stream().map(Pendiente::plantillaId).collect(Collectors.toList()))
+                .stream()
+                .collect(Collectors.toMap(PlantillaFactura::getId, Function.identity()));
+            int facturas = 0;
+            int errores = 0;
+            for (int i = 0; i < pendientes.size(); i++) {
+                Pendiente pendiente = pendientes.get(i);
+                ResultadoLoteDTO resultado = resultados.get(i);
+                PlantillaFactura plantilla = plantillas.get(pendiente.plantillaId());
+                // Borrada o editada mientras se generaba: su factura ya tiene clave y
+                // la plantilla se recalcula con sus nuevos datos en la siguiente ronda
+                if (plantilla == null || !pendiente.fecha().equals(plantilla.getProximaFecha())) {
+                    continue;
+                }
+                if (resultado.isCorrecto()) {
+                    plantilla.avanzar();
+                    facturas++;
+                } else {
+                    plantilla.setActiva(false);
+                    plantilla.setUltimoError(pendiente.fecha() + ": " + resultado.getError());
+                    errores++;
+                }
+            }
+            facturasGeneradas.increment(facturas);
+            plantillasDesactivadas.increment(errores);
+            return new Bloque(facturas, errores, false);
+        });
+    }
+    
+    private static boolean bloqueFallido(ResultadoLoteDTO resultado) {
+        return resultado.getError() != null && resultado.getError().startsWith(FacturaService.ERROR_BLOQUE);
+    }
+    
+    private static FacturaDTO factura(PlantillaFactura plantilla) {
+        FacturaDTO dto = new FacturaDTO();
+        dto.setUsuarioId(plantilla.getUsuario().getId());
+        dto.setClienteId(plantilla.getCliente().getId());
+        dto.setFormaPagoId(plantilla.getFormaPago().getId());
+        dto.setEjercicio(plantilla.getProximaFecha().getYear());
+        dto.setFechaEmision(plantilla.getProximaFecha());
+        dto.setEstado(Factura.EstadoFactura.EMITIDA);
+        dto.setComentarios(plantilla.getComentarios());
+        dto.setClaveIdempotencia(claveIdempotencia(plantilla));
+        List<LineaFacturaDTO> lineas = new ArrayList<>(plantilla.getLineas().size());
+        for (LineaPlantillaFactura linea : plantilla.getLineas()) {
+            lineas.add(lineaFactura(linea));
+        }
+        dto.setLineas(lineas);
+        return dto;
+    }
+    
+    static String claveIdempotencia(PlantillaFactura plantilla) {
+        return "plantilla:" + plantilla.getId() + ":" + plantilla.getProximaFecha();
+    }
+    
+    /**
+     * Línea nueva de factura a partir de la de la plantilla; el id queda vacío porque
+     * es de otra tabla.
+     */
+    static LineaFacturaDTO lineaFactura(LineaPlantillaFactura linea) {
+        LineaFacturaDTO dto = new LineaFacturaDTO();
+        dto.setNumeroLinea(linea.getNumeroLinea());
+        dto.setConcepto(linea.getConcepto());
+        dto.setCantidad(linea.getCantidad());
+        dto.setPrecioUnitario(linea.getPrecioUnitario());
+        dto.setPorcentajeDescuento(linea.getPorcentajeDescuento());
+        dto.setTipoIVAId(linea.getTipoIVA().getId());
+        return dto;
+    }
+    
+    private record Pendiente(Long plantillaId, LocalDate fecha, FacturaDTO factura) {
+    }
+    
+    private record Bloque(int facturas, int errores, boolean fallido) {
+    }
+    
+    public record Resultado(int facturas, int errores) {
+    }
+}
@@ -0,0 +1,634 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.model.CalculadoraTotales;
+import es.uvigo.mei.facturaaas.model.Cliente;
+import es.uvigo.mei.facturaaas.model.DatosFacturacion;
+import es.uvigo.mei.facturaaas.model.DesgloseIVAFactura;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.model.LineaFactura;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Escritura de una factura en formato Facturae 3.2.2 con StAX, directamente sobre el
+ * flujo de salida y sin construir un árbol DOM.
+ * <p>
+ * Con firma, el documento lleva una firma XAdES-EPES envolvente (política de firma
+ * Facturae v3.1, RSA-SHA256, C14N inclusiva). El documento se escribe ya en forma
+ * canónica (sin declaraciones de espacio de nombres salvo en la raíz, atributos en
+ * orden, elementos vacíos con etiqueta de cierre y sin retornos de carro), así que el
+ * resumen de la referencia al documento se calcula a la vez que se escribe; solo
+ * SignedProperties y SignedInfo se escriben también aparte, con los espacios de
+ * nombres heredados de la raíz, para obtener su forma canónica.
+ * <p>
+ * El certificado es el de la plataforma, no el de cada emisor: si su titular no es el
+ * emisor, el documento se declara emitido por un tercero (InvoiceIssuerType TE) con
+ * el titular en ThirdParty, como exige Facturae para las firmas en nombre de otro.
+ * <p>
+ * Datos que el modelo no distingue y se deducen: una persona física o jurídica por el
+ * tipo de entidad del emisor o por la letra inicial del NIF; nombre y apellidos de una
+ * persona física partiendo su nombre por espacios; residencia en España.
+ */
+final class GeneradorFacturae {
+    
+    static final String VERSION = "3.2.2";
+    static final String NS_FACTURAE = "http://www.facturae.gob.es/formato/Versiones/Facturaev3_2_2.xml";
+    static final String NS_DS = "http://www.w3.org/2000/09/xmldsig#";
+    static final String NS_XADES = "http://uri.etsi.org/01903/v1.3.2#";
+    
+    private static final String POLITICA = "http://www.facturae.es/politica_de_firma_formato_facturae/politica_de_firma_formato_facturae_v3_1.pdf";
+    private static final String HUELLA_POLITICA = "Ohixl6upD6av8N7pEvDABhEL6hM=";
+    private static final String C14N = "http://www.w3.org/TR/2001/REC-xml-c14n-20010315";
+    private static final String RSA_SHA256 = "http://www.w3.org/2001/04/xmldsig-more#rsa-sha256";
+    private static final String SHA256 = "http://www.w3.org/2001/04/xmlenc#sha256";
+    private static final String SHA1 = "http://www.w3.org/2000/09/xmldsig#sha1";
+    private static final String ENVOLVENTE = "http://www.w3.org/2000/09/xmldsig#enveloped-signature";
+    private static final String TIPO_PROPIEDADES = "http://uri.etsi.org/01903#SignedProperties";
+    private static final byte[] CIERRE_RAIZ = "</fe:Facturae>".getBytes(StandardCharsets.UTF_8);
+    
+    private static final XMLOutputFactory FABRICA = XMLOutputFactory.newDefaultFactory();
+    private static final String PERSONAS_JURIDICAS = "ABCDEFGHJNPQRSUVW";
+    
+    private final XMLStreamWriter xml;
+    private final Factura factura;
+    private final DatosFacturacion emisor;
+    private final DatosFacturacion tercero;
+    
+    private GeneradorFacturae(XMLStreamWriter xml, Factura factura, DatosFacturacion emisor,
+                              DatosFacturacion tercero) {
+        this.xml = xml;
+        this.factura = factura;
+        this.emisor = emisor;
+        this.tercero = tercero;
+    }
+    
+    /**
+     * Escribe la factura en {@code destino}, firmada si {@code firma} no es null. La
+     * factura debe tener cargados cliente, líneas con su tipo de IVA y desglose de IVA.
+     * No cierra {@code destino}.
+     */
+    static void escribir(Factura factura, DatosFacturacion emisor, FirmaFacturae firma, OutputStream destino)
+            throws IOException {
+        SalidaResumida salida = new SalidaResumida(destino);
+        try {
+            XMLStreamWriter xml = FABRICA.createXMLStreamWriter(new BufferedOutputStream(salida, 8192), "UTF-8");
+            DatosFacturacion tercero = firma != null && !nif(firma.titular().getNif()).equals(nif(emisor.getNif()))
+                ? firma.titular() : null;
+            GeneradorFacturae generador = new GeneradorFacturae(xml, factura, emisor, tercero);
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.flush();
+            
+            // Desde aquí hasta la firma, todo entra en el resumen de la referencia al documento
+            salida.resumir(true);
+            xml.writeStartElement("fe", "Facturae", NS_FACTURAE);
+            if (firma != null) {
+                xml.writeNamespace("ds", NS_DS);
+            }
+            xml.writeNamespace("fe", NS_FACTURAE);
+            if (firma != null) {
+                xml.writeNamespace("xades", NS_XADES);
+            }
+            generador.cabecera();
+            generador.partes();
+            generador.facturas();
+            if (firma != null) {
+                xml.flush();
+                salida.resumir(false);
+                generador.firma(firma, salida.resumenCon(CIERRE_RAIZ));
+            }
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.flush();
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Error al escribir el Facturae: " + e.getMessage(), e);
+        }
+    }
+    
+    private void cabecera() throws XMLStreamException {
+        xml.writeStartElement("FileHeader");
+        elemento("SchemaVersion", VERSION);
+        elemento("Modality", "I");
+        elemento("InvoiceIssuerType", tercero != null ? "TE" : "EM");
+        if (tercero != null) {
+            xml.writeStartElement("ThirdParty");
+            boolean juridica = esPersonaJuridica(tercero.getNif());
+            identificacion(tercero.getNif(), juridica);
+            parte(juridica, tercero.getNombreComercial(), new Direccion(tercero.getDomicilio(),
+                tercero.getCodigoPostal(), tercero.getLocalidad(), tercero.getProvincia()), tercero.getTelefono(),
+                tercero.getEmailContacto());
+            xml.writeEndElement();
+        }
+        xml.writeStartElement("Batch");
+        elemento("BatchIdentifier", recortar(nif(emisor.getNif()) + factura.getNumeroFactura(), 70));
+        elemento("InvoicesCount", "1");
+        total("TotalInvoicesAmount", factura.getSumaTotal());
+        total("TotalOutstandingAmount", factura.getSumaTotal());
+        total("TotalExecutableAmount", factura.getSumaTotal());
+        elemento("InvoiceCurrencyCode", "EUR");
+        xml.writeEndElement();
+        xml.writeEndElement();
+    }
+    
+    private void partes() throws XMLStreamException {
+        xml.writeStartElement("Parties");
+        
+        xml.writeStartElement("SellerParty");
+        boolean juridica = emisor.getTipo() != null
+            ? emisor.getTipo() != DatosFacturacion.TipoEntidad.PARTICULAR
+                && emisor.getTipo() != DatosFacturacion.TipoEntidad.AUTONOMO
+            : esPersonaJuridica(emisor.getNif());
+        identificacion(emisor.getNif(), juridica);
+        parte(juridica, emisor.getNombreComercial(), new Direccion(emisor.getDomicilio(), emisor.getCodigoPostal(),
+            emisor.getLocalidad(), emisor.getProvincia()), emisor.getTelefono(), emisor.getEmailContacto());
+        xml.writeEndElement();
+        
+        Cliente cliente = factura.getCliente();
+        Direccion direccion = new Direccion(cliente.getDomicilio(), cliente.getCodigoPostal(),
+            cliente.getLocalidad(), cliente.getProvincia());
+        xml.writeStartElement("BuyerParty");
+        identificacion(cliente.getNif(), esPersonaJuridica(cliente.getNif()));
+        centrosAdministrativos(cliente, direccion);
+        parte(esPersonaJuridica(cliente.getNif()), cliente.getNombre(), direccion, cliente.getTelefono(),
+            cliente.getEmail());
+        xml.writeEndElement();
+        
+        xml.writeEndElement();
+    }
+    
+    private void identificacion(String nif, boolean juridica) throws XMLStreamException {
+        xml.writeStartElement("TaxIdentification");
+        elemento("PersonTypeCode", juridica ? "J" : "F");
+        elemento("ResidenceTypeCode", "R");
+        elemento("TaxIdentificationNumber", nif(nif));
+        xml.writeEndElement();
+    }
+    
+    /**
+     * Oficina contable (01), órgano gestor (02) y unidad tramitadora (03) de un cliente
+     * que es una administración pública, necesarios para presentarle la factura en FACe.
+     */
+    private void centrosAdministrativos(Cliente cliente, Direccion direccion) throws XMLStreamException {
+        String[] codigos = {cliente.getDir3OficinaContable(), cliente.getDir3OrganoGestor(),
+            cliente.getDir3UnidadTramitadora()};
+        boolean alguno = false;
+        for (int i = 0; i < codigos.length; i++) {
+            if (codigos[i] == null || codigos[i].isBlank()) {
+                continue;
+            }
+            if (!alguno) {
+                xml.writeStartElement("AdministrativeCentres");
+                alguno = true;
+            }
+            xml.writeStartElement("AdministrativeCentre");
+            elemento("CentreCode", codigos[i].strip());
+            elemento("RoleTypeCode", "0" + (i + 1));
+            direccion(direccion);
+            xml.writeEndElement();
+        }
+        if (alguno) {
+            xml.writeEndElement();
+        }
+    }
+    
+    private void parte(boolean juridica, String nombre, Direccion direccion, String telefono, String email)
+            throws XMLStreamException {
+        if (juridica) {
+            xml.writeStartElement("LegalEntity");
+            elemento("CorporateName", recortar(nombre, 80));
+        } else {
+            // Sin apellidos separados en el modelo: primera palabra como nombre y el resto como apellidos
+            String[] partes = texto(nombre).strip().split("\\s+", 3);
+            xml.writeStartElement("Individual");
+            elemento("Name", recortar(partes[0], 40));
+            elemento("FirstSurname", recortar(partes.length > 1 ? partes[1] : "", 40));
+            if (partes.length > 2) {
+                elemento("SecondSurname", recortar(partes[2], 40));
+            }
+        }
+        direccion(direccion);
+        if (noVacio(telefono) || noVacio(email)) {
+            xml.writeStartElement("ContactDetails");
+            if (noVacio(telefono)) {
+                elemento("Telephone", recortar(telefono, 15));
+            }
+            if (noVacio(email)) {
+                elemento("ElectronicMail", recortar(email, 60));
+            }
+            xml.writeEndElement();
+        }
+        xml.writeEndElement();
+    }
+    
+    private void direccion(Direccion direccion) throws XMLStreamException {
+        xml.writeStartElement("AddressInSpain");
+        elemento("Address", recortar(direccion.domicilio(), 80));
+        elemento("PostCode", recortar(direccion.codigoPostal(), 5));
+        elemento("Town", recortar(direccion.localidad(), 50));
+        elemento("Province", recortar(direccion.provincia() != null ? direccion.provincia() : direccion.localidad(), 20));
+        elemento("CountryCode", "ESP");
+        xml.writeEndElement();
+    }
+    
+    private void facturas() throws XMLStreamException {
+        xml.writeStartElement("Invoices");
+        xml.writeStartElement("Invoice");
+        
+        xml.writeStartElement("InvoiceHeader");
+        elemento("InvoiceNumber", factura.getNumeroFactura());
+        elemento("InvoiceDocumentType", "FC");
+        elemento("InvoiceClass", "OO");
+        xml.writeEndElement();
+        
+        xml.writeStartElement("InvoiceIssueData");
+        elemento("IssueDate", factura.getFechaEmision().toString());
+        elemento("InvoiceCurrencyCode", "EUR");
+        elemento("TaxCurrencyCode", "EUR");
+        elemento("LanguageName", "es");
+        xml.writeEndElement();
+        
+        xml.writeStartElement("TaxesOutputs");
+        List<DesgloseIVAFactura> desglose = new ArrayList<>(factura.getDesgloseIVA());
+        desglose.sort(Comparator.comparing(DesgloseIVAFactura::getPorcentaje));
+        for (DesgloseIVAFactura importe : desglose) {
+            impuesto(importe.getPorcentaje(), importe.getBase(), importe.getCuota());
+        }
+        xml.writeEndElement();
+        
+        xml.writeStartElement("InvoiceTotals");
+        importe("TotalGrossAmount", factura.getImporteTotal());
+        importe("TotalGrossAmountBeforeTaxes", factura.getImporteTotal());
+        importe("TotalTaxOutputs", factura.getIvaTotal());
+        importe("TotalTaxesWithheld", BigDecimal.ZERO);
+        importe("InvoiceTotal", factura.getSumaTotal());
+        importe("TotalOutstandingAmount", factura.getSumaTotal());
+        importe("TotalExecutableAmount", factura.getSumaTotal());
+        xml.writeEndElement();
+        
+        xml.writeStartElement("Items");
+        List<LineaFactura> lineas = new ArrayList<>(factura.getLineas());
+        lineas.sort(Comparator.comparing(LineaFactura::getNumeroLinea));
+        for (LineaFactura linea : lineas) {
+            linea(linea);
+        }
+        xml.writeEndElement();
+        
+        if (noVacio(factura.getComentarios())) {
+            xml.writeStartElement("AdditionalData");
+            elemento("InvoiceAdditionalInformation", recortar(factura.getComentarios(), 2500));
+            xml.writeEndElement();
+        }
+        
+        xml.writeEndElement();
+        xml.writeEndElement();
+    }
+    
+    private void linea(LineaFactura linea) throws XMLStreamException {
+        BigDecimal costeTotal = linea.getPrecioUnitario().multiply(linea.getCantidad());
+        BigDecimal porcentaje = linea.getTipoIVA().getPorcentaje();
+        xml.writeStartElement("InvoiceLine");
+        elemento("ItemDescription", recortar(linea.getConcepto(), 2500));
+        elemento("Quantity", linea.getCantidad().toPlainString());
+        elemento("UnitOfMeasure", "01");
+        elemento("UnitPriceWithoutTax", linea.getPrecioUnitario().toPlainString());
+        elemento("TotalCost", costeTotal.toPlainString());
+        if (linea.getPorcentajeDescuento() != null && linea.getPorcentajeDescuento().signum() != 0) {
+            xml.writeStartElement("DiscountsAndRebates");
+            xml.writeStartElement("Discount");
+            elemento("DiscountReason", "Descuento");
+            importe("DiscountRate", linea.getPorcentajeDescuento());
+            elemento("DiscountAmount", costeTotal.subtract(linea.getImporteTotal()).toPlainString());
+            xml.writeEndElement();
+            xml.writeEndElement();
+        }
+        importe("GrossAmount", linea.getImporteTotal());
+        xml.writeStartElement("TaxesOutputs");
+        impuesto(porcentaje, linea.getImporteTotal(), CalculadoraTotales.cuota(linea.getImporteTotal(), porcentaje));
+        xml.writeEndElement();
+        xml.writeEndElement();
+    }
+    
+    private void impuesto(BigDecimal porcentaje, BigDecimal base, BigDecimal cuota) throws XMLStreamException {
+        xml.writeStartElement("Tax");
+        elemento("TaxTypeCode", "01");
+        importe("TaxRate", porcentaje);
+        total("TaxableBase", base);
+        total("TaxAmount", cuota);
+        xml.writeEndElement();
+    }
+    
+    // Firma XAdES-EPES
+    
+    private void firma(FirmaFacturae firma, byte[] resumenDocumento) throws XMLStreamException {
+        String id = UUID.randomUUID().toString();
+        Firma datos = new Firma("Signature-" + id, "Reference-" + id, "SignedProperties-" + id,
+            OffsetDateTime.now().truncatedTo(ChronoUnit.SECONDS).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME),
+            base64(resumenDocumento), null);
+        Firma completa = datos.conResumenPropiedades(
+            base64(sha256(canonico(escritor -> signedProperties(escritor, true, datos, firma)))));
+        String valor = base64(firma.firmar(canonico(escritor -> signedInfo(escritor, true, completa))));
+        
+        xml.writeStartElement("ds", "Signature", NS_DS);
+        xml.writeAttribute("Id", completa.firma());
+        signedInfo(xml, false, completa);
+        xml.writeStartElement("ds", "SignatureValue", NS_DS);
+        xml.writeAttribute("Id", completa.firma() + "-SignatureValue");
+        xml.writeCharacters(valor);
+        xml.writeEndElement();
+        xml.writeStartElement("ds", "KeyInfo", NS_DS);
+        xml.writeAttribute("Id", completa.firma() + "-KeyInfo");
+        xml.writeStartElement("ds", "X509Data", NS_DS);
+        xml.writeStartElement("ds", "X509Certificate", NS_DS);
+        xml.writeCharacters(firma.certificado());
+        xml.writeEndElement();
+        xml.writeEndElement();
+        xml.writeEndElement();
+        xml.writeStartElement("ds", "Object", NS_DS);
+        xml.writeStartElement("xades", "QualifyingProperties", NS_XADES);
+        xml.writeAttribute("Target", "#" + completa.firma());
+        signedProperties(xml, false, completa, firma);
+        xml.writeEndElement();
+        xml.writeEndElement();
+        xml.writeEndElement();
+    }
+    
+    private record Firma(String firma, String referencia, String propiedades, String momento,
+                         String resumenDocumento, String resumenPropiedades) {
+        Firma conResumenPropiedades(String resumen) {
+            return new Firma(firma, referencia, propiedades, momento, resumenDocumento, resumen);
+        }
+    }
+    
+    private static void signedInfo(XMLStreamWriter xml, boolean apice, Firma datos) throws XMLStreamException {
+        xml.writeStartElement("ds", "SignedInfo", NS_DS);
+        if (apice) {
+            espaciosHeredados(xml);
+        }
+        algoritmo(xml, "ds", "CanonicalizationMethod", C14N);
+        algoritmo(xml, "ds", "SignatureMethod", RSA_SHA256);
+        
+        xml.writeStartElement("ds", "Reference", NS_DS);
+        xml.writeAttribute("Id", datos.referencia());
+        xml.writeAttribute("URI", "");
+        xml.writeStartElement("ds", "Transforms", NS_DS);
+        algoritmo(xml, "ds", "Transform", ENVOLVENTE);
+        xml.writeEndElement();
+        algoritmo(xml, "ds", "DigestMethod", SHA256);
+        elemento(xml, "ds", "DigestValue", datos.resumenDocumento());
+        xml.writeEndElement();
+        
+        xml.writeStartElement("ds", "Reference", NS_DS);
+        xml.writeAttribute("Type", TIPO_PROPIEDADES);
+        xml.writeAttribute("URI", "#" + datos.propiedades());
+        algoritmo(xml, "ds", "DigestMethod", SHA256);
+        elemento(xml, "ds", "DigestValue", datos.resumenPropiedades());
+        xml.writeEndElement();
+        
+        xml.writeEndElement();
+    }
+    
+    private static void signedProperties(XMLStreamWriter xml, boolean apice, Firma datos, FirmaFacturae firma)
+            throws XMLStreamException {
+        xml.writeStartElement("xades", "SignedProperties", NS_XADES);
+        if (apice) {
+            espaciosHeredados(xml);
+        }
+        xml.writeAttribute("Id", datos.propiedades());
+        xml.writeStartElement("xades", "SignedSignatureProperties", NS_XADES);
+        elemento(xml, "xades", "SigningTime", datos.momento());
+        
+        xml.writeStartElement("xades", "SigningCertificate", NS_XADES);
+        xml.writeStartElement("xades", "Cert", NS_XADES);
+        xml.writeStartElement("xades", "CertDigest", NS_XADES);
+        algoritmo(xml, "ds", "DigestMethod", SHA256);
+        elemento(xml, "ds", "DigestValue", firma.huellaCertificado());
+        xml.writeEndElement();
+        xml.writeStartElement("xades", "IssuerSerial", NS_XADES);
+        elemento(xml, "ds", "X509IssuerName", firma.emisorCertificado());
+        elemento(xml, "ds", "X509SerialNumber", firma.serieCertificado());
+        xml.writeEndElement();
+        xml.writeEndElement();
+        xml.writeEndElement();
+        
+        xml.writeStartElement("xades", "SignaturePolicyIdentifier", NS_XADES);
+        xml.writeStartElement("xades", "SignaturePolicyId", NS_XADES);
+        xml.writeStartElement("xades", "SigPolicyId", NS_XADES);
+        elemento(xml, "xades", "Identifier", POLITICA);
+        elemento(xml, "xades", "Description", "Política de Firma FacturaE v3.1");
+        xml.writeEndElement();
+        xml.writeStartElement("xades", "SigPolicyHash", NS_XADES);
+        algoritmo(xml, "ds", "DigestMethod", SHA1);
+        elemento(xml, "ds", "DigestValue", HUELLA_POLITICA);
+        xml.writeEndElement();
+        xml.writeEndElement();
+        xml.writeEndElement();
+        
+        xml.writeStartElement("xades", "SignerRole", NS_XADES);
+        xml.writeStartElement("xades", "ClaimedRoles", NS_XADES);
+        elemento(xml, "xades", "ClaimedRole", "emisor");
+        xml.writeEndElement();
+        xml.writeEndElement();
+        xml.writeEndElement();
+        
+        xml.writeStartElement("xades", "SignedDataObjectProperties", NS_XADES);
+        xml.writeStartElement("xades", "DataObjectFormat", NS_XADES);
+        xml.writeAttribute("ObjectReference", "#" + datos.referencia());
+        elemento(xml, "xades", "Description", "Factura electrónica");
+        elemento(xml, "xades", "MimeType", "text/xml");
+        xml.writeEndElement();
+        xml.writeEndElement();
+        xml.writeEndElement();
+    }
+    
+    /**
+     * En la forma canónica de un fragmento, su elemento raíz declara todos los espacios
+     * de nombres que hereda (los de fe:Facturae), en orden alfabético de prefijo.
+     */
+    private static void espaciosHeredados(XMLStreamWriter xml) throws XMLStreamException {
+        xml.writeNamespace("ds", NS_DS);
+        xml.writeNamespace("fe", NS_FACTURAE);
+        xml.writeNamespace("xades", NS_XADES);
+    }
+    
+    private interface Fragmento {
+        void escribir(XMLStreamWriter xml) throws XMLStreamException;
+    }
+    
+    private static byte[] canonico(Fragmento fragmento) throws XMLStreamException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(2048);
+        XMLStreamWriter xml = FABRICA.createXMLStreamWriter(bytes, "UTF-8");
+        fragmento.escribir(xml);
+        xml.flush();
+        xml.close();
+        return bytes.toByteArray();
+    }
+    
+    private static void algoritmo(XMLStreamWriter xml, String prefijo, String nombre, String algoritmo)
+            throws XMLStreamException {
+        xml.writeStartElement(prefijo, nombre, prefijo.equals("ds") ? NS_DS : NS_XADES);
+        xml.writeAttribute("Algorithm", algoritmo);
+        xml.writeEndElement();
+    }
+    
+    private static void elemento(XMLStreamWriter xml, String prefijo, String nombre, String valor)
+            throws XMLStreamException {
+        xml.writeStartElement(prefijo, nombre, prefijo.equals("ds") ? NS_DS : NS_XADES);
+        xml.writeCharacters(valor);
+        xml.writeEndElement();
+    }
+    
+    // Elementos de datos (sin espacio de nombres, como el esquema de Facturae)
+    
+    private void elemento(String nombre, String valor) throws XMLStreamException {
+        xml.writeStartElement(nombre);
+        xml.writeCharacters(texto(valor));
+        xml.writeEndElement();
+    }
+    
+    private void importe(String nombre, BigDecimal valor) throws XMLStreamException {
+        elemento(nombre, valor.setScale(CalculadoraTotales.ESCALA, RoundingMode.HALF_UP).toPlainString());
+    }
+    
+    private void total(String nombre, BigDecimal valor) throws XMLStreamException {
+        xml.writeStartElement(nombre);
+        importe("TotalAmount", valor);
+        xml.writeEndElement();
+    }
+    
+    private record Direccion(String domicilio, String codigoPostal, String localidad, String provincia) {
+    }
+    
+    static boolean esPersonaJuridica(String nif) {
+        String normalizado = nif(nif);
+        return !normalizado.isEmpty() && PERSONAS_JURIDICAS.indexOf(normalizado.charAt(0)) >= 0;
+    }
+    
+    /**
+     * NIF en mayúsculas, sin separadores ni el prefijo de país ES.
+     */
+    static String nif(String nif) {
+        String normalizado = texto(nif).toUpperCase().replaceAll("[^A-Z0-9]", "");
+        return normalizado.startsWith("ES") && normalizado.length() == 11 ? normalizado.substring(2) : normalizado;
+    }
+    
+    private static boolean noVacio(String texto) {
+        return texto != null && !texto.isBlank();
+    }
+    
+    private static String recortar(String texto, int longitud) {
+        String limpio = texto(texto);
+        return limpio.length() > longitud ? limpio.substring(0, longitud) : limpio;
+    }
+    
+    /**
+     * Sin retornos de carro (la forma canónica los escribiría como &amp;#xD;) ni
+     * caracteres que XML 1.0 no admite.
+     */
+    private static String texto(String texto) {
+        if (texto == null) {
+            return "";
+        }
+        StringBuilder resultado = null;
+        for (int i = 0; i < texto.length(); i++) {
+            char caracter = texto.charAt(i);
+            boolean valido = caracter == '\t' || caracter == '\n' || (caracter >= 0x20 && caracter <= 0xD7FF)
+                || Character.isSurrogate(caracter) || (caracter >= 0xE000 && caracter <= 0xFFFD);
+            if (!valido && resultado == null) {
+                resultado = new StringBuilder(texto.length()).append(texto, 0, i);
+            } else if (valido && resultado != null) {
+                resultado.append(caracter);
+            }
+        }
+        return resultado == null ? texto : resultado.toString();
+    }
+    
+    private static byte[] sha256(byte[] datos) {
+        return resumen().digest(datos);
+    }
+    
+    private static MessageDigest resumen() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private static String base64(byte[] datos) {
+        return Base64.getEncoder().encodeToString(datos);
+    }
+    
+    /**
+     * Pasa los bytes a la salida y, mientras está activo, los acumula en un SHA-256.
+     * No cierra ni vacía la salida: de eso se encarga quien la abrió.
+     */
+    private static final class SalidaResumida extends FilterOutputStream {
+        
+        private final MessageDigest resumen = resumen();
+        private boolean activo;
+        
+        SalidaResumida(OutputStream salida) {
+            super(salida);
+        }
+        
+        void resumir(boolean activo) {
+            this.activo = activo;
+        }
+        
+        /**
+         * Resumen de lo escrito más {@code final}, sin alterar el acumulado.
+         */
+        byte[] resumenCon(byte[] fin) {
+            try {
+                MessageDigest copia = (MessageDigest) resumen.clone();
+                copia.update(fin);
+                return copia.digest();
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (activo) {
+                resumen.update((byte) b);
+            }
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (activo) {
+                resumen.update(b, off, len);
+            }
+        }
+        
+        @Override
+        public void flush() {
+        }
+        
+        @Override
+        public void close() {
+        }
+    }
+}
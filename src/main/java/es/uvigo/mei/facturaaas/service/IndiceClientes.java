@@ -0,0 +1,257 @@
+package es.uvigo.mei.facturaaas.service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Índice invertido de trigramas en memoria sobre los clientes de un usuario, para la
+ * búsqueda cuando la base de datos no es PostgreSQL (ver BuscadorClientes).
+ * <p>
+ * Los textos se normalizan sin tildes, en minúsculas y con solo letras y dígitos,
+ * así que un trigrama cabe en un entero menor que 37³ y las listas de documentos
+ * se guardan en un array indexado por él. Cada palabra se indexa como en pg_trgm,
+ * con dos espacios delante y uno detrás. Un término de tres o más caracteres se busca
+ * como subcadena; uno más corto, como principio de palabra.
+ * <p>
+ * Al modificar un cliente su documento anterior queda marcado como borrado y se
+ * añade uno nuevo; cuando los borrados superan la mitad conviene reconstruirlo.
+ */
+final class IndiceClientes {
+    
+    private static final Pattern MARCAS = Pattern.compile("\\p{M}+");
+    private static final int SIMBOLOS = 37;
+    
+    private final ReentrantReadWriteLock bloqueo = new ReentrantReadWriteLock();
+    private final int[][] listas = new int[SIMBOLOS * SIMBOLOS * SIMBOLOS][];
+    private final int[] tamanos = new int[SIMBOLOS * SIMBOLOS * SIMBOLOS];
+    private final Map<Long, Integer> posiciones = new HashMap<>();
+    private long[] ids = new long[1024];
+    private String[] textos = new String[1024];
+    private String[] nombres = new String[1024];
+    private int documentos;
+    private int borrados;
+    
+    /**
+     * Texto en minúsculas, sin tildes y con las palabras separadas por un espacio.
+     * Solo los caracteres no ASCII pasan por Normalizer, para que indexar decenas de
+     * miles de clientes no dependa de él.
+     */
+    static String normalizar(String texto) {
+        if (texto == null) {
+            return "";
+        }
+        StringBuilder resultado = new StringBuilder(texto.length());
+        for (int i = 0; i < texto.length(); i++) {
+            char caracter = texto.charAt(i);
+            if (caracter < 128) {
+                anadir(resultado, caracter);
+            } else {
+                String base = MARCAS.matcher(Normalizer.normalize(String.valueOf(caracter), Normalizer.Form.NFD))
+                    .replaceAll("");
+                for (int j = 0; j < base.length(); j++) {
+                    anadir(resultado, base.charAt(j));
+                }
+            }
+        }
+        int longitud = resultado.length();
+        if (longitud > 0 && resultado.charAt(longitud - 1) == ' ') {
+            resultado.setLength(longitud - 1);
+        }
+        return resultado.toString();
+    }
+    
+    private static void anadir(StringBuilder resultado, char caracter) {
+        char minuscula = Character.toLowerCase(caracter);
+        if ((minuscula >= 'a' && minuscula <= 'z') || (minuscula >= '0' && minuscula <= '9')) {
+            resultado.append(minuscula);
+        } else if (resultado.length() > 0 && resultado.charAt(resultado.length() - 1) != ' ') {
+            resultado.append(' ');
+        }
+    }
+    
+    /**
+     * Añade o sustituye el cliente {@code id}.
+     */
+    void indexar(long id, String nombre, String nif, String localidad, String email) {
+        String nombreNormalizado = normalizar(nombre);
+        StringBuilder completo = new StringBuilder(" ");
+        for (String campo : new String[] {nombreNormalizado, normalizar(nif), normalizar(localidad), normalizar(email)}) {
+            if (!campo.isEmpty()) {
+                completo.append(campo).append(' ');
+            }
+        }
+        String texto = completo.toString();
+        bloqueo.writeLock().lock();
+        try {
+            Integer anterior = posiciones.get(id);
+            if (anterior != null) {
+                textos[anterior] = null;
+                borrados++;
+            }
+            int documento = documentos++;
+            if (documento == ids.length) {
+                int capacidad = ids.length * 2;
+                ids = Arrays.copyOf(ids, capacidad);
+                textos = Arrays.copyOf(textos, capacidad);
+                nombres = Arrays.copyOf(nombres, capacidad);
+            }
+            ids[documento] = id;
+            textos[documento] = texto;
+            nombres[documento] = nombreNormalizado;
+            posiciones.put(id, documento);
+            
+            // texto ya empieza y acaba en espacio: basta con un espacio más delante de cada palabra
+            for (int inicio = 0; inicio < texto.length() - 1; inicio = texto.indexOf(' ', inicio + 1)) {
+                int fin = texto.indexOf(' ', inicio + 1);
+                String palabra = " " + texto.substring(inicio, fin + 1);
+                for (int i = 0; i + 3 <= palabra.length(); i++) {
+                    anadir(trigrama(palabra, i), documento);
+                }
+            }
+        } finally {
+            bloqueo.writeLock().unlock();
+        }
+    }
+    
+    boolean necesitaReconstruir() {
+        return borrados > 1000 && borrados * 2 > documentos;
+    }
+    
+    /**
+     * Ids de los clientes que contienen todos los términos de {@code consulta}, del
+     * más al menos relevante, saltando los {@code desde} primeros.
+     */
+    List<Long> buscar(String consulta, int desde, int cantidad) {
+        String[] terminos = normalizar(consulta).split(" ");
+        if (terminos[0].isEmpty()) {
+            return List.of();
+        }
+        bloqueo.readLock().lock();
+        try {
+            // Se recorre la lista de documentos más corta de todos los trigramas requeridos
+            // y cada candidato se comprueba directamente sobre su texto
+            int[] candidatos = null;
+            int numeroCandidatos = Integer.MAX_VALUE;
+            String[] buscados = new String[terminos.length];
+            String[] prefijos = new String[terminos.length];
+            for (int t = 0; t < terminos.length; t++) {
+                String termino = terminos[t];
+                String patron = termino.length() >= 3 ? termino : "  " + termino;
+                prefijos[t] = " " + termino;
+                buscados[t] = termino.length() >= 3 ? termino : prefijos[t];
+                for (int i = 0; i + 3 <= patron.length(); i++) {
+                    int trigrama = trigrama(patron, i);
+                    if (tamanos[trigrama] < numeroCandidatos) {
+                        candidatos = listas[trigrama];
+                        numeroCandidatos = tamanos[trigrama];
+                    }
+                }
+            }
+            if (numeroCandidatos == 0 || candidatos == null) {
+                return List.of();
+            }
+            
+            int limite = desde + cantidad;
+            Comparator<Acierto> orden = Comparator.comparingInt(Acierto::puntos).reversed()
+                .thenComparing(acierto -> nombres[acierto.documento()])
+                .thenComparingLong(acierto -> ids[acierto.documento()]);
+            PriorityQueue<Acierto> mejores = new PriorityQueue<>(orden.reversed());
+            for (int c = 0; c < numeroCandidatos; c++) {
+                int documento = candidatos[c];
+                String texto = textos[documento];
+                if (texto == null) {
+                    continue;
+                }
+                int puntos = puntuar(texto, nombres[documento], terminos, buscados, prefijos);
+                if (puntos == 0) {
+                    continue;
+                }
+                Acierto acierto = new Acierto(documento, puntos);
+                if (mejores.size() < limite) {
+                    mejores.add(acierto);
+                } else if (orden.compare(acierto, mejores.peek()) < 0) {
+                    mejores.poll();
+                    mejores.add(acierto);
+                }
+            }
+            
+            List<Acierto> ordenados = new ArrayList<>(mejores);
+            ordenados.sort(orden);
+            List<Long> resultado = new ArrayList<>(Math.max(0, ordenados.size() - desde));
+            for (int i = desde; i < ordenados.size(); i++) {
+                resultado.add(ids[ordenados.get(i).documento()]);
+            }
+            return resultado;
+        } finally {
+            bloqueo.readLock().unlock();
+        }
+    }
+    
+    /**
+     * 0 si falta algún término; si no, 4 por palabra completa, 2 por principio de
+     * palabra y 1 por subcadena, más 1 si aparece en el nombre.
+     */
+    private static int puntuar(String texto, String nombre, String[] terminos, String[] buscados,
+                               String[] prefijos) {
+        int puntos = 0;
+        for (int t = 0; t < terminos.length; t++) {
+            if (texto.indexOf(buscados[t]) < 0) {
+                return 0;
+            }
+            int valor = 1;
+            String prefijo = prefijos[t];
+            for (int p = texto.indexOf(prefijo); p >= 0; p = texto.indexOf(prefijo, p + 1)) {
+                valor = 2;
+                if (texto.charAt(p + prefijo.length()) == ' ') {
+                    valor = 4;
+                    break;
+                }
+            }
+            puntos += valor;
+            if (nombre.contains(terminos[t])) {
+                puntos++;
+            }
+        }
+        return puntos;
+    }
+    
+    private void anadir(int trigrama, int documento) {
+        int[] lista = listas[trigrama];
+        int tamano = tamanos[trigrama];
+        if (lista == null) {
+            lista = listas[trigrama] = new int[4];
+        } else if (lista[tamano - 1] == documento) {
+            return;
+        } else if (tamano == lista.length) {
+            lista = listas[trigrama] = Arrays.copyOf(lista, tamano * 2);
+        }
+        lista[tamano] = documento;
+        tamanos[trigrama] = tamano + 1;
+    }
+    
+    private static int trigrama(String texto, int inicio) {
+        return (simbolo(texto.charAt(inicio)) * SIMBOLOS + simbolo(texto.charAt(inicio + 1))) * SIMBOLOS
+            + simbolo(texto.charAt(inicio + 2));
+    }
+    
+    private static int simbolo(char caracter) {
+        if (caracter >= 'a' && caracter <= 'z') {
+            return caracter - 'a' + 1;
+        }
+        if (caracter >= '0' && caracter <= '9') {
+            return caracter - '0' + 27;
+        }
+        return 0;
+    }
+    
+    private record Acierto(int documento, int puntos) {
+    }
+}
@@ -0,0 +1,134 @@
+package es.uvigo.mei.facturaaas.service;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.function.Consumer;
+
+/**
+ * Lector en streaming de extractos ISO 20022 CAMT.053 con StAX. Cada {@code Ntry}
+ * se entrega al cerrarse, con la cuenta del deudor, el concepto no estructurado y
+ * las referencias de sus {@code TxDtls}; no se construye el árbol del documento.
+ */
+final class LectorCamt053 {
+    
+    private static final XMLInputFactory FACTORIA = crearFactoria();
+    
+    private LectorCamt053() {
+    }
+    
+    private static XMLInputFactory crearFactoria() {
+        XMLInputFactory factoria = XMLInputFactory.newFactory();
+        factoria.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factoria.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factoria.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        return factoria;
+    }
+    
+    static void leer(InputStream entrada, Consumer<MovimientoBancario> destino) {
+        XMLStreamReader reader = null;
+        long numeroApunte = 0;
+        try {
+            reader = FACTORIA.createXMLStreamReader(entrada);
+            StringBuilder ruta = new StringBuilder();
+            StringBuilder texto = new StringBuilder();
+            Apunte apunte = null;
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT -> {
+                        String nombre = reader.getLocalName();
+                        ruta.append('/').append(nombre);
+                        texto.setLength(0);
+                        if ("Ntry".equals(nombre)) {
+                            apunte = new Apunte(++numeroApunte);
+                        }
+                    }
+                    case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA -> {
+                        if (apunte != null) {
+                            texto.append(reader.getText());
+                        }
+                    }
+                    case XMLStreamConstants.END_ELEMENT -> {
+                        if (apunte != null) {
+                            if ("Ntry".equals(reader.getLocalName())) {
+                                destino.accept(apunte.movimiento());
+                                apunte = null;
+                            } else {
+                                apunte.asignar(ruta.substring(ruta.indexOf("/Ntry/") + 6), texto.toString().trim());
+                            }
+                        }
+                        ruta.setLength(ruta.lastIndexOf("/"));
+                        texto.setLength(0);
+                    }
+                    default -> {
+                    }
+                }
+            }
+        } catch (XMLStreamException ex) {
+            throw new RuntimeException("Extracto CAMT.053 no válido: " + ex.getMessage());
+        } catch (NumberFormatException | DateTimeParseException ex) {
+            throw new RuntimeException("Apunte " + numeroApunte + " del extracto CAMT.053 no válido: " + ex.getMessage());
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ex) {
+                    // El flujo de entrada lo cierra quien lo abrió
+                }
+            }
+        }
+    }
+    
+    private static class Apunte {
+        private final long posicion;
+        private LocalDate fechaValor;
+        private LocalDate fechaContable;
+        private BigDecimal importe;
+        private boolean abono;
+        private String cuenta;
+        private final StringBuilder concepto = new StringBuilder();
+        private final StringBuilder referencia = new StringBuilder();
+        
+        private Apunte(long posicion) {
+            this.posicion = posicion;
+        }
+        
+        /**
+         * {@code ruta} es relativa al Ntry, p. ej. "NtryDtls/TxDtls/RmtInf/Ustrd".
+         */
+        private void asignar(String ruta, String valor) {
+            if (valor.isEmpty()) {
+                return;
+            }
+            if (ruta.equals("Amt")) {
+                importe = new BigDecimal(valor);
+            } else if (ruta.equals("CdtDbtInd")) {
+                abono = "CRDT".equals(valor);
+            } else if (ruta.startsWith("ValDt/")) {
+                fechaValor = LocalDate.parse(valor.substring(0, 10));
+            } else if (ruta.startsWith("BookgDt/")) {
+                fechaContable = LocalDate.parse(valor.substring(0, 10));
+            } else if (ruta.endsWith("DbtrAcct/Id/IBAN")) {
+                cuenta = valor;
+            } else if (ruta.endsWith("/Ustrd") || ruta.endsWith("/Dbtr/Nm") || ruta.endsWith("/Dbtr/Pty/Nm")
+                    || ruta.contains("/Dbtr/") && ruta.endsWith("/Othr/Id") || ruta.equals("AddtlNtryInf")) {
+                concepto.append(' ').append(valor);
+            } else if (ruta.equals("AcctSvcrRef") || ruta.endsWith("/Refs/EndToEndId")) {
+                referencia.append(' ').append(valor);
+            }
+        }
+        
+        private MovimientoBancario movimiento() {
+            if (importe == null) {
+                throw new NumberFormatException("sin importe");
+            }
+            return new MovimientoBancario(posicion, fechaValor != null ? fechaValor : fechaContable, importe,
+                abono, concepto.toString().trim(), referencia.toString().trim(), cuenta);
+        }
+    }
+}
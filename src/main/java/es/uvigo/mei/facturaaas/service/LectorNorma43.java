@@ -0,0 +1,98 @@
+package es.uvigo.mei.facturaaas.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.function.Consumer;
+
+/**
+ * Lector en streaming de extractos en formato AEB Norma 43 (registros de 80 caracteres,
+ * ISO-8859-1). Solo mantiene en memoria el apunte en curso: cada registro 22 abre un
+ * apunte, los registros 23 siguientes añaden conceptos y se entrega al llegar el
+ * siguiente registro 22 o el final de la cuenta.
+ */
+final class LectorNorma43 {
+    
+    private static final DateTimeFormatter FECHA = DateTimeFormatter.ofPattern("yyMMdd");
+    private static final int LONGITUD_REGISTRO = 80;
+    
+    private LectorNorma43() {
+    }
+    
+    static void leer(InputStream entrada, Consumer<MovimientoBancario> destino) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(entrada, StandardCharsets.ISO_8859_1));
+        Apunte apunte = null;
+        long numeroLinea = 0;
+        String linea;
+        while ((linea = reader.readLine()) != null) {
+            numeroLinea++;
+            if (linea.isBlank()) {
+                continue;
+            }
+            if (linea.length() < LONGITUD_REGISTRO) {
+                linea = String.format("%-" + LONGITUD_REGISTRO + "s", linea);
+            }
+            String codigo = linea.substring(0, 2);
+            switch (codigo) {
+                case "22" -> {
+                    entregar(apunte, destino);
+                    apunte = leerMovimiento(linea, numeroLinea);
+                }
+                case "23" -> {
+                    if (apunte == null) {
+                        throw new RuntimeException("Línea " + numeroLinea
+                            + " del extracto Norma 43: concepto complementario sin movimiento");
+                    }
+                    apunte.concepto.append(' ').append(linea, 4, LONGITUD_REGISTRO);
+                }
+                case "11", "33", "88", "24" -> {
+                    entregar(apunte, destino);
+                    apunte = null;
+                }
+                default -> throw new RuntimeException("Línea " + numeroLinea
+                    + " del extracto Norma 43: tipo de registro desconocido '" + codigo + "'");
+            }
+        }
+        entregar(apunte, destino);
+    }
+    
+    /**
+     * Registro 22: fecha valor en 17-22, clave debe/haber en 28 (2 = haber),
+     * importe con dos decimales implícitos en 29-42 y referencias en 53-80.
+     */
+    private static Apunte leerMovimiento(String linea, long numeroLinea) {
+        try {
+            Apunte apunte = new Apunte();
+            apunte.posicion = numeroLinea;
+            apunte.fechaValor = LocalDate.parse(linea.substring(16, 22), FECHA);
+            apunte.abono = linea.charAt(27) == '2';
+            apunte.importe = new BigDecimal(linea.substring(28, 42)).movePointLeft(2);
+            apunte.referencia = (linea.substring(52, 64).trim() + " " + linea.substring(64, 80).trim()).trim();
+            return apunte;
+        } catch (NumberFormatException | DateTimeParseException ex) {
+            throw new RuntimeException("Línea " + numeroLinea + " del extracto Norma 43 no válida: " + ex.getMessage());
+        }
+    }
+    
+    private static void entregar(Apunte apunte, Consumer<MovimientoBancario> destino) {
+        if (apunte != null) {
+            destino.accept(new MovimientoBancario(apunte.posicion, apunte.fechaValor, apunte.importe,
+                apunte.abono, apunte.concepto.toString().trim(), apunte.referencia, null));
+        }
+    }
+    
+    private static class Apunte {
+        private long posicion;
+        private LocalDate fechaValor;
+        private BigDecimal importe;
+        private boolean abono;
+        private String referencia;
+        private final StringBuilder concepto = new StringBuilder();
+    }
+}
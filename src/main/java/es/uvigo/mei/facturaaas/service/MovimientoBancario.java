@@ -0,0 +1,14 @@
+package es.uvigo.mei.facturaaas.service;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Apunte de un extracto bancario ya leído. {@code posicion} es la línea (Norma 43)
+ * o el número de apunte (CAMT.053) en el fichero; {@code importe} es siempre positivo
+ * y {@code abono} distingue cobros de cargos. {@code cuenta} es la cuenta del
+ * ordenante cuando el formato la incluye.
+ */
+public record MovimientoBancario(long posicion, LocalDate fechaValor, BigDecimal importe, boolean abono,
+                                 String concepto, String referencia, String cuenta) {
+}
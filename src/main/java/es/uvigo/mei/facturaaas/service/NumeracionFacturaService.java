@@ -0,0 +1,152 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.model.ContadorFactura;
+import es.uvigo.mei.facturaaas.repository.ContadorFacturaRepository;
+import es.uvigo.mei.facturaaas.repository.FacturaRepository;
+import es.uvigo.mei.facturaaas.repository.UsuarioRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Asigna números de factura consecutivos por usuario y ejercicio.
+ * <p>
+ * Con {@code factura.numeracion.tamano-bloque=1} (valor por defecto) el número se
+ * reserva dentro de la transacción que crea la factura, bloqueando solo la fila
+ * del contador: la numeración no deja huecos. Con bloques mayores se reserva un
+ * rango completo en una transacción independiente y se reparte en memoria
+ * (estilo hi/lo); es más rápido en ráfagas, pero un reinicio puede dejar huecos.
+ */
+@Service
+@Transactional
+public class NumeracionFacturaService {
+    
+    @Autowired
+    private ContadorFacturaRepository contadorFacturaRepository;
+    
+    @Autowired
+    private FacturaRepository facturaRepository;
+    
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+    
+    @Value("${factura.numeracion.tamano-bloque:1}")
+    private int tamanoBloque;
+    
+    private final TransactionTemplate nuevaTransaccion;
+    
+    private final Map<ClaveContador, Bloque> bloques = new ConcurrentHashMap<>();
+    
+    public NumeracionFacturaService(PlatformTransactionManager transactionManager) {
+        this.nuevaTransaccion = new TransactionTemplate(transactionManager);
+        this.nuevaTransaccion.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+    
+    public String siguienteNumero(Long usuarioId, Integer ejercicio) {
+        return siguientesNumeros(usuarioId, ejercicio, 1).get(0);
+    }
+    
+    /**
+     * Reserva {@code cantidad} números de una vez, con un único bloqueo del contador.
+     */
+    public List<String> siguientesNumeros(Long usuarioId, Integer ejercicio, int cantidad) {
+        List<String> numeros = new ArrayList<>(cantidad);
+        if (tamanoBloque > 1) {
+            for (int i = 0; i < cantidad; i++) {
+                numeros.add(formatear(ejercicio, siguienteDeBloque(usuarioId, ejercicio)));
+            }
+        } else {
+            long primero = reservar(usuarioId, ejercicio, cantidad);
+            for (int i = 0; i < cantidad; i++) {
+                numeros.add(formatear(ejercicio, primero + i));
+            }
+        }
+        return numeros;
+    }
+    
+    private String formatear(Integer ejercicio, long numero) {
+        return String.format("%d/%04d", ejercicio, numero);
+    }
+    
+    private long siguienteDeBloque(Long usuarioId, Integer ejercicio) {
+        Bloque bloque = bloques.computeIfAbsent(new ClaveContador(usuarioId, ejercicio), clave -> new Bloque());
+        synchronized (bloque) {
+            if (bloque.siguiente > bloque.limite) {
+                Long primero = nuevaTransaccion.execute(
+                    estado -> reservar(usuarioId, ejercicio, tamanoBloque));
+                bloque.siguiente = primero;
+                bloque.limite = primero + tamanoBloque - 1;
+            }
+            return bloque.siguiente++;
+        }
+    }
+    
+    /**
+     * Reserva {@code cantidad} números consecutivos y devuelve el primero.
+     * La fila del contador queda bloqueada hasta el fin de la transacción actual.
+     */
+    private long reservar(Long usuarioId, Integer ejercicio, int cantidad) {
+        ContadorFactura contador = contadorFacturaRepository
+            .bloquearPorUsuarioIdYEjercicio(usuarioId, ejercicio)
+            .orElseGet(() -> {
+                crearContador(usuarioId, ejercicio);
+                return contadorFacturaRepository.bloquearPorUsuarioIdYEjercicio(usuarioId, ejercicio)
+                    .orElseThrow(() -> new RuntimeException("Contador de facturas no encontrado"));
+            });
+        
+        long primero = contador.getUltimoNumero() + 1;
+        contador.setUltimoNumero(contador.getUltimoNumero() + cantidad);
+        return primero;
+    }
+    
+    /**
+     * Crea el contador en su propia transacción. Si otro nodo lo crea a la vez,
+     * la restricción única lo detecta y se usa el suyo.
+     */
+    private void crearContador(Long usuarioId, Integer ejercicio) {
+        try {
+            nuevaTransaccion.executeWithoutResult(estado -> {
+                ContadorFactura contador = new ContadorFactura();
+                contador.setUsuario(usuarioRepository.getReferenceById(usuarioId));
+                contador.setEjercicio(ejercicio);
+                contador.setUltimoNumero(ultimoNumeroExistente(usuarioId, ejercicio));
+                contadorFacturaRepository.saveAndFlush(contador);
+            });
+        } catch (DataIntegrityViolationException ex) {
+            // Contador creado concurrentemente
+        }
+    }
+    
+    /**
+     * Parte de las facturas ya emitidas para no repetir números en bases de datos previas al contador.
+     */
+    private long ultimoNumeroExistente(Long usuarioId, Integer ejercicio) {
+        long maximo = 0;
+        for (String numeroFactura : facturaRepository.findNumerosByUsuarioIdAndEjercicio(usuarioId, ejercicio)) {
+            try {
+                long numero = Long.parseLong(numeroFactura.substring(numeroFactura.lastIndexOf('/') + 1));
+                maximo = Math.max(maximo, numero);
+            } catch (NumberFormatException ex) {
+                // Numeración ajena al formato ejercicio/número
+            }
+        }
+        return maximo;
+    }
+    
+    private record ClaveContador(Long usuarioId, Integer ejercicio) {
+    }
+    
+    private static class Bloque {
+        private long siguiente = 1;
+        private long limite = 0;
+    }
+}
@@ -1,25 +1,60 @@
 package es.uvigo.mei.facturaaas.service;
 
+import es.uvigo.mei.facturaaas.dto.ConciliacionPagoDTO;
+import es.uvigo.mei.facturaaas.dto.EventoFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.FiltroPagoDTO;
 import es.uvigo.mei.facturaaas.dto.PagoDTO;
+import es.uvigo.mei.facturaaas.dto.PaginaDTO;
+import es.uvigo.mei.facturaaas.dto.ResultadoConciliacionDTO;
+import es.uvigo.mei.facturaaas.dto.SituacionPagoDTO;
+import es.uvigo.mei.facturaaas.model.EventoFactura;
 import es.uvigo.mei.facturaaas.model.Factura;
 import es.uvigo.mei.facturaaas.model.Pago;
+import es.uvigo.mei.facturaaas.repository.FacturaRepository;
 import es.uvigo.mei.facturaaas.repository.PagoRepository;
+import es.uvigo.mei.facturaaas.repository.PagoSpecifications;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.sql.Date;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 @Service
 @Transactional
 public class PagoService {
     
+    private static final String SQL_MARCAR_PAGADO =
+        "UPDATE pago SET estado = 'PAGADO', fecha_pago = ? WHERE id = ? AND estado = 'PENDIENTE'";
+    
     @Autowired
     private PagoRepository pagoRepository;
     
+    @Autowired
+    private FacturaRepository facturaRepository;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private ResumenFacturacionService resumenFacturacionService;
+    
+    @Autowired
+    private BandejaEventos bandejaEventos;
+    
     public List<PagoDTO> obtenerPorUsuario(Long usuarioId) {
         return pagoRepository.findByUsuarioId(usuarioId).stream()
             .map(this::convertirADTO)
@@ -32,15 +67,44 @@ public class PagoService {
             .collect(Collectors.toList());
     }
     
+    /**
+     * Listado paginado por cursor sobre (fechaVencimiento, id), de más reciente a más antiguo.
+     */
+    public PaginaDTO<PagoDTO> obtenerPagina(Long usuarioId, FiltroPagoDTO filtro,
+                                            String cursor, int limite) {
+        CursorKeyset desde = CursorKeyset.decodificar(cursor);
+        int tamano = CursorKeyset.limitar(limite);
+        Specification<Pago> criterio = PagoSpecifications.listado(usuarioId, filtro,
+            desde != null ? desde.fecha() : null, desde != null ? desde.id() : null);
+        
+        List<Pago> pagos = pagoRepository.findBy(criterio, consulta -> consulta
+            .sortBy(Sort.by(Sort.Direction.DESC, "fechaVencimiento", "id"))
+            .project("factura", "factura.cliente")
+            .limit(tamano + 1)
+            .all());
+        
+        String siguienteCursor = null;
+        if (pagos.size() > tamano) {
+            pagos = pagos.subList(0, tamano);
+            Pago ultimo = pagos.get(tamano - 1);
+            siguienteCursor = CursorKeyset.codificar(ultimo.getFechaVencimiento(), ultimo.getId());
+        }
+        List<PagoDTO> elementos = pagos.stream()
+            .map(this::convertirADTO)
+            .collect(Collectors.toList());
+        return new PaginaDTO<>(elementos, siguienteCursor);
+    }
+    
     public PagoDTO obtenerPorId(Long id) {
-        Pago pago = pagoRepository.findById(id)
+        Pago pago = pagoRepository.findConFacturaById(id)
             .orElseThrow(() -> new RuntimeException("Pago no encontrado"));
         return convertirADTO(pago);
     }
     
     public PagoDTO actualizarEstado(Long id, Pago.EstadoPago nuevoEstado) {
-        Pago pago = pagoRepository.findById(id)
+        Pago pago = pagoRepository.findConFacturaById(id)
             .orElseThrow(() -> new RuntimeException("Pago no encontrado"));
+        Pago.EstadoPago estadoAnterior = pago.getEstado();
         
         pago.setEstado(nuevoEstado);
         if (nuevoEstado == Pago.EstadoPago.PAGADO && pago.getFechaPago() == null) {
@@ -48,9 +112,146 @@ public class PagoService {
         }
         
         pago = pagoRepository.save(pago);
+        resumenFacturacionService.registrarCambioEstadoPago(pago, estadoAnterior);
+        if (nuevoEstado != estadoAnterior) {
+            bandejaEventos.registrarPago(pago);
+        }
         return convertirADTO(pago);
     }
     
+    /**
+     * Concilia en bloque los cobros de un extracto bancario. La propiedad de todos los
+     * pagos se comprueba con una sola consulta, se marcan PAGADO con un UPDATE por lotes
+     * y las facturas que quedan sin pagos pendientes pasan a PAGADA.
+     * Cada movimiento tiene su propio resultado; los erróneos no impiden aplicar el resto.
+     */
+    public List<ResultadoConciliacionDTO> conciliar(Long usuarioId, List<ConciliacionPagoDTO> movimientos) {
+        List<ResultadoConciliacionDTO> resultados = new ArrayList<>(movimientos.size());
+        Set<Long> ids = new HashSet<>();
+        Set<String> numerosFactura = new HashSet<>();
+        for (int i = 0; i < movimientos.size(); i++) {
+            resultados.add(new ResultadoConciliacionDTO(i));
+            ConciliacionPagoDTO movimiento = movimientos.get(i);
+            if (movimiento.getPagoId() != null) {
+                ids.add(movimiento.getPagoId());
+            } else if (movimiento.getNumeroFactura() != null) {
+                numerosFactura.add(movimiento.getNumeroFactura());
+            }
+        }
+        
+        Map<Long, SituacionPagoDTO> porId = new HashMap<>();
+        Map<String, Map<Integer, SituacionPagoDTO>> porNumero = new HashMap<>();
+        if (!ids.isEmpty() || !numerosFactura.isEmpty()) {
+            for (SituacionPagoDTO situacion : pagoRepository.findSituacion(usuarioId, ids, numerosFactura)) {
+                porId.put(situacion.getPagoId(), situacion);
+                porNumero.computeIfAbsent(situacion.getNumeroFactura(), numero -> new HashMap<>())
+                    .put(situacion.getNumeroPago(), situacion);
+            }
+        }
+        
+        // Pagos a marcar, en orden de id para que dos conciliaciones no se bloqueen mutuamente
+        Map<Long, Integer> aConciliar = new TreeMap<>();
+        for (int i = 0; i < movimientos.size(); i++) {
+            ConciliacionPagoDTO movimiento = movimientos.get(i);
+            ResultadoConciliacionDTO resultado = resultados.get(i);
+            SituacionPagoDTO situacion = movimiento.getPagoId() != null
+                ? porId.get(movimiento.getPagoId())
+                : porNumero.getOrDefault(movimiento.getNumeroFactura(), Collections.emptyMap()).get(movimiento.getNumeroPago());
+            if (situacion != null) {
+                resultado.setPagoId(situacion.getPagoId());
+                resultado.setFacturaId(situacion.getFacturaId());
+                resultado.setNumeroFactura(situacion.getNumeroFactura());
+            }
+            String error = validarConciliacion(movimiento, situacion, aConciliar);
+            if (error != null) {
+                resultado.setError(error);
+                continue;
+            }
+            aConciliar.put(situacion.getPagoId(), i);
+        }
+        if (aConciliar.isEmpty()) {
+            return resultados;
+        }
+        
+        List<Object[]> filas = new ArrayList<>(aConciliar.size());
+        aConciliar.forEach((pagoId, indice) -> {
+            LocalDate fechaPago = movimientos.get(indice).getFechaPago();
+            filas.add(new Object[] { Date.valueOf(fechaPago != null ? fechaPago : LocalDate.now()), pagoId });
+        });
+        int[] actualizados = jdbcTemplate.batchUpdate(SQL_MARCAR_PAGADO, filas);
+        
+        List<ResumenFacturacionService.Cobro> cobros = new ArrayList<>();
+        Set<Long> facturaIds = new HashSet<>();
+        int fila = 0;
+        for (Map.Entry<Long, Integer> entrada : aConciliar.entrySet()) {
+            ResultadoConciliacionDTO resultado = resultados.get(entrada.getValue());
+            if (actualizados[fila++] == 0) {
+                // Cobrado o anulado por otra transacción entre la consulta y el UPDATE
+                resultado.setError("El pago ha sido modificado por otro usuario");
+                continue;
+            }
+            SituacionPagoDTO situacion = porId.get(entrada.getKey());
+            resultado.setCorrecto(true);
+            facturaIds.add(situacion.getFacturaId());
+            cobros.add(new ResumenFacturacionService.Cobro(
+                new ResumenFacturacionService.ClaveResumen(usuarioId, situacion.getEjercicio(),
+                    situacion.getFechaEmision().getMonthValue(), situacion.getClienteId()),
+                situacion.getFechaVencimiento(), situacion.getImporte()));
+        }
+        if (cobros.isEmpty()) {
+            return resultados;
+        }
+        resumenFacturacionService.registrarCobros(cobros);
+        
+        Set<Long> pagadas = new HashSet<>(facturaRepository.findIdsCobradas(facturaIds));
+        if (!pagadas.isEmpty()) {
+            facturaRepository.marcarPagadas(pagadas);
+            for (ResultadoConciliacionDTO resultado : resultados) {
+                resultado.setFacturaPagada(resultado.isCorrecto() && pagadas.contains(resultado.getFacturaId()));
+            }
+        }
+        
+        List<EventoFacturaDTO> eventos = new ArrayList<>(cobros.size());
+        for (Map.Entry<Long, Integer> entrada : aConciliar.entrySet()) {
+            if (resultados.get(entrada.getValue()).isCorrecto()) {
+                SituacionPagoDTO situacion = porId.get(entrada.getKey());
+                eventos.add(BandejaEventos.evento(EventoFactura.TipoEvento.PAGO_COBRADO, usuarioId,
+                    situacion.getFacturaId(), situacion.getNumeroFactura(),
+                    pagadas.contains(situacion.getFacturaId()) ? Factura.EstadoFactura.PAGADA : situacion.getEstadoFactura(),
+                    situacion.getPagoId(), Pago.EstadoPago.PAGADO, situacion.getImporte()));
+            }
+        }
+        bandejaEventos.registrar(eventos);
+        return resultados;
+    }
+    
+    private String validarConciliacion(ConciliacionPagoDTO movimiento, SituacionPagoDTO situacion,
+                                       Map<Long, Integer> aConciliar) {
+        if (situacion == null) {
+            if (movimiento.getPagoId() == null
+                    && (movimiento.getNumeroFactura() == null || movimiento.getNumeroPago() == null)) {
+                return "Indique pagoId o numeroFactura y numeroPago";
+            }
+            return "Pago no encontrado";
+        }
+        if (aConciliar.containsKey(situacion.getPagoId())) {
+            return "Pago repetido en la conciliación";
+        }
+        if (situacion.getEstadoFactura() == Factura.EstadoFactura.ANULADA) {
+            return "La factura está anulada";
+        }
+        if (situacion.getEstado() != Pago.EstadoPago.PENDIENTE) {
+            return "El pago no está pendiente (" + situacion.getEstado() + ")";
+        }
+        if (movimiento.getImporte() == null) {
+            return "El importe es obligatorio";
+        }
+        if (movimiento.getImporte().compareTo(situacion.getImporte()) != 0) {
+            return "El importe no coincide con el del pago (" + situacion.getImporte() + ")";
+        }
+        return null;
+    }
+    
     public void generarPagosParaFactura(Factura factura) {
         Integer numeroPagos = factura.getFormaPago().getNumeroPagos();
         Integer periodicidadDias = factura.getFormaPago().getPeriodicidadDias();
@@ -67,6 +268,7 @@ public class PagoService {
         for (int i = 1; i <= numeroPagos; i++) {
             Pago pago = new Pago();
             pago.setFactura(factura);
+            pago.setUsuarioId(factura.getUsuario().getId());
             pago.setNumeroPago(i);
             pago.setFechaVencimiento(
                 factura.getFechaEmision().plusDays((long) (i - 1) * periodicidadDias));
@@ -89,6 +291,7 @@ public class PagoService {
         dto.setImporte(pago.getImporte());
         dto.setEstado(pago.getEstado());
         dto.setFechaPago(pago.getFechaPago());
+        dto.setFechaReclamacion(pago.getFechaReclamacion());
         return dto;
     }
 }
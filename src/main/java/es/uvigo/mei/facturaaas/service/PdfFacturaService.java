@@ -0,0 +1,415 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.model.Cliente;
+import es.uvigo.mei.facturaaas.model.DatosFacturacion;
+import es.uvigo.mei.facturaaas.model.DesgloseIVAFactura;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.model.LineaFactura;
+import es.uvigo.mei.facturaaas.model.Usuario;
+import es.uvigo.mei.facturaaas.repository.DatosFacturacionRepository;
+import es.uvigo.mei.facturaaas.repository.FacturaRepository;
+import es.uvigo.mei.facturaaas.repository.UsuarioRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.hibernate.Hibernate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Facturas en PDF (ver RenderizadorPdfFactura) con caché en disco direccionada por
+ * contenido.
+ * <p>
+ * La clave de cada PDF es el SHA-256 de todo lo que se imprime (factura, líneas,
+ * cliente, forma de pago y datos de facturación del emisor) junto con la versión de
+ * la factura y la del diseño, así que un cambio en cualquiera de ellos produce un
+ * fichero nuevo y nunca hay que invalidar nada: los ficheros que dejan de pedirse se
+ * borran al cabo de {@code factura.pdf.cache.dias-sin-uso} días. Se escriben en un
+ * temporal y se mueven a su nombre definitivo, de modo que un PDF en la caché
+ * siempre está completo y puede enviarse tal cual desde el disco.
+ * <p>
+ * La maquetación se hace en un pool acotado ({@code factura.pdf.hilos} y
+ * {@code factura.pdf.cola}); con el pool y la cola llenos la petición se rechaza
+ * (RejectedExecutionException, respondida como 503). Dos peticiones simultáneas de
+ * la misma factura comparten una sola maquetación. Métricas en Actuator como
+ * facturas.pdf.*.
+ */
+@Service
+public class PdfFacturaService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(PdfFacturaService.class);
+    
+    private static final int FACTURAS_POR_CONSULTA = 100;
+    private static final char SEPARADOR = '\u001f';
+    
+    private final FacturaRepository facturaRepository;
+    private final DatosFacturacionRepository datosFacturacionRepository;
+    private final UsuarioRepository usuarioRepository;
+    private final TransactionTemplate lectura;
+    private final Path directorio;
+    private final Duration tiempoSinUso;
+    private final Duration espera;
+    private final ThreadPoolExecutor executor;
+    private final int ventanaZip;
+    private final ConcurrentHashMap<String, CompletableFuture<Path>> enCurso = new ConcurrentHashMap<>();
+    
+    private final Counter aciertos;
+    private final Timer maquetacion;
+    
+    public PdfFacturaService(FacturaRepository facturaRepository,
+                             DatosFacturacionRepository datosFacturacionRepository,
+                             UsuarioRepository usuarioRepository,
+                             PlatformTransactionManager transactionManager,
+                             MeterRegistry meterRegistry,
+                             @Value("${factura.pdf.cache.directorio:${java.io.tmpdir}/facturaaas-pdf}") String directorio,
+                             @Value("${factura.pdf.cache.dias-sin-uso:30}") long diasSinUso,
+                             @Value("${factura.pdf.hilos:0}") int hilos,
+                             @Value("${factura.pdf.cola:100}") int cola,
+                             @Value("${factura.pdf.espera-ms:2000}") long esperaMs) throws IOException {
+        this.facturaRepository = facturaRepository;
+        this.datosFacturacionRepository = datosFacturacionRepository;
+        this.usuarioRepository = usuarioRepository;
+        this.lectura = new TransactionTemplate(transactionManager);
+        this.lectura.setReadOnly(true);
+        this.directorio = Files.createDirectories(Paths.get(directorio)).toRealPath();
+        this.tiempoSinUso = Duration.ofDays(diasSinUso);
+        this.espera = Duration.ofMillis(esperaMs);
+        int tamano = hilos > 0 ? hilos : Runtime.getRuntime().availableProcessors();
+        this.executor = new ThreadPoolExecutor(tamano, tamano, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(cola), new CustomizableThreadFactory("pdf-"),
+            new ThreadPoolExecutor.AbortPolicy());
+        this.ventanaZip = tamano * 2;
+        
+        this.aciertos = Counter.builder("facturas.pdf.aciertos")
+            .description("PDFs servidos desde la caché en disco")
+            .register(meterRegistry);
+        this.maquetacion = Timer.builder("facturas.pdf.maquetacion")
+            .description("Duración de la maquetación de cada PDF")
+            .register(meterRegistry);
+    }
+    
+    /**
+     * Factura lista para maquetar, con su clave en la caché y el nombre de fichero
+     * con que se descarga.
+     */
+    public record Documento(Factura factura, DatosFacturacion emisor, String clave, String nombre) {
+    }
+    
+    /**
+     * Carga la factura y los datos del emisor y calcula su clave, sin maquetar nada:
+     * con la clave como ETag el controlador puede responder 304 directamente.
+     */
+    public Documento preparar(Long facturaId) {
+        return lectura.execute(estado -> {
+            Factura factura = facturaRepository.findConLineasById(facturaId)
+                .orElseThrow(() -> new RuntimeException("Factura no encontrada"));
+            Hibernate.initialize(factura.getDesgloseIVA());
+            return documento(factura, datosEmisor(factura.getUsuario().getId()));
+        });
+    }
+    
+    /**
+     * Datos de facturación del usuario; si aún no los ha completado, se imprimen su
+     * nombre y email.
+     */
+    public DatosFacturacion datosEmisor(Long usuarioId) {
+        return datosFacturacionRepository.findByUsuarioId(usuarioId).orElseGet(() -> {
+            Usuario usuario = usuarioRepository.findById(usuarioId)
+                .orElseThrow(() -> new RuntimeException("Usuario no encontrado"));
+            DatosFacturacion datos = new DatosFacturacion();
+            datos.setUsuario(usuario);
+            datos.setNombreComercial(usuario.getNombre());
+            datos.setEmailContacto(usuario.getEmail());
+            return datos;
+        });
+    }
+    
+    /**
+     * Ruta del PDF en la caché; si no está, se maqueta en el pool.
+     */
+    public CompletableFuture<Path> obtener(Documento documento) {
+        Path ruta = ruta(documento.clave());
+        if (enCache(ruta)) {
+            return CompletableFuture.completedFuture(ruta);
+        }
+        CompletableFuture<Path> futuro = new CompletableFuture<>();
+        CompletableFuture<Path> existente = enCurso.putIfAbsent(documento.clave(), futuro);
+        if (existente != null) {
+            return existente;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    futuro.complete(maquetar(documento, ruta));
+                } catch (RuntimeException e) {
+                    futuro.completeExceptionally(e);
+                } finally {
+                    enCurso.remove(documento.clave(), futuro);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            enCurso.remove(documento.clave(), futuro);
+            throw e;
+        }
+        return futuro;
+    }
+    
+    /**
+     * Espera como mucho {@code factura.pdf.espera-ms} a la maquetación; null si sigue
+     * en curso.
+     */
+    public Path esperar(CompletableFuture<Path> ruta) {
+        try {
+            return ruta.get(espera.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Maquetación del PDF interrumpida", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException error) {
+                throw error;
+            }
+            throw new CompletionException(e.getCause());
+        }
+    }
+    
+    /**
+     * Escribe en {@code salida} un ZIP con el PDF de cada factura del ejercicio, sin
+     * comprimir (el contenido de los PDF ya lo está). Las facturas se cargan por bloques
+     * y se maquetan en el pool con como mucho dos por hilo por delante de la que se está
+     * escribiendo; si el pool está lleno, se maquetan en el propio hilo de la descarga.
+     */
+    public void exportarZip(Long usuarioId, Integer ejercicio, DatosFacturacion emisor, OutputStream salida)
+            throws IOException {
+        List<Long> ids = lectura.execute(estado -> facturaRepository.findIdsByUsuarioIdAndEjercicio(usuarioId, ejercicio));
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(salida, 64 * 1024));
+        Deque<Pendiente> pendientes = new ArrayDeque<>();
+        Set<String> nombres = new HashSet<>();
+        for (int inicio = 0; inicio < ids.size(); inicio += FACTURAS_POR_CONSULTA) {
+            List<Long> bloque = ids.subList(inicio, Math.min(inicio + FACTURAS_POR_CONSULTA, ids.size()));
+            List<Factura> facturas = lectura.execute(estado -> {
+                List<Factura> cargadas = facturaRepository.findConLineasByIdIn(bloque);
+                // Un solo SELECT para el bloque (hibernate.default_batch_fetch_size)
+                cargadas.forEach(factura -> Hibernate.initialize(factura.getDesgloseIVA()));
+                return cargadas;
+            });
+            for (Factura factura : facturas) {
+                Documento documento = documento(factura, emisor);
+                CompletableFuture<Path> ruta;
+                try {
+                    ruta = obtener(documento);
+                } catch (RejectedExecutionException e) {
+                    ruta = CompletableFuture.completedFuture(maquetar(documento, ruta(documento.clave())));
+                }
+                String nombre = nombres.add(documento.nombre()) ? documento.nombre()
+                    : documento.nombre().replace(".pdf", "-" + factura.getId() + ".pdf");
+                pendientes.add(new Pendiente(nombre, ruta));
+                while (pendientes.size() > ventanaZip) {
+                    escribirEntrada(zip, pendientes.poll());
+                }
+            }
+        }
+        while (!pendientes.isEmpty()) {
+            escribirEntrada(zip, pendientes.poll());
+        }
+        zip.finish();
+        zip.flush();
+    }
+    
+    private record Pendiente(String nombre, CompletableFuture<Path> ruta) {
+    }
+    
+    private void escribirEntrada(ZipOutputStream zip, Pendiente pendiente) throws IOException {
+        byte[] contenido = Files.readAllBytes(completar(pendiente.ruta()));
+        CRC32 crc = new CRC32();
+        crc.update(contenido);
+        ZipEntry entrada = new ZipEntry(pendiente.nombre());
+        entrada.setMethod(ZipEntry.STORED);
+        entrada.setSize(contenido.length);
+        entrada.setCompressedSize(contenido.length);
+        entrada.setCrc(crc.getValue());
+        zip.putNextEntry(entrada);
+        zip.write(contenido);
+        zip.closeEntry();
+    }
+    
+    private static Path completar(CompletableFuture<Path> futuro) throws IOException {
+        try {
+            return futuro.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Exportación interrumpida", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException error) {
+                throw error.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException error) {
+                throw error;
+            }
+            throw new CompletionException(e.getCause());
+        }
+    }
+    
+    /**
+     * Borra los PDF que no se han pedido en {@code factura.pdf.cache.dias-sin-uso} días
+     * y los temporales abandonados por una maquetación interrumpida.
+     */
+    @Scheduled(cron = "${factura.pdf.cache.limpieza.cron:-}")
+    public void limpiarCache() {
+        Instant limitePdf = Instant.now().minus(tiempoSinUso);
+        Instant limiteTemporal = Instant.now().minus(Duration.ofHours(1));
+        int borrados = 0;
+        try (Stream<Path> ficheros = Files.walk(directorio, 2)) {
+            for (Path fichero : (Iterable<Path>) ficheros.filter(Files::isRegularFile)::iterator) {
+                Instant modificado = Files.getLastModifiedTime(fichero).toInstant();
+                boolean temporal = fichero.getFileName().toString().endsWith(".tmp");
+                if (modificado.isBefore(temporal ? limiteTemporal : limitePdf) && Files.deleteIfExists(fichero)) {
+                    borrados++;
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("No se pudo limpiar la caché de PDFs en {}", directorio, e);
+        }
+        logger.info("Caché de PDFs: {} ficheros borrados", borrados);
+    }
+    
+    @PreDestroy
+    public void cerrar() {
+        executor.shutdown();
+    }
+    
+    private Documento documento(Factura factura, DatosFacturacion emisor) {
+        String nombre = "factura-" + factura.getNumeroFactura().replaceAll("[^A-Za-z0-9._-]", "-") + ".pdf";
+        return new Documento(factura, emisor, clave(factura, emisor), nombre);
+    }
+    
+    private Path maquetar(Documento documento, Path ruta) {
+        if (Files.exists(ruta)) {
+            return ruta;
+        }
+        return maquetacion.record(() -> {
+            Path temporal = null;
+            try {
+                Files.createDirectories(ruta.getParent());
+                temporal = Files.createTempFile(ruta.getParent(), documento.clave(), ".tmp");
+                try (OutputStream salida = new BufferedOutputStream(Files.newOutputStream(temporal))) {
+                    RenderizadorPdfFactura.renderizar(documento.factura(), documento.emisor(), salida);
+                }
+                Files.move(temporal, ruta, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                return ruta;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                if (temporal != null) {
+                    try {
+                        Files.deleteIfExists(temporal);
+                    } catch (IOException e) {
+                        logger.warn("No se pudo borrar el temporal {}", temporal, e);
+                    }
+                }
+            }
+        });
+    }
+    
+    /**
+     * Si el PDF está en la caché; la fecha de modificación se renueva como mucho una
+     * vez al día para que la limpieza conserve los que se siguen pidiendo.
+     */
+    private boolean enCache(Path ruta) {
+        try {
+            FileTime modificado = Files.getLastModifiedTime(ruta);
+            Instant ahora = Instant.now();
+            if (modificado.toInstant().isBefore(ahora.minus(Duration.ofDays(1)))) {
+                Files.setLastModifiedTime(ruta, FileTime.from(ahora));
+            }
+            aciertos.increment();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Ficheros repartidos en 256 subdirectorios por el primer byte de la clave.
+     */
+    private Path ruta(String clave) {
+        return directorio.resolve(clave.substring(0, 2)).resolve(clave + ".pdf");
+    }
+    
+    static String clave(Factura factura, DatosFacturacion emisor) {
+        StringBuilder texto = new StringBuilder(1024);
+        campos(texto, RenderizadorPdfFactura.VERSION_DISENO, factura.getId(), factura.getVersion(),
+            factura.getNumeroFactura(), factura.getFechaEmision(), factura.getEstado(), factura.getComentarios(),
+            factura.getImporteTotal(), factura.getIvaTotal(), factura.getSumaTotal(),
+            factura.getFormaPago().getDescripcion());
+        Cliente cliente = factura.getCliente();
+        campos(texto, cliente.getNombre(), cliente.getNif(), cliente.getDomicilio(), cliente.getCodigoPostal(),
+            cliente.getLocalidad(), cliente.getProvincia());
+        campos(texto, emisor.getNombreComercial(), emisor.getNif(), emisor.getDomicilio(), emisor.getCodigoPostal(),
+            emisor.getLocalidad(), emisor.getProvincia(), emisor.getTelefono(), emisor.getEmailContacto(),
+            emisor.getCuentaBancaria());
+        factura.getLineas().stream()
+            .sorted(Comparator.comparing(LineaFactura::getNumeroLinea))
+            .forEach(linea -> campos(texto, linea.getNumeroLinea(), linea.getConcepto(), linea.getCantidad(),
+                linea.getPrecioUnitario(), linea.getPorcentajeDescuento(), linea.getTipoIVA().getPorcentaje(),
+                linea.getImporteTotal()));
+        factura.getDesgloseIVA().stream()
+            .sorted(Comparator.comparing(DesgloseIVAFactura::getPorcentaje))
+            .forEach(desglose -> campos(texto, desglose.getPorcentaje(), desglose.getBase(), desglose.getCuota()));
+        try {
+            byte[] resumen = MessageDigest.getInstance("SHA-256").digest(texto.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(resumen);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private static void campos(StringBuilder texto, Object... valores) {
+        for (Object valor : valores) {
+            texto.append(valor).append(SEPARADOR);
+        }
+        texto.append('\n');
+    }
+}
@@ -0,0 +1,145 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.dto.LineaFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.PlantillaFacturaDTO;
+import es.uvigo.mei.facturaaas.model.*;
+import es.uvigo.mei.facturaaas.repository.ClienteRepository;
+import es.uvigo.mei.facturaaas.repository.PlantillaFacturaRepository;
+import es.uvigo.mei.facturaaas.repository.UsuarioRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Alta y mantenimiento de plantillas de facturas recurrentes. La emisión de las
+ * facturas la hace GeneracionPlantillasService.
+ */
+@Service
+@Transactional
+public class PlantillaFacturaService {
+    
+    @Autowired
+    private PlantillaFacturaRepository plantillaFacturaRepository;
+    
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+    
+    @Autowired
+    private ClienteRepository clienteRepository;
+    
+    @Autowired
+    private DatosReferenciaCache datosReferenciaCache;
+    
+    public List<PlantillaFacturaDTO> obtenerPorUsuario(Long usuarioId) {
+        return plantillaFacturaRepository.findConLineasByUsuarioId(usuarioId).stream()
+            .map(this::convertirADTO)
+            .collect(Collectors.toList());
+    }
+    
+    public PlantillaFacturaDTO obtenerPorId(Long id) {
+        PlantillaFactura plantilla = plantillaFacturaRepository.findConLineasById(id)
+            .orElseThrow(() -> new RuntimeException("Plantilla no encontrada"));
+        return convertirADTO(plantilla);
+    }
+    
+    public PlantillaFacturaDTO crear(PlantillaFacturaDTO dto) {
+        Usuario usuario = usuarioRepository.findById(dto.getUsuarioId())
+            .orElseThrow(() -> new RuntimeException("Usuario no encontrado"));
+        
+        PlantillaFactura plantilla = new PlantillaFactura();
+        plantilla.setUsuario(usuario);
+        copiarDatos(plantilla, dto);
+        plantilla.setActiva(true);
+        plantilla.calcularProximaFecha();
+        
+        plantilla = plantillaFacturaRepository.save(plantilla);
+        return convertirADTO(plantilla);
+    }
+    
+    /**
+     * Cambia los datos de la plantilla conservando las facturas ya generadas: la
+     * próxima fecha se recalcula con el nuevo inicio y periodicidad. Reactivarla
+     * borra el error que la desactivó.
+     */
+    public PlantillaFacturaDTO actualizar(Long id, PlantillaFacturaDTO dto) {
+        PlantillaFactura plantilla = plantillaFacturaRepository.findConLineasById(id)
+            .orElseThrow(() -> new RuntimeException("Plantilla no encontrada"));
+        
+        copiarDatos(plantilla, dto);
+        plantilla.setActiva(dto.getActiva() == null || dto.getActiva());
+        if (plantilla.getActiva()) {
+            plantilla.setUltimoError(null);
+        }
+        plantilla.calcularProximaFecha();
+        
+        plantilla = plantillaFacturaRepository.save(plantilla);
+        return convertirADTO(plantilla);
+    }
+    
+    public void eliminar(Long id) {
+        PlantillaFactura plantilla = plantillaFacturaRepository.findById(id)
+            .orElseThrow(() -> new RuntimeException("Plantilla no encontrada"));
+        plantillaFacturaRepository.delete(plantilla);
+    }
+    
+    private void copiarDatos(PlantillaFactura plantilla, PlantillaFacturaDTO dto) {
+        Long usuarioId = plantilla.getUsuario().getId();
+        Cliente cliente = clienteRepository.findById(dto.getClienteId())
+            .filter(c -> c.getUsuario().getId().equals(usuarioId))
+            .orElseThrow(() -> new RuntimeException("Cliente no encontrado"));
+        FormaPago formaPago = datosReferenciaCache.obtenerFormaPago(dto.getFormaPagoId())
+            .filter(f -> f.getUsuario().getId().equals(usuarioId))
+            .orElseThrow(() -> new RuntimeException("Forma de pago no encontrada"));
+        if (dto.getFechaFin() != null && dto.getFechaFin().isBefore(dto.getFechaInicio())) {
+            throw new RuntimeException("La fecha de fin no puede ser anterior a la de inicio");
+        }
+        
+        plantilla.setCliente(cliente);
+        plantilla.setFormaPago(formaPago);
+        plantilla.setComentarios(dto.getComentarios());
+        plantilla.setPeriodicidad(dto.getPeriodicidad());
+        plantilla.setFechaInicio(dto.getFechaInicio());
+        plantilla.setFechaFin(dto.getFechaFin());
+        
+        // Las líneas de una plantilla no se referencian desde fuera: se sustituyen
+        plantilla.getLineas().clear();
+        for (LineaFacturaDTO lineaDTO : dto.getLineas()) {
+            TipoIVA tipoIVA = datosReferenciaCache.obtenerTipoIVA(lineaDTO.getTipoIVAId())
+                .orElseThrow(() -> new RuntimeException("Tipo de IVA no encontrado"));
+            LineaPlantillaFactura linea = new LineaPlantillaFactura();
+            linea.setPlantilla(plantilla);
+            linea.setNumeroLinea(plantilla.getLineas().size() + 1);
+            linea.setConcepto(lineaDTO.getConcepto());
+            linea.setCantidad(lineaDTO.getCantidad());
+            linea.setPrecioUnitario(lineaDTO.getPrecioUnitario());
+            linea.setPorcentajeDescuento(lineaDTO.getPorcentajeDescuento() != null ?
+                lineaDTO.getPorcentajeDescuento() : BigDecimal.ZERO);
+            linea.setTipoIVA(tipoIVA);
+            plantilla.getLineas().add(linea);
+        }
+    }
+    
+    private PlantillaFacturaDTO convertirADTO(PlantillaFactura plantilla) {
+        PlantillaFacturaDTO dto = new PlantillaFacturaDTO();
+        dto.setId(plantilla.getId());
+        dto.setUsuarioId(plantilla.getUsuario().getId());
+        dto.setClienteId(plantilla.getCliente().getId());
+        dto.setClienteNombre(plantilla.getCliente().getNombre());
+        dto.setFormaPagoId(plantilla.getFormaPago().getId());
+        dto.setComentarios(plantilla.getComentarios());
+        dto.setPeriodicidad(plantilla.getPeriodicidad());
+        dto.setFechaInicio(plantilla.getFechaInicio());
+        dto.setFechaFin(plantilla.getFechaFin());
+        dto.setProximaFecha(plantilla.getProximaFecha());
+        dto.setFacturasGeneradas(plantilla.getFacturasGeneradas());
+        dto.setActiva(plantilla.getActiva());
+        dto.setUltimoError(plantilla.getUltimoError());
+        dto.setLineas(plantilla.getLineas().stream()
+            .map(GeneracionPlantillasService::lineaFactura)
+            .collect(Collectors.toList()));
+        return dto;
+    }
+}
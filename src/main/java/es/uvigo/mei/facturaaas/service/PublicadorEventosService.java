@@ -0,0 +1,194 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.dto.EventoFacturaDTO;
+import es.uvigo.mei.facturaaas.model.EventoFactura;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.model.Pago;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Publica los eventos de la bandeja de salida (ver BandejaEventos) en todos los
+ * DestinoEventos, por lotes y en orden de id, y los marca como publicados cuando
+ * todos los destinos han aceptado el lote. Si un destino falla, el lote sigue
+ * pendiente y se vuelve a entregar en la siguiente ejecución: la entrega es al menos
+ * una vez y los eventos de una misma factura llegan siempre en el orden en que se
+ * confirmaron.
+ * <p>
+ * Para no desordenarlos, publica un solo nodo: el que tiene el arrendamiento (ver
+ * BloqueoTareas), que lo conserva y renueva en cada lote mientras sigue vivo; si cae,
+ * otro nodo lo toma cuando caduca. Métricas en Actuator como eventos.publicacion.*.
+ * <p>
+ * Los eventos publicados no se borran enseguida: cada lote recibe un número creciente
+ * (publicacion), confirmado antes de empezar el siguiente, y las filas se conservan
+ * {@code eventos.publicacion.retencion-ms} para que todos los nodos, tengan o no el
+ * arrendamiento, las lean en ese orden y las envíen a sus suscripciones SSE (ver
+ * DifusorEventos). Siempre queda el último lote, del que el siguiente publicador toma
+ * la numeración.
+ */
+@Service
+public class PublicadorEventosService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(PublicadorEventosService.class);
+    
+    static final String TAREA = "publicacion-eventos";
+    
+    static final String COLUMNAS =
+        "id, tipo, usuario_id, factura_id, numero_factura, estado_factura, pago_id, estado_pago, " +
+        "importe, fecha_creacion";
+    private static final String SQL_PENDIENTES =
+        "SELECT " + COLUMNAS + " FROM evento_factura WHERE publicacion IS NULL ORDER BY id LIMIT ?";
+    private static final String SQL_ULTIMA_PUBLICACION = "SELECT COALESCE(MAX(publicacion), 0) FROM evento_factura";
+    private static final String SQL_MARCAR =
+        "UPDATE evento_factura SET publicacion = ?, fecha_publicacion = ? WHERE id = ?";
+    private static final String SQL_PURGAR =
+        "DELETE FROM evento_factura WHERE publicacion < ? AND fecha_publicacion < ?";
+    
+    static final RowMapper<EventoFacturaDTO> FILA = (rs, n) -> {
+        String estadoFactura = rs.getString("estado_factura");
+        String estadoPago = rs.getString("estado_pago");
+        Timestamp fecha = rs.getTimestamp("fecha_creacion");
+        return new EventoFacturaDTO(rs.getLong("id"), EventoFactura.TipoEvento.valueOf(rs.getString("tipo")),
+            rs.getLong("usuario_id"), rs.getLong("factura_id"), rs.getString("numero_factura"),
+            estadoFactura != null ? Factura.EstadoFactura.valueOf(estadoFactura) : null,
+            rs.getObject("pago_id", Long.class),
+            estadoPago != null ? Pago.EstadoPago.valueOf(estadoPago) : null,
+            rs.getBigDecimal("importe"), fecha.toLocalDateTime());
+    };
+    
+    private final JdbcTemplate jdbcTemplate;
+    private final BloqueoTareas bloqueoTareas;
+    private final List<DestinoEventos> destinos;
+    private final TransactionTemplate transaccion;
+    private final Duration duracionBloqueo;
+    private final int eventosPorLote;
+    private final Duration retencion;
+    /** Una sola publicación a la vez en el nodo (el arrendamiento es por nodo). */
+    private final ReentrantLock enCurso = new ReentrantLock();
+    /** Último lote publicado desde este nodo; lo protege enCurso. */
+    private long ultimaPublicacion;
+    
+    private final Counter publicados;
+    private final Counter fallidos;
+    private final Timer duracionLote;
+    
+    public PublicadorEventosService(JdbcTemplate jdbcTemplate,
+                                    BloqueoTareas bloqueoTareas,
+                                    List<DestinoEventos> destinos,
+                                    PlatformTransactionManager transactionManager,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${eventos.publicacion.bloqueo-segundos:60}") long bloqueoSegundos,
+                                    @Value("${eventos.publicacion.eventos-por-lote:500}") int eventosPorLote,
+                                    @Value("${eventos.publicacion.retencion-ms:60000}") long retencionMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.bloqueoTareas = bloqueoTareas;
+        this.destinos = destinos;
+        this.transaccion = new TransactionTemplate(transactionManager);
+        this.duracionBloqueo = Duration.ofSeconds(bloqueoSegundos);
+        this.eventosPorLote = eventosPorLote;
+        this.retencion = Duration.ofMillis(retencionMs);
+        
+        this.publicados = Counter.builder("eventos.publicacion.eventos")
+            .description("Eventos entregados a todos los destinos")
+            .register(meterRegistry);
+        this.fallidos = Counter.builder("eventos.publicacion.fallos")
+            .description("Lotes rechazados por algún destino (se reintentan)")
+            .register(meterRegistry);
+        this.duracionLote = Timer.builder("eventos.publicacion.lote")
+            .description("Duración de la entrega de cada lote a los destinos")
+            .register(meterRegistry);
+    }
+    
+    @Scheduled(fixedDelayString = "${eventos.publicacion.intervalo-ms:1000}")
+    public void publicarPendientes() {
+        publicar();
+    }
+    
+    /**
+     * Publica lotes hasta vaciar la bandeja o hasta que falle un destino. Devuelve los
+     * eventos publicados; 0 si otro nodo (u otro hilo) está publicando.
+     */
+    public int publicar() {
+        if (!enCurso.tryLock()) {
+            return 0;
+        }
+        try {
+            int total = 0;
+            while (bloqueoTareas.adquirir(TAREA, duracionBloqueo)) {
+                List<EventoFacturaDTO> lote = jdbcTemplate.query(SQL_PENDIENTES, FILA, eventosPorLote);
+                if (lote.isEmpty()) {
+                    break;
+                }
+                try {
+                    duracionLote.recordCallable(() -> {
+                        for (DestinoEventos destino : destinos) {
+                            destino.publicar(lote);
+                        }
+                        return null;
+                    });
+                } catch (Exception ex) {
+                    fallidos.increment();
+                    logger.warn("Publicación de eventos interrumpida en el evento {}: {}",
+                        lote.get(0).getId(), ex.toString());
+                    break;
+                }
+                marcar(lote);
+                publicados.increment(lote.size());
+                total += lote.size();
+                if (lote.size() < eventosPorLote) {
+                    break;
+                }
+            }
+            if (ultimaPublicacion > 0) {
+                jdbcTemplate.update(SQL_PURGAR, ultimaPublicacion,
+                    Timestamp.valueOf(LocalDateTime.now().minus(retencion)));
+            }
+            return total;
+        } finally {
+            enCurso.unlock();
+        }
+    }
+    
+    /**
+     * Asigna al lote el número siguiente al último publicado, por este nodo o por el
+     * que tenía antes el arrendamiento.
+     */
+    private void marcar(List<EventoFacturaDTO> lote) {
+        long publicacion = Math.max(ultimaPublicacion,
+            jdbcTemplate.queryForObject(SQL_ULTIMA_PUBLICACION, Long.class)) + 1;
+        Timestamp ahora = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> filas = new ArrayList<>(lote.size());
+        for (EventoFacturaDTO evento : lote) {
+            filas.add(new Object[] { publicacion, ahora, evento.getId() });
+        }
+        transaccion.executeWithoutResult(estado -> jdbcTemplate.batchUpdate(SQL_MARCAR, filas));
+        ultimaPublicacion = publicacion;
+    }
+    
+    @PreDestroy
+    public void liberar() {
+        // Al parar, otro nodo puede tomar el relevo sin esperar a que caduque
+        try {
+            bloqueoTareas.liberar(TAREA);
+        } catch (RuntimeException ex) {
+            logger.debug("No se ha podido liberar el arrendamiento de {}: {}", TAREA, ex.toString());
+        }
+    }
+}
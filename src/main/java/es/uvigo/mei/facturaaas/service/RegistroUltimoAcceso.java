@@ -0,0 +1,65 @@
+package es.uvigo.mei.facturaaas.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Acumula en memoria la fecha de último acceso de cada usuario y la vuelca
+ * periódicamente con un único UPDATE por lotes. Varios logins del mismo usuario
+ * entre dos volcados se reducen a una sola fila (la fecha más reciente).
+ */
+@Component
+public class RegistroUltimoAcceso {
+    
+    private static final Logger logger = LoggerFactory.getLogger(RegistroUltimoAcceso.class);
+    
+    private static final String SQL_ACTUALIZAR =
+        "UPDATE usuario SET fecha_ultimo_acceso = ? WHERE id = ?";
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    private final Map<Long, LocalDateTime> pendientes = new ConcurrentHashMap<>();
+    
+    public void registrar(Long usuarioId, LocalDateTime fecha) {
+        pendientes.merge(usuarioId, fecha, (anterior, nueva) -> nueva.isAfter(anterior) ? nueva : anterior);
+    }
+    
+    @Scheduled(fixedDelayString = "${usuario.ultimo-acceso.intervalo-ms:5000}")
+    public void volcar() {
+        if (pendientes.isEmpty()) {
+            return;
+        }
+        List<Object[]> filas = new ArrayList<>();
+        for (Long usuarioId : pendientes.keySet()) {
+            LocalDateTime fecha = pendientes.remove(usuarioId);
+            if (fecha != null) {
+                filas.add(new Object[] { Timestamp.valueOf(fecha), usuarioId });
+            }
+        }
+        try {
+            jdbcTemplate.batchUpdate(SQL_ACTUALIZAR, filas);
+        } catch (RuntimeException ex) {
+            logger.warn("No se pudo actualizar la fecha de último acceso de {} usuarios", filas.size(), ex);
+            for (Object[] fila : filas) {
+                registrar((Long) fila[1], ((Timestamp) fila[0]).toLocalDateTime());
+            }
+        }
+    }
+    
+    @PreDestroy
+    public void volcarAlCerrar() {
+        volcar();
+    }
+}
@@ -0,0 +1,376 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.model.Cliente;
+import es.uvigo.mei.facturaaas.model.DatosFacturacion;
+import es.uvigo.mei.facturaaas.model.DesgloseIVAFactura;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.model.LineaFactura;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentInformation;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Maquetación de una factura en PDF (A4) con PDFBox: datos del emisor y del cliente,
+ * tabla de líneas que continúa en páginas sucesivas, desglose de IVA y totales.
+ * <p>
+ * Usa las fuentes estándar de PDF (Helvetica, codificación WinAnsi), que no se
+ * incrustan: los caracteres que no admiten se sustituyen por '?'. Cada instancia
+ * maqueta un único documento y no es segura entre hilos.
+ * <p>
+ * VERSION_DISENO forma parte de la clave de la caché de PDFs (ver PdfFacturaService):
+ * hay que incrementarla al cambiar la maquetación para que no se sirvan PDFs antiguos.
+ */
+final class RenderizadorPdfFactura {
+    
+    static final int VERSION_DISENO = 2;
+    
+    private static final Locale ESPANOL = Locale.forLanguageTag("es-ES");
+    private static final DateTimeFormatter FECHA = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+    
+    private static final float MARGEN = 50;
+    private static final float ANCHO = PDRectangle.A4.getWidth() - 2 * MARGEN;
+    private static final float CUERPO = 9;
+    private static final float INTERLINEA = 12;
+    
+    // Columnas de la tabla de líneas: borde derecho de cada columna numérica
+    private static final float COLUMNA_CONCEPTO = 250;
+    private static final float[] COLUMNAS_NUMERICAS = {MARGEN + 300, MARGEN + 360, MARGEN + 400, MARGEN + 440, MARGEN + ANCHO};
+    private static final String[] CABECERAS = {"Cantidad", "Precio", "Dto. %", "IVA %", "Importe"};
+    
+    private final PDDocument documento = new PDDocument();
+    private final PDFont normal = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+    private final PDFont negrita = new PDType1Font(Standard14Fonts.FontName.HELVETICA_BOLD);
+    private final DecimalFormat importe = new DecimalFormat("#,##0.00", DecimalFormatSymbols.getInstance(ESPANOL));
+    private final Factura factura;
+    private final DatosFacturacion emisor;
+    private PDPageContentStream contenido;
+    private float y;
+    
+    private RenderizadorPdfFactura(Factura factura, DatosFacturacion emisor) {
+        this.factura = factura;
+        this.emisor = emisor;
+    }
+    
+    /**
+     * Escribe el PDF de la factura en {@code salida}. La factura debe tener cargados
+     * cliente, forma de pago, líneas con su tipo de IVA y desglose de IVA.
+     */
+    static void renderizar(Factura factura, DatosFacturacion emisor, OutputStream salida) throws IOException {
+        RenderizadorPdfFactura renderizador = new RenderizadorPdfFactura(factura, emisor);
+        try (PDDocument documento = renderizador.documento) {
+            renderizador.maquetar();
+            documento.save(salida);
+        }
+    }
+    
+    private void maquetar() throws IOException {
+        PDDocumentInformation informacion = documento.getDocumentInformation();
+        informacion.setTitle("Factura " + factura.getNumeroFactura());
+        informacion.setAuthor(emisor.getNombreComercial());
+        informacion.setCreator("FACTURAaaS");
+        
+        nuevaPagina();
+        cabecera();
+        tablaLineas();
+        totales();
+        pie();
+        contenido.close();
+        numerarPaginas();
+    }
+    
+    private void cabecera() throws IOException {
+        float arriba = y;
+        escribir(negrita, 14, MARGEN, y, emisor.getNombreComercial());
+        y -= 18;
+        for (String linea : bloqueDireccion(emisor.getNif(), emisor.getDomicilio(), emisor.getCodigoPostal(),
+                emisor.getLocalidad(), emisor.getProvincia())) {
+            escribir(normal, CUERPO, MARGEN, y, linea);
+            y -= INTERLINEA;
+        }
+        if (emisor.getTelefono() != null) {
+            escribir(normal, CUERPO, MARGEN, y, "Tel.: " + emisor.getTelefono());
+            y -= INTERLINEA;
+        }
+        if (emisor.getEmailContacto() != null) {
+            escribir(normal, CUERPO, MARGEN, y, emisor.getEmailContacto());
+            y -= INTERLINEA;
+        }
+        float izquierda = y;
+        
+        float x = MARGEN + 320;
+        y = arriba;
+        escribir(negrita, 18, x, y, "FACTURA");
+        y -= 20;
+        datoFactura(x, "Número:", factura.getNumeroFactura());
+        datoFactura(x, "Fecha:", factura.getFechaEmision().format(FECHA));
+        datoFactura(x, "Forma de pago:", factura.getFormaPago().getDescripcion());
+        if (factura.getEstado() == Factura.EstadoFactura.ANULADA) {
+            datoFactura(x, "Estado:", "ANULADA");
+        }
+        y -= 8;
+        
+        Cliente cliente = factura.getCliente();
+        escribir(negrita, CUERPO, x, y, "Cliente");
+        y -= INTERLINEA;
+        escribir(negrita, CUERPO, x, y, cliente.getNombre());
+        y -= INTERLINEA;
+        for (String linea : bloqueDireccion(cliente.getNif(), cliente.getDomicilio(), cliente.getCodigoPostal(),
+                cliente.getLocalidad(), cliente.getProvincia())) {
+            escribir(normal, CUERPO, x, y, linea);
+            y -= INTERLINEA;
+        }
+        y = Math.min(y, izquierda) - 20;
+    }
+    
+    private void datoFactura(float x, String etiqueta, String valor) throws IOException {
+        escribir(negrita, CUERPO, x, y, etiqueta);
+        escribir(normal, CUERPO, x + 70, y, valor);
+        y -= INTERLINEA;
+    }
+    
+    private static List<String> bloqueDireccion(String nif, String domicilio, String codigoPostal,
+                                                String localidad, String provincia) {
+        List<String> lineas = new ArrayList<>();
+        if (nif != null) {
+            lineas.add("NIF: " + nif);
+        }
+        if (domicilio != null) {
+            lineas.add(domicilio);
+        }
+        String poblacion = String.join(" ", noNulos(codigoPostal, localidad));
+        if (provincia != null && !provincia.equals(localidad)) {
+            poblacion = poblacion.isEmpty() ? provincia : poblacion + " (" + provincia + ")";
+        }
+        if (!poblacion.isEmpty()) {
+            lineas.add(poblacion);
+        }
+        return lineas;
+    }
+    
+    private static List<String> noNulos(String... valores) {
+        List<String> resultado = new ArrayList<>();
+        for (String valor : valores) {
+            if (valor != null && !valor.isBlank()) {
+                resultado.add(valor);
+            }
+        }
+        return resultado;
+    }
+    
+    private void tablaLineas() throws IOException {
+        cabeceraTabla();
+        List<LineaFactura> lineas = new ArrayList<>(factura.getLineas());
+        lineas.sort(Comparator.comparing(LineaFactura::getNumeroLinea));
+        for (LineaFactura linea : lineas) {
+            List<String> concepto = partir(linea.getConcepto(), normal, CUERPO, COLUMNA_CONCEPTO);
+            if (y - concepto.size() * INTERLINEA < MARGEN + 20) {
+                contenido.close();
+                nuevaPagina();
+                cabeceraTabla();
+            }
+            String[] valores = {
+                numero(linea.getCantidad()), numero(linea.getPrecioUnitario()),
+                numero(linea.getPorcentajeDescuento()), numero(linea.getTipoIVA().getPorcentaje()),
+                numero(linea.getImporteTotal())
+            };
+            for (int i = 0; i < valores.length; i++) {
+                escribirDerecha(normal, CUERPO, COLUMNAS_NUMERICAS[i], y, valores[i]);
+            }
+            for (String trozo : concepto) {
+                escribir(normal, CUERPO, MARGEN, y, trozo);
+                y -= INTERLINEA;
+            }
+            y -= 2;
+        }
+        linea(y + INTERLINEA - 4);
+        y -= 6;
+    }
+    
+    private void cabeceraTabla() throws IOException {
+        escribir(negrita, CUERPO, MARGEN, y, "Concepto");
+        for (int i = 0; i < CABECERAS.length; i++) {
+            escribirDerecha(negrita, CUERPO, COLUMNAS_NUMERICAS[i], y, CABECERAS[i]);
+        }
+        linea(y - 4);
+        y -= INTERLINEA + 6;
+    }
+    
+    private void totales() throws IOException {
+        List<DesgloseIVAFactura> desglose = new ArrayList<>(factura.getDesgloseIVA());
+        desglose.sort(Comparator.comparing(DesgloseIVAFactura::getPorcentaje));
+        if (y - (desglose.size() + 6) * INTERLINEA < MARGEN + 20) {
+            contenido.close();
+            nuevaPagina();
+        }
+        float etiquetas = MARGEN + 300;
+        float base = MARGEN + 360;
+        float porcentaje = MARGEN + 410;
+        float derecha = MARGEN + ANCHO;
+        escribirDerecha(negrita, CUERPO, base, y, "Base");
+        escribirDerecha(negrita, CUERPO, porcentaje, y, "IVA %");
+        escribirDerecha(negrita, CUERPO, derecha, y, "Cuota");
+        y -= INTERLINEA;
+        for (DesgloseIVAFactura importeIVA : desglose) {
+            escribirDerecha(normal, CUERPO, base, y, numero(importeIVA.getBase()));
+            escribirDerecha(normal, CUERPO, porcentaje, y, numero(importeIVA.getPorcentaje()));
+            escribirDerecha(normal, CUERPO, derecha, y, numero(importeIVA.getCuota()));
+            y -= INTERLINEA;
+        }
+        y -= 6;
+        escribir(normal, CUERPO, etiquetas, y, "Base imponible");
+        escribirDerecha(normal, CUERPO, derecha, y, numero(factura.getImporteTotal()) + " €");
+        y -= INTERLINEA;
+        escribir(normal, CUERPO, etiquetas, y, "IVA");
+        escribirDerecha(normal, CUERPO, derecha, y, numero(factura.getIvaTotal()) + " €");
+        y -= INTERLINEA + 2;
+        escribir(negrita, 11, etiquetas, y, "TOTAL");
+        escribirDerecha(negrita, 11, derecha, y, numero(factura.getSumaTotal()) + " €");
+        y -= 24;
+    }
+    
+    private void pie() throws IOException {
+        List<String> lineas = new ArrayList<>();
+        if (emisor.getCuentaBancaria() != null && !emisor.getCuentaBancaria().isBlank()) {
+            lineas.add("Cuenta para el pago: " + emisor.getCuentaBancaria());
+        }
+        if (factura.getComentarios() != null && !factura.getComentarios().isBlank()) {
+            lineas.addAll(partir(factura.getComentarios(), normal, CUERPO, ANCHO));
+        }
+        for (String linea : lineas) {
+            if (y < MARGEN + 20) {
+                contenido.close();
+                nuevaPagina();
+            }
+            escribir(normal, CUERPO, MARGEN, y, linea);
+            y -= INTERLINEA;
+        }
+    }
+    
+    private void nuevaPagina() throws IOException {
+        PDPage pagina = new PDPage(PDRectangle.A4);
+        documento.addPage(pagina);
+        contenido = new PDPageContentStream(documento, pagina);
+        y = PDRectangle.A4.getHeight() - MARGEN;
+    }
+    
+    private void numerarPaginas() throws IOException {
+        int total = documento.getNumberOfPages();
+        int numero = 1;
+        for (PDPage pagina : documento.getPages()) {
+            try (PDPageContentStream pie = new PDPageContentStream(documento, pagina,
+                    PDPageContentStream.AppendMode.APPEND, true)) {
+                contenido = pie;
+                escribirDerecha(normal, 8, MARGEN + ANCHO, MARGEN - 20,
+                    factura.getNumeroFactura() + " - Página " + numero++ + " de " + total);
+            }
+        }
+    }
+    
+    private void linea(float altura) throws IOException {
+        contenido.setLineWidth(0.5f);
+        contenido.moveTo(MARGEN, altura);
+        contenido.lineTo(MARGEN + ANCHO, altura);
+        contenido.stroke();
+    }
+    
+    private void escribir(PDFont fuente, float tamano, float x, float altura, String texto) throws IOException {
+        String imprimible = imprimible(fuente, texto);
+        if (imprimible.isEmpty()) {
+            return;
+        }
+        contenido.beginText();
+        contenido.setFont(fuente, tamano);
+        contenido.newLineAtOffset(x, altura);
+        contenido.showText(imprimible);
+        contenido.endText();
+    }
+    
+    private void escribirDerecha(PDFont fuente, float tamano, float derecha, float altura, String texto)
+            throws IOException {
+        String imprimible = imprimible(fuente, texto);
+        escribir(fuente, tamano, derecha - anchura(fuente, tamano, imprimible), altura, imprimible);
+    }
+    
+    /**
+     * Parte el texto en líneas que caben en {@code ancho}, por palabras; una palabra
+     * más larga que la línea se corta.
+     */
+    private static List<String> partir(String texto, PDFont fuente, float tamano, float ancho) throws IOException {
+        List<String> lineas = new ArrayList<>();
+        StringBuilder actual = new StringBuilder();
+        for (String palabra : imprimible(fuente, texto).split(" +")) {
+            String candidata = actual.isEmpty() ? palabra : actual + " " + palabra;
+            if (anchura(fuente, tamano, candidata) <= ancho) {
+                actual.setLength(0);
+                actual.append(candidata);
+                continue;
+            }
+            if (!actual.isEmpty()) {
+                lineas.add(actual.toString());
+                actual.setLength(0);
+            }
+            while (anchura(fuente, tamano, palabra) > ancho) {
+                int corte = palabra.length() - 1;
+                while (corte > 1 && anchura(fuente, tamano, palabra.substring(0, corte)) > ancho) {
+                    corte--;
+                }
+                lineas.add(palabra.substring(0, corte));
+                palabra = palabra.substring(corte);
+            }
+            actual.append(palabra);
+        }
+        if (!actual.isEmpty()) {
+            lineas.add(actual.toString());
+        }
+        return lineas;
+    }
+    
+    private static float anchura(PDFont fuente, float tamano, String texto) throws IOException {
+        return fuente.getStringWidth(texto) / 1000 * tamano;
+    }
+    
+    /**
+     * El texto en una sola línea y sin caracteres que la fuente no puede codificar.
+     */
+    private static String imprimible(PDFont fuente, String texto) throws IOException {
+        if (texto == null) {
+            return "";
+        }
+        String limpio = texto.replaceAll("[\\r\\n\\t]+", " ").strip();
+        try {
+            fuente.encode(limpio);
+            return limpio;
+        } catch (IllegalArgumentException e) {
+            StringBuilder resultado = new StringBuilder(limpio.length());
+            limpio.codePoints().forEach(codigo -> {
+                String caracter = Character.toString(codigo);
+                try {
+                    fuente.encode(caracter);
+                    resultado.append(caracter);
+                } catch (IllegalArgumentException | IOException noCodificable) {
+                    resultado.append('?');
+                }
+            });
+            return resultado.toString();
+        }
+    }
+    
+    private String numero(BigDecimal valor) {
+        return valor == null ? "" : importe.format(valor);
+    }
+}
@@ -0,0 +1,306 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.dto.ResumenFacturacionDTO;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.model.Pago;
+import es.uvigo.mei.facturaaas.repository.ResumenFacturacionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Mantiene las tablas agregadas del cuadro de mando (resumen_facturacion y
+ * resumen_vencimiento) dentro de la misma transacción que modifica la factura
+ * o el pago, sumando solo la diferencia entre el estado anterior y el nuevo.
+ * <p>
+ * Cada fila se suma con un upsert (INSERT ... ON CONFLICT DO UPDATE en PostgreSQL,
+ * MERGE en el resto) en la transacción del cambio, sin pedir otra conexión al pool.
+ * Las filas se actualizan en orden de clave para que dos transacciones que tocan
+ * las mismas filas no se bloqueen mutuamente. {@link #reconstruir()} recalcula
+ * todo desde factura y pago (p. ej. tras una carga masiva por SQL).
+ */
+@Service
+@Transactional
+public class ResumenFacturacionService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ResumenFacturacionService.class);
+    
+    private static final String SQL_BORRAR_VENCIMIENTOS = "DELETE FROM resumen_vencimiento WHERE usuario_id = ?";
+    private static final String SQL_BORRAR_FACTURACION = "DELETE FROM resumen_facturacion WHERE usuario_id = ?";
+    private static final String SQL_RECALCULAR_FACTURACION =
+        "INSERT INTO resumen_facturacion (usuario_id, ejercicio, mes, cliente_id, numero_facturas, " +
+        "importe_total, iva_total, suma_total) " +
+        "SELECT usuario_id, ejercicio, EXTRACT(MONTH FROM fecha_emision), cliente_id, COUNT(*), " +
+        "COALESCE(SUM(importe_total), 0), COALESCE(SUM(iva_total), 0), COALESCE(SUM(suma_total), 0) " +
+        "FROM factura WHERE usuario_id = ? AND estado <> 'ANULADA' " +
+        "GROUP BY usuario_id, ejercicio, EXTRACT(MONTH FROM fecha_emision), cliente_id";
+    private static final String SQL_RECALCULAR_VENCIMIENTOS =
+        "INSERT INTO resumen_vencimiento (usuario_id, ejercicio, mes, cliente_id, fecha_vencimiento, importe_pendiente) " +
+        "SELECT f.usuario_id, f.ejercicio, EXTRACT(MONTH FROM f.fecha_emision), f.cliente_id, p.fecha_vencimiento, " +
+        "SUM(p.importe) " +
+        "FROM pago p JOIN factura f ON f.id = p.factura_id " +
+        "WHERE f.usuario_id = ? AND f.estado <> 'ANULADA' AND p.estado = 'PENDIENTE' " +
+        "GROUP BY f.usuario_id, f.ejercicio, EXTRACT(MONTH FROM f.fecha_emision), f.cliente_id, p.fecha_vencimiento";
+    private static final String SQL_SUMAR_FACTURACION_POSTGRESQL =
+        "INSERT INTO resumen_facturacion AS r (usuario_id, ejercicio, mes, cliente_id, numero_facturas, " +
+        "importe_total, iva_total, suma_total) VALUES (?, ?, ?, ?, ?, ?, ?, ?) " +
+        "ON CONFLICT (usuario_id, ejercicio, mes, cliente_id) DO UPDATE SET " +
+        "numero_facturas = r.numero_facturas + EXCLUDED.numero_facturas, " +
+        "importe_total = r.importe_total + EXCLUDED.importe_total, " +
+        "iva_total = r.iva_total + EXCLUDED.iva_total, suma_total = r.suma_total + EXCLUDED.suma_total";
+    private static final String SQL_SUMAR_FACTURACION_MERGE =
+        "MERGE INTO resumen_facturacion r USING (VALUES (CAST(? AS BIGINT), CAST(? AS INTEGER), " +
+        "CAST(? AS INTEGER), CAST(? AS BIGINT), CAST(? AS BIGINT), CAST(? AS DECIMAL(14,2)), " +
+        "CAST(? AS DECIMAL(14,2)), CAST(? AS DECIMAL(14,2)))) " +
+        "AS d (usuario_id, ejercicio, mes, cliente_id, numero_facturas, importe_total, iva_total, suma_total) " +
+        "ON r.usuario_id = d.usuario_id AND r.ejercicio = d.ejercicio AND r.mes = d.mes " +
+        "AND r.cliente_id = d.cliente_id " +
+        "WHEN MATCHED THEN UPDATE SET numero_facturas = r.numero_facturas + d.numero_facturas, " +
+        "importe_total = r.importe_total + d.importe_total, iva_total = r.iva_total + d.iva_total, " +
+        "suma_total = r.suma_total + d.suma_total " +
+        "WHEN NOT MATCHED THEN INSERT (usuario_id, ejercicio, mes, cliente_id, numero_facturas, " +
+        "importe_total, iva_total, suma_total) VALUES (d.usuario_id, d.ejercicio, d.mes, d.cliente_id, " +
+        "d.numero_facturas, d.importe_total, d.iva_total, d.suma_total)";
+    private static final String SQL_SUMAR_VENCIMIENTO_POSTGRESQL =
+        "INSERT INTO resumen_vencimiento AS v (usuario_id, ejercicio, mes, cliente_id, fecha_vencimiento, " +
+        "importe_pendiente) VALUES (?, ?, ?, ?, ?, ?) " +
+        "ON CONFLICT (usuario_id, ejercicio, mes, cliente_id, fecha_vencimiento) DO UPDATE SET " +
+        "importe_pendiente = v.importe_pendiente + EXCLUDED.importe_pendiente";
+    private static final String SQL_SUMAR_VENCIMIENTO_MERGE =
+        "MERGE INTO resumen_vencimiento v USING (VALUES (CAST(? AS BIGINT), CAST(? AS INTEGER), " +
+        "CAST(? AS INTEGER), CAST(? AS BIGINT), CAST(? AS DATE), CAST(? AS DECIMAL(14,2)))) " +
+        "AS d (usuario_id, ejercicio, mes, cliente_id, fecha_vencimiento, importe_pendiente) " +
+        "ON v.usuario_id = d.usuario_id AND v.ejercicio = d.ejercicio AND v.mes = d.mes " +
+        "AND v.cliente_id = d.cliente_id AND v.fecha_vencimiento = d.fecha_vencimiento " +
+        "WHEN MATCHED THEN UPDATE SET importe_pendiente = v.importe_pendiente + d.importe_pendiente " +
+        "WHEN NOT MATCHED THEN INSERT (usuario_id, ejercicio, mes, cliente_id, fecha_vencimiento, " +
+        "importe_pendiente) VALUES (d.usuario_id, d.ejercicio, d.mes, d.cliente_id, d.fecha_vencimiento, " +
+        "d.importe_pendiente)";
+    
+    @Autowired
+    private ResumenFacturacionRepository resumenFacturacionRepository;
+    
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transaccion;
+    private final String sqlSumarFacturacion;
+    private final String sqlSumarVencimiento;
+    
+    public ResumenFacturacionService(PlatformTransactionManager transactionManager, JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transaccion = new TransactionTemplate(transactionManager);
+        // El MERGE de PostgreSQL no resuelve la inserción concurrente de la misma clave: allí ON CONFLICT
+        boolean postgresql = "PostgreSQL".equals(jdbcTemplate.execute(
+            (ConnectionCallback<String>) conexion -> conexion.getMetaData().getDatabaseProductName()));
+        this.sqlSumarFacturacion = postgresql ? SQL_SUMAR_FACTURACION_POSTGRESQL : SQL_SUMAR_FACTURACION_MERGE;
+        this.sqlSumarVencimiento = postgresql ? SQL_SUMAR_VENCIMIENTO_POSTGRESQL : SQL_SUMAR_VENCIMIENTO_MERGE;
+    }
+    
+    @Transactional(readOnly = true)
+    public List<ResumenFacturacionDTO> obtenerCuadroMando(Long usuarioId, Integer ejercicio) {
+        return resumenFacturacionRepository.findCuadroMando(usuarioId, ejercicio, LocalDate.now());
+    }
+    
+    /**
+     * Lo que aporta una factura a los agregados en su estado actual, o null si no
+     * aporta nada (anulada). Recorre los pagos, que deben estar ya generados.
+     */
+    public Aportacion aportacion(Factura factura) {
+        if (factura.getEstado() == Factura.EstadoFactura.ANULADA) {
+            return null;
+        }
+        Map<LocalDate, BigDecimal> pendientes = new TreeMap<>();
+        for (Pago pago : factura.getPagos()) {
+            if (pago.getEstado() == Pago.EstadoPago.PENDIENTE) {
+                pendientes.merge(pago.getFechaVencimiento(), pago.getImporte(), BigDecimal::add);
+            }
+        }
+        return new Aportacion(clave(factura), cero(factura.getImporteTotal()),
+            cero(factura.getIvaTotal()), cero(factura.getSumaTotal()), pendientes);
+    }
+    
+    /**
+     * Aplica el cambio de una factura; {@code anterior} es null en las altas.
+     */
+    public void registrarCambio(Aportacion anterior, Aportacion nueva) {
+        Cambios cambios = new Cambios();
+        cambios.sumar(anterior, -1);
+        cambios.sumar(nueva, 1);
+        aplicar(cambios);
+    }
+    
+    public void registrarAltas(Collection<Factura> facturas) {
+        Cambios cambios = new Cambios();
+        for (Factura factura : facturas) {
+            cambios.sumar(aportacion(factura), 1);
+        }
+        aplicar(cambios);
+    }
+    
+    public void registrarCambioEstadoPago(Pago pago, Pago.EstadoPago estadoAnterior) {
+        Factura factura = pago.getFactura();
+        if (factura.getEstado() == Factura.EstadoFactura.ANULADA || estadoAnterior == pago.getEstado()) {
+            return;
+        }
+        BigDecimal importe = BigDecimal.ZERO;
+        if (estadoAnterior == Pago.EstadoPago.PENDIENTE) {
+            importe = importe.subtract(pago.getImporte());
+        }
+        if (pago.getEstado() == Pago.EstadoPago.PENDIENTE) {
+            importe = importe.add(pago.getImporte());
+        }
+        Cambios cambios = new Cambios();
+        cambios.sumarPendiente(new ClaveVencimiento(clave(factura), pago.getFechaVencimiento()), importe);
+        aplicar(cambios);
+    }
+    
+    /**
+     * Descuenta de lo pendiente los pagos que han pasado de PENDIENTE a PAGADO
+     * en bloque (conciliación), sin cargar las entidades.
+     */
+    public void registrarCobros(Collection<Cobro> cobros) {
+        Cambios cambios = new Cambios();
+        for (Cobro cobro : cobros) {
+            cambios.sumarPendiente(new ClaveVencimiento(cobro.clave(), cobro.fechaVencimiento()),
+                cobro.importe().negate());
+        }
+        aplicar(cambios);
+    }
+    
+    /**
+     * Recalcula los agregados de todos los usuarios, uno por transacción.
+     * Desactivado por defecto; se programa con resumen-facturacion.reconstruccion.cron.
+     */
+    @Scheduled(cron = "${resumen-facturacion.reconstruccion.cron:-}")
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void reconstruir() {
+        List<Long> usuarioIds = jdbcTemplate.queryForList("SELECT id FROM usuario", Long.class);
+        for (Long usuarioId : usuarioIds) {
+            transaccion.executeWithoutResult(estado -> reconstruirUsuario(usuarioId));
+        }
+        logger.info("Resumen de facturación reconstruido para {} usuarios", usuarioIds.size());
+    }
+    
+    public void reconstruirUsuario(Long usuarioId) {
+        jdbcTemplate.update(SQL_BORRAR_VENCIMIENTOS, usuarioId);
+        jdbcTemplate.update(SQL_BORRAR_FACTURACION, usuarioId);
+        jdbcTemplate.update(SQL_RECALCULAR_FACTURACION, usuarioId);
+        jdbcTemplate.update(SQL_RECALCULAR_VENCIMIENTOS, usuarioId);
+    }
+    
+    /**
+     * Suma los cambios con un upsert por fila, en lotes y en orden de clave.
+     */
+    private void aplicar(Cambios cambios) {
+        List<Object[]> facturacion = new ArrayList<>();
+        cambios.facturacion.forEach((clave, totales) -> {
+            if (!totales.esCero()) {
+                facturacion.add(new Object[] { clave.usuarioId(), clave.ejercicio(), clave.mes(), clave.clienteId(),
+                    totales.facturas, totales.importe, totales.iva, totales.total });
+            }
+        });
+        if (!facturacion.isEmpty()) {
+            jdbcTemplate.batchUpdate(sqlSumarFacturacion, facturacion);
+        }
+        // Una fila por fecha de vencimiento
+        List<Object[]> vencimientos = new ArrayList<>();
+        cambios.vencimientos.forEach((clave, importe) -> {
+            if (importe.signum() != 0) {
+                ClaveResumen resumen = clave.resumen();
+                vencimientos.add(new Object[] { resumen.usuarioId(), resumen.ejercicio(), resumen.mes(),
+                    resumen.clienteId(), Date.valueOf(clave.fechaVencimiento()), importe });
+            }
+        });
+        if (!vencimientos.isEmpty()) {
+            jdbcTemplate.batchUpdate(sqlSumarVencimiento, vencimientos);
+        }
+    }
+    
+    private static ClaveResumen clave(Factura factura) {
+        return new ClaveResumen(factura.getUsuario().getId(), factura.getEjercicio(),
+            factura.getFechaEmision().getMonthValue(), factura.getCliente().getId());
+    }
+    
+    private static BigDecimal cero(BigDecimal importe) {
+        return importe != null ? importe : BigDecimal.ZERO;
+    }
+    
+    /**
+     * Contribución de una factura a los agregados.
+     */
+    public record Aportacion(ClaveResumen clave, BigDecimal importe, BigDecimal iva, BigDecimal total,
+                             Map<LocalDate, BigDecimal> pendientes) {
+    }
+    
+    /**
+     * Pago cobrado de una factura no anulada.
+     */
+    public record Cobro(ClaveResumen clave, LocalDate fechaVencimiento, BigDecimal importe) {
+    }
+    
+    public record ClaveResumen(Long usuarioId, Integer ejercicio, Integer mes, Long clienteId) {
+        
+        private static final Comparator<ClaveResumen> ORDEN = Comparator
+            .comparing(ClaveResumen::usuarioId)
+            .thenComparing(ClaveResumen::ejercicio)
+            .thenComparing(ClaveResumen::mes)
+            .thenComparing(ClaveResumen::clienteId);
+    }
+    
+    private record ClaveVencimiento(ClaveResumen resumen, LocalDate fechaVencimiento) {
+        
+        private static final Comparator<ClaveVencimiento> ORDEN = Comparator
+            .comparing(ClaveVencimiento::resumen, ClaveResumen.ORDEN)
+            .thenComparing(ClaveVencimiento::fechaVencimiento);
+    }
+    
+    private static class Totales {
+        private long facturas;
+        private BigDecimal importe = BigDecimal.ZERO;
+        private BigDecimal iva = BigDecimal.ZERO;
+        private BigDecimal total = BigDecimal.ZERO;
+        
+        private boolean esCero() {
+            return facturas == 0 && importe.signum() == 0 && iva.signum() == 0 && total.signum() == 0;
+        }
+    }
+    
+    private static class Cambios {
+        private final Map<ClaveResumen, Totales> facturacion = new TreeMap<>(ClaveResumen.ORDEN);
+        private final Map<ClaveVencimiento, BigDecimal> vencimientos = new TreeMap<>(ClaveVencimiento.ORDEN);
+        
+        private void sumar(Aportacion aportacion, int signo) {
+            if (aportacion == null) {
+                return;
+            }
+            BigDecimal factor = BigDecimal.valueOf(signo);
+            Totales totales = facturacion.computeIfAbsent(aportacion.clave(), clave -> new Totales());
+            totales.facturas += signo;
+            totales.importe = totales.importe.add(aportacion.importe().multiply(factor));
+            totales.iva = totales.iva.add(aportacion.iva().multiply(factor));
+            totales.total = totales.total.add(aportacion.total().multiply(factor));
+            aportacion.pendientes().forEach((fecha, importe) ->
+                sumarPendiente(new ClaveVencimiento(aportacion.clave(), fecha), importe.multiply(factor)));
+        }
+        
+        private void sumarPendiente(ClaveVencimiento clave, BigDecimal importe) {
+            vencimientos.merge(clave, importe, BigDecimal::add);
+        }
+    }
+}
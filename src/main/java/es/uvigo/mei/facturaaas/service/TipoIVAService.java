@@ -16,6 +16,9 @@ public class TipoIVAService {
     @Autowired
     private TipoIVARepository tipoIVARepository;
     
+    @Autowired
+    private DatosReferenciaCache datosReferenciaCache;
+    
     public List<TipoIVADTO> obtenerTodos() {
         return tipoIVARepository.findAll().stream()
             .map(this::convertirADTO)
@@ -23,13 +26,13 @@ public class TipoIVAService {
     }
     
     public List<TipoIVADTO> obtenerActivos() {
-        return tipoIVARepository.findByActivoTrue().stream()
+        return datosReferenciaCache.obtenerTiposIVAActivos().stream()
             .map(this::convertirADTO)
             .collect(Collectors.toList());
     }
     
     public TipoIVADTO obtenerPorId(Long id) {
-        TipoIVA tipoIVA = tipoIVARepository.findById(id)
+        TipoIVA tipoIVA = datosReferenciaCache.obtenerTipoIVA(id)
             .orElseThrow(() -> new RuntimeException("Tipo de IVA no encontrado"));
         return convertirADTO(tipoIVA);
     }
@@ -41,6 +44,7 @@ public class TipoIVAService {
         tipoIVA.setActivo(true);
         
         tipoIVA = tipoIVARepository.save(tipoIVA);
+        datosReferenciaCache.invalidarTipoIVA(tipoIVA.getId());
         return convertirADTO(tipoIVA);
     }
     
@@ -53,6 +57,7 @@ public class TipoIVAService {
         tipoIVA.setActivo(dto.getActivo());
         
         tipoIVA = tipoIVARepository.save(tipoIVA);
+        datosReferenciaCache.invalidarTipoIVA(tipoIVA.getId());
         return convertirADTO(tipoIVA);
     }
     
@@ -61,6 +66,7 @@ public class TipoIVAService {
             .orElseThrow(() -> new RuntimeException("Tipo de IVA no encontrado"));
         tipoIVA.setActivo(false);
         tipoIVARepository.save(tipoIVA);
+        datosReferenciaCache.invalidarTipoIVA(id);
     }
     
     private TipoIVADTO convertirADTO(TipoIVA tipoIVA) {
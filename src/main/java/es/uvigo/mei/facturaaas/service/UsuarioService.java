@@ -4,6 +4,7 @@ import es.uvigo.mei.facturaaas.dto.UsuarioCreateDTO;
 import es.uvigo.mei.facturaaas.dto.UsuarioDTO;
 import es.uvigo.mei.facturaaas.model.Usuario;
 import es.uvigo.mei.facturaaas.repository.UsuarioRepository;
+import es.uvigo.mei.facturaaas.security.UsuarioAutenticadoCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
@@ -22,6 +23,12 @@ public class UsuarioService {
     @Autowired
     private PasswordEncoder passwordEncoder;
     
+    @Autowired
+    private UsuarioAutenticadoCache usuarioAutenticadoCache;
+    
+    @Autowired
+    private RegistroUltimoAcceso registroUltimoAcceso;
+    
     public List<UsuarioDTO> obtenerTodos() {
         return usuarioRepository.findAll().stream()
             .map(this::convertirADTO)
@@ -47,6 +54,7 @@ public class UsuarioService {
         if (usuarioRepository.existsByEmail(dto.getEmail())) {
             throw new RuntimeException("El email ya existe");
         }
+        usuarioAutenticadoCache.invalidar(dto.getLogin());
         
         Usuario usuario = new Usuario();
         usuario.setLogin(dto.getLogin());
@@ -69,6 +77,7 @@ public class UsuarioService {
         usuario.setActivo(dto.getActivo());
         
         usuario = usuarioRepository.save(usuario);
+        usuarioAutenticadoCache.invalidar(usuario.getLogin());
         return convertirADTO(usuario);
     }
     
@@ -77,13 +86,24 @@ public class UsuarioService {
             .orElseThrow(() -> new RuntimeException("Usuario no encontrado"));
         usuario.setActivo(false);
         usuarioRepository.save(usuario);
+        usuarioAutenticadoCache.invalidar(usuario.getLogin());
     }
     
-    public void actualizarFechaAcceso(String login) {
-        Usuario usuario = usuarioRepository.findByLogin(login)
-            .orElseThrow(() -> new RuntimeException("Usuario no encontrado"));
-        usuario.setFechaUltimoAcceso(LocalDateTime.now());
-        usuarioRepository.save(usuario);
+    /**
+     * Sustituye el hash de la contraseña (recodificación tras el login).
+     */
+    public void actualizarHashPassword(Long id, String hash) {
+        usuarioRepository.actualizarPassword(id, hash);
+    }
+    
+    /**
+     * Registra el acceso de un usuario ya cargado (en el login) y devuelve su DTO,
+     * con la fecha del acceso anterior. La escritura se agrupa en RegistroUltimoAcceso.
+     */
+    public UsuarioDTO registrarAcceso(Usuario usuario) {
+        UsuarioDTO dto = convertirADTO(usuario);
+        registroUltimoAcceso.registrar(usuario.getId(), LocalDateTime.now());
+        return dto;
     }
     
     private UsuarioDTO convertirADTO(Usuario usuario) {
@@ -68,33 +68,87 @@ CREATE TABLE IF NOT EXISTS cliente (
     email VARCHAR(100),
     telefono VARCHAR(20),
     cuenta_bancaria VARCHAR(34),
+    dir3_oficina_contable VARCHAR(10),
+    dir3_organo_gestor VARCHAR(10),
+    dir3_unidad_tramitadora VARCHAR(10),
     usuario_id BIGINT NOT NULL,
     CONSTRAINT fk_cliente_usuario FOREIGN KEY (usuario_id) REFERENCES usuario(id)
 );
 
+-- Códigos DIR3 de los clientes que son administraciones públicas (Facturae)
+ALTER TABLE cliente ADD COLUMN IF NOT EXISTS dir3_oficina_contable VARCHAR(10);
+ALTER TABLE cliente ADD COLUMN IF NOT EXISTS dir3_organo_gestor VARCHAR(10);
+ALTER TABLE cliente ADD COLUMN IF NOT EXISTS dir3_unidad_tramitadora VARCHAR(10);
+
+-- Búsqueda de clientes (BuscadorClientes): nombre, NIF, localidad y email en minúsculas,
+-- sin tildes y con solo letras y dígitos, igual que IndiceClientes.normalizar
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE EXTENSION IF NOT EXISTS unaccent;
+
+CREATE OR REPLACE FUNCTION busqueda_normalizar(texto TEXT) RETURNS TEXT
+    LANGUAGE sql IMMUTABLE PARALLEL SAFE STRICT
+    AS 'SELECT trim(regexp_replace(public.unaccent(''public.unaccent'', lower(texto)), ''[^a-z0-9]+'', '' '', ''g''))';
+
+ALTER TABLE cliente ADD COLUMN IF NOT EXISTS busqueda TEXT
+    GENERATED ALWAYS AS (busqueda_normalizar(coalesce(nombre, '') || ' ' || coalesce(nif, '') || ' ' || coalesce(localidad, '') || ' ' || coalesce(email, ''))) STORED;
+ALTER TABLE cliente ADD COLUMN IF NOT EXISTS busqueda_tsv TSVECTOR
+    GENERATED ALWAYS AS (to_tsvector('simple', busqueda_normalizar(coalesce(nombre, '') || ' ' || coalesce(nif, '') || ' ' || coalesce(localidad, '') || ' ' || coalesce(email, '')))) STORED;
+
+-- Secuencias de factura, linea_factura y pago (incremento 50 = allocationSize de JPA,
+-- permite agrupar inserciones en lotes JDBC)
+CREATE SEQUENCE IF NOT EXISTS factura_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS linea_factura_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS pago_seq START WITH 1 INCREMENT BY 50;
+
 -- Tabla: factura
 CREATE TABLE IF NOT EXISTS factura (
-    id BIGSERIAL PRIMARY KEY,
+    id BIGINT PRIMARY KEY,
+    version BIGINT NOT NULL DEFAULT 0,
     numero_factura VARCHAR(20) NOT NULL,
     ejercicio INTEGER NOT NULL,
     fecha_emision DATE NOT NULL,
     estado VARCHAR(20) NOT NULL,
     comentarios TEXT,
+    clave_idempotencia VARCHAR(100),
     importe_total DECIMAL(12,2) NOT NULL DEFAULT 0,
     iva_total DECIMAL(12,2) NOT NULL DEFAULT 0,
     suma_total DECIMAL(12,2) NOT NULL DEFAULT 0,
     usuario_id BIGINT NOT NULL,
     cliente_id BIGINT NOT NULL,
     forma_pago_id BIGINT,
+    secuencia_registro BIGINT,
+    huella_anterior VARCHAR(64),
+    huella VARCHAR(64),
+    fecha_hora_registro TIMESTAMP,
     CONSTRAINT fk_factura_usuario FOREIGN KEY (usuario_id) REFERENCES usuario(id),
     CONSTRAINT fk_factura_cliente FOREIGN KEY (cliente_id) REFERENCES cliente(id),
     CONSTRAINT fk_factura_forma_pago FOREIGN KEY (forma_pago_id) REFERENCES forma_pago(id),
-    CONSTRAINT uk_factura_numero UNIQUE (numero_factura, ejercicio)
+    CONSTRAINT uk_factura_usuario_numero UNIQUE (usuario_id, numero_factura)
 );
 
+-- Bloqueo optimista (@Version) en tablas factura anteriores a la columna
+ALTER TABLE factura ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0;
+
+-- Numeración por usuario: en tablas factura anteriores el número era único en toda la
+-- aplicación (uk_factura_numero sobre numero_factura y ejercicio) y "2025/0001" de un
+-- segundo usuario la violaría
+ALTER TABLE factura DROP CONSTRAINT IF EXISTS uk_factura_numero;
+CREATE UNIQUE INDEX IF NOT EXISTS uk_factura_usuario_numero ON factura(usuario_id, numero_factura);
+
+-- Clave de idempotencia (facturas de plantillas y reintentos del API); NULL no se repite
+ALTER TABLE factura ADD COLUMN IF NOT EXISTS clave_idempotencia VARCHAR(100);
+CREATE UNIQUE INDEX IF NOT EXISTS uk_factura_clave_idempotencia ON factura(usuario_id, clave_idempotencia);
+
+-- Cadena de huellas por usuario (registros de facturación encadenados); NULL en facturas anteriores
+ALTER TABLE factura ADD COLUMN IF NOT EXISTS secuencia_registro BIGINT;
+ALTER TABLE factura ADD COLUMN IF NOT EXISTS huella_anterior VARCHAR(64);
+ALTER TABLE factura ADD COLUMN IF NOT EXISTS huella VARCHAR(64);
+ALTER TABLE factura ADD COLUMN IF NOT EXISTS fecha_hora_registro TIMESTAMP;
+CREATE UNIQUE INDEX IF NOT EXISTS uk_factura_secuencia_registro ON factura(usuario_id, secuencia_registro);
+
 -- Tabla: linea_factura
 CREATE TABLE IF NOT EXISTS linea_factura (
-    id BIGSERIAL PRIMARY KEY,
+    id BIGINT PRIMARY KEY,
     numero_linea INTEGER NOT NULL,
     concepto VARCHAR(255) NOT NULL,
     cantidad DECIMAL(10,2) NOT NULL DEFAULT 1,
@@ -109,23 +163,213 @@ CREATE TABLE IF NOT EXISTS linea_factura (
 
 -- Tabla: pago
 CREATE TABLE IF NOT EXISTS pago (
-    id BIGSERIAL PRIMARY KEY,
+    id BIGINT PRIMARY KEY,
     numero_pago INTEGER NOT NULL,
     fecha_vencimiento DATE NOT NULL,
     importe DECIMAL(12,2) NOT NULL,
     estado VARCHAR(20) NOT NULL,
     fecha_pago DATE,
+    fecha_reclamacion DATE,
+    factura_id BIGINT NOT NULL,
+    usuario_id BIGINT NOT NULL,
+    CONSTRAINT fk_pago_factura FOREIGN KEY (factura_id) REFERENCES factura(id) ON DELETE CASCADE,
+    CONSTRAINT fk_pago_usuario FOREIGN KEY (usuario_id) REFERENCES usuario(id)
+);
+
+-- Marca del barrido de vencidos en tablas pago anteriores a la columna
+ALTER TABLE pago ADD COLUMN IF NOT EXISTS fecha_reclamacion DATE;
+
+-- Usuario de la factura en tablas pago anteriores a la columna (listados por usuario)
+ALTER TABLE pago ADD COLUMN IF NOT EXISTS usuario_id BIGINT;
+UPDATE pago p SET usuario_id = f.usuario_id FROM factura f WHERE f.id = p.factura_id AND p.usuario_id IS NULL;
+ALTER TABLE pago ALTER COLUMN usuario_id SET NOT NULL;
+-- Clave ajena solo si falta (cuerpo del DO entre comillas simples: el separador de
+-- sentencias de spring.sql.init no reconoce $$ y cortaría el bloque en cada ;)
+DO 'BEGIN
+    IF NOT EXISTS (SELECT 1 FROM pg_constraint
+                   WHERE conrelid = ''pago''::regclass AND conname = ''fk_pago_usuario'') THEN
+        ALTER TABLE pago ADD CONSTRAINT fk_pago_usuario FOREIGN KEY (usuario_id) REFERENCES usuario(id);
+    END IF;
+END';
+
+-- Tabla: factura_desglose_iva (base y cuota por porcentaje de IVA, ver Factura.calcularTotales)
+CREATE SEQUENCE IF NOT EXISTS factura_desglose_iva_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS factura_desglose_iva (
+    id BIGINT PRIMARY KEY,
+    porcentaje DECIMAL(5,2) NOT NULL,
+    base DECIMAL(12,2) NOT NULL,
+    cuota DECIMAL(12,2) NOT NULL,
+    factura_id BIGINT NOT NULL,
+    CONSTRAINT fk_factura_desglose_iva_factura FOREIGN KEY (factura_id) REFERENCES factura(id) ON DELETE CASCADE
+);
+
+-- Bases de datos previas (ids BIGSERIAL): adelantar las secuencias por encima del id máximo
+SELECT setval('factura_seq', GREATEST((SELECT COALESCE(MAX(id), 0) FROM factura) + 50, (SELECT last_value FROM factura_seq)));
+SELECT setval('linea_factura_seq', GREATEST((SELECT COALESCE(MAX(id), 0) FROM linea_factura) + 50, (SELECT last_value FROM linea_factura_seq)));
+SELECT setval('pago_seq', GREATEST((SELECT COALESCE(MAX(id), 0) FROM pago) + 50, (SELECT last_value FROM pago_seq)));
+
+-- Desglose de IVA de las facturas anteriores a factura_desglose_iva (mismas reglas de
+-- redondeo). Las facturas anteriores a CalculadoraTotales guardaron un iva_total
+-- redondeado una sola vez sobre las cuotas de línea, que puede diferir en céntimos de la
+-- suma de cuotas redondeadas por tipo: la diferencia va a la cuota mayor, para que el
+-- desglose sume siempre el iva_total de la factura
+INSERT INTO factura_desglose_iva (id, factura_id, porcentaje, base, cuota)
+SELECT nextval('factura_desglose_iva_seq'), d.factura_id, d.porcentaje, d.base,
+       d.cuota + CASE WHEN d.orden = 1 THEN f.iva_total - d.suma_cuotas ELSE 0 END
+FROM (SELECT b.factura_id, b.porcentaje, b.base, ROUND(b.base * b.porcentaje / 100, 2) AS cuota,
+             SUM(ROUND(b.base * b.porcentaje / 100, 2)) OVER (PARTITION BY b.factura_id) AS suma_cuotas,
+             ROW_NUMBER() OVER (PARTITION BY b.factura_id
+                                ORDER BY ABS(b.base * b.porcentaje) DESC, b.porcentaje DESC) AS orden
+      FROM (SELECT l.factura_id, t.porcentaje, SUM(l.importe_total) AS base
+            FROM linea_factura l JOIN tipo_iva t ON t.id = l.tipo_iva_id
+            WHERE NOT EXISTS (SELECT 1 FROM factura_desglose_iva e WHERE e.factura_id = l.factura_id)
+            GROUP BY l.factura_id, t.porcentaje) b) d
+JOIN factura f ON f.id = d.factura_id;
+
+-- Tabla: contador_factura (numeración por usuario y ejercicio)
+CREATE TABLE IF NOT EXISTS contador_factura (
+    id BIGSERIAL PRIMARY KEY,
+    usuario_id BIGINT NOT NULL,
+    ejercicio INTEGER NOT NULL,
+    ultimo_numero BIGINT NOT NULL DEFAULT 0,
+    CONSTRAINT fk_contador_factura_usuario FOREIGN KEY (usuario_id) REFERENCES usuario(id),
+    CONSTRAINT uk_contador_factura UNIQUE (usuario_id, ejercicio)
+);
+
+-- Tabla: cadena_factura (último eslabón de la cadena de huellas de cada usuario)
+CREATE TABLE IF NOT EXISTS cadena_factura (
+    id BIGSERIAL PRIMARY KEY,
+    usuario_id BIGINT NOT NULL,
+    ultima_secuencia BIGINT NOT NULL DEFAULT 0,
+    ultima_huella VARCHAR(64),
+    CONSTRAINT fk_cadena_factura_usuario FOREIGN KEY (usuario_id) REFERENCES usuario(id),
+    CONSTRAINT uk_cadena_factura UNIQUE (usuario_id)
+);
+
+-- Tablas agregadas del cuadro de mando, mantenidas por la aplicación
+-- (sin claves ajenas: las filas se crean o suman con INSERT ... ON CONFLICT DO UPDATE)
+CREATE TABLE IF NOT EXISTS resumen_facturacion (
+    id BIGSERIAL PRIMARY KEY,
+    usuario_id BIGINT NOT NULL,
+    ejercicio INTEGER NOT NULL,
+    mes INTEGER NOT NULL,
+    cliente_id BIGINT NOT NULL,
+    numero_facturas BIGINT NOT NULL DEFAULT 0,
+    importe_total DECIMAL(14,2) NOT NULL DEFAULT 0,
+    iva_total DECIMAL(14,2) NOT NULL DEFAULT 0,
+    suma_total DECIMAL(14,2) NOT NULL DEFAULT 0,
+    CONSTRAINT uk_resumen_facturacion UNIQUE (usuario_id, ejercicio, mes, cliente_id)
+);
+
+CREATE TABLE IF NOT EXISTS resumen_vencimiento (
+    id BIGSERIAL PRIMARY KEY,
+    usuario_id BIGINT NOT NULL,
+    ejercicio INTEGER NOT NULL,
+    mes INTEGER NOT NULL,
+    cliente_id BIGINT NOT NULL,
+    fecha_vencimiento DATE NOT NULL,
+    importe_pendiente DECIMAL(14,2) NOT NULL DEFAULT 0,
+    CONSTRAINT uk_resumen_vencimiento UNIQUE (usuario_id, ejercicio, mes, cliente_id, fecha_vencimiento)
+);
+
+-- Tabla: plantilla_factura (facturas recurrentes, ver GeneracionPlantillasService)
+CREATE TABLE IF NOT EXISTS plantilla_factura (
+    id BIGSERIAL PRIMARY KEY,
+    usuario_id BIGINT NOT NULL,
+    cliente_id BIGINT NOT NULL,
+    forma_pago_id BIGINT NOT NULL,
+    comentarios VARCHAR(500),
+    periodicidad VARCHAR(20) NOT NULL,
+    fecha_inicio DATE NOT NULL,
+    fecha_fin DATE,
+    proxima_fecha DATE NOT NULL,
+    facturas_generadas INTEGER NOT NULL DEFAULT 0,
+    activa BOOLEAN NOT NULL DEFAULT TRUE,
+    ultimo_error VARCHAR(500),
+    CONSTRAINT fk_plantilla_factura_usuario FOREIGN KEY (usuario_id) REFERENCES usuario(id),
+    CONSTRAINT fk_plantilla_factura_cliente FOREIGN KEY (cliente_id) REFERENCES cliente(id),
+    CONSTRAINT fk_plantilla_factura_forma_pago FOREIGN KEY (forma_pago_id) REFERENCES forma_pago(id)
+);
+
+-- Tabla: linea_plantilla_factura
+CREATE TABLE IF NOT EXISTS linea_plantilla_factura (
+    id BIGSERIAL PRIMARY KEY,
+    numero_linea INTEGER NOT NULL,
+    concepto VARCHAR(300) NOT NULL,
+    cantidad DECIMAL(10,2) NOT NULL DEFAULT 1,
+    precio_unitario DECIMAL(10,2) NOT NULL,
+    porcentaje_descuento DECIMAL(5,2) DEFAULT 0,
+    plantilla_id BIGINT NOT NULL,
+    tipo_iva_id BIGINT NOT NULL,
+    CONSTRAINT fk_linea_plantilla_factura_plantilla FOREIGN KEY (plantilla_id) REFERENCES plantilla_factura(id) ON DELETE CASCADE,
+    CONSTRAINT fk_linea_plantilla_factura_tipo_iva FOREIGN KEY (tipo_iva_id) REFERENCES tipo_iva(id)
+);
+
+-- Tabla: bloqueo_tarea (arrendamiento para que una tarea programada se ejecute en un solo nodo)
+CREATE TABLE IF NOT EXISTS bloqueo_tarea (
+    nombre VARCHAR(100) PRIMARY KEY,
+    propietario VARCHAR(200) NOT NULL,
+    bloqueado_hasta TIMESTAMP NOT NULL
+);
+
+-- Tabla: evento_factura (bandeja de salida de eventos de facturas y pagos; sin claves
+-- ajenas: las filas se insertan con JDBC, al publicarlas se numeran por lote y se
+-- borran pasada la retención, cuando todos los nodos las han leído)
+CREATE TABLE IF NOT EXISTS evento_factura (
+    id BIGSERIAL PRIMARY KEY,
+    tipo VARCHAR(30) NOT NULL,
+    usuario_id BIGINT NOT NULL,
     factura_id BIGINT NOT NULL,
-    CONSTRAINT fk_pago_factura FOREIGN KEY (factura_id) REFERENCES factura(id) ON DELETE CASCADE
+    numero_factura VARCHAR(50),
+    estado_factura VARCHAR(20),
+    pago_id BIGINT,
+    estado_pago VARCHAR(20),
+    importe DECIMAL(12,2),
+    fecha_creacion TIMESTAMP NOT NULL,
+    publicacion BIGINT,
+    fecha_publicacion TIMESTAMP
 );
 
+-- Lote de publicación, en tablas evento_factura anteriores a la columna
+ALTER TABLE evento_factura ADD COLUMN IF NOT EXISTS publicacion BIGINT;
+ALTER TABLE evento_factura ADD COLUMN IF NOT EXISTS fecha_publicacion TIMESTAMP;
+
 -- Índices para mejorar rendimiento
 CREATE INDEX IF NOT EXISTS idx_usuario_login ON usuario(login);
 CREATE INDEX IF NOT EXISTS idx_cliente_usuario ON cliente(usuario_id);
+CREATE INDEX IF NOT EXISTS idx_cliente_busqueda_trgm ON cliente USING gin (busqueda gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS idx_cliente_busqueda_tsv ON cliente USING gin (busqueda_tsv);
 CREATE INDEX IF NOT EXISTS idx_factura_usuario ON factura(usuario_id);
 CREATE INDEX IF NOT EXISTS idx_factura_cliente ON factura(cliente_id);
 CREATE INDEX IF NOT EXISTS idx_factura_ejercicio ON factura(ejercicio);
 CREATE INDEX IF NOT EXISTS idx_linea_factura_factura ON linea_factura(factura_id);
 CREATE INDEX IF NOT EXISTS idx_pago_factura ON pago(factura_id);
+CREATE INDEX IF NOT EXISTS idx_factura_desglose_iva_factura ON factura_desglose_iva(factura_id);
 CREATE INDEX IF NOT EXISTS idx_pago_estado ON pago(estado);
 CREATE INDEX IF NOT EXISTS idx_forma_pago_usuario ON forma_pago(usuario_id);
+
+-- Índices para los listados paginados por cursor (keyset) con filtros
+CREATE INDEX IF NOT EXISTS idx_factura_usuario_fecha ON factura(usuario_id, fecha_emision DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_factura_usuario_estado_fecha ON factura(usuario_id, estado, fecha_emision DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_factura_usuario_ejercicio_fecha ON factura(usuario_id, ejercicio, fecha_emision DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_factura_usuario_cliente_fecha ON factura(usuario_id, cliente_id, fecha_emision DESC, id DESC);
+DROP INDEX IF EXISTS idx_pago_factura_vencimiento;
+CREATE INDEX IF NOT EXISTS idx_pago_usuario_vencimiento ON pago(usuario_id, fecha_vencimiento DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_pago_usuario_estado_vencimiento ON pago(usuario_id, estado, fecha_vencimiento DESC, id DESC);
+
+-- Barrido de vencidos: pagos pendientes vencidos (facturas a reclamar, que incluyen
+-- las de pagos ya reclamados) y, de ellos, los aún sin reclamar
+CREATE INDEX IF NOT EXISTS idx_pago_estado_vencimiento ON pago(estado, fecha_vencimiento);
+CREATE INDEX IF NOT EXISTS idx_pago_pendiente_sin_reclamar ON pago(fecha_vencimiento)
+    WHERE estado = 'PENDIENTE' AND fecha_reclamacion IS NULL;
+
+-- Generación de plantillas: pendientes por usuario y fecha
+CREATE INDEX IF NOT EXISTS idx_plantilla_factura_pendiente ON plantilla_factura(usuario_id, proxima_fecha, id)
+    WHERE activa;
+CREATE INDEX IF NOT EXISTS idx_linea_plantilla_factura_plantilla ON linea_plantilla_factura(plantilla_id);
+
+-- Bandeja de eventos: pendientes de publicar, en orden de id, y ya publicados, que
+-- cada nodo lee por lote para sus suscripciones SSE
+CREATE INDEX IF NOT EXISTS idx_evento_factura_pendiente ON evento_factura(id) WHERE publicacion IS NULL;
+CREATE INDEX IF NOT EXISTS idx_evento_factura_publicacion ON evento_factura(publicacion, id);
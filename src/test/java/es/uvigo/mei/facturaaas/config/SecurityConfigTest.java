@@ -0,0 +1,59 @@
+package es.uvigo.mei.facturaaas.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Acceso a Actuator: la salud es pública y las métricas (barrido.vencidos.*, cachés)
+ * solo las ve un administrador.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+	properties = "management.endpoints.web.exposure.include=health,info,metrics")
+class SecurityConfigTest {
+
+	private static final String METRICA = "/actuator/metrics/barrido.vencidos.pagos";
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	private final HttpClient http = HttpClient.newHttpClient();
+
+	@Test
+	void lasMetricasSoloLasVeUnAdministrador() throws Exception {
+		assertEquals(200, get(null, "/actuator/health").statusCode());
+		assertEquals(403, get(null, METRICA).statusCode());
+		assertEquals(403, get(token("user", "user123"), METRICA).statusCode());
+
+		HttpResponse<String> respuesta = get(token("admin", "admin123"), METRICA);
+		assertEquals(200, respuesta.statusCode());
+		assertEquals("barrido.vencidos.pagos", objectMapper.readTree(respuesta.body()).path("name").asText());
+	}
+
+	private HttpResponse<String> get(String token, String ruta) throws Exception {
+		HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + ruta)).GET();
+		if (token != null) {
+			request.header("Authorization", "Bearer " + token);
+		}
+		return http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+	}
+
+	private String token(String login, String password) throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/auth/login"))
+			.header("Content-Type", "application/json")
+			.POST(HttpRequest.BodyPublishers.ofString("{\"login\":\"" + login + "\",\"password\":\"" + password + "\"}"))
+			.build();
+		return objectMapper.readTree(http.send(request, HttpResponse.BodyHandlers.ofString()).body()).path("token").asText();
+	}
+}
@@ -0,0 +1,58 @@
+package es.uvigo.mei.facturaaas.controller;
+
+import es.uvigo.mei.facturaaas.model.Usuario;
+import es.uvigo.mei.facturaaas.repository.UsuarioRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Login: recodificación de hash antiguos y credenciales incorrectas.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class AuthControllerTest {
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private UsuarioRepository usuarioRepository;
+
+	private final HttpClient http = HttpClient.newHttpClient();
+
+	@Test
+	void loginRecodificaHashSinPrefijoYConCosteBajo() throws Exception {
+		Usuario usuario = usuarioRepository.findByLogin("user").orElseThrow();
+		usuario.setPassword(new BCryptPasswordEncoder(4).encode("user123"));
+		usuarioRepository.save(usuario);
+
+		assertEquals(200, login("user", "user123").statusCode());
+
+		String hash = usuarioRepository.findByLogin("user").orElseThrow().getPassword();
+		assertTrue(hash.startsWith("{bcrypt}$2a$10$"), hash);
+		assertEquals(200, login("user", "user123").statusCode());
+		assertEquals(hash, usuarioRepository.findByLogin("user").orElseThrow().getPassword());
+	}
+
+	@Test
+	void loginConPasswordIncorrectaDevuelve401() throws Exception {
+		assertEquals(401, login("user", "incorrecta").statusCode());
+	}
+
+	private HttpResponse<String> login(String login, String password) throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/auth/login"))
+			.header("Content-Type", "application/json")
+			.POST(HttpRequest.BodyPublishers.ofString("{\"login\":\"" + login + "\",\"password\":\"" + password + "\"}"))
+			.build();
+		return http.send(request, HttpResponse.BodyHandlers.ofString());
+	}
+}
@@ -0,0 +1,142 @@
+package es.uvigo.mei.facturaaas.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import es.uvigo.mei.facturaaas.dto.EventoFacturaDTO;
+import es.uvigo.mei.facturaaas.model.EventoFactura.TipoEvento;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.service.BandejaEventos;
+import es.uvigo.mei.facturaaas.service.DifusorEventos;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Suscripciones SSE: cada usuario recibe solo sus eventos, en orden, leídos de la
+ * bandeja ya publicada (no hace falta ser el nodo que publica), y no puede
+ * suscribirse a los de otro.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class EventoControllerTest {
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private DifusorEventos difusorEventos;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	private final HttpClient http = HttpClient.newHttpClient();
+
+	@Test
+	void elSuscriptorRecibeSoloSusEventosEnOrden() throws Exception {
+		JsonNode sesion = login("user", "user123");
+		Long usuarioId = sesion.path("usuario").path("id").asLong();
+		HttpResponse<Stream<String>> respuesta = suscribir(sesion.path("token").asText(), usuarioId);
+		assertEquals(200, respuesta.statusCode());
+		assertEquals("text/event-stream", respuesta.headers().firstValue("Content-Type").orElse("").split(";")[0]);
+
+		// Fija la posición de lectura del nodo antes de añadir los eventos
+		difusorEventos.leerPublicados();
+		// Ya publicados por otro nodo: este solo los lee. Facturas con id negativo para
+		// distinguirlos de los que publique la propia aplicación
+		long publicacion = jdbcTemplate.queryForObject(
+			"SELECT COALESCE(MAX(publicacion), 0) FROM evento_factura", Long.class) + 1;
+		publicado(publicacion, usuarioId + 1000, -10L);
+		publicado(publicacion, usuarioId, -20L);
+		publicado(publicacion, usuarioId, -21L);
+
+		try (Stream<String> lineas = respuesta.body()) {
+			Iterator<String> iterador = lineas.iterator();
+			List<EventoFacturaDTO> recibidos = new ArrayList<>();
+			CompletableFuture.runAsync(() -> {
+				while (recibidos.size() < 2 && iterador.hasNext()) {
+					String linea = iterador.next();
+					if (linea.startsWith("data:")) {
+						EventoFacturaDTO evento = leer(linea.substring(5));
+						if (evento.getFacturaId() < 0) {
+							recibidos.add(evento);
+						}
+					}
+				}
+			}).get(10, TimeUnit.SECONDS);
+			assertEquals(List.of(-20L, -21L), recibidos.stream().map(EventoFacturaDTO::getFacturaId).toList());
+			assertEquals(TipoEvento.FACTURA_CREADA, recibidos.get(0).getTipo());
+			assertTrue(recibidos.get(0).getId() < recibidos.get(1).getId());
+		}
+	}
+
+	@Test
+	void noSePuedeSuscribirALosEventosDeOtroUsuario() throws Exception {
+		JsonNode sesion = login("user", "user123");
+		Long usuarioId = sesion.path("usuario").path("id").asLong();
+		HttpResponse<Stream<String>> respuesta = suscribir(sesion.path("token").asText(), usuarioId + 1000);
+		respuesta.body().close();
+		assertEquals(403, respuesta.statusCode());
+	}
+
+	private static EventoFacturaDTO evento(Long id, Long usuarioId, Long facturaId) {
+		EventoFacturaDTO evento = BandejaEventos.evento(TipoEvento.FACTURA_CREADA, usuarioId, facturaId,
+			"2025/" + facturaId, Factura.EstadoFactura.EMITIDA, null, null, new BigDecimal("121.00"));
+		evento.setId(id);
+		return evento;
+	}
+
+	private void publicado(long publicacion, Long usuarioId, Long facturaId) {
+		Timestamp ahora = Timestamp.valueOf(LocalDateTime.now());
+		jdbcTemplate.update("INSERT INTO evento_factura (tipo, usuario_id, factura_id, numero_factura, estado_factura, " +
+			"importe, fecha_creacion, publicacion, fecha_publicacion) VALUES ('FACTURA_CREADA', ?, ?, ?, 'EMITIDA', " +
+			"121.00, ?, ?, ?)", usuarioId, facturaId, "2025/" + facturaId, ahora, publicacion, ahora);
+	}
+
+	private EventoFacturaDTO leer(String json) {
+		try {
+			return objectMapper.readValue(json, EventoFacturaDTO.class);
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private HttpResponse<Stream<String>> suscribir(String token, Long usuarioId) throws Exception {
+		return http.send(peticion(token, usuarioId), HttpResponse.BodyHandlers.ofLines());
+	}
+
+	private HttpRequest peticion(String token, Long usuarioId) {
+		return HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/eventos?usuarioId=" + usuarioId))
+			.header("Authorization", "Bearer " + token)
+			.header("Accept", "text/event-stream")
+			.GET()
+			.build();
+	}
+
+	private JsonNode login(String login, String password) throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/auth/login"))
+			.header("Content-Type", "application/json")
+			.POST(HttpRequest.BodyPublishers.ofString("{\"login\":\"" + login + "\",\"password\":\"" + password + "\"}"))
+			.build();
+		return objectMapper.readTree(http.send(request, HttpResponse.BodyHandlers.ofString()).body());
+	}
+}
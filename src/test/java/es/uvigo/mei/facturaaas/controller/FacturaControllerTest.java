@@ -0,0 +1,125 @@
+package es.uvigo.mei.facturaaas.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import es.uvigo.mei.facturaaas.dto.ClienteDTO;
+import es.uvigo.mei.facturaaas.dto.FacturaDTO;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.repository.FormaPagoRepository;
+import es.uvigo.mei.facturaaas.service.ClienteService;
+import es.uvigo.mei.facturaaas.service.FacturaService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Errores del API de facturas que el cliente debe poder distinguir por su código HTTP.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class FacturaControllerTest {
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private FacturaService facturaService;
+
+	@Autowired
+	private ClienteService clienteService;
+
+	@Autowired
+	private FormaPagoRepository formaPagoRepository;
+
+	private final HttpClient http = HttpClient.newHttpClient();
+
+	@Test
+	void unCursorNoValidoDevuelve400() throws Exception {
+		JsonNode sesion = login("user", "user123");
+		Long usuarioId = sesion.path("usuario").path("id").asLong();
+		String token = sesion.path("token").asText();
+
+		for (String ruta : new String[] {"/api/facturas/pagina", "/api/pagos/pagina"}) {
+			HttpResponse<String> respuesta = get(token, ruta + "?usuarioId=" + usuarioId + "&cursor=no-es-un-cursor");
+			assertEquals(400, respuesta.statusCode(), ruta);
+			assertEquals("Cursor no válido", objectMapper.readTree(respuesta.body()).path("message").asText());
+		}
+		assertEquals(200, get(token, "/api/facturas/pagina?usuarioId=" + usuarioId + "&limite=100000").statusCode());
+	}
+
+	@Test
+	void unaModificacionConVersionAntiguaDevuelve409YSinVersion400() throws Exception {
+		JsonNode sesion = login("user", "user123");
+		Long usuarioId = sesion.path("usuario").path("id").asLong();
+		String token = sesion.path("token").asText();
+		String ruta = "/api/facturas/" + factura(usuarioId);
+
+		ObjectNode leida = (ObjectNode) objectMapper.readTree(get(token, ruta).body());
+		leida.put("comentarios", "Primera edición");
+		assertEquals(200, put(token, ruta, leida).statusCode());
+
+		leida.put("comentarios", "Edición con la versión ya superada");
+		HttpResponse<String> conflicto = put(token, ruta, leida);
+		assertEquals(409, conflicto.statusCode());
+		assertEquals(409, objectMapper.readTree(conflicto.body()).path("status").asInt());
+
+		leida.remove("version");
+		HttpResponse<String> sinVersion = put(token, ruta, leida);
+		assertEquals(400, sinVersion.statusCode());
+		assertEquals("La versión de la factura es obligatoria",
+			objectMapper.readTree(sinVersion.body()).path("message").asText());
+		assertEquals("Primera edición", objectMapper.readTree(get(token, ruta).body()).path("comentarios").asText());
+	}
+
+	private Long factura(Long usuarioId) {
+		ClienteDTO cliente = new ClienteDTO();
+		cliente.setUsuarioId(usuarioId);
+		cliente.setNombre("Cliente de prueba");
+		cliente.setNif("12345678Z");
+
+		FacturaDTO factura = new FacturaDTO();
+		factura.setUsuarioId(usuarioId);
+		factura.setClienteId(clienteService.crear(cliente).getId());
+		factura.setFormaPagoId(formaPagoRepository.findByUsuarioId(usuarioId).get(0).getId());
+		factura.setEjercicio(2025);
+		factura.setFechaEmision(LocalDate.of(2025, 2, 3));
+		factura.setEstado(Factura.EstadoFactura.EMITIDA);
+		return facturaService.crear(factura).getId();
+	}
+
+	private HttpResponse<String> put(String token, String ruta, JsonNode cuerpo) throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + ruta))
+			.header("Authorization", "Bearer " + token)
+			.header("Content-Type", "application/json")
+			.PUT(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(cuerpo)))
+			.build();
+		return http.send(request, HttpResponse.BodyHandlers.ofString());
+	}
+
+	private HttpResponse<String> get(String token, String ruta) throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + ruta))
+			.header("Authorization", "Bearer " + token)
+			.GET()
+			.build();
+		return http.send(request, HttpResponse.BodyHandlers.ofString());
+	}
+
+	private JsonNode login(String login, String password) throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/auth/login"))
+			.header("Content-Type", "application/json")
+			.POST(HttpRequest.BodyPublishers.ofString("{\"login\":\"" + login + "\",\"password\":\"" + password + "\"}"))
+			.build();
+		return objectMapper.readTree(http.send(request, HttpResponse.BodyHandlers.ofString()).body());
+	}
+}
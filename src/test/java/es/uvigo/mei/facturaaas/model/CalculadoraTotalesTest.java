@@ -0,0 +1,133 @@
+package es.uvigo.mei.facturaaas.model;
+
+import org.junit.jupiter.api.Test;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Comparación de CalculadoraTotales con una implementación de referencia en
+ * BigDecimal sobre facturas aleatorias (semilla fija) de 1 a 1000 líneas.
+ */
+class CalculadoraTotalesTest {
+
+	private static final BigDecimal[] PORCENTAJES = {
+		new BigDecimal("0"), new BigDecimal("4"), new BigDecimal("4.00"), new BigDecimal("10"),
+		new BigDecimal("21"), new BigDecimal("21.00"), new BigDecimal("5.5")
+	};
+
+	@Test
+	void redondeaLineaUnaVezYCuotaPorTipo() {
+		List<LineaFactura> lineas = List.of(
+			linea("0.10", "1", "0", "21"),
+			linea("0.10", "1", "0", "21"),
+			linea("0.10", "1", "0", "21"),
+			linea("33.33", "3", "10", "10"));
+
+		CalculadoraTotales.Totales totales = CalculadoraTotales.calcular(lineas);
+
+		// 99.99 - 10 % = 89.991 -> 89.99; cuotas: 89.99 al 10 % = 8.999 -> 9.00 y 0.30 al 21 % = 0.063 -> 0.06
+		assertEquals(new BigDecimal("89.99"), lineas.get(3).getImporteTotal());
+		assertEquals(2, totales.desglose().size());
+		assertEquals(new BigDecimal("9.00"), totales.desglose().get(0).cuota());
+		assertEquals(new BigDecimal("0.06"), totales.desglose().get(1).cuota());
+		assertEquals(new BigDecimal("90.29"), totales.importeTotal());
+		assertEquals(new BigDecimal("9.06"), totales.ivaTotal());
+		assertEquals(new BigDecimal("99.35"), totales.sumaTotal());
+	}
+
+	@Test
+	void facturaSinLineasTotalizaCero() {
+		CalculadoraTotales.Totales totales = CalculadoraTotales.calcular(List.of());
+		assertEquals(new BigDecimal("0.00"), totales.sumaTotal());
+		assertEquals(0, totales.desglose().size());
+	}
+
+	@Test
+	void coincideConLaReferenciaEnFacturasAleatorias() {
+		Random random = new Random(20261018L);
+		for (int i = 0; i < 300; i++) {
+			int numeroLineas = i < 3 ? new int[] { 1, 1000, 999 }[i] : 1 + random.nextInt(random.nextBoolean() ? 20 : 1000);
+			List<LineaFactura> lineas = lineasAleatorias(random, numeroLineas);
+
+			CalculadoraTotales.Totales totales = CalculadoraTotales.calcular(lineas);
+			CalculadoraTotales.Totales esperado = referencia(lineas);
+
+			String factura = "factura " + i + " con " + numeroLineas + " líneas";
+			assertEquals(esperado.importeTotal(), totales.importeTotal(), factura);
+			assertEquals(esperado.ivaTotal(), totales.ivaTotal(), factura);
+			assertEquals(esperado.sumaTotal(), totales.sumaTotal(), factura);
+			assertEquals(esperado.desglose().size(), totales.desglose().size(), factura);
+			for (int j = 0; j < esperado.desglose().size(); j++) {
+				CalculadoraTotales.ImporteIVA tipo = totales.desglose().get(j);
+				// 21 y 21.00 son el mismo tipo; la escala del porcentaje no importa
+				assertEquals(0, esperado.desglose().get(j).porcentaje().compareTo(tipo.porcentaje()), factura);
+				assertEquals(esperado.desglose().get(j).base(), tipo.base(), factura);
+				assertEquals(esperado.desglose().get(j).cuota(), tipo.cuota(), factura);
+			}
+		}
+	}
+
+	/**
+	 * Mismas reglas que CalculadoraTotales, escritas de la forma más directa posible.
+	 */
+	private static CalculadoraTotales.Totales referencia(List<LineaFactura> lineas) {
+		Map<BigDecimal, BigDecimal> bases = new TreeMap<>();
+		for (LineaFactura linea : lineas) {
+			BigDecimal subtotal = linea.getPrecioUnitario().multiply(linea.getCantidad());
+			BigDecimal descuento = subtotal.multiply(linea.getPorcentajeDescuento()).divide(new BigDecimal("100"));
+			BigDecimal importe = subtotal.subtract(descuento).setScale(2, RoundingMode.HALF_UP);
+			assertEquals(importe, linea.getImporteTotal());
+			bases.merge(linea.getTipoIVA().getPorcentaje().stripTrailingZeros(), importe, BigDecimal::add);
+		}
+		BigDecimal importeTotal = new BigDecimal("0.00");
+		BigDecimal ivaTotal = new BigDecimal("0.00");
+		List<CalculadoraTotales.ImporteIVA> desglose = new ArrayList<>();
+		for (Map.Entry<BigDecimal, BigDecimal> base : bases.entrySet()) {
+			BigDecimal cuota = base.getValue().multiply(base.getKey())
+				.divide(new BigDecimal("100")).setScale(2, RoundingMode.HALF_UP);
+			desglose.add(new CalculadoraTotales.ImporteIVA(base.getKey(), base.getValue(), cuota));
+			importeTotal = importeTotal.add(base.getValue());
+			ivaTotal = ivaTotal.add(cuota);
+		}
+		return new CalculadoraTotales.Totales(importeTotal, ivaTotal, importeTotal.add(ivaTotal), desglose);
+	}
+
+	private static List<LineaFactura> lineasAleatorias(Random random, int numeroLineas) {
+		List<LineaFactura> lineas = new ArrayList<>(numeroLineas);
+		for (int i = 0; i < numeroLineas; i++) {
+			BigDecimal precio = BigDecimal.valueOf(1 + random.nextInt(999_999), 2);
+			BigDecimal cantidad = random.nextInt(4) == 0
+				? BigDecimal.valueOf(1 + random.nextInt(99_999), 2)
+				: BigDecimal.valueOf(1 + random.nextInt(20));
+			BigDecimal descuento = random.nextInt(3) == 0
+				? BigDecimal.valueOf(random.nextInt(5_001), 2)
+				: BigDecimal.ZERO;
+			BigDecimal porcentaje = PORCENTAJES[random.nextInt(PORCENTAJES.length)];
+			lineas.add(linea(precio, cantidad, descuento, porcentaje));
+		}
+		return lineas;
+	}
+
+	private static LineaFactura linea(String precio, String cantidad, String descuento, String porcentaje) {
+		return linea(new BigDecimal(precio), new BigDecimal(cantidad), new BigDecimal(descuento), new BigDecimal(porcentaje));
+	}
+
+	private static LineaFactura linea(BigDecimal precio, BigDecimal cantidad, BigDecimal descuento, BigDecimal porcentaje) {
+		TipoIVA tipoIVA = new TipoIVA();
+		tipoIVA.setPorcentaje(porcentaje);
+		LineaFactura linea = new LineaFactura();
+		linea.setPrecioUnitario(precio);
+		linea.setCantidad(cantidad);
+		linea.setPorcentajeDescuento(descuento);
+		linea.setTipoIVA(tipoIVA);
+		linea.calcularImporteTotal();
+		return linea;
+	}
+}
@@ -0,0 +1,71 @@
+package es.uvigo.mei.facturaaas.model;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Desglose de IVA de las facturas anteriores a factura_desglose_iva, con la sentencia de
+ * schema-postgresql.sql (H2 en modo PostgreSQL): las cuotas por tipo suman siempre el
+ * iva_total guardado, aunque este se redondeara de otra forma.
+ */
+class DesgloseIVAMigracionTest {
+
+	private static final String INICIO = "INSERT INTO factura_desglose_iva";
+
+	@Test
+	void elDesgloseRecuperadoSumaElIvaTotalGuardado() throws IOException {
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(
+			"jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", ""));
+		jdbcTemplate.execute("CREATE SEQUENCE factura_desglose_iva_seq START WITH 1 INCREMENT BY 50");
+		jdbcTemplate.execute("CREATE TABLE factura (id BIGINT PRIMARY KEY, iva_total DECIMAL(12,2) NOT NULL)");
+		jdbcTemplate.execute("CREATE TABLE tipo_iva (id BIGINT PRIMARY KEY, porcentaje DECIMAL(5,2) NOT NULL)");
+		jdbcTemplate.execute("CREATE TABLE linea_factura (id BIGINT PRIMARY KEY, factura_id BIGINT NOT NULL, " +
+			"tipo_iva_id BIGINT NOT NULL, importe_total DECIMAL(12,2) NOT NULL)");
+		jdbcTemplate.execute("CREATE TABLE factura_desglose_iva (id BIGINT PRIMARY KEY, factura_id BIGINT NOT NULL, " +
+			"porcentaje DECIMAL(5,2) NOT NULL, base DECIMAL(12,2) NOT NULL, cuota DECIMAL(12,2) NOT NULL)");
+		jdbcTemplate.update("INSERT INTO tipo_iva VALUES (1, 21), (2, 10)");
+		// 1: cuotas de línea 0,105 y 0,005 guardadas como 0,11; por tipo redondean a 0,11 y 0,01
+		jdbcTemplate.update("INSERT INTO factura VALUES (1, 0.11), (2, 26.25), (3, 2.10)");
+		jdbcTemplate.update("INSERT INTO linea_factura VALUES (1, 1, 1, 0.50), (2, 1, 2, 0.05), " +
+			"(3, 2, 1, 100.00), (4, 2, 2, 52.50), (5, 3, 1, 10.00)");
+		// 3: ya tiene desglose
+		jdbcTemplate.update("INSERT INTO factura_desglose_iva VALUES (1000, 3, 21, 10.00, 2.10)");
+
+		jdbcTemplate.update(recuperacion());
+		jdbcTemplate.update(recuperacion());
+
+		assertEquals(List.of(
+			Map.of("factura_id", 1L, "porcentaje", new BigDecimal("10.00"), "base", new BigDecimal("0.05"),
+				"cuota", new BigDecimal("0.01")),
+			Map.of("factura_id", 1L, "porcentaje", new BigDecimal("21.00"), "base", new BigDecimal("0.50"),
+				"cuota", new BigDecimal("0.10")),
+			Map.of("factura_id", 2L, "porcentaje", new BigDecimal("10.00"), "base", new BigDecimal("52.50"),
+				"cuota", new BigDecimal("5.25")),
+			Map.of("factura_id", 2L, "porcentaje", new BigDecimal("21.00"), "base", new BigDecimal("100.00"),
+				"cuota", new BigDecimal("21.00")),
+			Map.of("factura_id", 3L, "porcentaje", new BigDecimal("21.00"), "base", new BigDecimal("10.00"),
+				"cuota", new BigDecimal("2.10"))),
+			jdbcTemplate.queryForList("SELECT factura_id, porcentaje, base, cuota FROM factura_desglose_iva " +
+				"ORDER BY factura_id, porcentaje"));
+		assertEquals(List.of(), jdbcTemplate.queryForList("SELECT f.id FROM factura f " +
+			"JOIN factura_desglose_iva d ON d.factura_id = f.id GROUP BY f.id, f.iva_total " +
+			"HAVING SUM(d.cuota) <> f.iva_total"));
+	}
+
+	/** La sentencia de recuperación del desglose, tal como está en schema-postgresql.sql. */
+	private static String recuperacion() throws IOException {
+		String esquema = new ClassPathResource("schema-postgresql.sql").getContentAsString(StandardCharsets.UTF_8);
+		int inicio = esquema.indexOf(INICIO);
+		return esquema.substring(inicio, esquema.indexOf(';', inicio));
+	}
+}
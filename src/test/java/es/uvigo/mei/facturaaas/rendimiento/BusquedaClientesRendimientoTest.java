@@ -0,0 +1,70 @@
+package es.uvigo.mei.facturaaas.rendimiento;
+
+import es.uvigo.mei.facturaaas.service.BuscadorClientes;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Búsqueda de clientes con el índice en memoria (motor MEMORIA) de un usuario con
+ * 100.000 clientes, leídos de una base de datos H2 propia: construcción del índice en
+ * la primera búsqueda y tiempo de cada consulta.
+ */
+@EnabledIfSystemProperty(named = "rendimiento", matches = "true")
+class BusquedaClientesRendimientoTest {
+
+	private static final int CLIENTES = 100_000;
+	private static final long USUARIO = 1L;
+
+	@Test
+	void buscaEnCienMilClientesEnMenosDeDiezMilisegundos() {
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(
+			"jdbc:h2:mem:rendimiento-clientes;DB_CLOSE_DELAY=-1", "sa", ""));
+		jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS cliente (id BIGINT PRIMARY KEY, usuario_id BIGINT, " +
+			"nombre VARCHAR(200), nif VARCHAR(20), localidad VARCHAR(100), email VARCHAR(100))");
+		jdbcTemplate.update("DELETE FROM cliente");
+		jdbcTemplate.batchUpdate("INSERT INTO cliente (id, usuario_id, nombre, nif, localidad, email) " +
+			"VALUES (?, ?, ?, ?, ?, ?)", clientes());
+		BuscadorClientes buscador = new BuscadorClientes(jdbcTemplate, new SimpleMeterRegistry(),
+			BuscadorClientes.Motor.MEMORIA, 10, 600);
+
+		long inicio = System.nanoTime();
+		assertFalse(buscador.buscar(USUARIO, "coruna", 0, 20).isEmpty());
+		double construccion = (System.nanoTime() - inicio) / 1e6;
+		Medicion.informar("Índice de %,d clientes construido en %,.0f ms", CLIENTES, construccion);
+		assertTrue(construccion < 10_000, "El índice debe construirse en menos de 10 s");
+
+		for (String consulta : new String[] {"a", "co", "coruna", "garcia", "nunez vigo", "talleres lugo", "0004217",
+				"lopez12", "santiago", "ferreteria castro ferrol"}) {
+			double nanos = Medicion.nanosPorOperacion(() -> buscador.buscar(USUARIO, consulta, 0, 20), 20);
+			Medicion.informar("Búsqueda %-28s %6.2f ms", "\"" + consulta + "\"", nanos / 1e6);
+			assertTrue(nanos < 10_000_000, consulta + ": menos de 10 ms por búsqueda");
+		}
+	}
+
+	private static List<Object[]> clientes() {
+		String[] nombres = {"Talleres", "Construcciones", "Panadería", "Comercial", "Transportes", "Ferretería",
+			"Distribuciones", "Asesoría", "Clínica", "Hostelería"};
+		String[] apellidos = {"García", "Núñez", "Fernández", "López", "Martínez", "Pérez", "Gómez", "Díaz",
+			"Vázquez", "Castro", "Otero", "Rodríguez"};
+		String[] localidades = {"A Coruña", "Santiago de Compostela", "Vigo", "Ourense", "Lugo", "Pontevedra",
+			"Ferrol", "Monforte de Lemos", "Vilagarcía de Arousa", "Betanzos"};
+		Random aleatorio = new Random(3);
+		List<Object[]> filas = new ArrayList<>(CLIENTES);
+		for (int i = 0; i < CLIENTES; i++) {
+			String apellido = apellidos[aleatorio.nextInt(apellidos.length)];
+			filas.add(new Object[] {i, USUARIO, nombres[aleatorio.nextInt(nombres.length)] + " " + apellido + " " + i,
+				String.format("%08dX", i), localidades[aleatorio.nextInt(localidades.length)],
+				apellido.toLowerCase() + i + "@ejemplo.es"});
+		}
+		return filas;
+	}
+}
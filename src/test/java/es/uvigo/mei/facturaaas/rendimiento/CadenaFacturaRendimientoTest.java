@@ -0,0 +1,122 @@
+package es.uvigo.mei.facturaaas.rendimiento;
+
+import es.uvigo.mei.facturaaas.dto.ClienteDTO;
+import es.uvigo.mei.facturaaas.dto.FacturaDTO;
+import es.uvigo.mei.facturaaas.dto.FormaPagoDTO;
+import es.uvigo.mei.facturaaas.dto.LineaFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.UsuarioCreateDTO;
+import es.uvigo.mei.facturaaas.dto.VerificacionCadenaDTO;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.repository.TipoIVARepository;
+import es.uvigo.mei.facturaaas.service.CadenaFacturaService;
+import es.uvigo.mei.facturaaas.service.ClienteService;
+import es.uvigo.mei.facturaaas.service.FacturaService;
+import es.uvigo.mei.facturaaas.service.FormaPagoService;
+import es.uvigo.mei.facturaaas.service.UsuarioService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Verificación de una cadena de huellas larga sobre la base de datos de pruebas (H2).
+ */
+@EnabledIfSystemProperty(named = "rendimiento", matches = "true")
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+class CadenaFacturaRendimientoTest {
+
+	private static final int REGISTROS = 20_000;
+
+	@Autowired
+	private FacturaService facturaService;
+
+	@Autowired
+	private CadenaFacturaService cadenaFacturaService;
+
+	@Autowired
+	private UsuarioService usuarioService;
+
+	@Autowired
+	private ClienteService clienteService;
+
+	@Autowired
+	private FormaPagoService formaPagoService;
+
+	@Autowired
+	private TipoIVARepository tipoIVARepository;
+
+	@Test
+	void verificaMasDeDiezMilRegistrosDeLaCadenaPorSegundo() {
+		Long usuarioId = nuevoUsuario();
+		Long clienteId = cliente(usuarioId);
+		Long formaPagoId = formaPago(usuarioId);
+		Long tipoIVAId = tipoIVARepository.findByActivoTrue().get(0).getId();
+		List<FacturaDTO> bloque = new ArrayList<>();
+		long inicio = System.nanoTime();
+		for (int i = 0; i < REGISTROS; i++) {
+			bloque.add(factura(usuarioId, clienteId, formaPagoId, tipoIVAId));
+			if (bloque.size() == 5000 || i == REGISTROS - 1) {
+				facturaService.crearLote(usuarioId, bloque);
+				bloque.clear();
+			}
+		}
+		Medicion.informar("Cadena: %,d facturas encadenadas en %.1f s", REGISTROS, (System.nanoTime() - inicio) / 1e9);
+
+		inicio = System.nanoTime();
+		VerificacionCadenaDTO verificacion = cadenaFacturaService.verificar(usuarioId, null, null);
+		double porSegundo = REGISTROS / ((System.nanoTime() - inicio) / 1e9);
+		Medicion.informar("Cadena: %,d registros verificados (%,.0f por segundo)", REGISTROS, porSegundo);
+		assertTrue(verificacion.isCorrecta(), verificacion.getError());
+		assertEquals(REGISTROS, verificacion.getRegistrosVerificados());
+		assertTrue(porSegundo > 10_000, "La verificación debe superar los 10.000 registros por segundo");
+	}
+
+	private static FacturaDTO factura(Long usuarioId, Long clienteId, Long formaPagoId, Long tipoIVAId) {
+		FacturaDTO factura = new FacturaDTO();
+		factura.setUsuarioId(usuarioId);
+		factura.setEjercicio(2025);
+		factura.setClienteId(clienteId);
+		factura.setFormaPagoId(formaPagoId);
+		factura.setFechaEmision(LocalDate.of(2025, 5, 20));
+		factura.setEstado(Factura.EstadoFactura.EMITIDA);
+		LineaFacturaDTO linea = new LineaFacturaDTO();
+		linea.setNumeroLinea(1);
+		linea.setConcepto("Mantenimiento");
+		linea.setCantidad(BigDecimal.ONE);
+		linea.setPrecioUnitario(new BigDecimal("99.95"));
+		linea.setTipoIVAId(tipoIVAId);
+		factura.getLineas().add(linea);
+		return factura;
+	}
+
+	private Long nuevoUsuario() {
+		String login = "r" + UUID.randomUUID().toString().substring(0, 8);
+		return usuarioService.crear(new UsuarioCreateDTO(login, "secreto123", "Usuario " + login,
+			login + "@ejemplo.es")).getId();
+	}
+
+	private Long cliente(Long usuarioId) {
+		ClienteDTO cliente = new ClienteDTO();
+		cliente.setUsuarioId(usuarioId);
+		cliente.setNombre("Conservas Castro S.A.");
+		cliente.setNif("A36000002");
+		return clienteService.crear(cliente).getId();
+	}
+
+	private Long formaPago(Long usuarioId) {
+		FormaPagoDTO formaPago = new FormaPagoDTO();
+		formaPago.setUsuarioId(usuarioId);
+		formaPago.setDescripcion("Domiciliación");
+		formaPago.setNumeroPagos(1);
+		formaPago.setPeriodicidadDias(30);
+		return formaPagoService.crear(formaPago).getId();
+	}
+}
@@ -0,0 +1,82 @@
+package es.uvigo.mei.facturaaas.rendimiento;
+
+import es.uvigo.mei.facturaaas.model.CalculadoraTotales;
+import es.uvigo.mei.facturaaas.model.LineaFactura;
+import es.uvigo.mei.facturaaas.model.TipoIVA;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Totales de una factura de 1 a 1000 líneas aleatorias (cinco tipos de IVA, cantidades
+ * con y sin decimales, descuentos): CalculadoraTotales frente al cálculo anterior.
+ * Lo lanza CalculadoraTotalesRendimientoTest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CalculadoraTotalesBenchmark {
+
+	private static final BigDecimal[] PORCENTAJES = {
+		new BigDecimal("0"), new BigDecimal("4"), new BigDecimal("10"), new BigDecimal("21"), new BigDecimal("5.5")
+	};
+
+	@Param({"1", "10", "100", "1000"})
+	public int lineas;
+
+	private List<LineaFactura> factura;
+
+	@Setup
+	public void preparar() {
+		Random random = new Random(1L);
+		factura = new ArrayList<>(lineas);
+		for (int i = 0; i < lineas; i++) {
+			TipoIVA tipoIVA = new TipoIVA();
+			tipoIVA.setPorcentaje(PORCENTAJES[random.nextInt(PORCENTAJES.length)]);
+			LineaFactura linea = new LineaFactura();
+			linea.setPrecioUnitario(BigDecimal.valueOf(1 + random.nextInt(999_999), 2));
+			linea.setCantidad(random.nextInt(4) == 0
+				? BigDecimal.valueOf(1 + random.nextInt(99_999), 2)
+				: BigDecimal.valueOf(1 + random.nextInt(20)));
+			linea.setPorcentajeDescuento(random.nextInt(3) == 0
+				? BigDecimal.valueOf(random.nextInt(5_001), 2)
+				: BigDecimal.ZERO);
+			linea.setTipoIVA(tipoIVA);
+			linea.calcularImporteTotal();
+			factura.add(linea);
+		}
+	}
+
+	@Benchmark
+	public CalculadoraTotales.Totales calculadora() {
+		return CalculadoraTotales.calcular(factura);
+	}
+
+	/** Cálculo previo a CalculadoraTotales: dos recorridos y un divisor por línea. */
+	@Benchmark
+	public BigDecimal anterior() {
+		BigDecimal importeTotal = factura.stream()
+			.map(LineaFactura::getImporteTotal)
+			.reduce(BigDecimal.ZERO, BigDecimal::add);
+		BigDecimal ivaTotal = factura.stream()
+			.map(linea -> linea.getImporteTotal().multiply(linea.getTipoIVA().getPorcentaje()).divide(new BigDecimal("100")))
+			.reduce(BigDecimal.ZERO, BigDecimal::add);
+		return importeTotal.add(ivaTotal);
+	}
+}
@@ -0,0 +1,30 @@
+package es.uvigo.mei.facturaaas.rendimiento;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openjdk.jmh.results.RunResult;
+import java.util.Collection;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Totales de una factura: CalculadoraTotales (un recorrido, cuota por tipo de IVA)
+ * frente al cálculo anterior (dos recorridos y una división por línea), de 1 a 1000
+ * líneas, medidos con JMH (ver CalculadoraTotalesBenchmark).
+ */
+@EnabledIfSystemProperty(named = "rendimiento", matches = "true")
+class CalculadoraTotalesRendimientoTest {
+
+	@Test
+	void calcularLosTotalesNoCuestaMasQueElCalculoAnterior() throws Exception {
+		Collection<RunResult> resultados = Medicion.jmh(CalculadoraTotalesBenchmark.class);
+		for (int lineas : new int[] { 1, 10, 100, 1000 }) {
+			double anterior = Medicion.puntuacion(resultados, "anterior", "lineas", String.valueOf(lineas));
+			double actual = Medicion.puntuacion(resultados, "calculadora", "lineas", String.valueOf(lineas));
+
+			// El desglose por tipo no debe encarecer el cálculo, ni siquiera con una línea
+			assertTrue(actual <= anterior * 1.1, lineas + " líneas: no debe costar más que el cálculo anterior");
+			assertTrue(actual < lineas * 1_000L, lineas + " líneas: menos de 1 µs por línea");
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package es.uvigo.mei.facturaaas.rendimiento;
+
+import es.uvigo.mei.facturaaas.dto.ClienteDTO;
+import es.uvigo.mei.facturaaas.dto.FacturaDTO;
+import es.uvigo.mei.facturaaas.dto.FormaPagoDTO;
+import es.uvigo.mei.facturaaas.dto.LineaFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.ResultadoImportacionExtractoDTO;
+import es.uvigo.mei.facturaaas.dto.ResultadoLoteDTO;
+import es.uvigo.mei.facturaaas.dto.UsuarioCreateDTO;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.repository.TipoIVARepository;
+import es.uvigo.mei.facturaaas.service.ClienteService;
+import es.uvigo.mei.facturaaas.service.ConciliacionExtractoService;
+import es.uvigo.mei.facturaaas.service.FacturaService;
+import es.uvigo.mei.facturaaas.service.FormaPagoService;
+import es.uvigo.mei.facturaaas.service.ResumenFacturacionService;
+import es.uvigo.mei.facturaaas.service.UsuarioService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Importación de un extracto Norma 43 de 100.000 apuntes contra otros tantos pagos
+ * pendientes sobre la base de datos de pruebas (H2): cinco pagos del mismo importe
+ * por factura y 500 clientes identificados por el NIF del concepto.
+ */
+@EnabledIfSystemProperty(named = "rendimiento", matches = "true")
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+class ConciliacionExtractoRendimientoTest {
+
+	private static final int MOVIMIENTOS = 100_000;
+	private static final int PAGOS_POR_FACTURA = 5;
+	private static final DateTimeFormatter AAMMDD = DateTimeFormatter.ofPattern("yyMMdd");
+	private static final LocalDate EMISION = LocalDate.of(2026, 3, 2);
+
+	@Autowired
+	private ConciliacionExtractoService conciliacionExtractoService;
+
+	@Autowired
+	private FacturaService facturaService;
+
+	@Autowired
+	private UsuarioService usuarioService;
+
+	@Autowired
+	private ClienteService clienteService;
+
+	@Autowired
+	private FormaPagoService formaPagoService;
+
+	@Autowired
+	private ResumenFacturacionService resumenFacturacionService;
+
+	@Autowired
+	private TipoIVARepository tipoIVARepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void conciliaMasDeMilApuntesPorSegundo() throws Exception {
+		Long usuarioId = nuevoUsuario();
+		Long formaPagoId = formaPago(usuarioId);
+		Long tipoIVAId = tipoIVARepository.findByActivoTrue().stream()
+			.filter(tipo -> tipo.getPorcentaje().signum() == 0)
+			.findFirst().orElseThrow().getId();
+		List<Long> clientes = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			clientes.add(cliente(usuarioId, String.format("X%07dR", i)));
+		}
+		Random aleatorio = new Random(7);
+		List<FacturaDTO> facturas = new ArrayList<>();
+		for (int i = 0; i < MOVIMIENTOS / PAGOS_POR_FACTURA; i++) {
+			facturas.add(factura(usuarioId, clientes.get(i % clientes.size()), formaPagoId, tipoIVAId,
+				EMISION.plusDays(i % 200), BigDecimal.valueOf(500 + aleatorio.nextInt(500_000), 2)));
+		}
+		List<ResultadoLoteDTO> creadas = facturaService.crearLote(usuarioId, facturas);
+		assertEquals(facturas.size(), creadas.size());
+
+		// Pagos generados por SQL: N por factura, mismo importe, vencimientos mensuales
+		jdbcTemplate.update("INSERT INTO pago (id, factura_id, usuario_id, numero_pago, fecha_vencimiento, importe, estado) " +
+			"SELECT NEXT VALUE FOR pago_seq, f.id, f.usuario_id, n.x, DATEADD('DAY', 30 * (n.x - 1), f.fecha_emision), " +
+			"ROUND(f.suma_total / " + PAGOS_POR_FACTURA + ", 2), 'PENDIENTE' " +
+			"FROM factura f CROSS JOIN SYSTEM_RANGE(1, " + PAGOS_POR_FACTURA + ") n WHERE f.usuario_id = ?", usuarioId);
+		resumenFacturacionService.reconstruirUsuario(usuarioId);
+		List<Map<String, Object>> pagos = jdbcTemplate.queryForList(
+			"SELECT p.fecha_vencimiento, p.importe, c.nif FROM pago p JOIN factura f ON f.id = p.factura_id " +
+			"JOIN cliente c ON c.id = f.cliente_id WHERE f.usuario_id = ?", usuarioId);
+		Collections.shuffle(pagos, aleatorio);
+
+		StringBuilder extracto = new StringBuilder(MOVIMIENTOS * 170).append(relleno("11")).append('\n');
+		for (Map<String, Object> pago : pagos) {
+			LocalDate vencimiento = ((Date) pago.get("fecha_vencimiento")).toLocalDate();
+			extracto.append(registro22(vencimiento.plusDays(aleatorio.nextInt(20)), (BigDecimal) pago.get("importe")))
+				.append('\n');
+			extracto.append(String.format("2301%-76s", "TRANSFERENCIA " + pago.get("nif"))).append('\n');
+		}
+		extracto.append(relleno("33")).append('\n').append(relleno("88"));
+
+		long inicio = System.nanoTime();
+		ResultadoImportacionExtractoDTO resultado = conciliacionExtractoService.importar(usuarioId,
+			ConciliacionExtractoService.Formato.NORMA43,
+			new ByteArrayInputStream(extracto.toString().getBytes(StandardCharsets.ISO_8859_1)));
+		double porSegundo = resultado.getMovimientos() / ((System.nanoTime() - inicio) / 1e9);
+		Medicion.informar("Extracto: %,d apuntes, %,d conciliados, %,d sin conciliar, %,d facturas pagadas " +
+				"(%,.0f apuntes por segundo)", resultado.getMovimientos(), resultado.getConciliados(),
+			resultado.getSinConciliar(), resultado.getFacturasPagadas(), porSegundo);
+
+		assertEquals(pagos.size(), resultado.getConciliados() + resultado.getSinConciliar());
+		assertTrue(resultado.getConciliados() > pagos.size() * 0.99);
+		assertTrue(porSegundo > 1000, "La importación debe superar los 1.000 apuntes por segundo");
+	}
+
+	private Long nuevoUsuario() {
+		String login = "r" + UUID.randomUUID().toString().substring(0, 8);
+		return usuarioService.crear(new UsuarioCreateDTO(login, "secreto123", "Usuario " + login,
+			login + "@ejemplo.es")).getId();
+	}
+
+	private Long cliente(Long usuarioId, String nif) {
+		ClienteDTO cliente = new ClienteDTO();
+		cliente.setUsuarioId(usuarioId);
+		cliente.setNombre("Cliente " + nif);
+		cliente.setNif(nif);
+		return clienteService.crear(cliente).getId();
+	}
+
+	private Long formaPago(Long usuarioId) {
+		FormaPagoDTO formaPago = new FormaPagoDTO();
+		formaPago.setUsuarioId(usuarioId);
+		formaPago.setDescripcion("Transferencia");
+		formaPago.setNumeroPagos(1);
+		formaPago.setPeriodicidadDias(30);
+		return formaPagoService.crear(formaPago).getId();
+	}
+
+	private static FacturaDTO factura(Long usuarioId, Long clienteId, Long formaPagoId, Long tipoIVAId,
+									  LocalDate fechaEmision, BigDecimal importe) {
+		LineaFacturaDTO linea = new LineaFacturaDTO();
+		linea.setConcepto("Servicios");
+		linea.setCantidad(BigDecimal.ONE);
+		linea.setPrecioUnitario(importe);
+		linea.setPorcentajeDescuento(BigDecimal.ZERO);
+		linea.setTipoIVAId(tipoIVAId);
+		FacturaDTO factura = new FacturaDTO();
+		factura.setUsuarioId(usuarioId);
+		factura.setClienteId(clienteId);
+		factura.setFormaPagoId(formaPagoId);
+		factura.setEjercicio(EMISION.getYear());
+		factura.setFechaEmision(fechaEmision);
+		factura.setEstado(Factura.EstadoFactura.EMITIDA);
+		factura.setLineas(List.of(linea));
+		return factura;
+	}
+
+	private static String relleno(String codigo) {
+		return String.format("%-80s", codigo);
+	}
+
+	/** Abono Norma 43 (registro 22) con la fecha valor y el importe dados. */
+	private static String registro22(LocalDate fechaValor, BigDecimal importe) {
+		return "22" + "    " + "0001" + fechaValor.format(AAMMDD) + fechaValor.format(AAMMDD) + "02" + "0002"
+			+ String.format("%014d", importe.movePointRight(2).longValueExact())
+			+ "0000000000" + String.format("%-12s%-16s", "REF", "");
+	}
+}
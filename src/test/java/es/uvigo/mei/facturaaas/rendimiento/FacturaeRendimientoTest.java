@@ -0,0 +1,179 @@
+package es.uvigo.mei.facturaaas.rendimiento;
+
+import es.uvigo.mei.facturaaas.dto.ClienteDTO;
+import es.uvigo.mei.facturaaas.dto.FacturaDTO;
+import es.uvigo.mei.facturaaas.dto.FormaPagoDTO;
+import es.uvigo.mei.facturaaas.dto.LineaFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.UsuarioCreateDTO;
+import es.uvigo.mei.facturaaas.model.DatosFacturacion;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.repository.DatosFacturacionRepository;
+import es.uvigo.mei.facturaaas.repository.FacturaRepository;
+import es.uvigo.mei.facturaaas.repository.TipoIVARepository;
+import es.uvigo.mei.facturaaas.repository.UsuarioRepository;
+import es.uvigo.mei.facturaaas.service.ClienteService;
+import es.uvigo.mei.facturaaas.service.FacturaService;
+import es.uvigo.mei.facturaaas.service.FacturaeService;
+import es.uvigo.mei.facturaaas.service.FormaPagoService;
+import es.uvigo.mei.facturaaas.service.UsuarioService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.UUID;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Exportación firmada (XAdES-EPES) de las 2.000 facturas de un ejercicio, de una a
+ * diez líneas cada una, con un certificado RSA de 2048 bits generado con keytool.
+ */
+@EnabledIfSystemProperty(named = "rendimiento", matches = "true")
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+class FacturaeRendimientoTest {
+
+	private static final int FACTURAS = 2000;
+	private static final String CLAVE = "secreto123";
+
+	@TempDir
+	Path directorio;
+
+	@Autowired
+	private FacturaService facturaService;
+
+	@Autowired
+	private UsuarioService usuarioService;
+
+	@Autowired
+	private ClienteService clienteService;
+
+	@Autowired
+	private FormaPagoService formaPagoService;
+
+	@Autowired
+	private TipoIVARepository tipoIVARepository;
+
+	@Autowired
+	private UsuarioRepository usuarioRepository;
+
+	@Autowired
+	private DatosFacturacionRepository datosFacturacionRepository;
+
+	@Autowired
+	private FacturaRepository facturaRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Test
+	void firmaMasDeDosMilFacturaePorMinuto() throws Exception {
+		FacturaeService firmante = new FacturaeService(facturaRepository, datosFacturacionRepository,
+			transactionManager, new SimpleMeterRegistry(), almacen().toString(), CLAVE, "", "B15999999",
+			"Facturaaas Servicios S.L.", "Rúa do Hórreo, 1", "15702", "Santiago de Compostela", "A Coruña");
+		Long usuarioId = nuevoUsuario();
+		Long clienteId = cliente(usuarioId);
+		Long formaPagoId = formaPago(usuarioId);
+		Long tipoIVAId = tipoIVARepository.findByActivoTrue().get(0).getId();
+		for (int i = 0; i < FACTURAS; i++) {
+			facturaService.crear(factura(usuarioId, clienteId, formaPagoId, tipoIVAId, 1 + i % 10));
+		}
+
+		ByteArrayOutputStream salida = new ByteArrayOutputStream();
+		long inicio = System.nanoTime();
+		firmante.exportarLote(usuarioId, 2025, firmante.datosEmisor(usuarioId), true, salida);
+		double porMinuto = FACTURAS / ((System.nanoTime() - inicio) / 6e10);
+		Medicion.informar("Facturae: %,d facturas firmadas (%,d bytes), %,.0f por minuto",
+			FACTURAS, salida.size(), porMinuto);
+
+		int entradas = 0;
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(salida.toByteArray()))) {
+			while (zip.getNextEntry() != null) {
+				entradas++;
+			}
+		}
+		assertEquals(FACTURAS, entradas);
+		assertTrue(porMinuto > 2000, "La exportación firmada debe superar los 2.000 Facturae por minuto");
+	}
+
+	private Path almacen() throws Exception {
+		Path almacen = directorio.resolve("firma.p12");
+		Process keytool = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+			"-genkeypair", "-alias", "emisor", "-keyalg", "RSA", "-keysize", "2048", "-validity", "30",
+			"-dname", "CN=Talleres Otero S.L., O=Talleres Otero, C=ES", "-storetype", "PKCS12",
+			"-keystore", almacen.toString(), "-storepass", CLAVE, "-keypass", CLAVE)
+			.redirectErrorStream(true)
+			.start();
+		String salida = new String(keytool.getInputStream().readAllBytes());
+		assertEquals(0, keytool.waitFor(), salida);
+		return almacen;
+	}
+
+	private Long nuevoUsuario() {
+		String login = "r" + UUID.randomUUID().toString().substring(0, 8);
+		Long usuarioId = usuarioService.crear(new UsuarioCreateDTO(login, "secreto123", "Usuario " + login,
+			login + "@ejemplo.es")).getId();
+		DatosFacturacion datos = new DatosFacturacion();
+		datos.setUsuario(usuarioRepository.findById(usuarioId).orElseThrow());
+		datos.setNombreComercial("Talleres Otero S.L.");
+		datos.setNif("ES-B36000001");
+		datos.setTipo(DatosFacturacion.TipoEntidad.SOCIEDAD_LIMITADA);
+		datos.setDomicilio("Rúa Principal, 12");
+		datos.setCodigoPostal("36201");
+		datos.setLocalidad("Vigo");
+		datos.setProvincia("Pontevedra");
+		datos.setEmailContacto(login + "@ejemplo.es");
+		datosFacturacionRepository.save(datos);
+		return usuarioId;
+	}
+
+	private Long cliente(Long usuarioId) {
+		ClienteDTO cliente = new ClienteDTO();
+		cliente.setUsuarioId(usuarioId);
+		cliente.setNombre("María Núñez Pérez");
+		cliente.setNif("32000001K");
+		cliente.setDomicilio("Praza de María Pita, 1");
+		cliente.setCodigoPostal("15001");
+		cliente.setLocalidad("A Coruña");
+		cliente.setProvincia("A Coruña");
+		return clienteService.crear(cliente).getId();
+	}
+
+	private Long formaPago(Long usuarioId) {
+		FormaPagoDTO formaPago = new FormaPagoDTO();
+		formaPago.setUsuarioId(usuarioId);
+		formaPago.setDescripcion("Transferencia");
+		formaPago.setNumeroPagos(1);
+		formaPago.setPeriodicidadDias(30);
+		return formaPagoService.crear(formaPago).getId();
+	}
+
+	private static FacturaDTO factura(Long usuarioId, Long clienteId, Long formaPagoId, Long tipoIVAId, int lineas) {
+		FacturaDTO factura = new FacturaDTO();
+		factura.setUsuarioId(usuarioId);
+		factura.setEjercicio(2025);
+		factura.setClienteId(clienteId);
+		factura.setFormaPagoId(formaPagoId);
+		factura.setFechaEmision(LocalDate.of(2025, 3, 15));
+		factura.setEstado(Factura.EstadoFactura.EMITIDA);
+		for (int i = 1; i <= lineas; i++) {
+			LineaFacturaDTO linea = new LineaFacturaDTO();
+			linea.setNumeroLinea(i);
+			linea.setConcepto("Reparación nº " + i);
+			linea.setCantidad(BigDecimal.valueOf(i));
+			linea.setPrecioUnitario(new BigDecimal("1250.55"));
+			linea.setTipoIVAId(tipoIVAId);
+			factura.getLineas().add(linea);
+		}
+		return factura;
+	}
+}
@@ -0,0 +1,114 @@
+package es.uvigo.mei.facturaaas.rendimiento;
+
+import es.uvigo.mei.facturaaas.dto.ClienteDTO;
+import es.uvigo.mei.facturaaas.dto.FormaPagoDTO;
+import es.uvigo.mei.facturaaas.dto.UsuarioCreateDTO;
+import es.uvigo.mei.facturaaas.repository.TipoIVARepository;
+import es.uvigo.mei.facturaaas.service.ClienteService;
+import es.uvigo.mei.facturaaas.service.FormaPagoService;
+import es.uvigo.mei.facturaaas.service.GeneracionPlantillasService;
+import es.uvigo.mei.facturaaas.service.UsuarioService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Generación de las facturas de miles de plantillas vencidas sobre la base de datos de
+ * pruebas (H2): una mitad de un solo usuario y el resto repartido entre otros veinte.
+ */
+@EnabledIfSystemProperty(named = "rendimiento", matches = "true")
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+class GeneracionPlantillasRendimientoTest {
+
+	private static final int PLANTILLAS = 20_000;
+
+	@Autowired
+	private GeneracionPlantillasService generacionPlantillasService;
+
+	@Autowired
+	private UsuarioService usuarioService;
+
+	@Autowired
+	private ClienteService clienteService;
+
+	@Autowired
+	private FormaPagoService formaPagoService;
+
+	@Autowired
+	private TipoIVARepository tipoIVARepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void generaMasDeDoscientasFacturasDePlantillaPorSegundo() {
+		Long tipoIVAId = tipoIVARepository.findByActivoTrue().get(0).getId();
+		LocalDate hoy = LocalDate.of(2025, 6, 1);
+		List<Long> usuarios = new ArrayList<>();
+		for (int i = 0; i < 21; i++) {
+			Long usuarioId = nuevoUsuario();
+			usuarios.add(usuarioId);
+			int numero = i == 0 ? PLANTILLAS / 2 : PLANTILLAS / 40;
+			Long clienteId = cliente(usuarioId);
+			Long formaPagoId = formaPago(usuarioId);
+			List<Object[]> filas = new ArrayList<>(numero);
+			for (int j = 0; j < numero; j++) {
+				LocalDate inicio = hoy.minusDays(j % 28);
+				filas.add(new Object[] {usuarioId, clienteId, formaPagoId, Date.valueOf(inicio), Date.valueOf(inicio)});
+			}
+			jdbcTemplate.batchUpdate("INSERT INTO plantilla_factura (usuario_id, cliente_id, forma_pago_id, " +
+				"periodicidad, fecha_inicio, proxima_fecha, facturas_generadas, activa) " +
+				"VALUES (?, ?, ?, 'MENSUAL', ?, ?, 0, TRUE)", filas);
+			jdbcTemplate.update("INSERT INTO linea_plantilla_factura (numero_linea, concepto, cantidad, " +
+				"precio_unitario, porcentaje_descuento, plantilla_id, tipo_iva_id) " +
+				"SELECT 1, 'Cuota mensual', 1, 100, 0, p.id, ? FROM plantilla_factura p WHERE p.usuario_id = ?",
+				tipoIVAId, usuarioId);
+		}
+
+		long inicio = System.nanoTime();
+		GeneracionPlantillasService.Resultado resultado = generacionPlantillasService.ejecutar(hoy);
+		double porSegundo = resultado.facturas() / ((System.nanoTime() - inicio) / 1e9);
+		Medicion.informar("Plantillas: %,d facturas emitidas, %d errores (%,.0f facturas por segundo)",
+			resultado.facturas(), resultado.errores(), porSegundo);
+
+		assertEquals(PLANTILLAS / 2 + 20 * (PLANTILLAS / 40), resultado.facturas());
+		for (Long usuarioId : usuarios) {
+			assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM plantilla_factura " +
+				"WHERE usuario_id = ? AND proxima_fecha <= ?", Integer.class, usuarioId, Date.valueOf(hoy)));
+		}
+		assertTrue(porSegundo > 200, "La generación debe superar las 200 facturas por segundo");
+	}
+
+	private Long nuevoUsuario() {
+		String login = "r" + UUID.randomUUID().toString().substring(0, 8);
+		return usuarioService.crear(new UsuarioCreateDTO(login, "secreto123", "Usuario " + login,
+			login + "@ejemplo.es")).getId();
+	}
+
+	private Long cliente(Long usuarioId) {
+		ClienteDTO cliente = new ClienteDTO();
+		cliente.setUsuarioId(usuarioId);
+		cliente.setNombre("Conservas Castro S.A.");
+		cliente.setNif("A36000002");
+		return clienteService.crear(cliente).getId();
+	}
+
+	private Long formaPago(Long usuarioId) {
+		FormaPagoDTO formaPago = new FormaPagoDTO();
+		formaPago.setUsuarioId(usuarioId);
+		formaPago.setDescripcion("Domiciliación");
+		formaPago.setNumeroPagos(1);
+		formaPago.setPeriodicidadDias(30);
+		return formaPagoService.crear(formaPago).getId();
+	}
+}
@@ -0,0 +1,86 @@
+package es.uvigo.mei.facturaaas.rendimiento;
+
+import es.uvigo.mei.facturaaas.security.JwtTokenProvider;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coste de autenticar una petición con JWT: la implementación anterior (clave y parser
+ * nuevos en cada llamada y dos verificaciones), JwtTokenProvider con un token que no
+ * está en caché y con uno que sí. Lo lanza JwtRendimientoTest.
+ * <p>
+ * Los fallos recorren 100.000 tokens distintos contra la caché de application.properties
+ * (10.000 entradas), así que casi ninguno se encuentra verificado.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 10, time = 2)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtBenchmark {
+
+	private static final String SECRETO = "facturaAASSecretKeyForJWTTokenGenerationMustBeAtLeast256BitsLong";
+	private static final int TOKENS_DISTINTOS = 100_000;
+
+	private JwtTokenProvider conCache;
+	private JwtTokenProvider sinCache;
+	private String token;
+	private String[] distintos;
+	private int siguiente;
+
+	@Setup
+	public void preparar() {
+		conCache = new JwtTokenProvider(SECRETO, 3_600_000, 10_000);
+		token = conCache.generateToken(new UsernamePasswordAuthenticationToken("user", null));
+		conCache.parseClaims(token).orElseThrow();
+		sinCache = new JwtTokenProvider(SECRETO, 3_600_000, 10_000);
+		distintos = new String[TOKENS_DISTINTOS];
+		for (int i = 0; i < distintos.length; i++) {
+			distintos[i] = sinCache.generateToken(new UsernamePasswordAuthenticationToken("usuario" + i, null));
+		}
+	}
+
+	/** Validación y lectura del usuario anteriores: clave y parser nuevos en cada llamada. */
+	@Benchmark
+	public String anterior() {
+		// Validación
+		Jwts.parser()
+			.verifyWith(Keys.hmacShaKeyFor(SECRETO.getBytes()))
+			.build()
+			.parseSignedClaims(token);
+		// Usuario del token
+		return Jwts.parser()
+			.verifyWith(Keys.hmacShaKeyFor(SECRETO.getBytes()))
+			.build()
+			.parseSignedClaims(token)
+			.getPayload()
+			.getSubject();
+	}
+
+	@Benchmark
+	public Optional<Claims> fallo() {
+		String distinto = distintos[siguiente];
+		siguiente = (siguiente + 1) % distintos.length;
+		return sinCache.parseClaims(distinto);
+	}
+
+	@Benchmark
+	public Optional<Claims> acierto() {
+		return conCache.parseClaims(token);
+	}
+}
@@ -0,0 +1,29 @@
+package es.uvigo.mei.facturaaas.rendimiento;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openjdk.jmh.results.RunResult;
+import java.util.Collection;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Verificación de JWT por petición: construir la clave y el parser en cada llamada y
+ * verificar dos veces (implementación anterior) frente a JwtTokenProvider sin caché
+ * y con el token ya verificado en caché, medidos con JMH (ver JwtBenchmark).
+ */
+@EnabledIfSystemProperty(named = "rendimiento", matches = "true")
+class JwtRendimientoTest {
+
+	@Test
+	void verificarUnTokenNoReconstruyeElParserYReutilizaLaCache() throws Exception {
+		Collection<RunResult> resultados = Medicion.jmh(JwtBenchmark.class);
+		double anterior = Medicion.puntuacion(resultados, "anterior");
+		double fallo = Medicion.puntuacion(resultados, "fallo");
+		double acierto = Medicion.puntuacion(resultados, "acierto");
+
+		assertTrue(fallo * 1.25 <= anterior, "Una sola verificación con el parser compartido debe costar menos de 4/5");
+		assertTrue(acierto * 4 <= fallo, "Un token en caché no debe volver a verificarse");
+		assertTrue(acierto < 20_000, "Un token en caché debe verificarse en menos de 20 µs");
+	}
+}
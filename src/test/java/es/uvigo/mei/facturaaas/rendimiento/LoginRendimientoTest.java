@@ -0,0 +1,82 @@
+package es.uvigo.mei.facturaaas.rendimiento;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Logins concurrentes contra el servidor HTTP completo: BCrypt se limita a un hilo por
+ * núcleo y lo que no cabe en la cola se rechaza con 503.
+ */
+@EnabledIfSystemProperty(named = "rendimiento", matches = "true")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class LoginRendimientoTest {
+
+	private static final int LOGINS = 1000;
+	private static final int CLIENTES = 32;
+
+	@LocalServerPort
+	private int port;
+
+	private final HttpClient http = HttpClient.newHttpClient();
+
+	@Test
+	void atiendeMasDeTresLoginsPorSegundoYNucleo() throws Exception {
+		int nucleos = Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < nucleos * 4; i++) {
+			login("user", "user123");
+		}
+
+		AtomicInteger correctos = new AtomicInteger();
+		AtomicInteger rechazados = new AtomicInteger();
+		AtomicInteger restantes = new AtomicInteger(LOGINS);
+		ExecutorService pool = Executors.newFixedThreadPool(CLIENTES);
+		long inicio = System.nanoTime();
+		List<Future<?>> tareas = new ArrayList<>();
+		for (int c = 0; c < CLIENTES; c++) {
+			tareas.add(pool.submit(() -> {
+				while (restantes.getAndDecrement() > 0) {
+					int estado = login("user", "user123").statusCode();
+					if (estado == 200) {
+						correctos.incrementAndGet();
+					} else if (estado == 503) {
+						rechazados.incrementAndGet();
+					}
+				}
+				return null;
+			}));
+		}
+		for (Future<?> tarea : tareas) {
+			tarea.get();
+		}
+		double porSegundo = correctos.get() / ((System.nanoTime() - inicio) / 1e9);
+		pool.shutdown();
+
+		Medicion.informar("Logins: %d correctos, %d rechazados (503); %.1f por segundo, %.1f por núcleo (%d núcleos)",
+			correctos.get(), rechazados.get(), porSegundo, porSegundo / nucleos, nucleos);
+		assertEquals(LOGINS, correctos.get() + rechazados.get());
+		assertTrue(porSegundo / nucleos > 3, "Más de 3 logins por segundo y núcleo");
+	}
+
+	private HttpResponse<String> login(String login, String password) throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/auth/login"))
+			.header("Content-Type", "application/json")
+			.POST(HttpRequest.BodyPublishers.ofString("{\"login\":\"" + login + "\",\"password\":\"" + password + "\"}"))
+			.build();
+		return http.send(request, HttpResponse.BodyHandlers.ofString());
+	}
+}
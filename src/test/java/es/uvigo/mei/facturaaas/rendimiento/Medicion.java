@@ -0,0 +1,74 @@
+package es.uvigo.mei.facturaaas.rendimiento;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import java.util.Collection;
+import java.util.regex.Pattern;
+
+/**
+ * Cronometraje de las pruebas de rendimiento. Los microbenchmarks (operaciones de
+ * micro o nanosegundos) se escriben con JMH y se lanzan con {@link #jmh}; el resto
+ * usa calentamiento y varias rondas medidas, de las que se toma la mejor para
+ * descontar pausas del recolector y del JIT.
+ */
+final class Medicion {
+
+	private static final int RONDAS = 5;
+
+	private Medicion() {
+	}
+
+	/** Nanosegundos por ejecución de {@code operacion} en la mejor ronda. */
+	static double nanosPorOperacion(Runnable operacion, int repeticiones) {
+		for (int i = 0; i < repeticiones; i++) {
+			operacion.run();
+		}
+		double mejor = Double.MAX_VALUE;
+		for (int ronda = 0; ronda < RONDAS; ronda++) {
+			long inicio = System.nanoTime();
+			for (int i = 0; i < repeticiones; i++) {
+				operacion.run();
+			}
+			mejor = Math.min(mejor, (System.nanoTime() - inicio) / (double) repeticiones);
+		}
+		return mejor;
+	}
+
+	/**
+	 * Ejecuta con JMH, en un proceso aparte, los métodos {@code @Benchmark} de
+	 * {@code benchmark}. Los resultados quedan además en target/jmh-&lt;clase&gt;.json.
+	 */
+	static Collection<RunResult> jmh(Class<?> benchmark) throws RunnerException {
+		return new Runner(new OptionsBuilder()
+			.include(Pattern.quote(benchmark.getName()) + "\\.")
+			.shouldFailOnError(true)
+			.resultFormat(ResultFormatType.JSON)
+			.result("target/jmh-" + benchmark.getSimpleName() + ".json")
+			.build()).run();
+	}
+
+	/** Puntuación del método {@code metodo} con los parámetros dados (nombre, valor, ...). */
+	static double puntuacion(Collection<RunResult> resultados, String metodo, String... parametros) {
+		return resultados.stream()
+			.filter(resultado -> resultado.getParams().getBenchmark().endsWith("." + metodo))
+			.filter(resultado -> {
+				for (int i = 0; i < parametros.length; i += 2) {
+					if (!parametros[i + 1].equals(resultado.getParams().getParam(parametros[i]))) {
+						return false;
+					}
+				}
+				return true;
+			})
+			.findFirst()
+			.orElseThrow(() -> new IllegalArgumentException(
+				"Sin resultado para " + metodo + " " + String.join(" ", parametros)))
+			.getPrimaryResult().getScore();
+	}
+
+	static void informar(String formato, Object... argumentos) {
+		System.out.printf("[rendimiento] " + formato + "%n", argumentos);
+	}
+}
@@ -0,0 +1,152 @@
+package es.uvigo.mei.facturaaas.rendimiento;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import es.uvigo.mei.facturaaas.dto.EventoFacturaDTO;
+import es.uvigo.mei.facturaaas.model.EventoFactura.TipoEvento;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.service.BandejaEventos;
+import es.uvigo.mei.facturaaas.service.DifusorEventos;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Miles de suscripciones SSE inactivas contra el servidor HTTP completo: no deben
+ * ocupar un hilo cada una y un evento debe llegar a todas en poco tiempo.
+ * <p>
+ * Cliente y servidor comparten proceso, y con él el límite de descriptores abiertos
+ * (dos por conexión); de ahí las 8.000 conexiones.
+ */
+@EnabledIfSystemProperty(named = "rendimiento", matches = "true")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+	properties = "server.tomcat.max-connections=10000")
+class SuscripcionesSseRendimientoTest {
+
+	private static final int SUSCRIPCIONES = 8000;
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private DifusorEventos difusorEventos;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	private final HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+	@Test
+	void lasSuscripcionesInactivasNoOcupanUnHiloCadaUna() throws Exception {
+		JsonNode sesion = objectMapper.readTree(login("user", "user123").body());
+		String token = sesion.path("token").asText();
+		Long usuarioId = sesion.path("usuario").path("id").asLong();
+
+		long hilosAntes = hilosServidor();
+		List<PrimerEvento> lectores = new ArrayList<>();
+		for (int i = 0; i < SUSCRIPCIONES; i++) {
+			PrimerEvento lector = new PrimerEvento();
+			lectores.add(lector);
+			http.sendAsync(suscripcion(token, usuarioId), HttpResponse.BodyHandlers.fromLineSubscriber(lector));
+		}
+		CompletableFuture.allOf(lectores.stream().map(lector -> lector.conectado).toArray(CompletableFuture[]::new))
+			.get(120, TimeUnit.SECONDS);
+		long hilos = hilosServidor();
+		Medicion.informar("SSE: %,d suscripciones abiertas; hilos del servidor: %d antes, %d después",
+			SUSCRIPCIONES, hilosAntes, hilos);
+
+		long inicio = System.nanoTime();
+		EventoFacturaDTO evento = BandejaEventos.evento(TipoEvento.FACTURA_CREADA, usuarioId, 10L, "2025/0010",
+			Factura.EstadoFactura.EMITIDA, null, null, new BigDecimal("121.00"));
+		evento.setId(1L);
+		difusorEventos.difundir(evento);
+		CompletableFuture.allOf(lectores.stream().map(lector -> lector.recibido).toArray(CompletableFuture[]::new))
+			.get(120, TimeUnit.SECONDS);
+		double segundos = (System.nanoTime() - inicio) / 1e9;
+		Medicion.informar("SSE: evento entregado a %,d suscripciones en %.2f s", SUSCRIPCIONES, segundos);
+		lectores.forEach(PrimerEvento::cancelar);
+
+		assertTrue(hilos < SUSCRIPCIONES / 10, "Las suscripciones inactivas no deben ocupar un hilo cada una");
+		assertTrue(segundos < 10, "El evento debe llegar a todas las suscripciones en menos de 10 s");
+	}
+
+	/** Hilos del conector (http-nio-*) y del envío de eventos (sse-*), sin los del cliente HTTP. */
+	private static long hilosServidor() {
+		return Thread.getAllStackTraces().keySet().stream()
+			.filter(hilo -> hilo.getName().startsWith("http-nio") || hilo.getName().startsWith("sse-"))
+			.count();
+	}
+
+	private HttpRequest suscripcion(String token, Long usuarioId) {
+		return HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/eventos?usuarioId=" + usuarioId))
+			.header("Authorization", "Bearer " + token)
+			.header("Accept", "text/event-stream")
+			.GET()
+			.build();
+	}
+
+	private HttpResponse<String> login(String login, String password) throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/auth/login"))
+			.header("Content-Type", "application/json")
+			.POST(HttpRequest.BodyPublishers.ofString("{\"login\":\"" + login + "\",\"password\":\"" + password + "\"}"))
+			.build();
+		return http.send(request, HttpResponse.BodyHandlers.ofString());
+	}
+
+	/**
+	 * Lee la conexión sin bloquear ningún hilo: conectada con el primer latido (un
+	 * comentario) y recibido con la primera línea de datos.
+	 */
+	private static final class PrimerEvento implements Flow.Subscriber<String> {
+
+		private final CompletableFuture<Void> conectado = new CompletableFuture<>();
+		private final CompletableFuture<Void> recibido = new CompletableFuture<>();
+		private volatile Flow.Subscription suscripcion;
+
+		@Override
+		public void onSubscribe(Flow.Subscription suscripcion) {
+			this.suscripcion = suscripcion;
+			suscripcion.request(Long.MAX_VALUE);
+		}
+
+		@Override
+		public void onNext(String linea) {
+			if (linea.startsWith(":")) {
+				conectado.complete(null);
+			} else if (linea.startsWith("data:")) {
+				recibido.complete(null);
+			}
+		}
+
+		@Override
+		public void onError(Throwable error) {
+			conectado.completeExceptionally(error);
+			recibido.completeExceptionally(error);
+		}
+
+		@Override
+		public void onComplete() {
+			conectado.completeExceptionally(new IOException("Conexión cerrada sin latido"));
+			recibido.completeExceptionally(new IOException("Conexión cerrada sin recibir el evento"));
+		}
+
+		void cancelar() {
+			suscripcion.cancel();
+		}
+	}
+}
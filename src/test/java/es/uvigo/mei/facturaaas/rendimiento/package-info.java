@@ -0,0 +1,18 @@
+/**
+ * Pruebas de rendimiento, reunidas aquí y fuera de la batería normal: solo se
+ * ejecutan con {@code -Drendimiento=true}.
+ * <pre>
+ * mvn test -Dtest='es.uvigo.mei.facturaaas.rendimiento.*Test' -Drendimiento=true
+ * </pre>
+ * Los microbenchmarks son clases {@code *Benchmark} de JMH, que su prueba lanza en
+ * un proceso aparte y cuyos resultados quedan en target/jmh-*.json; otras mediciones
+ * de una operación corta se repiten tras un calentamiento y se quedan con la mejor
+ * ronda (ver {@link es.uvigo.mei.facturaaas.rendimiento.Medicion}); las de procesos
+ * por lotes y del servidor HTTP arrancan el contexto de Spring y miden
+ * una sola pasada sobre un volumen grande. Las pruebas fallan si no
+ * alcanzan su umbral: relativo a la implementación anterior cuando existe, y
+ * absoluto y holgado en el resto, para que se cumpla en cualquier equipo de
+ * desarrollo. Los resultados se imprimen con el prefijo {@code [rendimiento]} para
+ * compararlos entre versiones.
+ */
+package es.uvigo.mei.facturaaas.rendimiento;
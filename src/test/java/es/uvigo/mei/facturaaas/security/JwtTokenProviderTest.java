@@ -0,0 +1,71 @@
+package es.uvigo.mei.facturaaas.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Verificación de los JWT: claims de un token válido, rechazo de los manipulados o
+ * firmados con otra clave y caducidad de los tokens ya verificados en caché.
+ */
+class JwtTokenProviderTest {
+
+	private static final String SECRETO = "claveDePruebaDeAlMenos256BitsParaFirmarLosTokensJWT";
+
+	@Test
+	void devuelveLosClaimsDeUnTokenValidoYLosReutilizaDeLaCache() {
+		JwtTokenProvider provider = new JwtTokenProvider(SECRETO, 60_000, 100);
+		String token = token(provider, "user");
+
+		Claims claims = provider.parseClaims(token).orElseThrow();
+		assertEquals("user", claims.getSubject());
+		assertTrue(claims.getExpiration().after(new Date()));
+		// La segunda verificación no vuelve a comprobar la firma: mismos claims
+		assertSame(claims, provider.parseClaims(token).orElseThrow());
+	}
+
+	@Test
+	void rechazaTokensManipuladosMalFormadosOFirmadosConOtraClave() {
+		JwtTokenProvider provider = new JwtTokenProvider(SECRETO, 60_000, 100);
+		String token = token(provider, "user");
+		String[] partes = token.split("\\.");
+		String otroSujeto = token(provider, "admin").split("\\.")[1];
+		String ajeno = Jwts.builder()
+			.subject("user")
+			.expiration(new Date(System.currentTimeMillis() + 60_000))
+			.signWith(Keys.hmacShaKeyFor("otraClaveDeAlMenos256BitsParaFirmarTokensAjenos".getBytes(StandardCharsets.UTF_8)))
+			.compact();
+
+		for (String invalido : new String[] {partes[0] + "." + otroSujeto + "." + partes[2], ajeno, "no-es-un-jwt", ""}) {
+			assertEquals(Optional.empty(), provider.parseClaims(invalido), invalido);
+		}
+		// Un token rechazado no queda en la caché como válido
+		assertEquals(Optional.empty(), provider.parseClaims(ajeno));
+	}
+
+	@Test
+	void unTokenEnCacheDejaDeSerValidoAlCaducar() throws InterruptedException {
+		// La expiración del JWT va en segundos: con 2 s, caduca entre 1 y 2 s después de emitirse
+		JwtTokenProvider provider = new JwtTokenProvider(SECRETO, 2_000, 100);
+		String token = token(provider, "user");
+		Claims claims = provider.parseClaims(token).orElseThrow();
+
+		Thread.sleep(Math.max(0, claims.getExpiration().getTime() - System.currentTimeMillis()) + 50);
+
+		assertEquals(Optional.empty(), provider.parseClaims(token));
+		assertEquals(Optional.empty(), provider.parseClaims(token));
+	}
+
+	private static String token(JwtTokenProvider provider, String login) {
+		return provider.generateToken(new UsernamePasswordAuthenticationToken(login, null));
+	}
+}
@@ -0,0 +1,190 @@
+package es.uvigo.mei.facturaaas.security;
+
+import es.uvigo.mei.facturaaas.dto.ClienteDTO;
+import es.uvigo.mei.facturaaas.dto.FacturaDTO;
+import es.uvigo.mei.facturaaas.dto.LineaFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.PlantillaFacturaDTO;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.model.PlantillaFactura;
+import es.uvigo.mei.facturaaas.model.Usuario;
+import es.uvigo.mei.facturaaas.repository.FormaPagoRepository;
+import es.uvigo.mei.facturaaas.repository.PagoRepository;
+import es.uvigo.mei.facturaaas.repository.TipoIVARepository;
+import es.uvigo.mei.facturaaas.repository.UsuarioRepository;
+import es.uvigo.mei.facturaaas.service.ClienteService;
+import es.uvigo.mei.facturaaas.service.FacturaService;
+import es.uvigo.mei.facturaaas.service.PlantillaFacturaService;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Cada comprobación de propiedad debe costar una sola sentencia SQL, filtrada por la
+ * columna usuario_id de la propia tabla y sin uniones.
+ */
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+	+ "es.uvigo.mei.facturaaas.security.ResourceSecurityServiceTest$SentenciasEjecutadas")
+class ResourceSecurityServiceTest {
+
+	@Autowired
+	private ResourceSecurityService resourceSecurity;
+
+	@Autowired
+	private UsuarioRepository usuarioRepository;
+
+	@Autowired
+	private FormaPagoRepository formaPagoRepository;
+
+	@Autowired
+	private PagoRepository pagoRepository;
+
+	@Autowired
+	private ClienteService clienteService;
+
+	@Autowired
+	private FacturaService facturaService;
+
+	@Autowired
+	private PlantillaFacturaService plantillaFacturaService;
+
+	@Autowired
+	private TipoIVARepository tipoIVARepository;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	/** Registra el SQL que Hibernate prepara para comprobar su forma. */
+	public static class SentenciasEjecutadas implements StatementInspector {
+
+		static final List<String> SQL = new CopyOnWriteArrayList<>();
+
+		@Override
+		public String inspect(String sql) {
+			SQL.add(sql);
+			return sql;
+		}
+	}
+
+	private Statistics statistics;
+	private Usuario usuario;
+	private Long clienteId;
+	private Long formaPagoId;
+	private Long facturaId;
+	private Long pagoId;
+	private Long plantillaId;
+
+	@BeforeEach
+	void preparar() {
+		usuario = usuarioRepository.findByLogin("user").orElseThrow();
+		formaPagoId = formaPagoRepository.findByUsuarioId(usuario.getId()).get(0).getId();
+
+		ClienteDTO cliente = new ClienteDTO();
+		cliente.setUsuarioId(usuario.getId());
+		cliente.setNombre("Cliente de prueba");
+		cliente.setNif("12345678Z");
+		clienteId = clienteService.crear(cliente).getId();
+
+		FacturaDTO factura = new FacturaDTO();
+		factura.setUsuarioId(usuario.getId());
+		factura.setClienteId(clienteId);
+		factura.setFormaPagoId(formaPagoId);
+		factura.setEjercicio(2025);
+		factura.setFechaEmision(LocalDate.of(2025, 1, 15));
+		factura.setEstado(Factura.EstadoFactura.EMITIDA);
+		facturaId = facturaService.crear(factura).getId();
+		facturaService.generarPagos(facturaId);
+		pagoId = pagoRepository.findByFacturaId(facturaId).get(0).getId();
+
+		LineaFacturaDTO linea = new LineaFacturaDTO();
+		linea.setConcepto("Mantenimiento");
+		linea.setCantidad(BigDecimal.ONE);
+		linea.setPrecioUnitario(new BigDecimal("100.00"));
+		linea.setTipoIVAId(tipoIVARepository.findByActivoTrue().get(0).getId());
+		PlantillaFacturaDTO plantilla = new PlantillaFacturaDTO();
+		plantilla.setUsuarioId(usuario.getId());
+		plantilla.setClienteId(clienteId);
+		plantilla.setFormaPagoId(formaPagoId);
+		plantilla.setPeriodicidad(PlantillaFactura.Periodicidad.MENSUAL);
+		plantilla.setFechaInicio(LocalDate.of(2025, 1, 1));
+		plantilla.setLineas(List.of(linea));
+		plantillaId = plantillaFacturaService.crear(plantilla).getId();
+
+		statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		statistics.setStatisticsEnabled(true);
+	}
+
+	@AfterEach
+	void limpiar() {
+		SecurityContextHolder.clearContext();
+		statistics.setStatisticsEnabled(false);
+	}
+
+	@Test
+	void propietarioConUnaSentenciaPorComprobacion() {
+		autenticarComo(usuario.getId(), usuario.getLogin(), Usuario.Rol.USUARIO);
+
+		assertTrue(sentencias(1, () -> resourceSecurity.isClienteOwner(clienteId)));
+		assertTrue(sentencias(1, () -> resourceSecurity.isFacturaOwner(facturaId)));
+		assertTrue(sentencias(1, () -> resourceSecurity.isFormaPagoOwner(formaPagoId)));
+		assertTrue(sentencias(1, () -> resourceSecurity.isPagoOwner(pagoId)));
+		assertTrue(sentencias(1, () -> resourceSecurity.isPlantillaOwner(plantillaId)));
+		assertTrue(sentencias(0, () -> resourceSecurity.canAccess(usuario.getId())));
+	}
+
+	@Test
+	void otroUsuarioNoEsPropietario() {
+		Usuario admin = usuarioRepository.findByLogin("admin").orElseThrow();
+		autenticarComo(admin.getId(), admin.getLogin(), Usuario.Rol.USUARIO);
+
+		assertFalse(sentencias(1, () -> resourceSecurity.isClienteOwner(clienteId)));
+		assertFalse(sentencias(1, () -> resourceSecurity.isFacturaOwner(facturaId)));
+		assertFalse(sentencias(1, () -> resourceSecurity.isFormaPagoOwner(formaPagoId)));
+		assertFalse(sentencias(1, () -> resourceSecurity.isPagoOwner(pagoId)));
+		assertFalse(sentencias(1, () -> resourceSecurity.isPlantillaOwner(plantillaId)));
+		assertFalse(sentencias(0, () -> resourceSecurity.canAccess(usuario.getId())));
+	}
+
+	private void autenticarComo(Long id, String login, Usuario.Rol rol) {
+		UsuarioAutenticado principal = new UsuarioAutenticado(id, login, rol, true);
+		SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(
+			principal, null, AuthorityUtils.createAuthorityList("ROLE_" + rol.name())));
+	}
+
+	private boolean sentencias(long esperadas, BooleanSupplier comprobacion) {
+		statistics.clear();
+		SentenciasEjecutadas.SQL.clear();
+		boolean resultado = comprobacion.getAsBoolean();
+		assertEquals(esperadas, statistics.getPrepareStatementCount());
+		if (esperadas > 0) {
+			assertSinUniones(SentenciasEjecutadas.SQL.get(0));
+		}
+		return resultado;
+	}
+
+	/** Una consulta sobre la tabla del recurso, por su id y su propia columna usuario_id. */
+	private static void assertSinUniones(String sql) {
+		String consulta = sql.toLowerCase(Locale.ROOT);
+		assertFalse(consulta.contains(" join "), sql);
+		assertFalse(consulta.contains("usuario "), sql);
+		assertTrue(consulta.matches("(?s).*\\w+\\.usuario_id\\s*=\\s*\\?.*"), sql);
+	}
+}
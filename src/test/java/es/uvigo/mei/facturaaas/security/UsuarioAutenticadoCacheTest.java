@@ -0,0 +1,86 @@
+package es.uvigo.mei.facturaaas.security;
+
+import es.uvigo.mei.facturaaas.dto.UsuarioCreateDTO;
+import es.uvigo.mei.facturaaas.dto.UsuarioDTO;
+import es.uvigo.mei.facturaaas.model.Usuario;
+import es.uvigo.mei.facturaaas.service.UsuarioService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Una petición concurrente que recarga el usuario antes del commit de un cambio no
+ * debe dejar en la caché la fila anterior.
+ */
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+class UsuarioAutenticadoCacheTest {
+
+	@Autowired
+	private UsuarioAutenticadoCache usuarioAutenticadoCache;
+
+	@Autowired
+	private UsuarioService usuarioService;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Test
+	void laBajaDeUnUsuarioNoQuedaOcultaPorUnaRecargaAnteriorAlCommit() throws Exception {
+		UsuarioDTO usuario = usuario();
+		assertTrue(usuarioAutenticadoCache.obtener(usuario.getLogin()).orElseThrow().activo());
+
+		new TransactionTemplate(transactionManager).executeWithoutResult(estado -> {
+			usuarioService.eliminarLogicamente(usuario.getId());
+			// Otra petición autenticada del mismo usuario, antes del commit: ve la fila anterior
+			assertTrue(recargaConcurrente(usuario.getLogin()));
+		});
+
+		assertFalse(usuarioAutenticadoCache.obtener(usuario.getLogin()).orElseThrow().activo());
+	}
+
+	@Test
+	void elCambioDeRolSeVeTrasElCommitYUnRollbackNoLoAltera() throws Exception {
+		UsuarioDTO usuario = usuario();
+		usuarioAutenticadoCache.obtener(usuario.getLogin());
+		usuario.setRol(Usuario.Rol.ADMINISTRADOR);
+
+		TransactionTemplate transaccion = new TransactionTemplate(transactionManager);
+		transaccion.executeWithoutResult(estado -> {
+			usuarioService.actualizar(usuario.getId(), usuario);
+			recargaConcurrente(usuario.getLogin());
+			estado.setRollbackOnly();
+		});
+		assertEquals(Usuario.Rol.USUARIO, usuarioAutenticadoCache.obtener(usuario.getLogin()).orElseThrow().rol());
+
+		transaccion.executeWithoutResult(estado -> {
+			usuarioService.actualizar(usuario.getId(), usuario);
+			recargaConcurrente(usuario.getLogin());
+		});
+		assertEquals(Usuario.Rol.ADMINISTRADOR, usuarioAutenticadoCache.obtener(usuario.getLogin()).orElseThrow().rol());
+	}
+
+	/** Carga el usuario en la caché desde otro hilo (otra conexión) y devuelve si está activo. */
+	private boolean recargaConcurrente(String login) {
+		try {
+			return CompletableFuture.supplyAsync(() -> usuarioAutenticadoCache.obtener(login).orElseThrow().activo())
+				.get(10, TimeUnit.SECONDS);
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private UsuarioDTO usuario() {
+		String login = "c" + UUID.randomUUID().toString().substring(0, 8);
+		return usuarioService.crear(new UsuarioCreateDTO(login, "secreto123", "Usuario " + login,
+			login + "@ejemplo.es"));
+	}
+}
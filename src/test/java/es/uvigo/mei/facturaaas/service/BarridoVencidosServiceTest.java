@@ -0,0 +1,216 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.dto.ClienteDTO;
+import es.uvigo.mei.facturaaas.dto.ConciliacionPagoDTO;
+import es.uvigo.mei.facturaaas.dto.FacturaDTO;
+import es.uvigo.mei.facturaaas.dto.FormaPagoDTO;
+import es.uvigo.mei.facturaaas.dto.LineaFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.PagoDTO;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.repository.FacturaRepository;
+import es.uvigo.mei.facturaaas.repository.TipoIVARepository;
+import es.uvigo.mei.facturaaas.repository.UsuarioRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Barrido de pagos vencidos: UPDATE sobre conjuntos, idempotencia y arrendamiento entre nodos.
+ */
+@SpringBootTest
+class BarridoVencidosServiceTest {
+
+	private static final LocalDate EMISION = LocalDate.of(2025, 1, 10);
+
+	@Autowired
+	private BarridoVencidosService barridoVencidosService;
+
+	@Autowired
+	private FacturaService facturaService;
+
+	@Autowired
+	private PagoService pagoService;
+
+	@Autowired
+	private ClienteService clienteService;
+
+	@Autowired
+	private FormaPagoService formaPagoService;
+
+	@Autowired
+	private FacturaRepository facturaRepository;
+
+	@Autowired
+	private TipoIVARepository tipoIVARepository;
+
+	@Autowired
+	private UsuarioRepository usuarioRepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Autowired
+	private BloqueoTareas bloqueoTareas;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Test
+	void reclamaFacturasConPagosVencidosUnaSolaVez() {
+		Long usuarioId = usuarioRepository.findByLogin("user").orElseThrow().getId();
+		Long facturaId = facturaConDosPagos(usuarioId);
+		LocalDate hoy = EMISION.plusDays(10);
+
+		BarridoVencidosService.Resultado resultado = barridoVencidosService.ejecutar(hoy);
+
+		assertTrue(resultado.pagos() >= 1);
+		assertTrue(resultado.facturas() >= 1);
+		assertEquals(Factura.EstadoFactura.RECLAMADA, facturaRepository.findById(facturaId).orElseThrow().getEstado());
+		List<PagoDTO> pagos = pagoService.obtenerPorUsuario(usuarioId).stream()
+			.filter(pago -> pago.getFacturaId().equals(facturaId))
+			.sorted(Comparator.comparing(PagoDTO::getNumeroPago))
+			.toList();
+		assertEquals(hoy, pagos.get(0).getFechaReclamacion());
+		assertNull(pagos.get(1).getFechaReclamacion());
+
+		assertEquals(new BarridoVencidosService.Resultado(0, 0), barridoVencidosService.ejecutar(hoy));
+		assertTrue(meterRegistry.get("barrido.vencidos.duracion").timer().count() >= 2);
+	}
+
+	@Test
+	void losEventosDeUnaFacturaSiguenElOrdenDeConfirmacionConUnaConciliacionConcurrente() throws Exception {
+		Long usuarioId = usuarioRepository.findByLogin("user").orElseThrow().getId();
+		Long facturaId = facturaConDosPagos(usuarioId);
+		LocalDate hoy = EMISION.plusDays(10);
+		PagoDTO segundo = pagoService.obtenerPorUsuario(usuarioId).stream()
+			.filter(pago -> pago.getFacturaId().equals(facturaId) && pago.getNumeroPago() == 2)
+			.findFirst().orElseThrow();
+
+		// La conciliación tiene la factura bloqueada cuando empieza el barrido y se confirma antes
+		CompletableFuture<BarridoVencidosService.Resultado> barrido = new CompletableFuture<>();
+		new TransactionTemplate(transactionManager).executeWithoutResult(estado -> {
+			jdbcTemplate.queryForList("SELECT id FROM factura WHERE id = ? FOR UPDATE", Long.class, facturaId);
+			CompletableFuture.runAsync(() -> barrido.complete(barridoVencidosService.ejecutar(hoy)));
+			esperarSesionBloqueada();
+			pagoService.conciliar(usuarioId, List.of(
+				new ConciliacionPagoDTO(segundo.getId(), null, null, hoy, segundo.getImporte())));
+		});
+		assertEquals(1, barrido.get(10, TimeUnit.SECONDS).facturas());
+
+		List<String> tipos = jdbcTemplate.queryForList("SELECT tipo FROM evento_factura WHERE factura_id = ? ORDER BY id",
+			String.class, facturaId);
+		assertEquals(List.of("PAGO_COBRADO", "FACTURA_ACTUALIZADA"), tipos.subList(tipos.size() - 2, tipos.size()));
+		assertEquals(Factura.EstadoFactura.RECLAMADA, facturaRepository.findById(facturaId).orElseThrow().getEstado());
+	}
+
+	@Test
+	void noSeEjecutaMientrasOtroNodoTieneElArrendamiento() {
+		barridoVencidosService.ejecutar(EMISION);
+		jdbcTemplate.update("UPDATE bloqueo_tarea SET propietario = 'otro-nodo', bloqueado_hasta = ? WHERE nombre = ?",
+			Timestamp.valueOf(LocalDateTime.now().plusHours(1)), BarridoVencidosService.TAREA);
+		try {
+			assertNull(barridoVencidosService.ejecutar(EMISION));
+		} finally {
+			jdbcTemplate.update("UPDATE bloqueo_tarea SET bloqueado_hasta = ? WHERE nombre = ?",
+				Timestamp.valueOf(LocalDateTime.now().minusHours(1)), BarridoVencidosService.TAREA);
+		}
+		assertEquals(new BarridoVencidosService.Resultado(0, 0), barridoVencidosService.ejecutar(EMISION));
+	}
+
+	@Test
+	void unArrendamientoAjenoSeRechazaSinIntentarCrearLaFila() {
+		String tarea = "prueba-" + System.nanoTime();
+		List<DataAccessException> errores = new CopyOnWriteArrayList<>();
+		BloqueoTareas otroNodo = new BloqueoTareas(transactionManager);
+		ReflectionTestUtils.setField(otroNodo, "jdbcTemplate", new JdbcTemplate(jdbcTemplate.getDataSource()) {
+			@Override
+			public int update(String sql, Object... args) {
+				try {
+					return super.update(sql, args);
+				} catch (DataAccessException ex) {
+					errores.add(ex);
+					throw ex;
+				}
+			}
+		});
+
+		assertTrue(bloqueoTareas.adquirir(tarea, Duration.ofMinutes(5)));
+		assertFalse(otroNodo.adquirir(tarea, Duration.ofMinutes(5)));
+		// El INSERT ... WHERE NOT EXISTS no inserta nada en vez de chocar con la clave primaria
+		assertEquals(List.of(), errores);
+		assertTrue(bloqueoTareas.adquirir(tarea, Duration.ofMinutes(5)));
+
+		bloqueoTareas.liberar(tarea);
+		assertTrue(otroNodo.adquirir(tarea, Duration.ofMinutes(5)));
+		assertFalse(bloqueoTareas.adquirir(tarea, Duration.ofMinutes(5)));
+		assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM bloqueo_tarea WHERE nombre = ?",
+			Integer.class, tarea));
+	}
+
+	private void esperarSesionBloqueada() {
+		long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (jdbcTemplate.queryForObject("SELECT COUNT(*) FROM INFORMATION_SCHEMA.SESSIONS WHERE BLOCKER_ID IS NOT NULL",
+				Integer.class) == 0) {
+			assertTrue(System.nanoTime() < limite, "El barrido no ha llegado a esperar por la factura");
+			Thread.onSpinWait();
+		}
+	}
+
+	private Long facturaConDosPagos(Long usuarioId) {
+		FormaPagoDTO formaPago = new FormaPagoDTO();
+		formaPago.setUsuarioId(usuarioId);
+		formaPago.setDescripcion("Dos plazos");
+		formaPago.setNumeroPagos(2);
+		formaPago.setPeriodicidadDias(30);
+		Long formaPagoId = formaPagoService.crear(formaPago).getId();
+
+		ClienteDTO cliente = new ClienteDTO();
+		cliente.setUsuarioId(usuarioId);
+		cliente.setNombre("Cliente moroso");
+		cliente.setNif("55555555K");
+		cliente.setEmail("moroso@ejemplo.es");
+		Long clienteId = clienteService.crear(cliente).getId();
+
+		LineaFacturaDTO linea = new LineaFacturaDTO();
+		linea.setConcepto("Servicios");
+		linea.setCantidad(BigDecimal.ONE);
+		linea.setPrecioUnitario(new BigDecimal("100.00"));
+		linea.setPorcentajeDescuento(BigDecimal.ZERO);
+		linea.setTipoIVAId(tipoIVARepository.findByActivoTrue().get(0).getId());
+		FacturaDTO factura = new FacturaDTO();
+		factura.setUsuarioId(usuarioId);
+		factura.setClienteId(clienteId);
+		factura.setFormaPagoId(formaPagoId);
+		factura.setEjercicio(EMISION.getYear());
+		factura.setFechaEmision(EMISION);
+		factura.setEstado(Factura.EstadoFactura.EMITIDA);
+		factura.setLineas(List.of(linea));
+		Long facturaId = facturaService.crear(factura).getId();
+		facturaService.generarPagos(facturaId);
+		return facturaId;
+	}
+}
@@ -0,0 +1,111 @@
+package es.uvigo.mei.facturaaas.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Búsqueda de clientes con el motor POSTGRESQL: la subcadena solo se busca con términos
+ * de al menos tres caracteres, y contra una base de datos real da los mismos clientes
+ * que el índice en memoria.
+ * <p>
+ * La prueba contra PostgreSQL necesita una base de datos vacía o de pruebas, en la que
+ * se aplica schema-postgresql.sql:
+ * {@code mvn test -Dtest=BuscadorClientesTest -Dpostgresql.url=jdbc:postgresql://localhost/facturaaas_test
+ * -Dpostgresql.usuario=... -Dpostgresql.password=...}
+ */
+class BuscadorClientesTest {
+
+	private static final String[][] CLIENTES = {
+		{"Talleres Núñez S.L.", "B15000001", "A Coruña", "info@nunez.es"},
+		{"Comercial Ourense", "22222222-J", "Ourense", "ventas@ourense.gal"},
+		{"Alcoa", null, "Avilés", null},
+		{"Construcciones Costa", null, "Vigo", null},
+	};
+
+	@Test
+	void losTerminosCortosNoSeBuscanComoSubcadena() {
+		SentenciasRegistradas jdbcTemplate = new SentenciasRegistradas();
+		BuscadorClientes buscador = postgresql(jdbcTemplate);
+
+		buscador.buscar(1L, "Co", 0, 10);
+		// Basta un término corto para no usar el LIKE: en memoria tampoco casaría en mitad de palabra
+		buscador.buscar(1L, "lugo co", 0, 10);
+		for (String sql : jdbcTemplate.sentencias) {
+			assertFalse(sql.contains("LIKE"), sql);
+		}
+		assertEquals(List.of("co:*", 1L, "co", 10, 0), jdbcTemplate.argumentos.get(0));
+		assertEquals(List.of("lugo:* & co:*", 1L, "lugo co", 10, 0), jdbcTemplate.argumentos.get(1));
+
+		buscador.buscar(1L, "Talleres Núñez", 20, 10);
+		assertTrue(jdbcTemplate.sentencias.get(2).contains("LIKE"), jdbcTemplate.sentencias.get(2));
+		assertEquals(List.of("talleres:* & nunez:*", 1L, "%talleres nunez%", "talleres nunez", 10, 20),
+			jdbcTemplate.argumentos.get(2));
+		assertEquals(List.of(), buscador.buscar(1L, "  ", 0, 10));
+		assertEquals(3, jdbcTemplate.sentencias.size());
+	}
+
+	@Test
+	@EnabledIfSystemProperty(named = "postgresql.url", matches = ".+")
+	void postgresqlDevuelveLosMismosClientesQueElIndiceEnMemoria() {
+		DriverManagerDataSource dataSource = new DriverManagerDataSource(System.getProperty("postgresql.url"),
+			System.getProperty("postgresql.usuario"), System.getProperty("postgresql.password"));
+		new ResourceDatabasePopulator(new ClassPathResource("schema-postgresql.sql")).execute(dataSource);
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+
+		String login = "b" + UUID.randomUUID().toString().substring(0, 8);
+		Long usuarioId = jdbcTemplate.queryForObject("INSERT INTO usuario (login, password, email, nombre, rol) " +
+			"VALUES (?, 'x', ?, ?, 'USUARIO') RETURNING id", Long.class, login, login + "@ejemplo.es", login);
+		IndiceClientes indice = new IndiceClientes();
+		try {
+			for (String[] cliente : CLIENTES) {
+				Long id = jdbcTemplate.queryForObject("INSERT INTO cliente (nombre, nif, localidad, email, usuario_id) " +
+					"VALUES (?, ?, ?, ?, ?) RETURNING id", Long.class,
+					cliente[0], cliente[1], cliente[2], cliente[3], usuarioId);
+				indice.indexar(id, cliente[0], cliente[1], cliente[2], cliente[3]);
+			}
+			BuscadorClientes buscador = postgresql(jdbcTemplate);
+
+			for (String texto : new String[] {"CORUNA", "nuñez", "b15000001", "22222222-j", "ourense.gal", "co",
+					"lco", "vil", "coruña ourense", "costa vigo"}) {
+				assertEquals(new HashSet<>(indice.buscar(texto, 0, 10)),
+					new HashSet<>(buscador.buscar(usuarioId, texto, 0, 10)), texto);
+			}
+			assertEquals(1, buscador.buscar(usuarioId, "co", 1, 1).size());
+		} finally {
+			jdbcTemplate.update("DELETE FROM cliente WHERE usuario_id = ?", usuarioId);
+			jdbcTemplate.update("DELETE FROM usuario WHERE id = ?", usuarioId);
+		}
+	}
+
+	private static BuscadorClientes postgresql(JdbcTemplate jdbcTemplate) {
+		return new BuscadorClientes(jdbcTemplate, new SimpleMeterRegistry(), BuscadorClientes.Motor.POSTGRESQL,
+			100, 600);
+	}
+
+	/** Registra las consultas en vez de ejecutarlas. */
+	private static class SentenciasRegistradas extends JdbcTemplate {
+
+		private final List<String> sentencias = new ArrayList<>();
+		private final List<List<Object>> argumentos = new ArrayList<>();
+
+		@Override
+		public <T> List<T> queryForList(String sql, Class<T> tipo, Object... args) {
+			sentencias.add(sql);
+			argumentos.add(List.of(args));
+			return List.of();
+		}
+	}
+}
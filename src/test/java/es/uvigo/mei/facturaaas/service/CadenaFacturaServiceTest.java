@@ -0,0 +1,214 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.dto.ClienteDTO;
+import es.uvigo.mei.facturaaas.dto.FacturaDTO;
+import es.uvigo.mei.facturaaas.dto.FormaPagoDTO;
+import es.uvigo.mei.facturaaas.dto.LineaFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.UsuarioCreateDTO;
+import es.uvigo.mei.facturaaas.dto.VerificacionCadenaDTO;
+import es.uvigo.mei.facturaaas.exception.ConflictoException;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.repository.TipoIVARepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Cadena de huellas de las facturas: encadenamiento al emitir (también en lotes y con
+ * facturas concurrentes), modificaciones que no la rompen y detección de
+ * manipulaciones en la verificación.
+ */
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+class CadenaFacturaServiceTest {
+
+	@Autowired
+	private CadenaFacturaService cadenaFacturaService;
+
+	@Autowired
+	private FacturaService facturaService;
+
+	@Autowired
+	private UsuarioService usuarioService;
+
+	@Autowired
+	private ClienteService clienteService;
+
+	@Autowired
+	private FormaPagoService formaPagoService;
+
+	@Autowired
+	private TipoIVARepository tipoIVARepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void encadenaLasFacturasAlEmitirlasYVerificaDesdeElUltimoPuntoComprobado() {
+		Referencias referencias = referencias();
+		List<FacturaDTO> facturas = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			facturas.add(facturaService.crear(factura(referencias, 2025, i + 1)));
+		}
+		List<FacturaDTO> lote = List.of(factura(referencias, 2025, 1), factura(referencias, 2024, 2));
+		facturaService.crearLote(referencias.usuarioId(), lote).forEach(resultado -> assertTrue(resultado.isCorrecto()));
+
+		assertEquals(1L, facturas.get(0).getSecuenciaRegistro());
+		assertEquals(3L, facturas.get(2).getSecuenciaRegistro());
+		assertEquals(64, facturas.get(2).getHuella().length());
+		VerificacionCadenaDTO verificacion = cadenaFacturaService.verificar(referencias.usuarioId(), null, null);
+		assertTrue(verificacion.isCorrecta(), verificacion.getError());
+		assertEquals(5, verificacion.getRegistrosVerificados());
+		assertEquals(5L, verificacion.getUltimaSecuencia());
+
+		facturaService.crear(factura(referencias, 2025, 2));
+		VerificacionCadenaDTO incremental = cadenaFacturaService.verificar(referencias.usuarioId(),
+			verificacion.getUltimaSecuencia(), verificacion.getUltimaHuella());
+		assertTrue(incremental.isCorrecta(), incremental.getError());
+		assertEquals(1, incremental.getRegistrosVerificados());
+		assertEquals(6L, incremental.getUltimaSecuencia());
+
+		VerificacionCadenaDTO puntoFalso = cadenaFacturaService.verificar(referencias.usuarioId(),
+			verificacion.getUltimaSecuencia(), facturas.get(0).getHuella());
+		assertFalse(puntoFalso.isCorrecta());
+	}
+
+	@Test
+	void detectaFacturasModificadasYRegistrosQueFaltan() {
+		Referencias referencias = referencias();
+		List<FacturaDTO> facturas = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			facturas.add(facturaService.crear(factura(referencias, 2025, 1)));
+		}
+
+		jdbcTemplate.update("UPDATE factura SET suma_total = suma_total + 1 WHERE id = ?", facturas.get(1).getId());
+		VerificacionCadenaDTO modificada = cadenaFacturaService.verificar(referencias.usuarioId(), null, null);
+		assertFalse(modificada.isCorrecta());
+		assertEquals(facturas.get(1).getId(), modificada.getFacturaId());
+		assertEquals(1, modificada.getRegistrosVerificados());
+		jdbcTemplate.update("UPDATE factura SET suma_total = suma_total - 1 WHERE id = ?", facturas.get(1).getId());
+		assertTrue(cadenaFacturaService.verificar(referencias.usuarioId(), null, null).isCorrecta());
+
+		jdbcTemplate.update("UPDATE factura SET secuencia_registro = NULL WHERE id = ?", facturas.get(2).getId());
+		VerificacionCadenaDTO hueco = cadenaFacturaService.verificar(referencias.usuarioId(), null, null);
+		assertFalse(hueco.isCorrecta());
+		assertEquals(facturas.get(3).getId(), hueco.getFacturaId());
+
+		jdbcTemplate.update("UPDATE factura SET secuencia_registro = 3 WHERE id = ?", facturas.get(2).getId());
+		jdbcTemplate.update("UPDATE factura SET secuencia_registro = NULL WHERE id = ?", facturas.get(3).getId());
+		VerificacionCadenaDTO truncada = cadenaFacturaService.verificar(referencias.usuarioId(), null, null);
+		assertFalse(truncada.isCorrecta());
+		assertEquals(3, truncada.getRegistrosVerificados());
+	}
+
+	@Test
+	void unaFacturaEncadenadaSoloAdmiteCambiosQueNoEntranEnSuHuella() {
+		Referencias referencias = referencias();
+		Long id = facturaService.crear(factura(referencias, 2025, 2)).getId();
+		facturaService.crear(factura(referencias, 2025, 1));
+
+		FacturaDTO importe = facturaService.obtenerPorId(id);
+		importe.getLineas().get(0).setPrecioUnitario(new BigDecimal("120.00"));
+		assertThrows(ConflictoException.class, () -> facturaService.actualizar(id, importe));
+		FacturaDTO fecha = facturaService.obtenerPorId(id);
+		fecha.setFechaEmision(fecha.getFechaEmision().plusDays(1));
+		assertThrows(ConflictoException.class, () -> facturaService.actualizar(id, fecha));
+		assertEquals(0, new BigDecimal("99.95").compareTo(
+			facturaService.obtenerPorId(id).getLineas().get(0).getPrecioUnitario()));
+
+		// Concepto, comentarios y anulación no forman parte de la huella
+		FacturaDTO cambios = facturaService.obtenerPorId(id);
+		cambios.getLineas().get(0).setConcepto("Mantenimiento preventivo");
+		cambios.setComentarios("Revisada");
+		FacturaDTO anulacion = facturaService.actualizar(id, cambios);
+		anulacion.setEstado(Factura.EstadoFactura.ANULADA);
+		facturaService.actualizar(id, anulacion);
+
+		VerificacionCadenaDTO verificacion = cadenaFacturaService.verificar(referencias.usuarioId(), null, null);
+		assertTrue(verificacion.isCorrecta(), verificacion.getError());
+		assertEquals(2, verificacion.getRegistrosVerificados());
+	}
+
+	@Test
+	void lasFacturasConcurrentesDeVariosEmisoresMantienenCadaCadenaIntacta() throws Exception {
+		List<Referencias> emisores = List.of(referencias(), referencias());
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<FacturaDTO>> creadas = new ArrayList<>();
+			for (int i = 0; i < 40; i++) {
+				Referencias referencias = emisores.get(i % 2);
+				int lineas = 1 + i % 3;
+				creadas.add(executor.submit(() -> facturaService.crear(factura(referencias, 2025, lineas))));
+			}
+			for (Future<FacturaDTO> creada : creadas) {
+				creada.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		for (Referencias referencias : emisores) {
+			VerificacionCadenaDTO verificacion = cadenaFacturaService.verificar(referencias.usuarioId(), null, null);
+			assertTrue(verificacion.isCorrecta(), verificacion.getError());
+			assertEquals(20, verificacion.getRegistrosVerificados());
+		}
+	}
+
+	private record Referencias(Long usuarioId, Long clienteId, Long formaPagoId, Long tipoIVAId) {
+	}
+
+	private static FacturaDTO factura(Referencias referencias, int ejercicio, int lineas) {
+		FacturaDTO factura = new FacturaDTO();
+		factura.setUsuarioId(referencias.usuarioId());
+		factura.setEjercicio(ejercicio);
+		factura.setClienteId(referencias.clienteId());
+		factura.setFormaPagoId(referencias.formaPagoId());
+		factura.setFechaEmision(LocalDate.of(ejercicio, 5, 20));
+		factura.setEstado(Factura.EstadoFactura.EMITIDA);
+		for (int i = 1; i <= lineas; i++) {
+			LineaFacturaDTO linea = new LineaFacturaDTO();
+			linea.setNumeroLinea(i);
+			linea.setConcepto("Mantenimiento " + i);
+			linea.setCantidad(BigDecimal.valueOf(i));
+			linea.setPrecioUnitario(new BigDecimal("99.95"));
+			linea.setTipoIVAId(referencias.tipoIVAId());
+			factura.getLineas().add(linea);
+		}
+		return factura;
+	}
+
+	private Referencias referencias() {
+		String login = "u" + UUID.randomUUID().toString().substring(0, 8);
+		Long usuarioId = usuarioService.crear(new UsuarioCreateDTO(login, "secreto123", "Usuario " + login,
+			login + "@ejemplo.es")).getId();
+
+		ClienteDTO cliente = new ClienteDTO();
+		cliente.setUsuarioId(usuarioId);
+		cliente.setNombre("Conservas Castro S.A.");
+		cliente.setNif("A36000002");
+		cliente.setDomicilio("Avenida de Beiramar, 40");
+		cliente.setCodigoPostal("36202");
+		cliente.setLocalidad("Vigo");
+
+		FormaPagoDTO formaPago = new FormaPagoDTO();
+		formaPago.setUsuarioId(usuarioId);
+		formaPago.setDescripcion("Transferencia");
+		formaPago.setNumeroPagos(1);
+		formaPago.setPeriodicidadDias(30);
+
+		return new Referencias(usuarioId, clienteService.crear(cliente).getId(),
+			formaPagoService.crear(formaPago).getId(), tipoIVARepository.findByActivoTrue().get(0).getId());
+	}
+}
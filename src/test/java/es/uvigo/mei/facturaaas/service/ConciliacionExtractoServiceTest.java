@@ -0,0 +1,289 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.dto.ClienteDTO;
+import es.uvigo.mei.facturaaas.dto.FacturaDTO;
+import es.uvigo.mei.facturaaas.dto.FormaPagoDTO;
+import es.uvigo.mei.facturaaas.dto.LineaFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.MovimientoNoConciliadoDTO;
+import es.uvigo.mei.facturaaas.dto.PagoDTO;
+import es.uvigo.mei.facturaaas.dto.ResultadoImportacionExtractoDTO;
+import es.uvigo.mei.facturaaas.dto.UsuarioCreateDTO;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.model.Pago;
+import es.uvigo.mei.facturaaas.repository.FacturaRepository;
+import es.uvigo.mei.facturaaas.repository.TipoIVARepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Importación de extractos Norma 43 y CAMT.053 contra pagos pendientes.
+ */
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+class ConciliacionExtractoServiceTest {
+
+	private static final DateTimeFormatter AAMMDD = DateTimeFormatter.ofPattern("yyMMdd");
+	private static final LocalDate EMISION = LocalDate.of(2026, 3, 2);
+
+	@Autowired
+	private ConciliacionExtractoService conciliacionExtractoService;
+
+	@Autowired
+	private UsuarioService usuarioService;
+
+	@Autowired
+	private ClienteService clienteService;
+
+	@Autowired
+	private FormaPagoService formaPagoService;
+
+	@Autowired
+	private FacturaService facturaService;
+
+	@Autowired
+	private PagoService pagoService;
+
+	@Autowired
+	private FacturaRepository facturaRepository;
+
+	@Autowired
+	private TipoIVARepository tipoIVARepository;
+
+	@Test
+	void norma43ConciliaPorNifOPorImporteUnico() throws Exception {
+		Long usuarioId = nuevoUsuario();
+		Long formaPagoId = formaPagoUnPago(usuarioId);
+		ClienteDTO ana = cliente(usuarioId, "11111111H", null);
+		ClienteDTO luis = cliente(usuarioId, "22222222J", null);
+		PagoDTO pagoAna = factura(usuarioId, ana.getId(), formaPagoId, "120.00");
+		PagoDTO pagoLuis = factura(usuarioId, luis.getId(), formaPagoId, "120.00");
+		PagoDTO pagoUnico = factura(usuarioId, luis.getId(), formaPagoId, "75.10");
+
+		String extracto = String.join("\r\n",
+			relleno("11"),
+			registro22(EMISION.plusDays(3), true, pagoLuis.getImporte(), "REC001"),
+			registro23("TRANSFERENCIA DE LUIS NIF 22222222-J"),
+			registro22(EMISION.plusDays(4), true, pagoUnico.getImporte(), "REC002"),
+			registro22(EMISION.plusDays(4), true, new BigDecimal("999.99"), "REC003"),
+			registro22(EMISION.plusDays(5), false, new BigDecimal("50.00"), "COMISION"),
+			relleno("33"),
+			relleno("88"));
+
+		ResultadoImportacionExtractoDTO resultado = importar(usuarioId, ConciliacionExtractoService.Formato.NORMA43, extracto);
+
+		assertEquals(4, resultado.getMovimientos());
+		assertEquals(3, resultado.getAbonos());
+		assertEquals(2, resultado.getConciliados());
+		assertEquals(2, resultado.getFacturasPagadas());
+		assertEquals(1, resultado.getSinConciliar());
+		assertEquals(1, resultado.getNoConciliados().size());
+		assertEquals(5, resultado.getNoConciliados().get(0).getPosicion());
+		assertEquals(Pago.EstadoPago.PAGADO, pagoService.obtenerPorId(pagoLuis.getId()).getEstado());
+		assertEquals(EMISION.plusDays(3), pagoService.obtenerPorId(pagoLuis.getId()).getFechaPago());
+		assertEquals(Pago.EstadoPago.PAGADO, pagoService.obtenerPorId(pagoUnico.getId()).getEstado());
+		assertEquals(Pago.EstadoPago.PENDIENTE, pagoService.obtenerPorId(pagoAna.getId()).getEstado());
+		assertEquals(Factura.EstadoFactura.PAGADA,
+			facturaRepository.findById(pagoLuis.getFacturaId()).orElseThrow().getEstado());
+	}
+
+	@Test
+	void camt053ConciliaPorCuentaDelDeudorYNoAdivinaSiHayVariosCandidatos() throws Exception {
+		Long usuarioId = nuevoUsuario();
+		Long formaPagoId = formaPagoUnPago(usuarioId);
+		ClienteDTO ana = cliente(usuarioId, "33333333P", "ES91 2100 0418 4502 0005 1332");
+		ClienteDTO luis = cliente(usuarioId, "44444444A", "ES79 2100 0813 6101 2345 6789");
+		PagoDTO pagoAna = factura(usuarioId, ana.getId(), formaPagoId, "300.00");
+		PagoDTO pagoLuis = factura(usuarioId, luis.getId(), formaPagoId, "300.00");
+
+		String extracto = """
+			<?xml version="1.0" encoding="UTF-8"?>
+			<Document xmlns="urn:iso:std:iso:20022:tech:xsd:camt.053.001.02">
+			  <BkToCstmrStmt><Stmt>
+			    %s
+			    %s
+			  </Stmt></BkToCstmrStmt>
+			</Document>
+			""".formatted(
+				apunteCamt(pagoLuis.getImporte(), EMISION.plusDays(10), null, "PAGO FACTURA"),
+				apunteCamt(pagoAna.getImporte(), EMISION.plusDays(10), "ES9121000418450200051332", "FACTURA MARZO"));
+
+		ResultadoImportacionExtractoDTO resultado = importar(usuarioId, ConciliacionExtractoService.Formato.CAMT053, extracto);
+
+		assertEquals(2, resultado.getAbonos());
+		assertEquals(1, resultado.getConciliados());
+		assertEquals(Pago.EstadoPago.PAGADO, pagoService.obtenerPorId(pagoAna.getId()).getEstado());
+		assertEquals(Pago.EstadoPago.PENDIENTE, pagoService.obtenerPorId(pagoLuis.getId()).getEstado());
+		MovimientoNoConciliadoDTO noConciliado = resultado.getNoConciliados().get(0);
+		assertEquals(1, noConciliado.getPosicion());
+		assertTrue(noConciliado.getMotivo().startsWith("Varios pagos pendientes"), noConciliado.getMotivo());
+	}
+
+	@Test
+	void unApunteDeUnClienteConocidoNoSeConciliaConElPagoDeOtroPorImporte() throws Exception {
+		Long usuarioId = nuevoUsuario();
+		Long formaPagoId = formaPagoUnPago(usuarioId);
+		ClienteDTO ana = cliente(usuarioId, "55555555K", null);
+		ClienteDTO luis = cliente(usuarioId, "66666666Q", null);
+		PagoDTO pagoAna = factura(usuarioId, ana.getId(), formaPagoId, "10.00");
+		PagoDTO pagoLuis = factura(usuarioId, luis.getId(), formaPagoId, "240.00");
+
+		String extracto = String.join("\r\n",
+			relleno("11"),
+			// NIF de Ana, con el importe del único pago pendiente de Luis
+			registro22(EMISION.plusDays(3), true, pagoLuis.getImporte(), "REC001"),
+			registro23("TRANSFERENCIA NIF 55555555K"),
+			// NIF que no es de ningún cliente: se empareja solo por importe
+			registro22(EMISION.plusDays(3), true, pagoLuis.getImporte(), "REC002"),
+			registro23("TRANSFERENCIA NIF 77777777B"),
+			relleno("33"),
+			relleno("88"));
+
+		ResultadoImportacionExtractoDTO resultado = importar(usuarioId, ConciliacionExtractoService.Formato.NORMA43, extracto);
+
+		assertEquals(1, resultado.getConciliados());
+		assertEquals(1, resultado.getSinConciliar());
+		MovimientoNoConciliadoDTO noConciliado = resultado.getNoConciliados().get(0);
+		assertEquals(2, noConciliado.getPosicion());
+		assertTrue(noConciliado.getMotivo().startsWith("El cliente identificado"), noConciliado.getMotivo());
+		assertEquals(Pago.EstadoPago.PAGADO, pagoService.obtenerPorId(pagoLuis.getId()).getEstado());
+		assertEquals(Pago.EstadoPago.PENDIENTE, pagoService.obtenerPorId(pagoAna.getId()).getEstado());
+	}
+
+	@Test
+	void elInformeSoloDetallaLosPrimerosApuntesSinConciliar() throws Exception {
+		Long usuarioId = nuevoUsuario();
+		List<String> lineas = new ArrayList<>(List.of(relleno("11")));
+		for (int i = 0; i < 5; i++) {
+			lineas.add(registro22(EMISION.plusDays(i), true, new BigDecimal("999.99"), "REC00" + i));
+		}
+		lineas.add(relleno("33"));
+		lineas.add(relleno("88"));
+
+		int maximo = (int) ReflectionTestUtils.getField(conciliacionExtractoService, "noConciliadosMaximo");
+		ReflectionTestUtils.setField(conciliacionExtractoService, "noConciliadosMaximo", 2);
+		ResultadoImportacionExtractoDTO resultado;
+		try {
+			resultado = importar(usuarioId, ConciliacionExtractoService.Formato.NORMA43, String.join("\n", lineas));
+		} finally {
+			ReflectionTestUtils.setField(conciliacionExtractoService, "noConciliadosMaximo", maximo);
+		}
+
+		assertEquals(5, resultado.getAbonos());
+		assertEquals(5, resultado.getSinConciliar());
+		assertEquals(List.of(2L, 3L), resultado.getNoConciliados().stream()
+			.map(MovimientoNoConciliadoDTO::getPosicion).toList());
+	}
+
+	@Test
+	void norma43MalFormadoIndicaLaLinea() {
+		Long usuarioId = nuevoUsuario();
+		String extracto = relleno("11") + "\n" + relleno("99");
+		RuntimeException ex = assertThrows(RuntimeException.class,
+			() -> importar(usuarioId, ConciliacionExtractoService.Formato.NORMA43, extracto));
+		assertTrue(ex.getMessage().startsWith("Línea 2"), ex.getMessage());
+	}
+
+	private ResultadoImportacionExtractoDTO importar(Long usuarioId, ConciliacionExtractoService.Formato formato,
+													 String extracto) throws Exception {
+		return conciliacionExtractoService.importar(usuarioId, formato,
+			new ByteArrayInputStream(extracto.getBytes(formato == ConciliacionExtractoService.Formato.NORMA43
+				? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8)));
+	}
+
+	private Long nuevoUsuario() {
+		String login = "u" + UUID.randomUUID().toString().substring(0, 8);
+		return usuarioService.crear(new UsuarioCreateDTO(login, "secreto123", "Usuario " + login,
+			login + "@ejemplo.es")).getId();
+	}
+
+	private Long formaPagoUnPago(Long usuarioId) {
+		FormaPagoDTO formaPago = new FormaPagoDTO();
+		formaPago.setUsuarioId(usuarioId);
+		formaPago.setDescripcion("Transferencia");
+		formaPago.setNumeroPagos(1);
+		formaPago.setPeriodicidadDias(30);
+		return formaPagoService.crear(formaPago).getId();
+	}
+
+	private ClienteDTO cliente(Long usuarioId, String nif, String cuentaBancaria) {
+		ClienteDTO cliente = new ClienteDTO();
+		cliente.setUsuarioId(usuarioId);
+		cliente.setNombre("Cliente " + nif);
+		cliente.setNif(nif);
+		cliente.setEmail(nif.toLowerCase() + "@ejemplo.es");
+		cliente.setCuentaBancaria(cuentaBancaria);
+		return clienteService.crear(cliente);
+	}
+
+	private Long tipoSinIVA() {
+		return tipoIVARepository.findByActivoTrue().stream()
+			.filter(tipo -> tipo.getPorcentaje().signum() == 0)
+			.findFirst().orElseThrow().getId();
+	}
+
+	private FacturaDTO nuevaFactura(Long usuarioId, Long clienteId, Long formaPagoId, Long tipoIVAId,
+									BigDecimal importe) {
+		LineaFacturaDTO linea = new LineaFacturaDTO();
+		linea.setConcepto("Servicios");
+		linea.setCantidad(BigDecimal.ONE);
+		linea.setPrecioUnitario(importe);
+		linea.setPorcentajeDescuento(BigDecimal.ZERO);
+		linea.setTipoIVAId(tipoIVAId);
+		FacturaDTO factura = new FacturaDTO();
+		factura.setUsuarioId(usuarioId);
+		factura.setClienteId(clienteId);
+		factura.setFormaPagoId(formaPagoId);
+		factura.setEjercicio(EMISION.getYear());
+		factura.setFechaEmision(EMISION);
+		factura.setEstado(Factura.EstadoFactura.EMITIDA);
+		factura.setLineas(List.of(linea));
+		return factura;
+	}
+
+	private PagoDTO factura(Long usuarioId, Long clienteId, Long formaPagoId, String importe) {
+		FacturaDTO factura = facturaService.crear(
+			nuevaFactura(usuarioId, clienteId, formaPagoId, tipoSinIVA(), new BigDecimal(importe)));
+		facturaService.generarPagos(factura.getId());
+		return pagoService.obtenerPorUsuario(usuarioId).stream()
+			.filter(pago -> pago.getFacturaId().equals(factura.getId()))
+			.findFirst().orElseThrow();
+	}
+
+	private static String relleno(String codigo) {
+		return String.format("%-80s", codigo);
+	}
+
+	private static String registro22(LocalDate fechaValor, boolean abono, BigDecimal importe, String referencia) {
+		return "22" + "    " + "0001" + fechaValor.format(AAMMDD) + fechaValor.format(AAMMDD) + "02" + "000"
+			+ (abono ? "2" : "1") + String.format("%014d", importe.movePointRight(2).longValueExact())
+			+ "0000000000" + String.format("%-12s%-16s", referencia, "");
+	}
+
+	private static String registro23(String concepto) {
+		return String.format("2301%-76s", concepto);
+	}
+
+	private static String apunteCamt(BigDecimal importe, LocalDate fecha, String iban, String concepto) {
+		String cuenta = iban != null
+			? "<RltdPties><DbtrAcct><Id><IBAN>" + iban + "</IBAN></Id></DbtrAcct></RltdPties>"
+			: "";
+		return "<Ntry><Amt Ccy=\"EUR\">" + importe + "</Amt><CdtDbtInd>CRDT</CdtDbtInd><Sts>BOOK</Sts>"
+			+ "<BookgDt><Dt>" + fecha + "</Dt></BookgDt><ValDt><Dt>" + fecha + "</Dt></ValDt>"
+			+ "<AcctSvcrRef>REF-" + fecha + "</AcctSvcrRef>"
+			+ "<NtryDtls><TxDtls>" + cuenta + "<RmtInf><Ustrd>" + concepto + "</Ustrd></RmtInf></TxDtls></NtryDtls>"
+			+ "</Ntry>";
+	}
+}
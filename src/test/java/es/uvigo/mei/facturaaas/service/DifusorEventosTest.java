@@ -0,0 +1,205 @@
+package es.uvigo.mei.facturaaas.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import es.uvigo.mei.facturaaas.dto.EventoFacturaDTO;
+import es.uvigo.mei.facturaaas.model.EventoFactura.TipoEvento;
+import es.uvigo.mei.facturaaas.model.Factura;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Suscripciones SSE lentas: la que no lee no ocupa el hilo de envío ni retrasa a las
+ * demás, y si no vuelve a leer a tiempo se descarta y se completa su respuesta.
+ */
+class DifusorEventosTest {
+
+	private static final Pattern ID = Pattern.compile("^id:(\\d+)$", Pattern.MULTILINE);
+
+	private final ObjectMapper objectMapper = JsonMapper.builder().findAndAddModules().build();
+
+	@Test
+	void unaSuscripcionQueNoLeeNoRetrasaALasDemasYSeDescarta() throws Exception {
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		// Un único hilo de envío: si la suscripción lenta lo retuviera, la otra no recibiría nada
+		DifusorEventos difusor = new DifusorEventos(null, objectMapper, meterRegistry, 1, 16, 60_000, 100);
+		try {
+			SalidaDePrueba lenta = new SalidaDePrueba(false);
+			SalidaDePrueba rapida = new SalidaDePrueba(true);
+			MockHttpServletRequest conexionLenta = suscribir(difusor, 1L, lenta);
+			MockHttpServletRequest conexionRapida = suscribir(difusor, 2L, rapida);
+
+			for (long id = 1; id <= 3; id++) {
+				difusor.difundir(evento(1L, id));
+				difusor.difundir(evento(2L, id));
+			}
+			esperar(() -> ids(rapida).equals("1,2,3"));
+			assertEquals("", ids(lenta));
+
+			Thread.sleep(150);
+			difusor.descartarLentas();
+			assertEquals(1.0, meterRegistry.get("eventos.sse.lentas").counter().count());
+			assertEquals(1.0, meterRegistry.get("eventos.sse.suscripciones").gauge().value());
+			assertFalse(conexionLenta.isAsyncStarted());
+			assertTrue(conexionRapida.isAsyncStarted());
+
+			difusor.difundir(evento(1L, 4L));
+			difusor.difundir(evento(2L, 4L));
+			esperar(() -> ids(rapida).equals("1,2,3,4"));
+			assertEquals("", ids(lenta));
+		} finally {
+			difusor.detener();
+		}
+	}
+
+	@Test
+	void unaSuscripcionQueVuelveALeerATiempoRecibeLoPendienteEnOrden() throws Exception {
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		DifusorEventos difusor = new DifusorEventos(null, objectMapper, meterRegistry, 1, 16, 60_000, 60_000);
+		try {
+			SalidaDePrueba salida = new SalidaDePrueba(false);
+			MockHttpServletRequest conexion = suscribir(difusor, 1L, salida);
+			for (long id = 1; id <= 3; id++) {
+				difusor.difundir(evento(1L, id));
+			}
+
+			difusor.descartarLentas();
+			salida.leer();
+			esperar(() -> ids(salida).equals("1,2,3"));
+			assertEquals(0.0, meterRegistry.get("eventos.sse.lentas").counter().count());
+			assertTrue(conexion.isAsyncStarted());
+		} finally {
+			difusor.detener();
+		}
+	}
+
+	private static MockHttpServletRequest suscribir(DifusorEventos difusor, Long usuarioId, SalidaDePrueba salida)
+		throws IOException {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/eventos");
+		request.setAsyncSupported(true);
+		difusor.suscribir(usuarioId, request, new HttpServletResponseWrapper(new MockHttpServletResponse()) {
+			@Override
+			public ServletOutputStream getOutputStream() {
+				return salida;
+			}
+		});
+		return request;
+	}
+
+	/** Ids de los eventos recibidos, en orden y separados por comas. */
+	private static String ids(SalidaDePrueba salida) {
+		StringBuilder ids = new StringBuilder();
+		Matcher matcher = ID.matcher(salida.recibido());
+		while (matcher.find()) {
+			ids.append(ids.isEmpty() ? "" : ",").append(matcher.group(1));
+		}
+		return ids.toString();
+	}
+
+	private static EventoFacturaDTO evento(Long usuarioId, Long id) {
+		EventoFacturaDTO evento = BandejaEventos.evento(TipoEvento.FACTURA_CREADA, usuarioId, 10L, "2025/0010",
+			Factura.EstadoFactura.EMITIDA, null, null, new BigDecimal("121.00"));
+		evento.setId(id);
+		return evento;
+	}
+
+	private static void esperar(BooleanSupplier condicion) throws InterruptedException {
+		long limite = System.currentTimeMillis() + 10_000;
+		while (!condicion.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < limite, "Condición no alcanzada a tiempo");
+			Thread.sleep(10);
+		}
+	}
+
+	/**
+	 * Conexión no bloqueante como la del servidor: un cliente que no lee deja el primer
+	 * envío en vuelo y la salida deja de admitir datos hasta que vuelve a leer.
+	 */
+	private static class SalidaDePrueba extends ServletOutputStream {
+
+		private final StringBuilder pendiente = new StringBuilder();
+		private final StringBuilder recibido = new StringBuilder();
+		private boolean lee;
+		private volatile boolean lista = true;
+		private volatile WriteListener listener;
+
+		SalidaDePrueba(boolean lee) {
+			this.lee = lee;
+		}
+
+		@Override
+		public boolean isReady() {
+			return lista;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener listener) {
+			this.listener = listener;
+			avisar();
+		}
+
+		@Override
+		public void write(int b) {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			if (!lista) {
+				throw new IllegalStateException("Escritura sin esperar a onWritePossible");
+			}
+			pendiente.append(new String(b, off, len, StandardCharsets.UTF_8));
+		}
+
+		@Override
+		public synchronized void flush() {
+			if (!lista) {
+				throw new IllegalStateException("Escritura sin esperar a onWritePossible");
+			}
+			if (lee) {
+				recibido.append(pendiente);
+				pendiente.setLength(0);
+			} else {
+				lista = false;
+			}
+		}
+
+		void leer() {
+			synchronized (this) {
+				lee = true;
+				recibido.append(pendiente);
+				pendiente.setLength(0);
+				lista = true;
+			}
+			avisar();
+		}
+
+		synchronized String recibido() {
+			return recibido.toString();
+		}
+
+		private void avisar() {
+			try {
+				listener.onWritePossible();
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+	}
+}
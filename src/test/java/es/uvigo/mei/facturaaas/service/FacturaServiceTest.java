@@ -0,0 +1,252 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.dto.ClienteDTO;
+import es.uvigo.mei.facturaaas.dto.FacturaDTO;
+import es.uvigo.mei.facturaaas.dto.FormaPagoDTO;
+import es.uvigo.mei.facturaaas.dto.LineaFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.ResultadoLoteDTO;
+import es.uvigo.mei.facturaaas.dto.UsuarioCreateDTO;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.model.LineaFactura;
+import es.uvigo.mei.facturaaas.repository.TipoIVARepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.EntityStatistics;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Creación de facturas por lotes (bloques en transacciones independientes, errores
+ * por factura y fallo de un bloque completo sin afectar a los demás) y modificación
+ * con control de versión, escribiendo solo las líneas que cambian.
+ */
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+class FacturaServiceTest {
+
+	@Autowired
+	private FacturaService facturaService;
+
+	@Autowired
+	private UsuarioService usuarioService;
+
+	@Autowired
+	private ClienteService clienteService;
+
+	@Autowired
+	private FormaPagoService formaPagoService;
+
+	@Autowired
+	private TipoIVARepository tipoIVARepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Test
+	void elLoteSeGuardaPorBloquesYUnBloqueFallidoNoAfectaALosDemas() {
+		Referencias referencias = referencias();
+		Referencias ajenas = referencias();
+		FacturaDTO clienteAjeno = factura(referencias, "B");
+		clienteAjeno.setClienteId(ajenas.clienteId());
+		FacturaDTO importeFueraDeRango = factura(referencias, "D");
+		importeFueraDeRango.getLineas().get(0).setPrecioUnitario(new BigDecimal("99999999999.00"));
+
+		List<ResultadoLoteDTO> resultados = conFacturasPorTransaccion(2, () -> facturaService.crearLote(
+			referencias.usuarioId(), List.of(factura(referencias, "A"), clienteAjeno, factura(referencias, "C"),
+				importeFueraDeRango, factura(referencias, "E"))));
+
+		assertEquals(List.of(0, 1, 2, 3, 4), resultados.stream().map(ResultadoLoteDTO::getIndice).toList());
+		assertTrue(resultados.get(0).isCorrecto());
+		assertEquals("Cliente no encontrado", resultados.get(1).getError());
+		// El bloque [2, 3] se deshace entero, también la factura válida
+		for (ResultadoLoteDTO resultado : resultados.subList(2, 4)) {
+			assertFalse(resultado.isCorrecto());
+			assertNull(resultado.getFacturaId());
+			assertTrue(resultado.getError().startsWith(FacturaService.ERROR_BLOQUE));
+		}
+		assertTrue(resultados.get(4).isCorrecto());
+		// La numeración reservada por el bloque fallido también se deshace
+		assertEquals(List.of("2025/0001", "2025/0002"),
+			List.of(resultados.get(0).getNumeroFactura(), resultados.get(4).getNumeroFactura()));
+		assertEquals(List.of("A", "E"), jdbcTemplate.queryForList(
+			"SELECT clave_idempotencia FROM factura WHERE usuario_id = ? ORDER BY numero_factura",
+			String.class, referencias.usuarioId()));
+	}
+
+	@Test
+	void lasFacturasConClaveYaUsadaNoSeVuelvenACrear() {
+		Referencias referencias = referencias();
+		ResultadoLoteDTO primera = facturaService.crearLote(referencias.usuarioId(),
+			List.of(factura(referencias, "A"))).get(0);
+
+		List<ResultadoLoteDTO> resultados = conFacturasPorTransaccion(3, () -> facturaService.crearLote(
+			referencias.usuarioId(), List.of(factura(referencias, "A"), factura(referencias, "B"),
+				factura(referencias, "B"), factura(referencias, "B"))));
+
+		assertTrue(resultados.get(0).isCorrecto());
+		assertEquals(primera.getFacturaId(), resultados.get(0).getFacturaId());
+		assertEquals("2025/0002", resultados.get(1).getNumeroFactura());
+		assertEquals("Clave de idempotencia repetida en el lote", resultados.get(2).getError());
+		// En el bloque siguiente la clave ya está confirmada: se devuelve la factura creada
+		assertTrue(resultados.get(3).isCorrecto());
+		assertEquals(resultados.get(1).getFacturaId(), resultados.get(3).getFacturaId());
+		assertEquals(2, jdbcTemplate.queryForObject(
+			"SELECT COUNT(*) FROM factura WHERE usuario_id = ?", Integer.class, referencias.usuarioId()));
+	}
+
+	@Test
+	void actualizarSoloEscribeLasLineasQueCambian() {
+		Referencias referencias = referencias();
+		FacturaDTO nueva = factura(referencias, null);
+		nueva.getLineas().add(linea(referencias, 2, "Desplazamiento", "40.00"));
+		nueva.getLineas().add(linea(referencias, 3, "Material", "15.00"));
+		FacturaDTO creada = facturaService.crear(nueva);
+		List<Long> ids = creada.getLineas().stream().map(LineaFacturaDTO::getId).toList();
+
+		// Igual que la guardada: no se escribe nada ni cambia la versión
+		EntityStatistics lineas = conEstadisticas(() -> facturaService.actualizar(creada.getId(), creada));
+		assertEquals(List.of(0L, 0L, 0L), List.of(lineas.getInsertCount(), lineas.getUpdateCount(),
+			lineas.getDeleteCount()));
+		FacturaDTO leida = facturaService.obtenerPorId(creada.getId());
+		assertEquals(creada.getVersion(), leida.getVersion());
+
+		// Se conserva la 1, cambia la 2, se quita la 3 y se añade otra, sin cambiar los
+		// importes: la factura ya está encadenada
+		leida.getLineas().get(1).setConcepto("Desplazamiento a Lugo");
+		leida.getLineas().remove(2);
+		leida.getLineas().add(linea(referencias, null, "Dietas", "15.00"));
+		FacturaDTO[] modificada = new FacturaDTO[1];
+		lineas = conEstadisticas(() -> modificada[0] = facturaService.actualizar(creada.getId(), leida));
+		assertEquals(List.of(1L, 1L, 1L), List.of(lineas.getInsertCount(), lineas.getUpdateCount(),
+			lineas.getDeleteCount()));
+
+		FacturaDTO guardada = facturaService.obtenerPorId(creada.getId());
+		assertEquals(ids.subList(0, 2), guardada.getLineas().stream().limit(2).map(LineaFacturaDTO::getId).toList());
+		assertFalse(guardada.getLineas().stream().map(LineaFacturaDTO::getId).anyMatch(ids.get(2)::equals));
+		assertEquals(List.of("Consultoría", "Desplazamiento a Lugo", "Dietas"),
+			guardada.getLineas().stream().map(LineaFacturaDTO::getConcepto).toList());
+		assertEquals(0, creada.getImporteTotal().compareTo(guardada.getImporteTotal()));
+		// La versión devuelta es la confirmada y sirve para la siguiente modificación
+		assertEquals(guardada.getVersion(), modificada[0].getVersion());
+		assertNotEquals(creada.getVersion(), guardada.getVersion());
+		guardada.setComentarios("Revisada");
+		facturaService.actualizar(creada.getId(), guardada);
+	}
+
+	@Test
+	void unCambioSoloEnLasLineasInvalidaLasCopiasLeidasAntes() {
+		Referencias referencias = referencias();
+		Long id = facturaService.crear(factura(referencias, null)).getId();
+		FacturaDTO primera = facturaService.obtenerPorId(id);
+		FacturaDTO segunda = facturaService.obtenerPorId(id);
+
+		primera.getLineas().get(0).setConcepto("Consultoría (marzo)");
+		facturaService.actualizar(id, primera);
+
+		segunda.setComentarios("Enviada");
+		assertThrows(ObjectOptimisticLockingFailureException.class, () -> facturaService.actualizar(id, segunda));
+		assertEquals("Consultoría (marzo)", facturaService.obtenerPorId(id).getLineas().get(0).getConcepto());
+	}
+
+	@Test
+	void actualizarSinVersionSeRechaza() {
+		Referencias referencias = referencias();
+		FacturaDTO creada = facturaService.crear(factura(referencias, null));
+		creada.setVersion(null);
+		creada.setComentarios("Sin versión");
+
+		RuntimeException error = assertThrows(RuntimeException.class,
+			() -> facturaService.actualizar(creada.getId(), creada));
+		assertEquals("La versión de la factura es obligatoria", error.getMessage());
+		assertNull(facturaService.obtenerPorId(creada.getId()).getComentarios());
+	}
+
+	/** Escrituras de LineaFactura durante {@code accion}. */
+	private EntityStatistics conEstadisticas(Runnable accion) {
+		Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		statistics.clear();
+		statistics.setStatisticsEnabled(true);
+		try {
+			accion.run();
+			return statistics.getEntityStatistics(LineaFactura.class.getName());
+		} finally {
+			statistics.setStatisticsEnabled(false);
+		}
+	}
+
+	private <T> T conFacturasPorTransaccion(int facturasPorTransaccion, Supplier<T> accion) {
+		Object anterior = ReflectionTestUtils.getField(facturaService, "facturasPorTransaccion");
+		ReflectionTestUtils.setField(facturaService, "facturasPorTransaccion", facturasPorTransaccion);
+		try {
+			return accion.get();
+		} finally {
+			ReflectionTestUtils.setField(facturaService, "facturasPorTransaccion", anterior);
+		}
+	}
+
+	private record Referencias(Long usuarioId, Long clienteId, Long formaPagoId, Long tipoIVAId) {
+	}
+
+	private static FacturaDTO factura(Referencias referencias, String claveIdempotencia) {
+		FacturaDTO factura = new FacturaDTO();
+		factura.setUsuarioId(referencias.usuarioId());
+		factura.setEjercicio(2025);
+		factura.setClienteId(referencias.clienteId());
+		factura.setFormaPagoId(referencias.formaPagoId());
+		factura.setFechaEmision(LocalDate.of(2025, 3, 14));
+		factura.setEstado(Factura.EstadoFactura.EMITIDA);
+		factura.setClaveIdempotencia(claveIdempotencia);
+		factura.getLineas().add(linea(referencias, 1, "Consultoría", "250.00"));
+		return factura;
+	}
+
+	private static LineaFacturaDTO linea(Referencias referencias, Integer numeroLinea, String concepto, String precio) {
+		LineaFacturaDTO linea = new LineaFacturaDTO();
+		linea.setNumeroLinea(numeroLinea);
+		linea.setConcepto(concepto);
+		linea.setCantidad(BigDecimal.ONE);
+		linea.setPrecioUnitario(new BigDecimal(precio));
+		linea.setTipoIVAId(referencias.tipoIVAId());
+		return linea;
+	}
+
+	private Referencias referencias() {
+		String login = "f" + UUID.randomUUID().toString().substring(0, 8);
+		Long usuarioId = usuarioService.crear(new UsuarioCreateDTO(login, "secreto123", "Usuario " + login,
+			login + "@ejemplo.es")).getId();
+
+		ClienteDTO cliente = new ClienteDTO();
+		cliente.setUsuarioId(usuarioId);
+		cliente.setNombre("Talleres Miño S.L.");
+		cliente.setNif("B27000001");
+		cliente.setLocalidad("Lugo");
+
+		FormaPagoDTO formaPago = new FormaPagoDTO();
+		formaPago.setUsuarioId(usuarioId);
+		formaPago.setDescripcion("Transferencia");
+		formaPago.setNumeroPagos(1);
+		formaPago.setPeriodicidadDias(30);
+
+		return new Referencias(usuarioId, clienteService.crear(cliente).getId(),
+			formaPagoService.crear(formaPago).getId(), tipoIVARepository.findByActivoTrue().get(0).getId());
+	}
+}
@@ -0,0 +1,335 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.dto.ClienteDTO;
+import es.uvigo.mei.facturaaas.dto.FacturaDTO;
+import es.uvigo.mei.facturaaas.dto.FormaPagoDTO;
+import es.uvigo.mei.facturaaas.dto.LineaFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.UsuarioCreateDTO;
+import es.uvigo.mei.facturaaas.model.DatosFacturacion;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.repository.DatosFacturacionRepository;
+import es.uvigo.mei.facturaaas.repository.FacturaRepository;
+import es.uvigo.mei.facturaaas.repository.TipoIVARepository;
+import es.uvigo.mei.facturaaas.repository.UsuarioRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import javax.xml.crypto.KeySelector;
+import javax.xml.crypto.dsig.Reference;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMValidateContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.PublicKey;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Facturae 3.2.2: contenido, firma XAdES verificada con la API estándar de firma XML
+ * (javax.xml.crypto.dsig), emisión por tercero con el certificado de la plataforma y
+ * exportación del ejercicio en ZIP.
+ */
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+class FacturaeServiceTest {
+
+	private static final String CLAVE = "secreto123";
+	private static final String PLATAFORMA = "B15999999";
+
+	@TempDir
+	static Path directorio;
+
+	private static Path almacen;
+	private static PublicKey clavePublica;
+
+	@Autowired
+	private FacturaeService facturaeService;
+
+	@Autowired
+	private FacturaService facturaService;
+
+	@Autowired
+	private UsuarioService usuarioService;
+
+	@Autowired
+	private ClienteService clienteService;
+
+	@Autowired
+	private FormaPagoService formaPagoService;
+
+	@Autowired
+	private TipoIVARepository tipoIVARepository;
+
+	@Autowired
+	private UsuarioRepository usuarioRepository;
+
+	@Autowired
+	private DatosFacturacionRepository datosFacturacionRepository;
+
+	@Autowired
+	private FacturaRepository facturaRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private FacturaeService firmante;
+
+	@BeforeAll
+	static void generarCertificado() throws Exception {
+		almacen = directorio.resolve("firma.p12");
+		Process keytool = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+			"-genkeypair", "-alias", "emisor", "-keyalg", "RSA", "-keysize", "2048", "-validity", "30",
+			"-dname", "CN=Talleres Otero S.L., O=Talleres Otero, C=ES", "-storetype", "PKCS12",
+			"-keystore", almacen.toString(), "-storepass", CLAVE, "-keypass", CLAVE)
+			.redirectErrorStream(true)
+			.start();
+		String salida = new String(keytool.getInputStream().readAllBytes());
+		assertEquals(0, keytool.waitFor(), salida);
+		KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		try (InputStream entrada = Files.newInputStream(almacen)) {
+			keyStore.load(entrada, CLAVE.toCharArray());
+		}
+		clavePublica = keyStore.getCertificate("emisor").getPublicKey();
+	}
+
+	@BeforeEach
+	void crearFirmante() {
+		firmante = firmante(PLATAFORMA);
+	}
+
+	@Test
+	void generaUnFacturaeFirmadoConFirmaValida() throws Exception {
+		Long usuarioId = nuevoUsuario(true);
+		FacturaDTO factura = factura(usuarioId, 2025, 3, true);
+
+		ByteArrayOutputStream salida = new ByteArrayOutputStream();
+		FacturaeService.Documento documento = firmante.preparar(factura.getId(), null);
+		assertTrue(documento.firmado());
+		assertTrue(documento.nombre().endsWith(".xsig"));
+		firmante.escribir(documento, salida);
+
+		Document xml = leer(salida.toByteArray());
+		assertFirmaValida(xml);
+		assertEquals(GeneradorFacturae.NS_FACTURAE, xml.getDocumentElement().getNamespaceURI());
+		assertEquals("3.2.2", texto(xml, "SchemaVersion"));
+		assertEquals(factura.getNumeroFactura(), texto(xml, "InvoiceNumber"));
+		// Firmada con el certificado de la plataforma: emitida por tercero
+		assertEquals("TE", texto(xml, "InvoiceIssuerType"));
+		assertEquals(PLATAFORMA, texto(xml, "ThirdParty", "TaxIdentificationNumber"));
+		assertEquals("Facturaaas Servicios S.L.", texto(xml, "ThirdParty", "CorporateName"));
+		assertEquals("B36000001", texto(xml, "SellerParty", "TaxIdentificationNumber"));
+		assertEquals("Talleres Otero S.L.", texto(xml, "SellerParty", "CorporateName"));
+		assertEquals(factura.getSumaTotal().toPlainString(), texto(xml, "InvoiceTotal"));
+		// El primer TaxAmount es el del desglose de la factura, antes que los de las líneas
+		assertEquals(factura.getIvaTotal().toPlainString(), texto(xml, "TaxAmount"));
+		assertEquals(3, xml.getElementsByTagName("InvoiceLine").getLength());
+		assertTrue(texto(xml, "ItemDescription").contains("<tubo> & \"junta\""));
+		assertEquals("L01150307", texto(xml, "CentreCode"));
+		assertEquals(3, xml.getElementsByTagName("AdministrativeCentre").getLength());
+	}
+
+	@Test
+	void sinFirmaNoLlevaSignatureYSinCertificadoNoSePuedeFirmar() throws Exception {
+		Long usuarioId = nuevoUsuario(false);
+		FacturaDTO factura = factura(usuarioId, 2025, 1, false);
+
+		ByteArrayOutputStream salida = new ByteArrayOutputStream();
+		FacturaeService.Documento documento = firmante.preparar(factura.getId(), false);
+		assertTrue(documento.nombre().endsWith(".xml"));
+		firmante.escribir(documento, salida);
+		Document xml = leer(salida.toByteArray());
+		assertEquals(0, xml.getElementsByTagNameNS(GeneradorFacturae.NS_DS, "Signature").getLength());
+		assertEquals("EM", texto(xml, "InvoiceIssuerType"));
+		assertEquals(0, xml.getElementsByTagName("ThirdParty").getLength());
+		assertEquals("F", texto(xml, "PersonTypeCode"));
+		assertEquals("Lucía", texto(xml, "Name"));
+		assertEquals("Otero", texto(xml, "FirstSurname"));
+
+		assertFalse(facturaeService.preparar(factura.getId(), null).firmado());
+		assertThrows(RuntimeException.class, () -> facturaeService.preparar(factura.getId(), true));
+	}
+
+	@Test
+	void elTitularDelCertificadoFirmaSusFacturasComoEmisor() throws Exception {
+		Long usuarioId = nuevoUsuario(true);
+		FacturaDTO factura = factura(usuarioId, 2025, 1, false);
+		FacturaeService propio = firmante("B36000001");
+
+		ByteArrayOutputStream salida = new ByteArrayOutputStream();
+		propio.escribir(propio.preparar(factura.getId(), true), salida);
+
+		Document xml = leer(salida.toByteArray());
+		assertFirmaValida(xml);
+		assertEquals("EM", texto(xml, "InvoiceIssuerType"));
+		assertEquals(0, xml.getElementsByTagName("ThirdParty").getLength());
+		assertThrows(RuntimeException.class, () -> firmante(""));
+	}
+
+	@Test
+	void exigeElNifDelEmisor() {
+		Long usuarioId = nuevoUsuario(true);
+		FacturaDTO factura = factura(usuarioId, 2025, 1, false);
+		DatosFacturacion datos = datosFacturacionRepository.findByUsuarioId(usuarioId).orElseThrow();
+		datos.setNif(null);
+		datosFacturacionRepository.save(datos);
+
+		assertThrows(RuntimeException.class, () -> firmante.preparar(factura.getId(), true));
+	}
+
+	@Test
+	void exportaLasFacturasDelEjercicioFirmadasEnUnZip() throws Exception {
+		Long usuarioId = nuevoUsuario(true);
+		List<String> numeros = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			numeros.add(factura(usuarioId, 2025, i + 1, false).getNumeroFactura());
+		}
+		factura(usuarioId, 2024, 1, false);
+
+		ByteArrayOutputStream salida = new ByteArrayOutputStream();
+		firmante.exportarLote(usuarioId, 2025, firmante.datosEmisor(usuarioId), true, salida);
+
+		List<String> entradas = new ArrayList<>();
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(salida.toByteArray()))) {
+			for (ZipEntry entrada = zip.getNextEntry(); entrada != null; entrada = zip.getNextEntry()) {
+				entradas.add(entrada.getName());
+				Document xml = leer(zip.readAllBytes());
+				assertFirmaValida(xml);
+				assertTrue(numeros.contains(texto(xml, "InvoiceNumber")));
+			}
+		}
+		assertEquals(numeros.stream().map(numero -> "factura-" + numero.replaceAll("[^A-Za-z0-9._-]", "-") + ".xsig")
+			.toList(), entradas);
+	}
+
+	private static Document leer(byte[] contenido) throws Exception {
+		DocumentBuilderFactory fabrica = DocumentBuilderFactory.newInstance();
+		fabrica.setNamespaceAware(true);
+		return fabrica.newDocumentBuilder().parse(new ByteArrayInputStream(contenido));
+	}
+
+	private static void assertFirmaValida(Document xml) throws Exception {
+		NodeList firmas = xml.getElementsByTagNameNS(GeneradorFacturae.NS_DS, "Signature");
+		assertEquals(1, firmas.getLength());
+		Element propiedades = (Element) xml.getElementsByTagNameNS(GeneradorFacturae.NS_XADES, "SignedProperties").item(0);
+		propiedades.setIdAttributeNS(null, "Id", true);
+		DOMValidateContext contexto = new DOMValidateContext(KeySelector.singletonKeySelector(clavePublica), firmas.item(0));
+		XMLSignature firma = XMLSignatureFactory.getInstance("DOM").unmarshalXMLSignature(contexto);
+		for (Object referencia : firma.getSignedInfo().getReferences()) {
+			assertTrue(((Reference) referencia).validate(contexto), "Resumen incorrecto en " + ((Reference) referencia).getURI());
+		}
+		assertTrue(firma.getSignatureValue().validate(contexto));
+		assertTrue(firma.validate(contexto));
+	}
+
+	private static String texto(Document xml, String elemento) {
+		return xml.getElementsByTagName(elemento).item(0).getTextContent();
+	}
+
+	private static String texto(Document xml, String parte, String elemento) {
+		return ((Element) xml.getElementsByTagName(parte).item(0)).getElementsByTagName(elemento).item(0)
+			.getTextContent();
+	}
+
+	private FacturaeService firmante(String nifPlataforma) {
+		return new FacturaeService(facturaRepository, datosFacturacionRepository, transactionManager,
+			new SimpleMeterRegistry(), almacen.toString(), CLAVE, "", nifPlataforma, "Facturaaas Servicios S.L.",
+			"Rúa do Hórreo, 1", "15702", "Santiago de Compostela", "A Coruña");
+	}
+
+	private FacturaDTO factura(Long usuarioId, int ejercicio, int lineas, boolean administracion) {
+		Long tipoIVAId = tipoIVARepository.findByActivoTrue().get(0).getId();
+		FacturaDTO factura = new FacturaDTO();
+		factura.setUsuarioId(usuarioId);
+		factura.setEjercicio(ejercicio);
+		factura.setClienteId(administracion ? concello(usuarioId) : particular(usuarioId));
+		factura.setFormaPagoId(formaPago(usuarioId));
+		factura.setFechaEmision(LocalDate.of(ejercicio, 3, 15));
+		factura.setEstado(Factura.EstadoFactura.EMITIDA);
+		factura.setComentarios("Pago por transferencia\r\na 30 días");
+		for (int i = 1; i <= lineas; i++) {
+			LineaFacturaDTO linea = new LineaFacturaDTO();
+			linea.setNumeroLinea(i);
+			linea.setConcepto("Reparación <tubo> & \"junta\" nº " + i);
+			linea.setCantidad(BigDecimal.valueOf(i));
+			linea.setPrecioUnitario(new BigDecimal("1250.55"));
+			linea.setPorcentajeDescuento(i % 2 == 0 ? new BigDecimal("7.5") : null);
+			linea.setTipoIVAId(tipoIVAId);
+			factura.getLineas().add(linea);
+		}
+		return facturaService.crear(factura);
+	}
+
+	private Long nuevoUsuario(boolean sociedad) {
+		String login = "u" + UUID.randomUUID().toString().substring(0, 8);
+		Long usuarioId = usuarioService.crear(new UsuarioCreateDTO(login, "secreto123", "Usuario " + login,
+			login + "@ejemplo.es")).getId();
+		DatosFacturacion datos = new DatosFacturacion();
+		datos.setUsuario(usuarioRepository.findById(usuarioId).orElseThrow());
+		datos.setNombreComercial(sociedad ? "Talleres Otero S.L." : "Lucía Otero Castro");
+		datos.setNif(sociedad ? "ES-B36000001" : "36000001X");
+		datos.setTipo(sociedad ? DatosFacturacion.TipoEntidad.SOCIEDAD_LIMITADA : DatosFacturacion.TipoEntidad.AUTONOMO);
+		datos.setDomicilio("Rúa Principal, 12");
+		datos.setCodigoPostal("36201");
+		datos.setLocalidad("Vigo");
+		datos.setProvincia("Pontevedra");
+		datos.setEmailContacto(login + "@ejemplo.es");
+		datosFacturacionRepository.save(datos);
+		return usuarioId;
+	}
+
+	private Long concello(Long usuarioId) {
+		ClienteDTO cliente = nuevoCliente(usuarioId, "Concello da Coruña", "P1503000J");
+		cliente.setDir3OficinaContable("L01150307");
+		cliente.setDir3OrganoGestor("L01150307");
+		cliente.setDir3UnidadTramitadora("LA0003958");
+		return clienteService.crear(cliente).getId();
+	}
+
+	private Long particular(Long usuarioId) {
+		return clienteService.crear(nuevoCliente(usuarioId, "María Núñez Pérez", "32000001K")).getId();
+	}
+
+	private static ClienteDTO nuevoCliente(Long usuarioId, String nombre, String nif) {
+		ClienteDTO cliente = new ClienteDTO();
+		cliente.setUsuarioId(usuarioId);
+		cliente.setNombre(nombre);
+		cliente.setNif(nif);
+		cliente.setDomicilio("Praza de María Pita, 1");
+		cliente.setCodigoPostal("15001");
+		cliente.setLocalidad("A Coruña");
+		cliente.setProvincia("A Coruña");
+		return cliente;
+	}
+
+	private Long formaPago(Long usuarioId) {
+		FormaPagoDTO formaPago = new FormaPagoDTO();
+		formaPago.setUsuarioId(usuarioId);
+		formaPago.setDescripcion("Transferencia");
+		formaPago.setNumeroPagos(1);
+		formaPago.setPeriodicidadDias(30);
+		return formaPagoService.crear(formaPago).getId();
+	}
+}
@@ -0,0 +1,167 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.dto.ClienteDTO;
+import es.uvigo.mei.facturaaas.dto.FormaPagoDTO;
+import es.uvigo.mei.facturaaas.dto.LineaFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.PlantillaFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.UsuarioCreateDTO;
+import es.uvigo.mei.facturaaas.model.LineaPlantillaFactura;
+import es.uvigo.mei.facturaaas.model.PlantillaFactura;
+import es.uvigo.mei.facturaaas.repository.TipoIVARepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Generación de facturas recurrentes: periodos atrasados, reanudación sin duplicados
+ * y desactivación de plantillas que no se pueden facturar.
+ */
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+class GeneracionPlantillasServiceTest {
+
+	private static final LocalDate INICIO = LocalDate.of(2024, 1, 31);
+
+	@Autowired
+	private GeneracionPlantillasService generacionPlantillasService;
+
+	@Autowired
+	private PlantillaFacturaService plantillaFacturaService;
+
+	@Autowired
+	private UsuarioService usuarioService;
+
+	@Autowired
+	private ClienteService clienteService;
+
+	@Autowired
+	private FormaPagoService formaPagoService;
+
+	@Autowired
+	private TipoIVARepository tipoIVARepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void generaLosPeriodosAtrasadosSinDesplazarElDia() {
+		Long usuarioId = nuevoUsuario();
+		PlantillaFacturaDTO plantilla = plantilla(usuarioId, PlantillaFactura.Periodicidad.MENSUAL);
+
+		generacionPlantillasService.ejecutar(INICIO.plusMonths(2).plusDays(5));
+
+		assertEquals(List.of(LocalDate.of(2024, 1, 31), LocalDate.of(2024, 2, 29), LocalDate.of(2024, 3, 31)),
+			fechasEmitidas(usuarioId));
+		PlantillaFacturaDTO tras = plantillaFacturaService.obtenerPorId(plantilla.getId());
+		assertEquals(LocalDate.of(2024, 4, 30), tras.getProximaFecha());
+		assertEquals(3, tras.getFacturasGeneradas());
+
+		generacionPlantillasService.ejecutar(INICIO.plusMonths(2).plusDays(5));
+		assertEquals(3, fechasEmitidas(usuarioId).size());
+	}
+
+	@Test
+	void lasLineasDeFacturaNoHeredanElIdDeLaPlantilla() {
+		LineaPlantillaFactura linea = new LineaPlantillaFactura();
+		linea.setId(42L);
+		linea.setNumeroLinea(1);
+		linea.setConcepto("Mantenimiento mensual");
+		linea.setPrecioUnitario(new BigDecimal("150.00"));
+		linea.setTipoIVA(tipoIVARepository.findByActivoTrue().get(0));
+
+		LineaFacturaDTO dto = GeneracionPlantillasService.lineaFactura(linea);
+
+		assertNull(dto.getId());
+		assertEquals("Mantenimiento mensual", dto.getConcepto());
+		assertEquals(linea.getTipoIVA().getId(), dto.getTipoIVAId());
+	}
+
+	@Test
+	void reanudaTrasUnaEjecucionInterrumpidaSinDuplicar() {
+		Long usuarioId = nuevoUsuario();
+		PlantillaFacturaDTO plantilla = plantilla(usuarioId, PlantillaFactura.Periodicidad.TRIMESTRAL);
+		LocalDate hoy = INICIO.plusMonths(4);
+		generacionPlantillasService.ejecutar(hoy);
+		assertEquals(2, fechasEmitidas(usuarioId).size());
+
+		// Facturas creadas pero plantilla sin avanzar, como si el nodo cayera entre las dos transacciones
+		jdbcTemplate.update("UPDATE plantilla_factura SET facturas_generadas = 0, proxima_fecha = fecha_inicio " +
+			"WHERE id = ?", plantilla.getId());
+		generacionPlantillasService.ejecutar(hoy);
+
+		assertEquals(2, fechasEmitidas(usuarioId).size());
+		assertEquals(INICIO.plusMonths(6), plantillaFacturaService.obtenerPorId(plantilla.getId()).getProximaFecha());
+	}
+
+	@Test
+	void desactivaLaPlantillaQueNoSePuedeFacturar() {
+		Long usuarioId = nuevoUsuario();
+		PlantillaFacturaDTO plantilla = plantilla(usuarioId, PlantillaFactura.Periodicidad.ANUAL);
+		jdbcTemplate.update("UPDATE linea_plantilla_factura SET concepto = '' WHERE plantilla_id = ?",
+			plantilla.getId());
+
+		generacionPlantillasService.ejecutar(INICIO);
+
+		PlantillaFacturaDTO tras = plantillaFacturaService.obtenerPorId(plantilla.getId());
+		assertFalse(tras.getActiva());
+		assertTrue(tras.getUltimoError().contains("concepto"));
+		assertTrue(fechasEmitidas(usuarioId).isEmpty());
+	}
+
+	private List<LocalDate> fechasEmitidas(Long usuarioId) {
+		return jdbcTemplate.queryForList("SELECT fecha_emision FROM factura WHERE usuario_id = ? " +
+				"AND clave_idempotencia IS NOT NULL ORDER BY fecha_emision", Date.class, usuarioId).stream()
+			.map(Date::toLocalDate)
+			.toList();
+	}
+
+	private PlantillaFacturaDTO plantilla(Long usuarioId, PlantillaFactura.Periodicidad periodicidad) {
+		LineaFacturaDTO linea = new LineaFacturaDTO();
+		linea.setConcepto("Mantenimiento");
+		linea.setCantidad(BigDecimal.ONE);
+		linea.setPrecioUnitario(new BigDecimal("150.00"));
+		linea.setTipoIVAId(tipoIVARepository.findByActivoTrue().get(0).getId());
+		PlantillaFacturaDTO plantilla = new PlantillaFacturaDTO();
+		plantilla.setUsuarioId(usuarioId);
+		plantilla.setClienteId(cliente(usuarioId));
+		plantilla.setFormaPagoId(formaPago(usuarioId));
+		plantilla.setPeriodicidad(periodicidad);
+		plantilla.setFechaInicio(INICIO);
+		plantilla.setLineas(List.of(linea));
+		return plantillaFacturaService.crear(plantilla);
+	}
+
+	private Long nuevoUsuario() {
+		String login = "u" + UUID.randomUUID().toString().substring(0, 8);
+		return usuarioService.crear(new UsuarioCreateDTO(login, "secreto123", "Usuario " + login,
+			login + "@ejemplo.es")).getId();
+	}
+
+	private Long cliente(Long usuarioId) {
+		ClienteDTO cliente = new ClienteDTO();
+		cliente.setUsuarioId(usuarioId);
+		cliente.setNombre("Cliente recurrente");
+		cliente.setNif("66666666Q");
+		cliente.setEmail("recurrente@ejemplo.es");
+		return clienteService.crear(cliente).getId();
+	}
+
+	private Long formaPago(Long usuarioId) {
+		FormaPagoDTO formaPago = new FormaPagoDTO();
+		formaPago.setUsuarioId(usuarioId);
+		formaPago.setDescripcion("Domiciliación");
+		formaPago.setNumeroPagos(1);
+		formaPago.setPeriodicidadDias(30);
+		return formaPagoService.crear(formaPago).getId();
+	}
+}
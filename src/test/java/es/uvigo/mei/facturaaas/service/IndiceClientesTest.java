@@ -0,0 +1,60 @@
+package es.uvigo.mei.facturaaas.service;
+
+import org.junit.jupiter.api.Test;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Índice de trigramas en memoria de la búsqueda de clientes.
+ */
+class IndiceClientesTest {
+
+	@Test
+	void ignoraTildesYMayusculasEnTodosLosCampos() {
+		IndiceClientes indice = new IndiceClientes();
+		indice.indexar(1, "Talleres Núñez S.L.", "B15000001", "A Coruña", "info@nunez.es");
+		indice.indexar(2, "Comercial Ourense", "22222222-J", "Ourense", "ventas@ourense.gal");
+
+		assertEquals(List.of(1L), indice.buscar("CORUNA", 0, 10));
+		assertEquals(List.of(1L), indice.buscar("nuñez", 0, 10));
+		assertEquals(List.of(1L), indice.buscar("b15000001", 0, 10));
+		assertEquals(List.of(2L), indice.buscar("22222222-j", 0, 10));
+		assertEquals(List.of(2L), indice.buscar("ourense.gal", 0, 10));
+		assertEquals(List.of(), indice.buscar("coruña ourense", 0, 10));
+	}
+
+	@Test
+	void losTerminosCortosSoloCasanAlPrincipioDePalabra() {
+		IndiceClientes indice = new IndiceClientes();
+		indice.indexar(1, "Alcoa", null, "Avilés", null);
+		indice.indexar(2, "Construcciones Costa", null, "Vigo", null);
+
+		assertEquals(List.of(2L), indice.buscar("co", 0, 10));
+		assertEquals(List.of(1L), indice.buscar("lco", 0, 10));
+	}
+
+	@Test
+	void ordenaPorRelevanciaYPagina() {
+		IndiceClientes indice = new IndiceClientes();
+		indice.indexar(1, "Panadería Lugo", null, "Vigo", null);
+		indice.indexar(2, "Lugones Hermanos", null, "Ferrol", null);
+		indice.indexar(3, "Transportes", null, "Lugo", null);
+		indice.indexar(4, "Lugo Motor", null, "Lugo", null);
+
+		// Palabra completa en el nombre, palabra completa en otro campo y, por último, prefijo
+		assertEquals(List.of(4L, 1L, 3L, 2L), indice.buscar("lugo", 0, 10));
+		assertEquals(List.of(1L, 3L), indice.buscar("lugo", 1, 2));
+	}
+
+	@Test
+	void alModificarUnClienteSeSustituyeSuDocumento() {
+		IndiceClientes indice = new IndiceClientes();
+		indice.indexar(1, "Ferretería Pontevedra", null, "Pontevedra", null);
+		indice.indexar(1, "Ferretería Vilagarcía", null, "Vilagarcía de Arousa", null);
+
+		assertEquals(List.of(), indice.buscar("pontevedra", 0, 10));
+		assertEquals(List.of(1L), indice.buscar("vilagarcia", 0, 10));
+	}
+
+}
@@ -0,0 +1,135 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.dto.UsuarioCreateDTO;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Numeración de facturas con peticiones concurrentes del mismo usuario y ejercicio:
+ * ningún número se repite, también cuando el contador aún no existe.
+ */
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+class NumeracionFacturaServiceTest {
+
+	private static final int HILOS = 8;
+	private static final int PETICIONES_POR_HILO = 20;
+
+	@Autowired
+	private NumeracionFacturaService numeracionFacturaService;
+
+	@Autowired
+	private UsuarioService usuarioService;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void asignaNumerosConsecutivosSinRepetirConPeticionesConcurrentes() throws Exception {
+		Long usuarioId = usuario();
+
+		// La mitad de las peticiones reserva de tres en tres (lotes) y la otra mitad de uno en uno
+		List<String> numeros = concurrentes(indice -> indice % 2 == 0
+			? numeracionFacturaService.siguientesNumeros(usuarioId, 2025, 3)
+			: List.of(numeracionFacturaService.siguienteNumero(usuarioId, 2025)));
+
+		int total = HILOS * PETICIONES_POR_HILO / 2 * 4;
+		Set<String> esperados = new HashSet<>();
+		for (int numero = 1; numero <= total; numero++) {
+			esperados.add(String.format("2025/%04d", numero));
+		}
+		assertEquals(total, numeros.size());
+		assertEquals(esperados, new HashSet<>(numeros));
+		assertEquals(total, ultimoNumero(usuarioId, 2025));
+	}
+
+	@Test
+	void losBloquesEnMemoriaNoRepitenNumeros() throws Exception {
+		Long usuarioId = usuario();
+		Object tamanoBloque = ReflectionTestUtils.getField(numeracionFacturaService, "tamanoBloque");
+		ReflectionTestUtils.setField(numeracionFacturaService, "tamanoBloque", 7);
+		List<String> numeros;
+		try {
+			numeros = concurrentes(indice -> numeracionFacturaService.siguientesNumeros(usuarioId, 2026, 2));
+		} finally {
+			ReflectionTestUtils.setField(numeracionFacturaService, "tamanoBloque", tamanoBloque);
+		}
+
+		int total = HILOS * PETICIONES_POR_HILO * 2;
+		assertEquals(total, new HashSet<>(numeros).size());
+		// Un reinicio perdería como mucho el resto del último bloque
+		long reservados = ultimoNumero(usuarioId, 2026);
+		assertEquals(0, reservados % 7);
+		assertTrue(reservados >= total && reservados < total + 7);
+	}
+
+	@Test
+	void cadaUsuarioNumeraDesdeUnoEnCadaEjercicio() {
+		Long primero = usuario();
+		Long segundo = usuario();
+
+		assertEquals("2025/0001", numeracionFacturaService.siguienteNumero(primero, 2025));
+		assertEquals("2025/0001", numeracionFacturaService.siguienteNumero(segundo, 2025));
+		assertEquals(List.of("2025/0002", "2025/0003"), numeracionFacturaService.siguientesNumeros(primero, 2025, 2));
+		assertEquals("2024/0001", numeracionFacturaService.siguienteNumero(primero, 2024));
+	}
+
+	private List<String> concurrentes(Peticion peticion) throws Exception {
+		ExecutorService hilos = Executors.newFixedThreadPool(HILOS);
+		CountDownLatch salida = new CountDownLatch(1);
+		try {
+			List<Future<List<String>>> resultados = new ArrayList<>();
+			for (int hilo = 0; hilo < HILOS; hilo++) {
+				resultados.add(hilos.submit((Callable<List<String>>) () -> {
+					salida.await();
+					List<String> numeros = new ArrayList<>();
+					for (int indice = 0; indice < PETICIONES_POR_HILO; indice++) {
+						numeros.addAll(peticion.ejecutar(indice));
+					}
+					return numeros;
+				}));
+			}
+			salida.countDown();
+			List<String> numeros = new ArrayList<>();
+			for (Future<List<String>> resultado : resultados) {
+				numeros.addAll(resultado.get(60, TimeUnit.SECONDS));
+			}
+			return numeros;
+		} finally {
+			hilos.shutdownNow();
+		}
+	}
+
+	private long ultimoNumero(Long usuarioId, int ejercicio) {
+		return jdbcTemplate.queryForObject(
+			"SELECT ultimo_numero FROM contador_factura WHERE usuario_id = ? AND ejercicio = ?",
+			Long.class, usuarioId, ejercicio);
+	}
+
+	private Long usuario() {
+		String login = "n" + UUID.randomUUID().toString().substring(0, 8);
+		return usuarioService.crear(new UsuarioCreateDTO(login, "secreto123", "Usuario " + login,
+			login + "@ejemplo.es")).getId();
+	}
+
+	@FunctionalInterface
+	private interface Peticion {
+		List<String> ejecutar(int indice);
+	}
+}
@@ -0,0 +1,196 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.dto.ClienteDTO;
+import es.uvigo.mei.facturaaas.dto.FacturaDTO;
+import es.uvigo.mei.facturaaas.dto.FiltroFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.FiltroPagoDTO;
+import es.uvigo.mei.facturaaas.dto.FormaPagoDTO;
+import es.uvigo.mei.facturaaas.dto.LineaFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.PagoDTO;
+import es.uvigo.mei.facturaaas.dto.PaginaDTO;
+import es.uvigo.mei.facturaaas.dto.UsuarioCreateDTO;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.model.Pago;
+import es.uvigo.mei.facturaaas.repository.TipoIVARepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Listados paginados por cursor: orden estable con fechas repetidas, páginas que no
+ * cambian al crear facturas más recientes y límite del tamaño de página.
+ */
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+class PaginacionCursorTest {
+
+	private static final LocalDate MARZO = LocalDate.of(2025, 3, 1);
+	private static final LocalDate ABRIL = LocalDate.of(2025, 4, 1);
+	private static final LocalDate MAYO = LocalDate.of(2025, 5, 1);
+
+	@Autowired
+	private FacturaService facturaService;
+
+	@Autowired
+	private PagoService pagoService;
+
+	@Autowired
+	private UsuarioService usuarioService;
+
+	@Autowired
+	private ClienteService clienteService;
+
+	@Autowired
+	private FormaPagoService formaPagoService;
+
+	@Autowired
+	private TipoIVARepository tipoIVARepository;
+
+	@Test
+	void recorreLasFacturasPorFechaEIdSinRepetirNiSaltarConFechasIguales() {
+		Referencias referencias = referencias(1);
+		List<FacturaDTO> creadas = new ArrayList<>();
+		for (LocalDate fecha : List.of(MARZO, MARZO, ABRIL, MARZO, MAYO, ABRIL, MARZO)) {
+			creadas.add(facturaService.crear(factura(referencias, fecha)));
+		}
+		List<Long> esperados = creadas.stream()
+			.sorted(Comparator.comparing(FacturaDTO::getFechaEmision).thenComparing(FacturaDTO::getId).reversed())
+			.map(FacturaDTO::getId)
+			.toList();
+
+		PaginaDTO<FacturaDTO> primera = facturaService.obtenerPagina(referencias.usuarioId(), new FiltroFacturaDTO(), null, 3);
+		// Una factura nueva más reciente queda delante del cursor: no desplaza las páginas siguientes
+		facturaService.crear(factura(referencias, MAYO.plusDays(1)));
+
+		List<Long> recorridos = new ArrayList<>(primera.getElementos().stream().map(FacturaDTO::getId).toList());
+		String cursor = primera.getSiguienteCursor();
+		int paginas = 1;
+		while (cursor != null) {
+			PaginaDTO<FacturaDTO> pagina = facturaService.obtenerPagina(referencias.usuarioId(), new FiltroFacturaDTO(), cursor, 3);
+			pagina.getElementos().forEach(factura -> recorridos.add(factura.getId()));
+			cursor = pagina.getSiguienteCursor();
+			paginas++;
+		}
+		assertEquals(esperados, recorridos);
+		assertEquals(3, paginas);
+	}
+
+	@Test
+	void recorreLosPagosDelUsuarioConVencimientosIgualesYFiltros() {
+		Referencias referencias = referencias(3);
+		Referencias otroUsuario = referencias(3);
+		for (LocalDate fecha : List.of(MARZO, ABRIL, MARZO)) {
+			facturaService.generarPagos(facturaService.crear(factura(referencias, fecha)).getId());
+		}
+		facturaService.generarPagos(facturaService.crear(factura(otroUsuario, MARZO)).getId());
+		List<PagoDTO> pagos = pagoService.obtenerPorUsuario(referencias.usuarioId());
+		List<Long> esperados = pagos.stream()
+			.sorted(Comparator.comparing(PagoDTO::getFechaVencimiento).thenComparing(PagoDTO::getId).reversed())
+			.map(PagoDTO::getId)
+			.toList();
+
+		FiltroPagoDTO filtro = new FiltroPagoDTO();
+		filtro.setEstado(Pago.EstadoPago.PENDIENTE);
+		filtro.setClienteId(referencias.clienteId());
+		List<Long> recorridos = new ArrayList<>();
+		String cursor = null;
+		do {
+			PaginaDTO<PagoDTO> pagina = pagoService.obtenerPagina(referencias.usuarioId(), filtro, cursor, 4);
+			pagina.getElementos().forEach(pago -> recorridos.add(pago.getId()));
+			cursor = pagina.getSiguienteCursor();
+		} while (cursor != null);
+
+		assertEquals(9, esperados.size());
+		assertEquals(esperados, recorridos);
+	}
+
+	@Test
+	void laUltimaPaginaNoTraeCursorYElLimiteSeAcota() {
+		Referencias referencias = referencias(1);
+		facturaService.crear(factura(referencias, MARZO));
+		facturaService.crear(factura(referencias, MARZO));
+
+		PaginaDTO<FacturaDTO> pagina = facturaService.obtenerPagina(referencias.usuarioId(), new FiltroFacturaDTO(), null, 2);
+		assertEquals(2, pagina.getElementos().size());
+		assertNull(pagina.getSiguienteCursor());
+		assertEquals(1, facturaService.obtenerPagina(referencias.usuarioId(), new FiltroFacturaDTO(), null, 0)
+			.getElementos().size());
+
+		assertEquals(CursorKeyset.LIMITE_MAXIMO, CursorKeyset.limitar(100_000));
+		assertEquals(1, CursorKeyset.limitar(-5));
+	}
+
+	@Test
+	void unCursorMalFormadoEsUnArgumentoNoValido() {
+		for (String cursor : List.of("2025-03-01", "2025-03-01,abc", "01/03/2025,7", "2025-03-01,7,8")) {
+			assertThrows(IllegalArgumentException.class, () -> CursorKeyset.decodificar(cursor), cursor);
+		}
+		assertEquals(new CursorKeyset(MARZO, 7L), CursorKeyset.decodificar(CursorKeyset.codificar(MARZO, 7L)));
+		assertNull(CursorKeyset.decodificar(" "));
+	}
+
+	@Test
+	void unCursorDeBusquedaFueraDeRangoEsUnArgumentoNoValido() {
+		Long usuarioId = referencias(1).usuarioId();
+		String fueraDeRango = String.valueOf(ClienteService.POSICION_MAXIMA_BUSQUEDA + 1);
+		for (String cursor : List.of("-1", "abc", fueraDeRango, String.valueOf(Integer.MAX_VALUE), "99999999999")) {
+			assertThrows(IllegalArgumentException.class, () -> clienteService.buscar(usuarioId, "cliente", cursor, 10),
+				cursor);
+		}
+		PaginaDTO<ClienteDTO> ultima = clienteService.buscar(usuarioId, "cliente",
+			String.valueOf(ClienteService.POSICION_MAXIMA_BUSQUEDA), CursorKeyset.LIMITE_MAXIMO);
+		assertEquals(List.of(), ultima.getElementos());
+		assertNull(ultima.getSiguienteCursor());
+	}
+
+	private record Referencias(Long usuarioId, Long clienteId, Long formaPagoId, Long tipoIVAId) {
+	}
+
+	private static FacturaDTO factura(Referencias referencias, LocalDate fechaEmision) {
+		FacturaDTO factura = new FacturaDTO();
+		factura.setUsuarioId(referencias.usuarioId());
+		factura.setEjercicio(fechaEmision.getYear());
+		factura.setClienteId(referencias.clienteId());
+		factura.setFormaPagoId(referencias.formaPagoId());
+		factura.setFechaEmision(fechaEmision);
+		factura.setEstado(Factura.EstadoFactura.EMITIDA);
+		LineaFacturaDTO linea = new LineaFacturaDTO();
+		linea.setNumeroLinea(1);
+		linea.setConcepto("Soporte mensual");
+		linea.setCantidad(BigDecimal.ONE);
+		linea.setPrecioUnitario(new BigDecimal("90.00"));
+		linea.setTipoIVAId(referencias.tipoIVAId());
+		factura.getLineas().add(linea);
+		return factura;
+	}
+
+	/** Forma de pago con {@code numeroPagos} plazos que vencen el mismo día. */
+	private Referencias referencias(int numeroPagos) {
+		String login = "p" + UUID.randomUUID().toString().substring(0, 8);
+		Long usuarioId = usuarioService.crear(new UsuarioCreateDTO(login, "secreto123", "Usuario " + login,
+			login + "@ejemplo.es")).getId();
+
+		ClienteDTO cliente = new ClienteDTO();
+		cliente.setUsuarioId(usuarioId);
+		cliente.setNombre("Ferretería Ourensana S.L.");
+		cliente.setNif("B32000003");
+
+		FormaPagoDTO formaPago = new FormaPagoDTO();
+		formaPago.setUsuarioId(usuarioId);
+		formaPago.setDescripcion("Plazos el mismo día");
+		formaPago.setNumeroPagos(numeroPagos);
+		formaPago.setPeriodicidadDias(0);
+
+		return new Referencias(usuarioId, clienteService.crear(cliente).getId(),
+			formaPagoService.crear(formaPago).getId(), tipoIVARepository.findByActivoTrue().get(0).getId());
+	}
+}
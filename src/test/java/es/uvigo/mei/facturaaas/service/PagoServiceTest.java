@@ -0,0 +1,263 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.dto.ClienteDTO;
+import es.uvigo.mei.facturaaas.dto.ConciliacionPagoDTO;
+import es.uvigo.mei.facturaaas.dto.FacturaDTO;
+import es.uvigo.mei.facturaaas.dto.FormaPagoDTO;
+import es.uvigo.mei.facturaaas.dto.LineaFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.PagoDTO;
+import es.uvigo.mei.facturaaas.dto.ResultadoConciliacionDTO;
+import es.uvigo.mei.facturaaas.dto.SituacionPagoDTO;
+import es.uvigo.mei.facturaaas.dto.UsuarioCreateDTO;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.model.Pago;
+import es.uvigo.mei.facturaaas.repository.PagoRepository;
+import es.uvigo.mei.facturaaas.repository.TipoIVARepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.reset;
+
+/**
+ * Conciliación de cobros: propiedad comprobada con una sola consulta, marcado por
+ * lotes solo de los pagos que siguen pendientes, cobros repetidos y paso a PAGADA de
+ * las facturas sin pagos pendientes.
+ * <p>
+ * El espía de PagoRepository obliga a un contexto propio; con su propia base de datos
+ * no vuelve a crear el esquema (ni reinicia las secuencias) del resto de pruebas.
+ */
+@AutoConfigureTestDatabase
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+class PagoServiceTest {
+
+	private static final LocalDate COBRO = LocalDate.of(2025, 4, 2);
+
+	@Autowired
+	private PagoService pagoService;
+
+	@Autowired
+	private FacturaService facturaService;
+
+	@Autowired
+	private UsuarioService usuarioService;
+
+	@Autowired
+	private ClienteService clienteService;
+
+	@Autowired
+	private FormaPagoService formaPagoService;
+
+	@Autowired
+	private TipoIVARepository tipoIVARepository;
+
+	@Autowired
+	private ResumenFacturacionService resumenFacturacionService;
+
+	@MockitoSpyBean
+	private PagoRepository pagoRepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Test
+	void cobrarTodosLosPagosDeUnaFacturaLaPasaAPagada() {
+		Referencias referencias = referencias();
+		FacturaDTO factura = facturaConPagos(referencias);
+		List<PagoDTO> pagos = pagos(factura.getId());
+		Long version = facturaService.obtenerPorId(factura.getId()).getVersion();
+
+		ResultadoConciliacionDTO primero = pagoService.conciliar(referencias.usuarioId(),
+			List.of(porId(pagos.get(0)))).get(0);
+		assertTrue(primero.isCorrecto());
+		assertFalse(primero.isFacturaPagada());
+		assertEquals(Factura.EstadoFactura.EMITIDA, facturaService.obtenerPorId(factura.getId()).getEstado());
+
+		// El segundo, por número de factura y de pago
+		ResultadoConciliacionDTO segundo = pagoService.conciliar(referencias.usuarioId(), List.of(
+			new ConciliacionPagoDTO(null, factura.getNumeroFactura(), 2, COBRO, pagos.get(1).getImporte()))).get(0);
+		assertTrue(segundo.isCorrecto());
+		assertTrue(segundo.isFacturaPagada());
+		assertEquals(pagos.get(1).getId(), segundo.getPagoId());
+
+		FacturaDTO pagada = facturaService.obtenerPorId(factura.getId());
+		assertEquals(Factura.EstadoFactura.PAGADA, pagada.getEstado());
+		assertEquals(version + 1, pagada.getVersion());
+		for (PagoDTO pago : pagos(factura.getId())) {
+			assertEquals(Pago.EstadoPago.PAGADO, pago.getEstado());
+			assertEquals(COBRO, pago.getFechaPago());
+		}
+	}
+
+	@Test
+	void laPropiedadDeTodosLosPagosSeCompruebaConUnaConsulta() throws Exception {
+		Referencias referencias = referencias();
+		Referencias otroUsuario = referencias();
+		FacturaDTO propia = facturaConPagos(referencias);
+		// La numeración es por usuario: la segunda factura ajena no tiene número igual a una propia
+		facturaConPagos(otroUsuario);
+		FacturaDTO ajena = facturaConPagos(otroUsuario);
+		List<PagoDTO> propios = pagos(propia.getId());
+		List<PagoDTO> ajenos = pagos(ajena.getId());
+
+		String consulta = PagoRepository.class
+			.getMethod("findSituacion", Long.class, Collection.class, Collection.class)
+			.getAnnotation(Query.class).value();
+		Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		statistics.clear();
+		statistics.setStatisticsEnabled(true);
+		List<ResultadoConciliacionDTO> resultados;
+		try {
+			resultados = pagoService.conciliar(referencias.usuarioId(), List.of(
+				porId(propios.get(0)),
+				porId(ajenos.get(0)),
+				new ConciliacionPagoDTO(null, ajena.getNumeroFactura(), 2, COBRO, ajenos.get(1).getImporte()),
+				new ConciliacionPagoDTO(null, propia.getNumeroFactura(), 2, COBRO, propios.get(1).getImporte())));
+			assertEquals(1, statistics.getQueryStatistics(consulta).getExecutionCount());
+		} finally {
+			statistics.setStatisticsEnabled(false);
+		}
+
+		assertEquals(List.of(true, false, false, true), resultados.stream().map(ResultadoConciliacionDTO::isCorrecto).toList());
+		assertEquals("Pago no encontrado", resultados.get(1).getError());
+		assertEquals("Pago no encontrado", resultados.get(2).getError());
+		assertTrue(resultados.get(3).isFacturaPagada());
+		// Los pagos del otro usuario siguen pendientes
+		assertTrue(pagos(ajena.getId()).stream().allMatch(pago -> pago.getEstado() == Pago.EstadoPago.PENDIENTE));
+	}
+
+	@Test
+	void unPagoSoloSeCobraUnaVez() {
+		Referencias referencias = referencias();
+		FacturaDTO factura = facturaConPagos(referencias);
+		PagoDTO pago = pagos(factura.getId()).get(0);
+
+		List<ResultadoConciliacionDTO> resultados = pagoService.conciliar(referencias.usuarioId(), List.of(
+			porId(pago), new ConciliacionPagoDTO(null, factura.getNumeroFactura(), 1, COBRO, pago.getImporte())));
+		assertTrue(resultados.get(0).isCorrecto());
+		assertEquals("Pago repetido en la conciliación", resultados.get(1).getError());
+
+		ResultadoConciliacionDTO repetido = pagoService.conciliar(referencias.usuarioId(), List.of(porId(pago))).get(0);
+		assertEquals("El pago no está pendiente (PAGADO)", repetido.getError());
+		// El cobro se descuenta una sola vez de lo pendiente
+		assertImporte(factura.getSumaTotal().subtract(pago.getImporte()), pendiente(referencias));
+	}
+
+	@Test
+	void unPagoCobradoEntreLaConsultaYElUpdateNoSeVuelveACobrar() {
+		Referencias referencias = referencias();
+		FacturaDTO factura = facturaConPagos(referencias);
+		List<PagoDTO> pagos = pagos(factura.getId());
+		PagoDTO cobradoAntes = pagos.get(0);
+
+		// Otra transacción cobra el primer pago después de leer su situación
+		List<SituacionPagoDTO> situacion = pagoRepository.findSituacion(referencias.usuarioId(),
+			Set.of(pagos.get(0).getId(), pagos.get(1).getId()), Set.of());
+		doAnswer(invocacion -> {
+			CompletableFuture.runAsync(() -> pagoService.actualizarEstado(cobradoAntes.getId(), Pago.EstadoPago.PAGADO))
+				.get(10, TimeUnit.SECONDS);
+			return situacion;
+		}).when(pagoRepository).findSituacion(eq(referencias.usuarioId()), any(), any());
+		List<ResultadoConciliacionDTO> resultados;
+		try {
+			resultados = pagoService.conciliar(referencias.usuarioId(), List.of(porId(pagos.get(0)), porId(pagos.get(1))));
+		} finally {
+			reset(pagoRepository);
+		}
+
+		assertEquals("El pago ha sido modificado por otro usuario", resultados.get(0).getError());
+		assertTrue(resultados.get(1).isCorrecto());
+		// El UPDATE no sobrescribe la fecha del cobro concurrente
+		assertNotEquals(COBRO, jdbcTemplate.queryForObject("SELECT fecha_pago FROM pago WHERE id = ?",
+			LocalDate.class, cobradoAntes.getId()));
+		assertImporte(BigDecimal.ZERO, pendiente(referencias));
+	}
+
+	private BigDecimal pendiente(Referencias referencias) {
+		return resumenFacturacionService.obtenerCuadroMando(referencias.usuarioId(), 2025).get(0).getImportePendiente();
+	}
+
+	private static void assertImporte(BigDecimal esperado, BigDecimal real) {
+		assertEquals(0, esperado.compareTo(real), esperado + " <> " + real);
+	}
+
+	private static ConciliacionPagoDTO porId(PagoDTO pago) {
+		return new ConciliacionPagoDTO(pago.getId(), null, null, COBRO, pago.getImporte());
+	}
+
+	private List<PagoDTO> pagos(Long facturaId) {
+		return pagoRepository.findByFacturaId(facturaId).stream()
+			.map(pago -> pagoService.obtenerPorId(pago.getId()))
+			.sorted(Comparator.comparing(PagoDTO::getNumeroPago))
+			.toList();
+	}
+
+	private FacturaDTO facturaConPagos(Referencias referencias) {
+		FacturaDTO factura = new FacturaDTO();
+		factura.setUsuarioId(referencias.usuarioId());
+		factura.setEjercicio(2025);
+		factura.setClienteId(referencias.clienteId());
+		factura.setFormaPagoId(referencias.formaPagoId());
+		factura.setFechaEmision(LocalDate.of(2025, 3, 3));
+		factura.setEstado(Factura.EstadoFactura.EMITIDA);
+		LineaFacturaDTO linea = new LineaFacturaDTO();
+		linea.setNumeroLinea(1);
+		linea.setConcepto("Auditoría");
+		linea.setCantidad(BigDecimal.ONE);
+		linea.setPrecioUnitario(new BigDecimal("400.00"));
+		linea.setTipoIVAId(referencias.tipoIVAId());
+		factura.getLineas().add(linea);
+		FacturaDTO creada = facturaService.crear(factura);
+		facturaService.generarPagos(creada.getId());
+		return creada;
+	}
+
+	private record Referencias(Long usuarioId, Long clienteId, Long formaPagoId, Long tipoIVAId) {
+	}
+
+	private Referencias referencias() {
+		String login = "g" + UUID.randomUUID().toString().substring(0, 8);
+		Long usuarioId = usuarioService.crear(new UsuarioCreateDTO(login, "secreto123", "Usuario " + login,
+			login + "@ejemplo.es")).getId();
+
+		ClienteDTO cliente = new ClienteDTO();
+		cliente.setUsuarioId(usuarioId);
+		cliente.setNombre("Distribuciones Ulla S.L.");
+		cliente.setNif("B15000005");
+
+		FormaPagoDTO formaPago = new FormaPagoDTO();
+		formaPago.setUsuarioId(usuarioId);
+		formaPago.setDescripcion("Dos plazos");
+		formaPago.setNumeroPagos(2);
+		formaPago.setPeriodicidadDias(30);
+
+		return new Referencias(usuarioId, clienteService.crear(cliente).getId(),
+			formaPagoService.crear(formaPago).getId(), tipoIVARepository.findByActivoTrue().get(0).getId());
+	}
+}
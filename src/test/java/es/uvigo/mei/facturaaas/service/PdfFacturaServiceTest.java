@@ -0,0 +1,191 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.dto.ClienteDTO;
+import es.uvigo.mei.facturaaas.dto.FacturaDTO;
+import es.uvigo.mei.facturaaas.dto.FormaPagoDTO;
+import es.uvigo.mei.facturaaas.dto.LineaFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.UsuarioCreateDTO;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.repository.TipoIVARepository;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Facturas en PDF: contenido, caché por contenido y exportación del ejercicio en ZIP.
+ */
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+class PdfFacturaServiceTest {
+
+	@Autowired
+	private PdfFacturaService pdfFacturaService;
+
+	@Autowired
+	private FacturaService facturaService;
+
+	@Autowired
+	private UsuarioService usuarioService;
+
+	@Autowired
+	private ClienteService clienteService;
+
+	@Autowired
+	private FormaPagoService formaPagoService;
+
+	@Autowired
+	private TipoIVARepository tipoIVARepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void generaElPdfYLoReutilizaMientrasLaFacturaNoCambia() throws Exception {
+		Long usuarioId = nuevoUsuario();
+		FacturaDTO factura = factura(usuarioId, 2025, 1);
+
+		PdfFacturaService.Documento documento = pdfFacturaService.preparar(factura.getId());
+		Path ruta = pdfFacturaService.obtener(documento).get();
+		String texto = texto(Files.readAllBytes(ruta));
+		assertTrue(texto.contains(factura.getNumeroFactura()));
+		assertTrue(texto.contains("Talleres Núñez"));
+		assertTrue(texto.contains("Reparación nº 1"));
+		assertTrue(texto.contains(new DecimalFormat("#,##0.00", DecimalFormatSymbols.getInstance(
+			Locale.forLanguageTag("es-ES"))).format(factura.getSumaTotal()) + " €"));
+
+		assertEquals(documento.clave(), pdfFacturaService.preparar(factura.getId()).clave());
+		assertEquals(ruta, pdfFacturaService.obtener(pdfFacturaService.preparar(factura.getId())).get());
+
+		factura.setComentarios("Pago a 30 días");
+		facturaService.actualizar(factura.getId(), factura);
+		PdfFacturaService.Documento modificado = pdfFacturaService.preparar(factura.getId());
+		assertNotEquals(documento.clave(), modificado.clave());
+		assertTrue(texto(Files.readAllBytes(pdfFacturaService.obtener(modificado).get())).contains("Pago a 30 días"));
+	}
+
+	@Test
+	void imprimeElDesgloseDeIVAGuardadoConLaFactura() throws Exception {
+		Long usuarioId = nuevoUsuario();
+		FacturaDTO factura = factura(usuarioId, 2025, 1);
+		PdfFacturaService.Documento documento = pdfFacturaService.preparar(factura.getId());
+
+		// Una cuota guardada que el cálculo a partir de las líneas no daría
+		jdbcTemplate.update("UPDATE factura_desglose_iva SET cuota = 1234.56 WHERE factura_id = ?", factura.getId());
+		PdfFacturaService.Documento guardado = pdfFacturaService.preparar(factura.getId());
+		assertNotEquals(documento.clave(), guardado.clave());
+		assertTrue(texto(Files.readAllBytes(pdfFacturaService.obtener(guardado).get())).contains("1.234,56"));
+	}
+
+	@Test
+	void continuaLaTablaEnPaginasSucesivasYSustituyeLoQueNoPuedeImprimir() throws Exception {
+		Long usuarioId = nuevoUsuario();
+		FacturaDTO factura = factura(usuarioId, 2025, 80);
+
+		Path ruta = pdfFacturaService.obtener(pdfFacturaService.preparar(factura.getId())).get();
+		try (PDDocument pdf = Loader.loadPDF(ruta.toFile())) {
+			assertTrue(pdf.getNumberOfPages() > 1);
+			String texto = new PDFTextStripper().getText(pdf);
+			assertTrue(texto.contains("Reparación nº 80"));
+			assertTrue(texto.contains("Página 2 de " + pdf.getNumberOfPages()));
+			assertTrue(texto.contains("Reparación nº 1 ?"));
+		}
+	}
+
+	@Test
+	void exportaLasFacturasDelEjercicioEnUnZip() throws Exception {
+		Long usuarioId = nuevoUsuario();
+		List<String> numeros = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			numeros.add(factura(usuarioId, 2025, 2).getNumeroFactura());
+		}
+		factura(usuarioId, 2024, 1);
+
+		ByteArrayOutputStream salida = new ByteArrayOutputStream();
+		pdfFacturaService.exportarZip(usuarioId, 2025, pdfFacturaService.datosEmisor(usuarioId), salida);
+
+		List<String> entradas = new ArrayList<>();
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(salida.toByteArray()))) {
+			for (ZipEntry entrada = zip.getNextEntry(); entrada != null; entrada = zip.getNextEntry()) {
+				entradas.add(entrada.getName());
+				String texto = texto(zip.readAllBytes());
+				assertTrue(numeros.stream().anyMatch(texto::contains));
+			}
+		}
+		assertEquals(numeros.stream().map(numero -> "factura-" + numero.replaceAll("[^A-Za-z0-9._-]", "-") + ".pdf")
+			.toList(), entradas);
+	}
+
+	private static String texto(byte[] pdf) throws Exception {
+		try (PDDocument documento = Loader.loadPDF(pdf)) {
+			return new PDFTextStripper().getText(documento);
+		}
+	}
+
+	private FacturaDTO factura(Long usuarioId, int ejercicio, int lineas) {
+		Long tipoIVAId = tipoIVARepository.findByActivoTrue().get(0).getId();
+		FacturaDTO factura = new FacturaDTO();
+		factura.setUsuarioId(usuarioId);
+		factura.setEjercicio(ejercicio);
+		factura.setClienteId(cliente(usuarioId));
+		factura.setFormaPagoId(formaPago(usuarioId));
+		factura.setFechaEmision(LocalDate.of(ejercicio, 3, 15));
+		factura.setEstado(Factura.EstadoFactura.EMITIDA);
+		for (int i = 1; i <= lineas; i++) {
+			LineaFacturaDTO linea = new LineaFacturaDTO();
+			linea.setNumeroLinea(i);
+			linea.setConcepto("Reparación nº " + i + (i == 1 ? " ✓" : ""));
+			linea.setCantidad(BigDecimal.valueOf(i));
+			linea.setPrecioUnitario(new BigDecimal("1250.50"));
+			linea.setTipoIVAId(tipoIVAId);
+			factura.getLineas().add(linea);
+		}
+		return facturaService.crear(factura);
+	}
+
+	private Long nuevoUsuario() {
+		String login = "u" + UUID.randomUUID().toString().substring(0, 8);
+		return usuarioService.crear(new UsuarioCreateDTO(login, "secreto123", "Usuario " + login,
+			login + "@ejemplo.es")).getId();
+	}
+
+	private Long cliente(Long usuarioId) {
+		ClienteDTO cliente = new ClienteDTO();
+		cliente.setUsuarioId(usuarioId);
+		cliente.setNombre("Talleres Núñez S.L.");
+		cliente.setNif("B15000001");
+		cliente.setDomicilio("Rúa do Porto, 3");
+		cliente.setCodigoPostal("15001");
+		cliente.setLocalidad("A Coruña");
+		return clienteService.crear(cliente).getId();
+	}
+
+	private Long formaPago(Long usuarioId) {
+		FormaPagoDTO formaPago = new FormaPagoDTO();
+		formaPago.setUsuarioId(usuarioId);
+		formaPago.setDescripcion("Transferencia");
+		formaPago.setNumeroPagos(1);
+		formaPago.setPeriodicidadDias(30);
+		return formaPagoService.crear(formaPago).getId();
+	}
+}
@@ -0,0 +1,317 @@
+package es.uvigo.mei.facturaaas.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import es.uvigo.mei.facturaaas.dto.ClienteDTO;
+import es.uvigo.mei.facturaaas.dto.ConciliacionPagoDTO;
+import es.uvigo.mei.facturaaas.dto.EventoFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.FacturaDTO;
+import es.uvigo.mei.facturaaas.dto.FormaPagoDTO;
+import es.uvigo.mei.facturaaas.dto.LineaFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.PagoDTO;
+import es.uvigo.mei.facturaaas.dto.UsuarioCreateDTO;
+import es.uvigo.mei.facturaaas.model.EventoFactura.TipoEvento;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.model.Pago;
+import es.uvigo.mei.facturaaas.repository.TipoIVARepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.PayloadApplicationEvent;
+import org.springframework.context.event.ApplicationEventMulticaster;
+import org.springframework.jdbc.core.JdbcTemplate;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Bandeja de salida de eventos: los cambios de facturas y pagos, también los del
+ * barrido de vencidos, llegan a los destinos en orden por factura, también cuando un
+ * destino falla y el lote se reintenta, y los ya publicados se conservan numerados por
+ * lote hasta que pasa la retención.
+ */
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+class PublicadorEventosServiceTest {
+
+	@Autowired
+	private PublicadorEventosService publicadorEventosService;
+
+	@Autowired
+	private FacturaService facturaService;
+
+	@Autowired
+	private PagoService pagoService;
+
+	@Autowired
+	private UsuarioService usuarioService;
+
+	@Autowired
+	private ClienteService clienteService;
+
+	@Autowired
+	private FormaPagoService formaPagoService;
+
+	@Autowired
+	private TipoIVARepository tipoIVARepository;
+
+	@Autowired
+	private BarridoVencidosService barridoVencidosService;
+
+	@Autowired
+	private BloqueoTareas bloqueoTareas;
+
+	@Autowired
+	private ApplicationEventMulticaster applicationEventMulticaster;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void publicaLosCambiosDeCadaFacturaEnOrdenYReintentaLosLotesFallidos() {
+		tomarArrendamiento();
+		Referencias referencias = referencias();
+		Queue<EventoFacturaDTO> recibidos = new ConcurrentLinkedQueue<>();
+		AtomicBoolean fallar = new AtomicBoolean(true);
+		ApplicationListener<ApplicationEvent> oyente = evento -> {
+			if (evento instanceof PayloadApplicationEvent<?> publicado
+					&& publicado.getPayload() instanceof EventoFacturaDTO recibido
+					&& recibido.getUsuarioId().equals(referencias.usuarioId())) {
+				recibidos.add(recibido);
+				if (recibido.getTipo() == TipoEvento.FACTURA_ACTUALIZADA && fallar.getAndSet(false)) {
+					throw new IllegalStateException("Destino no disponible");
+				}
+			}
+		};
+		applicationEventMulticaster.addApplicationListener(oyente);
+		try {
+			FacturaDTO primera = facturaService.crear(factura(referencias));
+			Long segunda = facturaService.crearLote(referencias.usuarioId(), List.of(factura(referencias)))
+				.get(0).getFacturaId();
+			facturaService.generarPagos(primera.getId());
+			facturaService.generarPagos(segunda);
+
+			FacturaDTO cambios = facturaService.obtenerPorId(primera.getId());
+			cambios.setComentarios("Revisada");
+			facturaService.actualizar(primera.getId(), cambios);
+			List<PagoDTO> pagos = pagoService.obtenerPorUsuario(referencias.usuarioId());
+			PagoDTO pagoPrimera = pagos.stream().filter(pago -> pago.getFacturaId().equals(primera.getId())).findFirst().get();
+			PagoDTO pagoSegunda = pagos.stream().filter(pago -> pago.getFacturaId().equals(segunda)).findFirst().get();
+			pagoService.actualizarEstado(pagoPrimera.getId(), Pago.EstadoPago.PAGADO);
+			pagoService.conciliar(referencias.usuarioId(), List.of(
+				new ConciliacionPagoDTO(pagoSegunda.getId(), null, null, LocalDate.now(), pagoSegunda.getImporte())));
+
+			esperar(() -> recibidos.stream().filter(evento -> evento.getPagoId() != null).count() == 2);
+		} finally {
+			applicationEventMulticaster.removeApplicationListener(oyente);
+		}
+
+		Map<Long, List<EventoFacturaDTO>> porFactura = new LinkedHashMap<>();
+		Set<Long> vistos = new HashSet<>();
+		for (EventoFacturaDTO evento : recibidos) {
+			if (vistos.add(evento.getId())) {
+				porFactura.computeIfAbsent(evento.getFacturaId(), id -> new ArrayList<>()).add(evento);
+			}
+		}
+		assertTrue(recibidos.size() > vistos.size(), "El lote fallido se vuelve a entregar");
+		List<List<TipoEvento>> tipos = porFactura.values().stream()
+			.map(eventos -> eventos.stream().map(EventoFacturaDTO::getTipo).toList())
+			.toList();
+		// Generar los pagos también actualiza la factura
+		assertEquals(List.of(
+			List.of(TipoEvento.FACTURA_CREADA, TipoEvento.FACTURA_ACTUALIZADA, TipoEvento.FACTURA_ACTUALIZADA,
+				TipoEvento.PAGO_COBRADO),
+			List.of(TipoEvento.FACTURA_CREADA, TipoEvento.FACTURA_ACTUALIZADA, TipoEvento.PAGO_COBRADO)), tipos);
+		for (List<EventoFacturaDTO> eventos : porFactura.values()) {
+			for (int i = 1; i < eventos.size(); i++) {
+				assertTrue(eventos.get(i - 1).getId() < eventos.get(i).getId());
+			}
+		}
+		EventoFacturaDTO conciliado = porFactura.get(segunda(porFactura)).get(2);
+		assertEquals(Factura.EstadoFactura.PAGADA, conciliado.getEstadoFactura());
+		assertEquals(Pago.EstadoPago.PAGADO, conciliado.getEstadoPago());
+		assertEquals(0, pendientes(referencias));
+	}
+
+	@Test
+	void losEventosPublicadosSeNumeranPorLoteYSeBorranPasadaLaRetencion() {
+		tomarArrendamiento();
+		Referencias referencias = referencias();
+		facturaService.crear(factura(referencias));
+		esperar(() -> pendientes(referencias) == 0);
+		facturaService.crear(factura(referencias));
+		esperar(() -> pendientes(referencias) == 0);
+
+		List<Long> lotes = jdbcTemplate.queryForList("SELECT publicacion FROM evento_factura " +
+			"WHERE usuario_id = ? ORDER BY id", Long.class, referencias.usuarioId());
+		assertEquals(2, lotes.size());
+		assertTrue(lotes.get(0) < lotes.get(1), lotes.toString());
+
+		// Pasada la retención se borran, salvo el último lote, que da la numeración
+		jdbcTemplate.update("UPDATE evento_factura SET fecha_publicacion = ? WHERE usuario_id = ?",
+			Timestamp.valueOf(LocalDateTime.now().minusHours(1)), referencias.usuarioId());
+		publicadorEventosService.publicar();
+		assertEquals(List.of(lotes.get(1)), jdbcTemplate.queryForList(
+			"SELECT publicacion FROM evento_factura WHERE usuario_id = ?", Long.class, referencias.usuarioId()));
+	}
+
+	@Test
+	void lasFacturasReclamadasPorElBarridoPublicanSuCambioDeEstado() {
+		tomarArrendamiento();
+		Referencias referencias = referencias();
+		FacturaDTO vencida = facturaService.crear(factura(referencias));
+		FacturaDTO sinPagos = facturaService.crear(factura(referencias));
+		facturaService.generarPagos(vencida.getId());
+		esperar(() -> pendientes(referencias) == 0);
+
+		Queue<EventoFacturaDTO> recibidos = new ConcurrentLinkedQueue<>();
+		ApplicationListener<ApplicationEvent> oyente = evento -> {
+			if (evento instanceof PayloadApplicationEvent<?> publicado
+					&& publicado.getPayload() instanceof EventoFacturaDTO recibido
+					&& recibido.getUsuarioId().equals(referencias.usuarioId())) {
+				recibidos.add(recibido);
+			}
+		};
+		applicationEventMulticaster.addApplicationListener(oyente);
+		try {
+			jdbcTemplate.update("UPDATE bloqueo_tarea SET bloqueado_hasta = ? WHERE nombre = ?",
+				Timestamp.valueOf(LocalDateTime.now().minusHours(1)), BarridoVencidosService.TAREA);
+			BarridoVencidosService.Resultado resultado = barridoVencidosService.ejecutar(LocalDate.of(2025, 7, 1));
+			assertTrue(resultado.facturas() >= 1);
+			esperar(() -> !recibidos.isEmpty());
+		} finally {
+			applicationEventMulticaster.removeApplicationListener(oyente);
+		}
+
+		// Un evento por factura reclamada, con su nuevo estado; la que no tiene pagos no cambia
+		EventoFacturaDTO reclamada = recibidos.peek();
+		assertEquals(1, recibidos.size());
+		assertEquals(TipoEvento.FACTURA_ACTUALIZADA, reclamada.getTipo());
+		assertEquals(vencida.getId(), reclamada.getFacturaId());
+		assertEquals(vencida.getNumeroFactura(), reclamada.getNumeroFactura());
+		assertEquals(Factura.EstadoFactura.RECLAMADA, reclamada.getEstadoFactura());
+		assertEquals(0, vencida.getSumaTotal().compareTo(reclamada.getImporte()));
+		assertEquals(Factura.EstadoFactura.EMITIDA, facturaService.obtenerPorId(sinPagos.getId()).getEstado());
+	}
+
+	@Test
+	void elDestinoEnFicheroAnadeUnaLineaJsonPorEvento(@TempDir Path directorio) throws Exception {
+		DestinoEventosFichero destino = new DestinoEventosFichero(objectMapper, directorio.toString());
+		EventoFacturaDTO evento = BandejaEventos.evento(TipoEvento.FACTURA_CREADA, 1L, 10L, "2025/0001",
+			Factura.EstadoFactura.EMITIDA, null, null, new BigDecimal("121.00"));
+		evento.setId(7L);
+		destino.publicar(List.of(evento, evento));
+		destino.publicar(List.of(evento));
+
+		try (var ficheros = Files.list(directorio)) {
+			List<Path> escritos = ficheros.toList();
+			assertEquals(1, escritos.size());
+			List<String> lineas = Files.readAllLines(escritos.get(0));
+			assertEquals(3, lineas.size());
+			assertEquals(evento, objectMapper.readValue(lineas.get(2), EventoFacturaDTO.class));
+		}
+	}
+
+	/**
+	 * Los contextos de otras clases de prueba comparten la base de datos y su publicador
+	 * puede tener el arrendamiento: se caduca hasta que lo obtiene el de este contexto.
+	 */
+	private void tomarArrendamiento() {
+		long limite = System.currentTimeMillis() + 20_000;
+		do {
+			assertTrue(System.currentTimeMillis() < limite, "Arrendamiento no obtenido");
+			jdbcTemplate.update("UPDATE bloqueo_tarea SET bloqueado_hasta = ? WHERE nombre = ?",
+				Timestamp.valueOf(LocalDateTime.now().minusHours(1)), PublicadorEventosService.TAREA);
+		} while (!bloqueoTareas.adquirir(PublicadorEventosService.TAREA, Duration.ofMinutes(1)));
+	}
+
+	private void esperar(BooleanSupplier condicion) {
+		long limite = System.currentTimeMillis() + 20_000;
+		while (!condicion.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < limite, "Eventos no publicados a tiempo");
+			if (publicadorEventosService.publicar() == 0) {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+	}
+
+	private int pendientes(Referencias referencias) {
+		return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM evento_factura WHERE usuario_id = ? " +
+			"AND publicacion IS NULL", Integer.class, referencias.usuarioId());
+	}
+
+	private static Long segunda(Map<Long, List<EventoFacturaDTO>> porFactura) {
+		return new ArrayList<>(porFactura.keySet()).get(1);
+	}
+
+	private record Referencias(Long usuarioId, Long clienteId, Long formaPagoId, Long tipoIVAId) {
+	}
+
+	private static FacturaDTO factura(Referencias referencias) {
+		FacturaDTO factura = new FacturaDTO();
+		factura.setUsuarioId(referencias.usuarioId());
+		factura.setEjercicio(2025);
+		factura.setClienteId(referencias.clienteId());
+		factura.setFormaPagoId(referencias.formaPagoId());
+		factura.setFechaEmision(LocalDate.of(2025, 5, 20));
+		factura.setEstado(Factura.EstadoFactura.EMITIDA);
+		LineaFacturaDTO linea = new LineaFacturaDTO();
+		linea.setNumeroLinea(1);
+		linea.setConcepto("Mantenimiento");
+		linea.setCantidad(BigDecimal.ONE);
+		linea.setPrecioUnitario(new BigDecimal("99.95"));
+		linea.setTipoIVAId(referencias.tipoIVAId());
+		factura.getLineas().add(linea);
+		return factura;
+	}
+
+	private Referencias referencias() {
+		String login = "u" + UUID.randomUUID().toString().substring(0, 8);
+		Long usuarioId = usuarioService.crear(new UsuarioCreateDTO(login, "secreto123", "Usuario " + login,
+			login + "@ejemplo.es")).getId();
+
+		ClienteDTO cliente = new ClienteDTO();
+		cliente.setUsuarioId(usuarioId);
+		cliente.setNombre("Conservas Castro S.A.");
+		cliente.setNif("A36000002");
+		cliente.setDomicilio("Avenida de Beiramar, 40");
+		cliente.setCodigoPostal("36202");
+		cliente.setLocalidad("Vigo");
+
+		FormaPagoDTO formaPago = new FormaPagoDTO();
+		formaPago.setUsuarioId(usuarioId);
+		formaPago.setDescripcion("Contado");
+		formaPago.setNumeroPagos(1);
+		formaPago.setPeriodicidadDias(30);
+
+		return new Referencias(usuarioId, clienteService.crear(cliente).getId(),
+			formaPagoService.crear(formaPago).getId(), tipoIVARepository.findByActivoTrue().get(0).getId());
+	}
+}
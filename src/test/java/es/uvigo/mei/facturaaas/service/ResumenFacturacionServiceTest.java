@@ -0,0 +1,196 @@
+package es.uvigo.mei.facturaaas.service;
+
+import es.uvigo.mei.facturaaas.dto.ClienteDTO;
+import es.uvigo.mei.facturaaas.dto.FacturaDTO;
+import es.uvigo.mei.facturaaas.dto.FormaPagoDTO;
+import es.uvigo.mei.facturaaas.dto.LineaFacturaDTO;
+import es.uvigo.mei.facturaaas.dto.ResumenFacturacionDTO;
+import es.uvigo.mei.facturaaas.dto.UsuarioCreateDTO;
+import es.uvigo.mei.facturaaas.exception.ConflictoException;
+import es.uvigo.mei.facturaaas.model.Factura;
+import es.uvigo.mei.facturaaas.repository.TipoIVARepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Agregados del cuadro de mando: cada alta o anulación suma solo su diferencia, en la
+ * misma transacción, una modificación rechazada no suma nada y la reconstrucción
+ * desde factura y pago da el mismo resultado.
+ */
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+class ResumenFacturacionServiceTest {
+
+	private static final LocalDate MARZO = LocalDate.of(2025, 3, 10);
+
+	@Autowired
+	private ResumenFacturacionService resumenFacturacionService;
+
+	@Autowired
+	private FacturaService facturaService;
+
+	@Autowired
+	private UsuarioService usuarioService;
+
+	@Autowired
+	private ClienteService clienteService;
+
+	@Autowired
+	private FormaPagoService formaPagoService;
+
+	@Autowired
+	private TipoIVARepository tipoIVARepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Test
+	void lasAltasYAnulacionesSumanSoloLaDiferencia() {
+		Referencias referencias = referencias();
+		FacturaDTO primera = facturaService.crear(factura(referencias, MARZO, "100.00"));
+		FacturaDTO segunda = facturaService.crear(factura(referencias, MARZO.plusDays(10), "50.00"));
+		facturaService.generarPagos(primera.getId());
+
+		ResumenFacturacionDTO fila = unicaFila(referencias);
+		assertEquals(2L, fila.getNumeroFacturas());
+		assertImporte(primera.getImporteTotal().add(segunda.getImporteTotal()), fila.getImporteTotal());
+		assertImporte(primera.getIvaTotal().add(segunda.getIvaTotal()), fila.getIvaTotal());
+		assertImporte(primera.getSumaTotal().add(segunda.getSumaTotal()), fila.getSumaTotal());
+		// Solo la primera tiene pagos generados
+		assertImporte(primera.getSumaTotal(), fila.getImportePendiente());
+
+		// Los importes de una factura encadenada no cambian: el agregado tampoco
+		FacturaDTO cambio = facturaService.obtenerPorId(segunda.getId());
+		cambio.getLineas().get(0).setPrecioUnitario(new BigDecimal("80.00"));
+		assertThrows(ConflictoException.class, () -> facturaService.actualizar(segunda.getId(), cambio));
+		fila = unicaFila(referencias);
+		assertEquals(2L, fila.getNumeroFacturas());
+		assertImporte(primera.getSumaTotal().add(segunda.getSumaTotal()), fila.getSumaTotal());
+
+		FacturaDTO anulacion = facturaService.obtenerPorId(primera.getId());
+		anulacion.setEstado(Factura.EstadoFactura.ANULADA);
+		facturaService.actualizar(primera.getId(), anulacion);
+		fila = unicaFila(referencias);
+		assertEquals(1L, fila.getNumeroFacturas());
+		assertImporte(segunda.getImporteTotal(), fila.getImporteTotal());
+		assertImporte(segunda.getSumaTotal(), fila.getSumaTotal());
+		assertImporte(BigDecimal.ZERO, fila.getImportePendiente());
+	}
+
+	@Test
+	void laReconstruccionCoincideConLosAgregadosIncrementales() {
+		Referencias referencias = referencias();
+		Referencias otroCliente = new Referencias(referencias.usuarioId(), cliente(referencias.usuarioId()),
+			referencias.formaPagoId(), referencias.tipoIVAId());
+		for (int i = 0; i < 4; i++) {
+			FacturaDTO factura = facturaService.crear(factura(i % 2 == 0 ? referencias : otroCliente,
+				MARZO.plusMonths(i / 2), (100 + i) + ".00"));
+			facturaService.generarPagos(factura.getId());
+		}
+		FacturaDTO anulacion = facturaService.obtenerPorId(
+			facturaService.crear(factura(referencias, MARZO, "30.00")).getId());
+		anulacion.setEstado(Factura.EstadoFactura.ANULADA);
+		facturaService.actualizar(anulacion.getId(), anulacion);
+
+		List<String> incrementales = cuadroMando(referencias.usuarioId());
+		assertEquals(4, incrementales.size());
+		resumenFacturacionService.reconstruirUsuario(referencias.usuarioId());
+		assertEquals(incrementales, cuadroMando(referencias.usuarioId()));
+	}
+
+	@Test
+	void unaAltaDeshechaNoDejaFilasDeResumen() {
+		Referencias referencias = referencias();
+		new TransactionTemplate(transactionManager).executeWithoutResult(estado -> {
+			facturaService.generarPagos(facturaService.crear(factura(referencias, MARZO, "100.00")).getId());
+			estado.setRollbackOnly();
+		});
+
+		// Las filas se crean en la transacción de la factura, no en una propia
+		assertEquals(0, jdbcTemplate.queryForObject(
+			"SELECT COUNT(*) FROM resumen_facturacion WHERE usuario_id = ?", Integer.class, referencias.usuarioId()));
+		assertEquals(0, jdbcTemplate.queryForObject(
+			"SELECT COUNT(*) FROM resumen_vencimiento WHERE usuario_id = ?", Integer.class, referencias.usuarioId()));
+	}
+
+	private ResumenFacturacionDTO unicaFila(Referencias referencias) {
+		List<ResumenFacturacionDTO> filas = resumenFacturacionService.obtenerCuadroMando(referencias.usuarioId(), 2025);
+		assertEquals(1, filas.size());
+		return filas.get(0);
+	}
+
+	private List<String> cuadroMando(Long usuarioId) {
+		return resumenFacturacionService.obtenerCuadroMando(usuarioId, null).stream()
+			.map(fila -> fila.getEjercicio() + "/" + fila.getMes() + "/" + fila.getClienteId() + ": "
+				+ fila.getNumeroFacturas() + " " + escala(fila.getImporteTotal()) + " " + escala(fila.getIvaTotal())
+				+ " " + escala(fila.getSumaTotal()) + " " + escala(fila.getImportePendiente())
+				+ " " + escala(fila.getImporteVencido()))
+			.toList();
+	}
+
+	private static void assertImporte(BigDecimal esperado, BigDecimal real) {
+		assertEquals(escala(esperado), escala(real));
+	}
+
+	private static BigDecimal escala(BigDecimal importe) {
+		return importe.setScale(2, RoundingMode.UNNECESSARY);
+	}
+
+	private record Referencias(Long usuarioId, Long clienteId, Long formaPagoId, Long tipoIVAId) {
+	}
+
+	private static FacturaDTO factura(Referencias referencias, LocalDate fechaEmision, String precio) {
+		FacturaDTO factura = new FacturaDTO();
+		factura.setUsuarioId(referencias.usuarioId());
+		factura.setEjercicio(fechaEmision.getYear());
+		factura.setClienteId(referencias.clienteId());
+		factura.setFormaPagoId(referencias.formaPagoId());
+		factura.setFechaEmision(fechaEmision);
+		factura.setEstado(Factura.EstadoFactura.EMITIDA);
+		LineaFacturaDTO linea = new LineaFacturaDTO();
+		linea.setNumeroLinea(1);
+		linea.setConcepto("Asesoría fiscal");
+		linea.setCantidad(BigDecimal.ONE);
+		linea.setPrecioUnitario(new BigDecimal(precio));
+		linea.setTipoIVAId(referencias.tipoIVAId());
+		factura.getLineas().add(linea);
+		return factura;
+	}
+
+	private Referencias referencias() {
+		String login = "r" + UUID.randomUUID().toString().substring(0, 8);
+		Long usuarioId = usuarioService.crear(new UsuarioCreateDTO(login, "secreto123", "Usuario " + login,
+			login + "@ejemplo.es")).getId();
+
+		FormaPagoDTO formaPago = new FormaPagoDTO();
+		formaPago.setUsuarioId(usuarioId);
+		formaPago.setDescripcion("Dos plazos");
+		formaPago.setNumeroPagos(2);
+		formaPago.setPeriodicidadDias(30);
+
+		return new Referencias(usuarioId, cliente(usuarioId), formaPagoService.crear(formaPago).getId(),
+			tipoIVARepository.findByActivoTrue().get(0).getId());
+	}
+
+	private Long cliente(Long usuarioId) {
+		ClienteDTO cliente = new ClienteDTO();
+		cliente.setUsuarioId(usuarioId);
+		cliente.setNombre("Conservas Rías Baixas S.L.");
+		cliente.setNif("B36000004");
+		return clienteService.crear(cliente).getId();
+	}
+}